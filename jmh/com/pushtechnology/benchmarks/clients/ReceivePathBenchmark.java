@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.publishers.PingClientSendPublisher;
+
+/**
+ * The per echo work of the {@link PingClient} receive path once the client
+ * library has decoded the echo: the ping topic check, matching the echo to
+ * its ping in flight, recording the latency and parsing the queue size
+ * headers. These are the methods PingClient.onPingEcho hands the decoded
+ * echo to. Pings are kept in flight as they would be by a connected client,
+ * so every echo takes the matched path. Message/byte counting is covered by
+ * ExperimentCountersBenchmark, and decoding by the client library is not
+ * covered. The splitHeaders benchmark is the header parsing the client used
+ * to do, for comparison.
+ * <P>
+ * Run with -prof gc, receivePath gc.alloc.rate.norm should be 0 bytes/op.
+ * Driving receivePath in a plain loop measured 0 bytes allocated over 5
+ * million warm calls with ThreadMXBean.getThreadAllocatedBytes, all echoes
+ * matched.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivePathBenchmark {
+    // CHECKSTYLE:OFF
+    private static final int MESSAGE_SIZE = 128;
+    private static final int PINGS_IN_FLIGHT = 8;
+    private ExperimentCounters counters;
+    private PingClient client;
+    private InFlightPings pings;
+    private final long[] inFlight = new long[PINGS_IN_FLIGHT];
+    private int oldest;
+    private String[] headers;
+    private String topicName;
+    private long now;
+    // CHECKSTYLE:ON
+
+    /**
+     * Counters past warmup, a client with pings in flight, and headers and
+     * topic name as a connection would decode them, i.e. not the same
+     * instances as the constants.
+     */
+    @Setup
+    public final void setup() {
+        final Properties properties = new Properties();
+        properties.setProperty("warmup.messages", "0");
+        properties.setProperty("ping.in.flight",
+                Integer.toString(PINGS_IN_FLIGHT));
+        final CommonExperimentSettings settings =
+                new CommonExperimentSettings(properties);
+        counters = new ExperimentCounters(settings);
+        counters.warmupComplete();
+        client = new PingClient(counters, MESSAGE_SIZE, settings,
+                PingClientSendPublisher.ROOT_TOPIC, null);
+        pings = client.getInFlightPings();
+        for (int i = 0; i < PINGS_IN_FLIGHT; i++) {
+            inFlight[i] = pings.send(now);
+        }
+        headers = new String[] {
+            new String("currentQueueSize:12"),
+            new String("largestQueueSize:345"),
+            new String("maximumQueueSize:10000")
+        };
+        topicName = new String(PingClientSendPublisher.ROOT_TOPIC);
+    }
+
+    /**
+     * Echo the oldest ping in flight and send the next, as a closed loop
+     * client does.
+     *
+     * @return unmatched echoes, 0 as every echo is matched
+     */
+    @Benchmark
+    public final long receivePath() {
+        now += 1000L;
+        if (client.isPingEcho(topicName)) {
+            client.echo(client.matchEcho(inFlight[oldest], 0L), now,
+                    headers[PingHeaders.CURRENT_QUEUE_SIZE],
+                    headers[PingHeaders.LARGEST_QUEUE_SIZE],
+                    headers[PingHeaders.MAXIMUM_QUEUE_SIZE]);
+        }
+        inFlight[oldest] = pings.send(now);
+        oldest = (oldest + 1) % PINGS_IN_FLIGHT;
+        return pings.unmatched();
+    }
+
+    /**
+     * @return sum of header values
+     */
+    @Benchmark
+    public final int parseHeaders() {
+        return PingHeaders.valueOf(headers[0])
+                + PingHeaders.valueOf(headers[1])
+                + PingHeaders.valueOf(headers[2]);
+    }
+
+    /**
+     * @return sum of header values
+     */
+    @Benchmark
+    public final int splitHeaders() {
+        return Integer.parseInt(headers[0].split(":")[1])
+                + Integer.parseInt(headers[1].split(":")[1])
+                + Integer.parseInt(headers[2].split(":")[1]);
+    }
+}
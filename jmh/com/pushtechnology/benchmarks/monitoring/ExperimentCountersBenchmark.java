@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+
+/**
+ * The message and byte counters every client bumps on every message. The
+ * counters are shared by all clients in the load generator JVM, the contended
+ * variants share them between {@link #CONTENDING_THREADS} threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExperimentCountersBenchmark {
+    /** threads used by the contended variants. */
+    public static final int CONTENDING_THREADS = 4;
+    // CHECKSTYLE:OFF
+    private static final int MESSAGE_SIZE = 128;
+    private ExperimentCounters counters;
+    // CHECKSTYLE:ON
+
+    /**
+     * counters shared by all benchmark threads.
+     */
+    @Setup
+    public void setup() {
+        counters = new ExperimentCounters(
+                new CommonExperimentSettings(new Properties()));
+    }
+
+    /**
+     * counting a message as MessageCountingClient does.
+     */
+    @Benchmark
+    public void incMessageAndBytes() {
+        counters.incMessageCounter();
+        counters.incByteCounter(MESSAGE_SIZE);
+    }
+
+    /**
+     * counting a message from several client threads.
+     */
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public void incMessageAndBytesContended() {
+        counters.incMessageCounter();
+        counters.incByteCounter(MESSAGE_SIZE);
+    }
+
+    /**
+     * @return total messages, as the monitor reads them
+     */
+    @Benchmark
+    public long getMessageCounter() {
+        return counters.getMessageCounter();
+    }
+}
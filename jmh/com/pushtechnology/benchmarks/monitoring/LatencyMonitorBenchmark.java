@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording latency samples into a warm {@link LatencyMonitor}, from one
+ * client thread and from {@link #CONTENDING_THREADS} client threads sharing
+ * the monitor. Values step through 10us..~1ms so recording touches a spread
+ * of histogram buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyMonitorBenchmark {
+    /** threads used by the contended variants. */
+    public static final int CONTENDING_THREADS = 4;
+    // CHECKSTYLE:OFF
+    private static final long MIN_LATENCY = 10000L;
+    private static final int LATENCY_STEPS = 1023;
+    private LatencyMonitor monitor;
+    // CHECKSTYLE:ON
+
+    /**
+     * Per thread latency values.
+     */
+    @State(Scope.Thread)
+    public static class Values {
+        // CHECKSTYLE:OFF
+        private int step;
+        // CHECKSTYLE:ON
+
+        /**
+         * @return next latency value
+         */
+        long next() {
+            return MIN_LATENCY * (1 + (step++ & LATENCY_STEPS) / 10);
+        }
+    }
+
+    /**
+     * monitor past warmup, so values are recorded.
+     */
+    @Setup
+    public void setup() {
+        monitor = new LatencyMonitor();
+        monitor.warmupComplete();
+    }
+
+    /**
+     * @param values latency source
+     */
+    @Benchmark
+    public void recordLatencyValue(Values values) {
+        monitor.recordLatencyValue(values.next());
+    }
+
+    /**
+     * @param values latency source
+     */
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public void recordLatencyValueContended(Values values) {
+        monitor.recordLatencyValue(values.next());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * One interval of the {@link BroadcastRunner} publish loop over a
+ * {@link StubMessagePublisher}, i.e. one message to each topic. The score is
+ * per interval, divide by topics for the per message overhead. The
+ * multi threaded variant runs a runner per thread over the same topics, so
+ * the runners contend on the topic locks and the shared message counter. The
+ * partitioned variant runs a runner per thread over its own partition of
+ * the topics, counting into its own counter, as PublisherAssembly does with
+ * several runner threads. Payloads come from the runner's pregenerated pool,
+ * so the payload mode should not change the score. A topic skew publishes
+ * the same number of messages per interval, mostly to the first topics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastRunnerBenchmark {
+    /** threads used by the contended variants. */
+    public static final int CONTENDING_THREADS = 4;
+    // CHECKSTYLE:OFF
+    @Param({"1", "100"})
+    public int topics;
+    @Param({"125"})
+    public int messageSize;
+    @Param({"ZEROS", "RECORD"})
+    public PayloadMode payloadMode;
+    @Param({"0.0", "1.0"})
+    public double topicSkew;
+    private final StubMessagePublisher publisher = new StubMessagePublisher();
+    private final AtomicLong messageCounter = new AtomicLong();
+    private final AtomicLong topicsCounter = new AtomicLong();
+    private BroadcastConfiguration config;
+    // CHECKSTYLE:ON
+
+    /**
+     * topics shared by all runners.
+     */
+    @Setup
+    public void setup() {
+        config = new BroadcastConfiguration(messageSize, 0L, 1, 0L, 0,
+                topics, 0L, 0, PublishPacing.BURST, 0L, 1,
+                new PayloadConfiguration(payloadMode, 1024, 0.5, null, null,
+                        0.2), null, 1.0, topicSkew);
+        final byte[] data = new byte[messageSize];
+        for (int i = 0; i < topics; i++) {
+            publisher.addChildTopic(String.valueOf(i), data);
+            topicsCounter.incrementAndGet();
+        }
+    }
+
+    /**
+     * A runner per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Runner {
+        // CHECKSTYLE:OFF
+        private BroadcastRunner runner;
+        // CHECKSTYLE:ON
+
+        /**
+         * @param shared the benchmark state
+         */
+        @Setup
+        public void setup(BroadcastRunnerBenchmark shared) {
+            runner = new BroadcastRunner(shared.publisher,
+                    shared.messageCounter, shared.topicsCounter,
+                    shared.config);
+        }
+    }
+
+    /**
+     * A runner per benchmark thread, publishing to its own partition.
+     */
+    @State(Scope.Thread)
+    public static class PartitionedRunner {
+        // CHECKSTYLE:OFF
+        private BroadcastRunner runner;
+        // CHECKSTYLE:ON
+
+        /**
+         * @param shared the benchmark state
+         * @param threads the benchmark threads
+         */
+        @Setup
+        public void setup(BroadcastRunnerBenchmark shared,
+                ThreadParams threads) {
+            runner = new BroadcastRunner(shared.publisher, new AtomicLong(),
+                    shared.topicsCounter, shared.config,
+                    threads.getThreadIndex(), threads.getThreadCount());
+        }
+    }
+
+    /**
+     * @param runner this thread's runner
+     */
+    @Benchmark
+    public void publishInterval(Runner runner) {
+        runner.runner.publishInterval(
+                config.getMessagesPerIntervalPerTopic());
+    }
+
+    /**
+     * @param runner this thread's runner
+     */
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public void publishIntervalContended(Runner runner) {
+        runner.runner.publishInterval(
+                config.getMessagesPerIntervalPerTopic());
+    }
+
+    /**
+     * @param runner this thread's runner
+     */
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public void publishIntervalPartitioned(PartitionedRunner runner) {
+        runner.runner.publishInterval(
+                config.getMessagesPerIntervalPerTopic());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.pushtechnology.diffusion.api.topic.Topic;
+
+/**
+ * A {@link MessagePublisher} which has clients but publishes nowhere, so
+ * that benchmarks measure the {@link BroadcastRunner} rather than Diffusion.
+ * Topics only support lock/unlock, backed by a lock per topic.
+ */
+public final class StubMessagePublisher implements MessagePublisher {
+    // CHECKSTYLE:OFF
+    private final TopicArray topics = new TopicArray();
+    private long bytesPublished;
+    // CHECKSTYLE:ON
+
+    @Override
+    public void addChildTopic(String topic, byte[] loaddata) {
+        topics.add((Topic) Proxy.newProxyInstance(
+                Topic.class.getClassLoader(), new Class<?>[] {Topic.class},
+                new LockingTopic()));
+    }
+
+    @Override
+    public void publish(Topic topic, byte[] data) {
+        // racy, but only there to keep the publish from being eliminated
+        bytesPublished += data.length;
+    }
+
+    @Override
+    public TopicArray getChildTopics() {
+        return topics;
+    }
+
+    @Override
+    public boolean hasClients() {
+        return true;
+    }
+
+    /**
+     * @return bytes published so far
+     */
+    public long getBytesPublished() {
+        return bytesPublished;
+    }
+
+    /**
+     * Implements Topic lock/unlock.
+     */
+    private static final class LockingTopic implements InvocationHandler {
+        /** the topic lock. */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if ("lock".equals(name)) {
+                lock.lock();
+            } else if ("unlock".equals(name)) {
+                lock.unlock();
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+    }
+}
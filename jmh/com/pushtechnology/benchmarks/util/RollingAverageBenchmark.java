@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RollingAverage} sampling. RollingAverage is not thread safe, so the
+ * multi threaded variant gives each thread its own instance and shows the
+ * cost under a loaded machine rather than under contention.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollingAverageBenchmark {
+    /** threads used by the multi threaded variants. */
+    public static final int THREADS = 4;
+    // CHECKSTYLE:OFF
+    private static final int WINDOW = 16;
+    private final RollingAverage average = new RollingAverage(WINDOW);
+    private long value;
+    // CHECKSTYLE:ON
+
+    /**
+     * @return the average, as the load strategies read it after sampling
+     */
+    @Benchmark
+    public long sample() {
+        average.sample(value++);
+        return average.avg();
+    }
+
+    /**
+     * @return the average, as the load strategies read it after sampling
+     */
+    @Benchmark
+    @Threads(THREADS)
+    public long sampleThreads() {
+        average.sample(value++);
+        return average.avg();
+    }
+}
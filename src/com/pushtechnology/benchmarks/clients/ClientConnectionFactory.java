@@ -32,6 +32,7 @@ import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
 import com.pushtechnology.benchmarks.util.Factory;
 import com.pushtechnology.benchmarks.util.JVMSupport;
 import com.pushtechnology.diffusion.api.Logs;
+import com.pushtechnology.diffusion.api.ServerConnection;
 import com.pushtechnology.diffusion.api.ServerConnectionListener;
 import com.pushtechnology.diffusion.api.client.ExternalClientConnection;
 import com.pushtechnology.diffusion.api.connection.ConnectionFactory;
@@ -47,7 +48,7 @@ import com.pushtechnology.diffusion.api.connection.ServerDetails;
  * 
  */
 public class ClientConnectionFactory implements
-        Factory<ExternalClientConnection> {
+        Factory<ServerConnection> {
     // CHECKSTYLE:OFF
     private static final int SSL_BUFFER_SIZE = 64 * 1024;
     private final ExperimentCounters experimentCounters;
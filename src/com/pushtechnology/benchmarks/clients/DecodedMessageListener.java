@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * A listener the nio client engine hands a message's topic name and data
+ * size along with the message, so the per message counting need not go
+ * through the {@link TopicMessage} proxy's reflective dispatch and boxing.
+ */
+interface DecodedMessageListener {
+    /**
+     * @param serverConnection the connection
+     * @param topicMessage the message
+     * @param topicName the message's topic name
+     * @param size the message's data size
+     */
+    void messageFromServer(ServerConnection serverConnection,
+            TopicMessage topicMessage, String topicName, int size);
+}
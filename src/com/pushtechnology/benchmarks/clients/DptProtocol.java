@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Just enough of the Diffusion DPT protocol (version 4) for the nio client
+ * engine to connect, subscribe, count messages and echo pings.
+ * <P>
+ * A connection opens with the magic byte, protocol version, client type and
+ * capabilities followed by the initial topics and a 0 byte. The server
+ * answers with the protocol version, a response code, the size of the
+ * message length prefix and the client id followed by a 0 byte.
+ * <P>
+ * Every message then starts with its length, including the prefix, in the
+ * agreed number of big endian bytes, followed by the message type, the
+ * encoding, the FD separated headers (the topic first) ended by an RD and the
+ * data.
+ */
+final class DptProtocol {
+    /** first byte of a connection request. */
+    static final byte MAGIC = 0x23;
+    /** protocol version. */
+    static final byte VERSION = 4;
+    /** connection type of a Java client. */
+    static final byte CLIENT_TYPE = 0x01;
+    /** capabilities, none wanted. */
+    static final byte CAPABILITIES = 0;
+    /** response code of an accepted connection. */
+    static final byte CONNECTED = 100;
+    /** ends the connection request and response. */
+    static final byte TERMINATOR = 0;
+    /** ends the headers. */
+    static final byte RD = 1;
+    /** separates the headers. */
+    static final byte FD = 2;
+    /** separates the topics of a subscription. */
+    static final char TOPIC_SEPARATOR = ',';
+    /** unencoded data. */
+    static final byte NO_ENCODING = 0;
+    // CHECKSTYLE:OFF message types
+    static final byte TOPIC_LOAD = 20;
+    static final byte DELTA = 21;
+    static final byte SUBSCRIBE = 22;
+    static final byte UNSUBSCRIBE = 23;
+    static final byte PING_SERVER = 24;
+    static final byte PING_CLIENT = 25;
+    static final byte ABORT = 28;
+    static final byte CLOSE = 29;
+    // CHECKSTYLE:ON
+    /** magic, version, client type and capabilities. */
+    static final int REQUEST_HEADER_SIZE = 4;
+    /** message type and encoding. */
+    static final int TYPE_SIZE = 2;
+    /** strings are UTF-8 on the wire. */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    /** mask to read a byte as unsigned. */
+    private static final int BYTE_MASK = 0xFF;
+    /** bits in a byte. */
+    private static final int BYTE_BITS = 8;
+
+    /**
+     * no instances wanted...
+     */
+    private DptProtocol() {
+    }
+
+    /**
+     * @param topics initial topics, or null for none
+     * @return the connection request, ready to write
+     */
+    static ByteBuffer connectRequest(String[] topics) {
+        final byte[] topicSet = join(topics).getBytes(UTF8);
+        final ByteBuffer request = ByteBuffer.allocate(
+                REQUEST_HEADER_SIZE + topicSet.length + 1);
+        request.put(MAGIC).put(VERSION).put(CLIENT_TYPE).put(CAPABILITIES);
+        request.put(topicSet).put(TERMINATOR);
+        request.flip();
+        return request;
+    }
+
+    /**
+     * @param type message type
+     * @param lengthSize bytes in the length prefix
+     * @param topic first header
+     * @param headers further headers, or null for none
+     * @param data data
+     * @param dataLength bytes of data to send
+     * @return the message, ready to write
+     */
+    static ByteBuffer message(byte type, int lengthSize, String topic,
+            String[] headers, byte[] data, int dataLength) {
+        final byte[] topicBytes = topic.getBytes(UTF8);
+        int length = lengthSize + TYPE_SIZE + topicBytes.length + 1
+                + dataLength;
+        byte[][] headerBytes = null;
+        if (headers != null) {
+            headerBytes = new byte[headers.length][];
+            for (int i = 0; i < headers.length; i++) {
+                headerBytes[i] = headers[i].getBytes(UTF8);
+                length += 1 + headerBytes[i].length;
+            }
+        }
+        final ByteBuffer message = ByteBuffer.allocate(length);
+        putLength(message, lengthSize, length);
+        message.put(type).put(NO_ENCODING).put(topicBytes);
+        if (headerBytes != null) {
+            for (byte[] header : headerBytes) {
+                message.put(FD).put(header);
+            }
+        }
+        message.put(RD).put(data, 0, dataLength);
+        message.flip();
+        return message;
+    }
+
+    /**
+     * @param topics topics
+     * @return the topics as a single subscription header
+     */
+    static String join(String[] topics) {
+        if (topics == null || topics.length == 0) {
+            return "";
+        }
+        final StringBuilder joined = new StringBuilder(topics[0]);
+        for (int i = 1; i < topics.length; i++) {
+            joined.append(TOPIC_SEPARATOR).append(topics[i]);
+        }
+        return joined.toString();
+    }
+
+    static void putLength(ByteBuffer buffer, int lengthSize, int length) {
+        for (int shift = (lengthSize - 1) * BYTE_BITS; shift >= 0;
+                shift -= BYTE_BITS) {
+            buffer.put((byte) (length >>> shift));
+        }
+    }
+
+    /**
+     * @param buffer ...
+     * @param offset of the length prefix
+     * @param lengthSize bytes in the length prefix
+     * @return message length, including the prefix
+     */
+    static int getLength(ByteBuffer buffer, int offset, int lengthSize) {
+        int length = 0;
+        for (int i = 0; i < lengthSize; i++) {
+            length = (length << BYTE_BITS)
+                    | (buffer.get(offset + i) & BYTE_MASK);
+        }
+        return length;
+    }
+
+    /**
+     * @param buffer ...
+     * @param from first index to look at
+     * @param to index after the last to look at
+     * @param value byte wanted
+     * @return index of the first value in the range, or -1 if there is none
+     */
+    static int indexOf(ByteBuffer buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param buffer ...
+     * @param from first index
+     * @param to index after the last
+     * @return the bytes in the range as a string
+     */
+    static String decode(ByteBuffer buffer, int from, int to) {
+        final byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the pings a client has outstanding in a preallocated ring indexed by
+ * ping sequence number, for power of 2 sized rings.
+ * <P>
+ * A ping still outstanding when its slot is reused by a later ping is counted
+ * as overrun (the ring is capacity pings ahead of it). An echo for a sequence
+ * no longer in the ring is counted as unmatched, and an echo arriving after an
+ * echo for a later sequence is counted as reordered.
+ */
+public final class InFlightPings {
+    /** marks a free slot, and returned for echoes not in flight. */
+    public static final long NOT_IN_FLIGHT = -1L;
+    /** sequence number of the ping occupying each slot. */
+    private final long[] sequences;
+    /** send time of the ping occupying each slot. */
+    private final long[] sentTimes;
+    /** index mask for % replacement. */
+    private final int mask;
+    /** next sequence to be sent. */
+    private long nextSequence = 0;
+    /** highest sequence echoed so far. */
+    private long highestEchoed = NOT_IN_FLIGHT;
+    /** number of slots in use. */
+    private int inFlight = 0;
+    /** pings whose slot was reused before they were echoed. */
+    private long overrun = 0;
+    /** echoes arriving after the echo of a later ping. */
+    private long reordered = 0;
+    /** echoes for pings not in flight. */
+    private long unmatched = 0;
+
+    /**
+     * @param capacity must be power of 2.
+     */
+    public InFlightPings(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("only works for power of 2 "
+                    + "size");
+        }
+        sequences = new long[capacity];
+        sentTimes = new long[capacity];
+        mask = capacity - 1;
+        Arrays.fill(sequences, NOT_IN_FLIGHT);
+    }
+
+    /**
+     * Claim the next sequence number for a ping sent at sentNanos.
+     *
+     * @param sentNanos send timestamp
+     * @return the sequence number to carry in the ping
+     */
+    public synchronized long send(long sentNanos) {
+        final long sequence = nextSequence++;
+        final int index = (int) sequence & mask;
+        if (sequences[index] == NOT_IN_FLIGHT) {
+            inFlight++;
+        } else {
+            overrun++;
+        }
+        sequences[index] = sequence;
+        sentTimes[index] = sentNanos;
+        return sequence;
+    }
+
+    /**
+     * Match an echo to its ping, freeing the slot.
+     *
+     * @param sequence the sequence number carried by the echo
+     * @return the send time of the ping, or NOT_IN_FLIGHT if it was not found
+     */
+    public synchronized long echo(long sequence) {
+        final int index = (int) sequence & mask;
+        if (sequence < 0 || sequences[index] != sequence) {
+            unmatched++;
+            return NOT_IN_FLIGHT;
+        }
+        sequences[index] = NOT_IN_FLIGHT;
+        inFlight--;
+        if (sequence < highestEchoed) {
+            reordered++;
+        } else {
+            highestEchoed = sequence;
+        }
+        return sentTimes[index];
+    }
+
+    /**
+     * @return number of pings awaiting an echo
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of pings overrun before being echoed
+     */
+    public synchronized long overrun() {
+        return overrun;
+    }
+
+    /**
+     * @return number of echoes arriving out of order
+     */
+    public synchronized long reordered() {
+        return reordered;
+    }
+
+    /**
+     * @return number of echoes not matching an in flight ping
+     */
+    public synchronized long unmatched() {
+        return unmatched;
+    }
+
+    /**
+     * @return ring capacity
+     */
+    public int capacity() {
+        return sequences.length;
+    }
+}
@@ -37,6 +37,8 @@ public abstract class LatencyMonitoringClient extends MessageCountingClient {
 	// CHECKSTYLE:OFF
 	protected ServerConnection connection;
 	private Object connectionLock = new Object();
+	/** the last topic name instance found to be the ping topic. */
+	private String pingTopicName = PingClientSendPublisher.ROOT_TOPIC;
     private static final Logger LOG = LoggerFactory.getLogger(LatencyMonitoringClient.class);
 
 	public LatencyMonitoringClient(ExperimentCounters experimentCountersP,
@@ -70,11 +72,10 @@ public abstract class LatencyMonitoringClient extends MessageCountingClient {
 			TopicMessage topicMessage) {
 
 
-    	if (topicMessage.isDelta() && topicMessage.getTopicName().equals(PingClientSendPublisher.ROOT_TOPIC)) {
-    		long arrived = getArrivedTimestamp();
-		//if (topicMessage.isDelta()) {
+		if (isPingEcho(topicMessage)) {
+			long arrived = getArrivedTimestamp();
 			try {
-				recordLatency(getSentTimestamp(topicMessage), arrived);
+				onPingEcho(topicMessage, arrived);
 			} catch (Exception e) {
 				LOG.error("Failed to capture latency", e);
 				return;
@@ -82,9 +83,65 @@ public abstract class LatencyMonitoringClient extends MessageCountingClient {
 		}
 	}
 
-	private void recordLatency(long sent, long arrived) {
+	/**
+	 * Checks whether a message is an echo on the ping topic without
+	 * allocating. The topic name instance which last matched is remembered so
+	 * that, where the connection reuses its topic name strings, the check is
+	 * a reference comparison rather than a character by character one.
+	 * 
+	 * @param topicMessage the incoming message
+	 * @return true if this is a delta on the ping topic
+	 */
+	protected final boolean isPingEcho(TopicMessage topicMessage) {
+		if (!topicMessage.isDelta()) {
+			return false;
+		}
+		return isPingEcho(topicMessage.getTopicName());
+	}
+
+	/**
+	 * @param topicName the topic of an incoming delta
+	 * @return true if it is on the ping topic
+	 */
+	protected final boolean isPingEcho(String topicName) {
+		if (topicName == pingTopicName) {
+			return true;
+		}
+		if (PingClientSendPublisher.ROOT_TOPIC.equals(topicName)) {
+			pingTopicName = topicName;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Handle an echo, by default recording its latency.
+	 * 
+	 * @param topicMessage the echo
+	 * @param arrived when it arrived
+	 */
+	protected void onPingEcho(TopicMessage topicMessage, long arrived) {
+		recordLatency(getSentTimestamp(topicMessage), arrived);
+	}
+
+	/**
+	 * @param sent when the ping was sent
+	 * @param arrived when its echo arrived
+	 */
+	protected final void recordLatency(long sent, long arrived) {
 		long rtt = arrived - sent;
-		experimentCounters.recordLatencyValue(rtt);
+		experimentCounters.recordLatencyValue(rtt, getExpectedIntervalNanos());
+	}
+
+	/**
+	 * The interval at which this client expects to take latency samples, used
+	 * to correct the recorded values for coordinated omission. Clients that
+	 * do not sample on a schedule should return 0.
+	 * 
+	 * @return expected nanos between samples, or 0 for no correction
+	 */
+	protected long getExpectedIntervalNanos() {
+		return 0L;
 	}
 
 	/**
@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
 
 import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.APIException;
 import com.pushtechnology.diffusion.api.Credentials;
 import com.pushtechnology.diffusion.api.ServerConnection;
 import com.pushtechnology.diffusion.api.message.TopicMessage;
@@ -33,12 +34,14 @@ import com.pushtechnology.diffusion.api.topic.TopicStatus;
  * @author nitsanw
  * 
  */
-public class MessageCountingClient implements ExperimentClient {
+public class MessageCountingClient implements ExperimentClient,
+        DecodedMessageListener {
     // CHECKSTYLE:OFF docs will add nothing here
     protected final ExperimentCounters experimentCounters;
     private final String[] initialTopics;
     private volatile boolean reconnect;
     private final CommonExperimentSettings clientSettings;
+    private final SubscriptionTimer subscriptionTimer;
     // CHECKSTYLE:ON
     private static final Logger LOG = LoggerFactory.getLogger(MessageCountingClient.class);
 
@@ -53,10 +56,14 @@ public class MessageCountingClient implements ExperimentClient {
         this.reconnect = reconnectP;
         initialTopics = initialTopicsP;
         this.clientSettings  = clientSettings;
+        subscriptionTimer = new SubscriptionTimer(experimentCountersP);
+        // clients are created just before they connect
+        subscriptionTimer.connecting();
     }
 
     @Override
     public final void serverConnected(final ServerConnection serverConnection) {
+        subscriptionTimer.connected(initialTopics);
         onServerConnect(serverConnection);
         experimentCounters.incClientConnectCounter();
         afterServerConnect(serverConnection);
@@ -74,12 +81,25 @@ public class MessageCountingClient implements ExperimentClient {
     public final void messageFromServer(
             final ServerConnection serverConnection,
             final TopicMessage topicMessage) {
+        subscriptionTimer.message(topicMessage);
         onMessage(serverConnection, topicMessage);
         experimentCounters.incMessageCounter();
         experimentCounters.incByteCounter(topicMessage.size());
         afterMessage(serverConnection, topicMessage);
     }
 
+    @Override
+    public final void messageFromServer(
+            final ServerConnection serverConnection,
+            final TopicMessage topicMessage, final String topicName,
+            final int size) {
+        subscriptionTimer.message(topicName);
+        onMessage(serverConnection, topicMessage);
+        experimentCounters.incMessageCounter();
+        experimentCounters.incByteCounter(size);
+        afterMessage(serverConnection, topicMessage);
+    }
+
     /**
      * Allow extension of default behavior.
      * 
@@ -116,9 +136,10 @@ public class MessageCountingClient implements ExperimentClient {
     public final void serverDisconnected(ServerConnection serverConnection) {
         experimentCounters.incClientDisconnectCounter();
         onServerDisconnect(serverConnection);
+        subscriptionTimer.disconnected();
         if (reconnect) {
             try {
-                serverConnection.connect(initialTopics);
+                reconnect(serverConnection);
             } catch (Exception e) {
                 if (LOG.isTraceEnabled()) {
                     LOG.trace("Error on connection attempt", e);
@@ -145,6 +166,46 @@ public class MessageCountingClient implements ExperimentClient {
         return clientSettings;
     }
 
+    /**
+     * Subscribe, timing each topic until its first message arrives.
+     * 
+     * @param serverConnection ...
+     * @param topics topics or topic selectors to subscribe to
+     * @throws APIException if the subscription failed
+     */
+    public final void subscribe(ServerConnection serverConnection,
+            String... topics) throws APIException {
+        subscriptionTimer.subscribing(topics);
+        serverConnection.subscribe(topics);
+    }
+
+    /**
+     * Unsubscribe, no longer timing the topics if their first message has
+     * not arrived.
+     * 
+     * @param serverConnection ...
+     * @param topics topics or topic selectors to unsubscribe from
+     * @throws APIException if the unsubscription failed
+     */
+    public final void unsubscribe(ServerConnection serverConnection,
+            String... topics) throws APIException {
+        subscriptionTimer.unsubscribing(topics);
+        serverConnection.unsubscribe(topics);
+    }
+
+    /**
+     * Reconnect to the initial topics, timing the connect and the first
+     * message of each topic again.
+     * 
+     * @param serverConnection ...
+     * @throws APIException if the connect failed
+     */
+    protected final void reconnect(ServerConnection serverConnection)
+            throws APIException {
+        subscriptionTimer.connecting();
+        serverConnection.connect(initialTopics);
+    }
+
     /**
      * @param reconnectP set to false to stop client from reconnecting
      */
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.ServerConnectionListener;
+
+/**
+ * A lightweight alternative to a Diffusion client connection per client,
+ * multiplexing many DPT connections over a few selector threads. Each
+ * selector reads all its connections through a single direct buffer, so an
+ * idle connection costs a socket and a few small objects rather than threads
+ * and buffers of its own. Only partially received messages are copied out
+ * of the shared buffer.
+ * <P>
+ * Clients get the usual {@link ServerConnectionListener} callbacks, on the
+ * selector threads, so they must not block in them.
+ */
+public final class NioClientEngine {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NioClientEngine.class);
+    private final ExperimentCounters experimentCounters;
+    private final NioSelector[] selectors;
+    /** round robins the new connections over the selectors. */
+    private final AtomicInteger nextSelector = new AtomicInteger();
+
+    /**
+     * @param experimentCountersP counts connections refused on reconnect
+     * @param selectorCount selector threads
+     * @param bufferSize size of each selector's read buffer
+     * @throws IOException if a selector can not be opened
+     */
+    public NioClientEngine(ExperimentCounters experimentCountersP,
+            int selectorCount, int bufferSize) throws IOException {
+        this.experimentCounters = experimentCountersP;
+        selectors = new NioSelector[selectorCount];
+        for (int i = 0; i < selectorCount; i++) {
+            selectors[i] = new NioSelector(bufferSize);
+            final Thread thread = new Thread(selectors[i]);
+            thread.setName("nio-client-selector-" + i);
+            thread.setDaemon(true);
+            selectors[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * @param listener gets the connection's callbacks
+     * @param server DPT address of the server
+     * @param local local address to bind to, or null for any
+     * @return a connection, not yet connected
+     */
+    public ServerConnection newConnection(ServerConnectionListener listener,
+            InetSocketAddress server, InetSocketAddress local) {
+        final int index = (nextSelector.getAndIncrement() & Integer.MAX_VALUE)
+                % selectors.length;
+        return new NioServerConnection(selectors[index], experimentCounters,
+                listener, server, local).proxy();
+    }
+
+    /**
+     * Close every connection and stop the selector threads.
+     */
+    public void close() {
+        for (NioSelector selector : selectors) {
+            selector.isRunning = false;
+            selector.selector.wakeup();
+        }
+        for (NioSelector selector : selectors) {
+            try {
+                selector.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A selector thread and the read buffer its connections share.
+     */
+    static final class NioSelector implements Runnable {
+        private final Selector selector;
+        /** shared by all the connections of this selector. */
+        private final ByteBuffer readBuffer;
+        /** run on the selector thread, between selects. */
+        private final Queue<Runnable> tasks =
+                new ConcurrentLinkedQueue<Runnable>();
+        private Thread thread;
+        private volatile boolean isRunning = true;
+
+        NioSelector(int bufferSize) throws IOException {
+            selector = Selector.open();
+            readBuffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        Selector selector() {
+            return selector;
+        }
+
+        ByteBuffer readBuffer() {
+            return readBuffer;
+        }
+
+        boolean isSelectorThread() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * @param task to run on the selector thread
+         */
+        void execute(Runnable task) {
+            if (isSelectorThread()) {
+                task.run();
+                return;
+            }
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    LOG.error("selector failed", e);
+                    break;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOG.warn("selector task failed", e);
+                    }
+                }
+                final Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    ((NioServerConnection) key.attachment()).handle(key);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((NioServerConnection) key.attachment()).disconnect();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.debug("failed to close selector", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.util.Factory;
+import com.pushtechnology.diffusion.api.ServerConnection;
+
+/**
+ * A factory for connections of the {@link NioClientEngine}, the lightweight
+ * alternative to the {@link ClientConnectionFactory} when the load box runs
+ * out of threads or memory before the server runs out of capacity. The
+ * engine only speaks DPT, so every url must be a dpt:// url.
+ */
+public class NioConnectionFactory implements Factory<ServerConnection> {
+    // CHECKSTYLE:OFF
+    private static final String DPT_SCHEME = "dpt";
+    private static final Logger LOG = LoggerFactory.getLogger(NioConnectionFactory.class);
+    private final ExperimentCounters experimentCounters;
+    private final CommonExperimentSettings clientSettings;
+    private final Factory<ExperimentClient> clientFactory;
+    private final InetSocketAddress[] servers;
+    private final NioClientEngine engine;
+
+    // CHECKSTYLE:ON
+    /**
+     * @param experimentCountersP ...
+     * @param clientSettingsP ...
+     * @param clientFactoryP ...
+     * @throws IllegalArgumentException if a url is not a dpt:// url
+     */
+    public NioConnectionFactory(ExperimentCounters experimentCountersP,
+            CommonExperimentSettings clientSettingsP,
+            Factory<ExperimentClient> clientFactoryP) {
+        this.experimentCounters = experimentCountersP;
+        this.clientSettings = clientSettingsP;
+        this.clientFactory = clientFactoryP;
+        final String[] urls = clientSettingsP.getDiffusionUrls();
+        servers = new InetSocketAddress[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            final URI url = URI.create(urls[i].trim());
+            if (!DPT_SCHEME.equalsIgnoreCase(url.getScheme())
+                    || url.getPort() < 0) {
+                throw new IllegalArgumentException("the nio client engine "
+                        + "needs dpt://host:port urls, not " + urls[i]);
+            }
+            servers[i] = new InetSocketAddress(url.getHost(), url.getPort());
+        }
+        try {
+            engine = new NioClientEngine(experimentCountersP,
+                    clientSettingsP.getNioSelectors(),
+                    clientSettingsP.getNioBufferSize());
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to start the nio client "
+                    + "engine", e);
+        }
+    }
+
+    /**
+     * @param client ...
+     * @param topics ...
+     * @return a new connection or null if failed to create one.
+     */
+    public final ServerConnection createConnection(ExperimentClient client,
+            String... topics) {
+        try {
+            experimentCounters.incConnectionAttemptsCounter();
+            int rotator = (int)
+                    experimentCounters.getConnectionAttemptsCounter();
+            final ServerConnection connection = engine.newConnection(client,
+                    servers[rotator % servers.length],
+                    localInterface(rotator));
+            if (topics != null) {
+                connection.connect(topics);
+            } else {
+                connection.connect();
+            }
+            return connection;
+        } catch (Exception e) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Error on connection attempt", e);
+            }
+            experimentCounters.incConnectionRefusedCounter();
+            return null;
+        }
+    }
+
+    /**
+     * @param rotator ...
+     * @return the local.interfaces address to bind to, or null for any
+     */
+    private InetSocketAddress localInterface(int rotator) {
+        String[] localInterfaces = clientSettings.getLocalInterfaces();
+        if (localInterfaces == null || localInterfaces.length == 0) {
+            return null;
+        }
+        String nic = localInterfaces[rotator % localInterfaces.length];
+        if (nic.isEmpty()) {
+            return null;
+        }
+        InetSocketAddress address = new InetSocketAddress(nic, 0);
+        if (address.isUnresolved()) {
+            throw new IllegalArgumentException(nic + " could not be resolved");
+        }
+        return address;
+    }
+
+    @Override
+    public final ServerConnection create() {
+        long numberCurrentlyConnected =
+                experimentCounters.getCurrentlyConnected();
+        if (numberCurrentlyConnected < clientSettings.getMaxClients()) {
+            ExperimentClient client = clientFactory.create();
+            return createConnection(client, client.getInitialTopics());
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public final void close() {
+        engine.close();
+        clientFactory.close();
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.clients.NioClientEngine.NioSelector;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.APIException;
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.ServerConnectionListener;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * A DPT connection of the {@link NioClientEngine}, handed to its client as a
+ * {@link ServerConnection} proxy so only the methods the experiment clients
+ * call need implementing. Other methods throw UnsupportedOperationException.
+ * <P>
+ * Reads, and the connection state, belong to the selector thread. Writes may
+ * come from any thread, they are written straight to the socket unless an
+ * earlier write is still pending, in which case the selector finishes them.
+ */
+final class NioServerConnection implements InvocationHandler {
+    /** connect gives up on a server that does not answer in time. */
+    private static final long CONNECT_TIMEOUT_MS = 10000L;
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NioServerConnection.class);
+    // CHECKSTYLE:OFF states
+    private static final int DISCONNECTED = 0;
+    private static final int CONNECTING = 1;
+    private static final int HANDSHAKE = 2;
+    private static final int CONNECTED = 3;
+    // CHECKSTYLE:ON
+    /** version, response code and length size of the connection response. */
+    private static final int RESPONSE_HEADER_SIZE = 3;
+    private final NioSelector selector;
+    private final ExperimentCounters experimentCounters;
+    private final ServerConnectionListener listener;
+    /** the listener, if it takes decoded messages, else null. */
+    private final DecodedMessageListener decodedListener;
+    private final InetSocketAddress server;
+    private final InetSocketAddress local;
+    private final ServerConnection proxy;
+    private final NioTopicMessage inbound = NioTopicMessage.inbound();
+    private volatile int state = DISCONNECTED;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private volatile String clientId;
+    /** bytes in the message length prefix, set by the server. */
+    private volatile int lengthSize;
+    /** counted down once the connection is accepted or fails. */
+    private CountDownLatch handshake;
+    /** a caller is waiting for the handshake, and will count failures. */
+    private volatile boolean isAwaited;
+    /** the unread part of a message split across reads. */
+    private byte[] partial = new byte[0];
+    private int partialLength;
+    /** bytes not yet written, guarded by this. */
+    private ByteBuffer pendingWrite;
+    /** topics to subscribe to on connection. */
+    private String[] topics;
+
+    /**
+     * @param selectorP ...
+     * @param experimentCountersP ...
+     * @param listenerP ...
+     * @param serverP ...
+     * @param localP ...
+     */
+    NioServerConnection(NioSelector selectorP,
+            ExperimentCounters experimentCountersP,
+            ServerConnectionListener listenerP, InetSocketAddress serverP,
+            InetSocketAddress localP) {
+        this.selector = selectorP;
+        this.experimentCounters = experimentCountersP;
+        this.listener = listenerP;
+        this.decodedListener = listenerP instanceof DecodedMessageListener
+                ? (DecodedMessageListener) listenerP : null;
+        this.server = serverP;
+        this.local = localP;
+        this.proxy = (ServerConnection) Proxy.newProxyInstance(
+                ServerConnection.class.getClassLoader(),
+                new Class<?>[] {ServerConnection.class}, this);
+    }
+
+    ServerConnection proxy() {
+        return proxy;
+    }
+
+    @Override
+    public Object invoke(Object self, Method method, Object[] args)
+            throws Throwable {
+        final String name = method.getName();
+        if ("isConnected".equals(name)) {
+            return state == CONNECTED;
+        } else if ("send".equals(name)) {
+            send((TopicMessage) args[0]);
+            return null;
+        } else if ("createDeltaMessage".equals(name)) {
+            return NioTopicMessage.outbound(DptProtocol.DELTA,
+                    (String) args[0], (Integer) args[1]).proxy();
+        } else if ("close".equals(name)) {
+            close();
+            return null;
+        } else if ("connect".equals(name)) {
+            connect(args == null || args.length == 0 ? null
+                    : (String[]) args[0]);
+            return null;
+        } else if ("subscribe".equals(name)) {
+            sendTopics(DptProtocol.SUBSCRIBE, (String[]) args[0]);
+            return null;
+        } else if ("unsubscribe".equals(name)) {
+            sendTopics(DptProtocol.UNSUBSCRIBE, (String[]) args[0]);
+            return null;
+        } else if ("getClientID".equals(name)) {
+            return clientId;
+        } else if ("equals".equals(name)) {
+            return self == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(self);
+        } else if ("toString".equals(name)) {
+            return "NioServerConnection[" + server + "," + clientId + "]";
+        }
+        throw new UnsupportedOperationException(name
+                + " is not supported by the nio client engine");
+    }
+
+    /**
+     * Connect and wait for the server to accept the connection. When called
+     * from a callback, i.e. on the selector thread, the connection completes
+     * later and a refusal is counted rather than thrown.
+     *
+     * @param topicsP topics to subscribe to, or null for none
+     * @throws APIException if the connection is refused
+     */
+    private void connect(String[] topicsP) throws APIException {
+        if (state != DISCONNECTED) {
+            throw new APIException("already connected");
+        }
+        this.topics = topicsP;
+        state = CONNECTING;
+        handshake = new CountDownLatch(1);
+        isAwaited = !selector.isSelectorThread();
+        final boolean isConnected;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (local != null) {
+                channel.socket().bind(local);
+            }
+            isConnected = channel.connect(server);
+        } catch (IOException e) {
+            closeChannel();
+            state = DISCONNECTED;
+            throw new APIException("failed to connect to " + server + ": "
+                    + e);
+        }
+        selector.execute(new Runnable() {
+            @Override
+            public void run() {
+                register(isConnected);
+            }
+        });
+        if (!isAwaited) {
+            return;
+        }
+        try {
+            if (handshake.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    && state == CONNECTED) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+        throw new APIException("connection to " + server + " failed");
+    }
+
+    private void register(boolean isConnected) {
+        if (state != CONNECTING) {
+            return;
+        }
+        try {
+            key = channel.register(selector.selector(),
+                    isConnected ? 0 : SelectionKey.OP_CONNECT, this);
+            if (isConnected) {
+                startHandshake();
+            }
+        } catch (IOException e) {
+            LOG.trace("connect failed", e);
+            disconnect();
+        }
+    }
+
+    private void startHandshake() throws IOException {
+        state = HANDSHAKE;
+        key.interestOps(SelectionKey.OP_READ);
+        write(DptProtocol.connectRequest(topics));
+    }
+
+    /**
+     * Handle the selected operations, on the selector thread.
+     *
+     * @param selected the key of this connection
+     */
+    void handle(SelectionKey selected) {
+        try {
+            if (selected.isConnectable()) {
+                channel.finishConnect();
+                startHandshake();
+            }
+            if (selected.isValid() && selected.isReadable()) {
+                read();
+            }
+            if (selected.isValid() && selected.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            LOG.trace("connection lost", e);
+            disconnect();
+        } catch (RuntimeException e) {
+            LOG.warn("client callback failed", e);
+        }
+    }
+
+    private void read() throws IOException {
+        final ByteBuffer buffer = selector.readBuffer();
+        buffer.clear();
+        final int read = channel.read(buffer);
+        if (read < 0) {
+            disconnect();
+            return;
+        }
+        buffer.flip();
+        ByteBuffer in = buffer;
+        if (partialLength > 0) {
+            final int length = partialLength + buffer.remaining();
+            if (partial.length < length) {
+                partial = Arrays.copyOf(partial, Math.max(length,
+                        partial.length * 2));
+            }
+            buffer.get(partial, partialLength, buffer.remaining());
+            in = ByteBuffer.wrap(partial, 0, length);
+            partialLength = 0;
+        }
+        consume(in);
+        if (in.hasRemaining() && state != DISCONNECTED) {
+            final int remaining = in.remaining();
+            if (partial.length < remaining) {
+                partial = Arrays.copyOf(partial, remaining);
+            }
+            in.get(partial, 0, remaining);
+            partialLength = remaining;
+        }
+    }
+
+    private void consume(ByteBuffer in) throws IOException {
+        while (state == HANDSHAKE) {
+            if (!readHandshake(in)) {
+                return;
+            }
+        }
+        while (state == CONNECTED && in.remaining() >= lengthSize) {
+            final int start = in.position();
+            final int length =
+                    DptProtocol.getLength(in, start, lengthSize);
+            if (length < lengthSize + DptProtocol.TYPE_SIZE) {
+                throw new IOException("bad message length " + length);
+            }
+            if (in.remaining() < length) {
+                return;
+            }
+            onMessage(in, start, start + length);
+            in.position(start + length);
+        }
+    }
+
+    /**
+     * @return false if the response is not all there yet
+     */
+    private boolean readHandshake(ByteBuffer in) throws IOException {
+        final int start = in.position();
+        final int end = DptProtocol.indexOf(in, start + RESPONSE_HEADER_SIZE,
+                in.limit(), DptProtocol.TERMINATOR);
+        if (end < 0) {
+            return false;
+        }
+        final byte response = in.get(start + 1);
+        lengthSize = in.get(start + 2);
+        clientId = DptProtocol.decode(in, start + RESPONSE_HEADER_SIZE, end);
+        in.position(end + 1);
+        if (response != DptProtocol.CONNECTED) {
+            throw new IOException("connection refused with " + response);
+        }
+        state = CONNECTED;
+        try {
+            listener.serverConnected(proxy);
+        } finally {
+            handshake.countDown();
+        }
+        return true;
+    }
+
+    private void onMessage(ByteBuffer in, int start, int end)
+            throws IOException {
+        final byte type = in.get(start + lengthSize);
+        if (type == DptProtocol.TOPIC_LOAD || type == DptProtocol.DELTA) {
+            inbound.wrap(in, start + lengthSize, end);
+            if (decodedListener != null) {
+                decodedListener.messageFromServer(proxy, inbound.proxy(),
+                        inbound.getTopicName(), inbound.size());
+            } else {
+                listener.messageFromServer(proxy, inbound.proxy());
+            }
+        } else if (type == DptProtocol.PING_CLIENT) {
+            // the server checking on us, echo it back as is
+            final ByteBuffer echo = ByteBuffer.allocate(end - start);
+            for (int i = start; i < end; i++) {
+                echo.put(in.get(i));
+            }
+            echo.flip();
+            write(echo);
+        } else if (type == DptProtocol.ABORT || type == DptProtocol.CLOSE) {
+            disconnect();
+        }
+    }
+
+    private void send(TopicMessage message) throws APIException {
+        if (!Proxy.isProxyClass(message.getClass())
+                || !(Proxy.getInvocationHandler(message)
+                        instanceof NioTopicMessage)) {
+            throw new APIException("only messages created by the nio "
+                    + "client engine can be sent");
+        }
+        if (state != CONNECTED) {
+            throw new APIException("not connected");
+        }
+        try {
+            write(((NioTopicMessage) Proxy.getInvocationHandler(message))
+                    .encode(lengthSize));
+        } catch (IOException e) {
+            throw new APIException("send failed: " + e);
+        }
+    }
+
+    private void sendTopics(byte type, String[] topicsP) throws APIException {
+        if (state != CONNECTED) {
+            throw new APIException("not connected");
+        }
+        try {
+            write(DptProtocol.message(type, lengthSize,
+                    DptProtocol.join(topicsP), null, new byte[0], 0));
+        } catch (IOException e) {
+            throw new APIException("send failed: " + e);
+        }
+    }
+
+    /**
+     * Write now if nothing is pending, otherwise leave it to the selector.
+     */
+    private synchronized void write(ByteBuffer bytes) throws IOException {
+        if (pendingWrite == null) {
+            channel.write(bytes);
+            if (!bytes.hasRemaining()) {
+                return;
+            }
+            pendingWrite = ByteBuffer.allocate(bytes.remaining());
+            selector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ
+                                | SelectionKey.OP_WRITE);
+                    }
+                }
+            });
+        } else if (pendingWrite.remaining() < bytes.remaining()) {
+            pendingWrite.flip();
+            pendingWrite = ByteBuffer.allocate(Math.max(
+                    pendingWrite.capacity() * 2,
+                    pendingWrite.remaining() + bytes.remaining()))
+                    .put(pendingWrite);
+        }
+        pendingWrite.put(bytes);
+    }
+
+    private synchronized void flush() throws IOException {
+        if (pendingWrite == null) {
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+        pendingWrite.flip();
+        channel.write(pendingWrite);
+        if (pendingWrite.hasRemaining()) {
+            pendingWrite.compact();
+            return;
+        }
+        pendingWrite = null;
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close() {
+        selector.execute(new Runnable() {
+            @Override
+            public void run() {
+                disconnect();
+            }
+        });
+    }
+
+    /**
+     * Drop the connection, on the selector thread, notifying the client if
+     * it was connected.
+     */
+    void disconnect() {
+        final int wasState = state;
+        if (wasState == DISCONNECTED) {
+            return;
+        }
+        state = DISCONNECTED;
+        closeChannel();
+        synchronized (this) {
+            pendingWrite = null;
+        }
+        partialLength = 0;
+        if (wasState == CONNECTED) {
+            listener.serverDisconnected(proxy);
+        } else {
+            if (!isAwaited) {
+                experimentCounters.incConnectionRefusedCounter();
+            }
+            handshake.countDown();
+        }
+    }
+
+    private void closeChannel() {
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("failed to close channel", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.pushtechnology.diffusion.api.message.MessageException;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * The {@link TopicMessage} the nio client engine hands its clients, backed by
+ * a proxy so only the few methods the experiment clients call need
+ * implementing. Other methods throw UnsupportedOperationException.
+ * <P>
+ * An inbound message is a flyweight over the selector's read buffer, reused
+ * for every message of its connection, so clients must duplicate a message
+ * to keep it past the callback. Topic names are decoded once and reused
+ * while the topic stays the same. An outbound message, created by the
+ * connection for a client to send, holds its own headers and data.
+ * <P>
+ * Proxy calls are dispatched by method name and box their results, so the
+ * connection passes the topic name and size of each inbound message to a
+ * {@link DecodedMessageListener} directly.
+ */
+final class NioTopicMessage implements InvocationHandler {
+    private final TopicMessage proxy;
+    private final boolean isOutbound;
+    /** the message type, TOPIC_LOAD or DELTA. */
+    private byte type;
+    private String topicName;
+    /** bytes the topic name was decoded from, inbound only. */
+    private byte[] topicBytes = new byte[0];
+    private int topicLength;
+    /** inbound only, backs the headers and data. */
+    private ByteBuffer buffer;
+    /** index after the topic, of the first FD or the RD. */
+    private int topicEnd;
+    /** index of the RD. */
+    private int headersEnd;
+    private int dataStart;
+    private int dataEnd;
+    /** decoded on demand, inbound only. */
+    private List<String> headers;
+    /** outbound only. */
+    private String[] outboundHeaders;
+    private byte[] data;
+    /** next byte read by nextBytes. */
+    private int position;
+
+    /**
+     * @param isOutboundP true for a message to send
+     */
+    private NioTopicMessage(boolean isOutboundP) {
+        this.isOutbound = isOutboundP;
+        this.proxy = (TopicMessage) Proxy.newProxyInstance(
+                TopicMessage.class.getClassLoader(),
+                new Class<?>[] {TopicMessage.class}, this);
+    }
+
+    /**
+     * @return a flyweight to wrap inbound messages with
+     */
+    static NioTopicMessage inbound() {
+        return new NioTopicMessage(false);
+    }
+
+    /**
+     * @param type message type
+     * @param topic topic
+     * @param capacity expected data size
+     * @return a message to send
+     */
+    static NioTopicMessage outbound(byte type, String topic, int capacity) {
+        final NioTopicMessage message = new NioTopicMessage(true);
+        message.type = type;
+        message.topicName = topic;
+        message.data = new byte[capacity];
+        return message;
+    }
+
+    /**
+     * Point the flyweight at a message.
+     *
+     * @param bufferP holds the message
+     * @param start index of the message type
+     * @param end index after the message
+     */
+    void wrap(ByteBuffer bufferP, int start, int end) {
+        this.buffer = bufferP;
+        this.type = bufferP.get(start);
+        final int headersStart = start + DptProtocol.TYPE_SIZE;
+        final int rd = DptProtocol.indexOf(bufferP, headersStart, end,
+                DptProtocol.RD);
+        headersEnd = rd < 0 ? end : rd;
+        dataStart = rd < 0 ? end : rd + 1;
+        dataEnd = end;
+        position = dataStart;
+        final int fd = DptProtocol.indexOf(bufferP, headersStart, headersEnd,
+                DptProtocol.FD);
+        topicEnd = fd < 0 ? headersEnd : fd;
+        headers = null;
+        if (!isTopic(headersStart)) {
+            topicLength = topicEnd - headersStart;
+            if (topicBytes.length < topicLength) {
+                topicBytes = new byte[topicLength];
+            }
+            for (int i = 0; i < topicLength; i++) {
+                topicBytes[i] = bufferP.get(headersStart + i);
+            }
+            topicName = new String(topicBytes, 0, topicLength,
+                    DptProtocol.UTF8);
+        }
+    }
+
+    private boolean isTopic(int headersStart) {
+        if (topicName == null || topicEnd - headersStart != topicLength) {
+            return false;
+        }
+        for (int i = 0; i < topicLength; i++) {
+            if (topicBytes[i] != buffer.get(headersStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    TopicMessage proxy() {
+        return proxy;
+    }
+
+    String getTopicName() {
+        return topicName;
+    }
+
+    int size() {
+        return dataEnd - dataStart;
+    }
+
+    byte getType() {
+        return type;
+    }
+
+    /**
+     * @param lengthSize bytes in the length prefix
+     * @return an outbound message, ready to write
+     */
+    ByteBuffer encode(int lengthSize) {
+        return DptProtocol.message(type, lengthSize, topicName,
+                outboundHeaders, data, dataEnd);
+    }
+
+    @Override
+    public Object invoke(Object self, Method method, Object[] args)
+            throws Throwable {
+        final String name = method.getName();
+        if ("size".equals(name)) {
+            return size();
+        } else if ("getTopicName".equals(name)) {
+            return topicName;
+        } else if ("isDelta".equals(name)) {
+            return type == DptProtocol.DELTA;
+        } else if ("nextBytes".equals(name)) {
+            nextBytes((byte[]) args[0]);
+            return null;
+        } else if ("getHeader".equals(name)) {
+            final List<String> all = getHeaders();
+            final int index = (Integer) args[0];
+            if (index < 0 || index >= all.size()) {
+                throw new MessageException("no header " + index);
+            }
+            return all.get(index);
+        } else if ("getHeaders".equals(name)) {
+            return getHeaders();
+        } else if ("asBytes".equals(name)) {
+            final byte[] bytes = new byte[dataEnd - dataStart];
+            read(dataStart, bytes);
+            return bytes;
+        } else if ("put".equals(name) && args.length == 1
+                && args[0] instanceof byte[]) {
+            put((byte[]) args[0]);
+            return null;
+        } else if ("setHeaders".equals(name)) {
+            checkOutbound();
+            outboundHeaders = ((String[]) args[0]).clone();
+            return null;
+        } else if ("duplicate".equals(name)) {
+            return duplicate().proxy;
+        } else if ("equals".equals(name)) {
+            return self == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(self);
+        } else if ("toString".equals(name)) {
+            return "TopicMessage[" + topicName + "]";
+        }
+        throw new UnsupportedOperationException(name
+                + " is not supported by the nio client engine");
+    }
+
+    private void nextBytes(byte[] bytes) throws MessageException {
+        if (dataEnd - position < bytes.length) {
+            throw new MessageException("only " + (dataEnd - position)
+                    + " bytes left");
+        }
+        read(position, bytes);
+        position += bytes.length;
+    }
+
+    private void read(int from, byte[] bytes) {
+        if (isOutbound) {
+            System.arraycopy(data, from, bytes, 0, bytes.length);
+            return;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+    }
+
+    private void put(byte[] bytes) throws MessageException {
+        checkOutbound();
+        if (data.length - dataEnd < bytes.length) {
+            data = Arrays.copyOf(data,
+                    Math.max(data.length * 2, dataEnd + bytes.length));
+        }
+        System.arraycopy(bytes, 0, data, dataEnd, bytes.length);
+        dataEnd += bytes.length;
+    }
+
+    private void checkOutbound() throws MessageException {
+        if (!isOutbound) {
+            throw new MessageException("received messages are read only");
+        }
+    }
+
+    private List<String> getHeaders() {
+        if (isOutbound) {
+            if (outboundHeaders == null) {
+                return Collections.emptyList();
+            }
+            return Arrays.asList(outboundHeaders);
+        }
+        if (headers == null) {
+            final List<String> decoded = new ArrayList<String>();
+            int from = topicEnd + 1;
+            while (from <= headersEnd) {
+                int to = DptProtocol.indexOf(buffer, from, headersEnd,
+                        DptProtocol.FD);
+                if (to < 0) {
+                    to = headersEnd;
+                }
+                decoded.add(DptProtocol.decode(buffer, from, to));
+                from = to + 1;
+            }
+            headers = Collections.unmodifiableList(decoded);
+        }
+        return headers;
+    }
+
+    /**
+     * @return an outbound copy, independent of the read buffer
+     */
+    private NioTopicMessage duplicate() {
+        final NioTopicMessage copy =
+                outbound(type, topicName, dataEnd - dataStart);
+        final List<String> all = getHeaders();
+        if (!all.isEmpty()) {
+            copy.outboundHeaders = all.toArray(new String[all.size()]);
+        }
+        read(dataStart, copy.data);
+        copy.dataEnd = copy.data.length;
+        return copy;
+    }
+}
@@ -9,12 +9,14 @@ import com.pushtechnology.diffusion.api.ServerConnection;
 import com.pushtechnology.diffusion.api.message.TopicMessage;
 import com.pushtechnology.diffusion.api.topic.TopicStatus;
 
-public class PingAndThroughputClient implements ExperimentClient {
+public class PingAndThroughputClient implements ExperimentClient,
+        DecodedMessageListener {
 
 	PingClient pingClient;
 	MessageCountingClient throughputClient;
 	
 	ExperimentCounters experimentCounters;
+	private final SubscriptionTimer subscriptionTimer;
 	
 	public PingAndThroughputClient(ExperimentCounters experimentCounters, int size,
     		CommonExperimentSettings settings,
@@ -22,6 +24,8 @@ public class PingAndThroughputClient implements ExperimentClient {
             ScheduledThreadPoolExecutor sched) {
 		
 		this.experimentCounters = experimentCounters;
+		subscriptionTimer = new SubscriptionTimer(experimentCounters);
+		subscriptionTimer.connecting();
 		
 		pingClient =
                 new PingClient(experimentCounters,
@@ -39,6 +43,7 @@ public class PingAndThroughputClient implements ExperimentClient {
 
     @Override
     public final void serverConnected(final ServerConnection serverConnection) {
+    	subscriptionTimer.connected(getInitialTopics());
     	throughputClient.onServerConnect(serverConnection);
     	pingClient.onServerConnect(serverConnection);
         experimentCounters.incClientConnectCounter();
@@ -49,6 +54,7 @@ public class PingAndThroughputClient implements ExperimentClient {
     public final void messageFromServer(
             final ServerConnection serverConnection,
             final TopicMessage topicMessage) {
+    	subscriptionTimer.message(topicMessage);
     	throughputClient.onMessage(serverConnection, topicMessage);
     	pingClient.onMessage(serverConnection, topicMessage);
         experimentCounters.incMessageCounter();
@@ -56,10 +62,24 @@ public class PingAndThroughputClient implements ExperimentClient {
         pingClient.afterMessage(serverConnection, topicMessage);
     }
 
+    @Override
+    public final void messageFromServer(
+            final ServerConnection serverConnection,
+            final TopicMessage topicMessage, final String topicName,
+            final int size) {
+    	subscriptionTimer.message(topicName);
+    	throughputClient.onMessage(serverConnection, topicMessage);
+    	pingClient.onMessage(serverConnection, topicMessage);
+        experimentCounters.incMessageCounter();
+        experimentCounters.incByteCounter(size);
+        pingClient.afterMessage(serverConnection, topicMessage);
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     public final void serverDisconnected(ServerConnection serverConnection) {
         experimentCounters.incClientDisconnectCounter();
+        subscriptionTimer.disconnected();
         throughputClient.onServerDisconnect(serverConnection);
     }
 
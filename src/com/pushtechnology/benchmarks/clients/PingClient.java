@@ -3,14 +3,14 @@ package com.pushtechnology.benchmarks.clients;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
 import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
-import com.pushtechnology.benchmarks.publishers.PingClientSendPublisher;
 import com.pushtechnology.diffusion.api.APIException;
 import com.pushtechnology.diffusion.api.ServerConnection;
 import com.pushtechnology.diffusion.api.message.MessageException;
@@ -18,28 +18,67 @@ import com.pushtechnology.diffusion.api.message.TopicMessage;
 
 /**
  * A ping latency experiment client. Sends a ping every time it receives a ping.
+ * <P>
+ * Each ping carries its sequence number and send time in the first 16 bytes
+ * of the payload, and the client tracks outstanding pings in an
+ * {@link InFlightPings} ring. This allows ping.in.flight concurrent pings per
+ * connection, each echo is matched to its own send and lost or reordered
+ * echoes are counted.
+ * <P>
+ * When an open loop ping rate is configured the client instead sends pings on
+ * a fixed schedule whether or not earlier pings have been echoed. Each ping is
+ * stamped with its intended send time and latency is measured from that time,
+ * so a stalled server shows up as latency rather than as fewer samples.
  * 
  * @author nitsanw
  */
 public final class PingClient extends LatencyMonitoringClient {
-    /** message size. */
-    private final int size;
+    /** 8 bytes, aye. */
+    private static final int SIZEOF_LONG = 8;
+    /** payload offset of the ping sequence number. */
+    private static final int SEQUENCE_OFFSET = 0;
+    /** payload offset of the ping send time. */
+    private static final int TIMESTAMP_OFFSET = SIZEOF_LONG;
+    /** payload bytes used by the ping header. */
+    private static final int PING_HEADER_SIZE = 2 * SIZEOF_LONG;
+    /** minimum ring capacity. */
+    private static final int MIN_TRACKED_PINGS = 16;
 
     /** ping exchange topic. */
     private final String pingTopic;
-    /** sent time. */
-    private long sentTimeNanos;
     private static final Logger LOG = LoggerFactory.getLogger(PingClient.class);
     private int currentQueueSize;
     private int largestQueueSize;
     private int maximumQueueSize;
 
-	private byte[] bytes;
-	
 	private final ScheduledThreadPoolExecutor sched;
 	   
 	private long delay;
 
+    /** outstanding pings. */
+    private final InFlightPings inFlightPings;
+    /** pings kept in flight by the closed loop. */
+    private final int pingsInFlight;
+    /** nanos between open loop pings, 0 when pinging in closed loop. */
+    private final long openLoopIntervalNanos;
+    /** the open loop ping schedule for the current connection. */
+    private volatile ScheduledFuture<?> openLoopPings;
+    /** outgoing pings are stamped with sequence and send time here. */
+    private final byte[] payload;
+    /** we write the ping header by using this byte buffer. */
+    private final ByteBuffer payloadBuffer;
+    /** we copy the ping header of the echo out into this array. */
+    private final byte[] echoHeader = new byte[PING_HEADER_SIZE];
+    /** we extract the ping header by using this byte buffer. */
+    private final ByteBuffer echoHeaderBuffer = ByteBuffer.wrap(echoHeader);
+    /** sends a ping once ping.delay has passed. */
+    private final Runnable delayedPing = new Runnable() {
+        @Override
+        public void run() {
+            sendPing(System.nanoTime());
+        }
+    };
+
     /**
      * @param experimentCountersP ...
      * @param sizeP message size
@@ -52,88 +91,249 @@ public final class PingClient extends LatencyMonitoringClient {
         super(experimentCountersP, true,
         		settings,
                 pingTopicP);
-        this.size = sizeP;
         this.pingTopic = pingTopicP;
         this.delay = Long.parseLong(System.getProperty("ping.delay", "439")); // avoid lock-step
         
-        this.bytes =new byte[size];
+        this.payload = new byte[Math.max(sizeP, PING_HEADER_SIZE)];
+        this.payloadBuffer = ByteBuffer.wrap(payload);
         
         this.sched = sched;
+        this.pingsInFlight = Math.max(1, settings.getPingsInFlight());
+
+        // enough room for every ping to be outstanding for a second
+        int trackedPings = 4 * pingsInFlight;
+        if (settings.isPingOpenLoop()) {
+            if (sched == null) {
+                throw new IllegalArgumentException(
+                        "open loop pinging requires a scheduler");
+            }
+            this.openLoopIntervalNanos =
+                    TimeUnit.SECONDS.toNanos(1) / settings.getPingOpenLoopRate();
+            trackedPings = Math.max(trackedPings,
+                    settings.getPingOpenLoopRate());
+        } else {
+            this.openLoopIntervalNanos = 0L;
+        }
+        this.inFlightPings = new InFlightPings(Math.max(MIN_TRACKED_PINGS,
+                Integer.highestOneBit(trackedPings - 1) << 1));
+        experimentCountersP.trackPings(inFlightPings);
     }
 
 
     @Override
     public void afterMessage(ServerConnection serverConnection,
             TopicMessage topicMessage) {
-    	
-    	if (topicMessage.isDelta() && topicMessage.getTopicName().equals(PingClientSendPublisher.ROOT_TOPIC)) {
-        	
-            	// PingClientSendPublisher queue data
-        	try {
-				currentQueueSize = Integer.parseInt( topicMessage.getHeader(0).split(":")[1] );
-        	largestQueueSize = Integer.parseInt( topicMessage.getHeader(1).split(":")[1] ); //client.getLargestQueueSize();
-        	maximumQueueSize = Integer.parseInt( topicMessage.getHeader(2).split(":")[1] ); //client.getMaximumQueueSize();
-        	
-        	experimentCounters.sampleClientQueueSize(currentQueueSize);
-        	experimentCounters.sampleClientQueueSizeHighWatermark(largestQueueSize);
-
-        	//if(currentQueueSize>100)
-        	//	System.out.println(serverConnection.getClientID()+" "+currentQueueSize+" "+largestQueueSize+" "+maximumQueueSize);
-			} catch (Exception e) {
-				e.printStackTrace();
-			} //client.getCurrentQueueSize();
-        	
-            ping(topicMessage);
+        if (!isOpenLoop() && isPingEcho(topicMessage)) {
+            ping();
+        }
+    }
+
+    /**
+     * Decode the echo and hand it to {@link #echo}.
+     */
+    @Override
+    protected void onPingEcho(TopicMessage topicMessage, long arrived) {
+        echo(getSentTimestamp(topicMessage), arrived,
+                queueHeader(topicMessage, PingHeaders.CURRENT_QUEUE_SIZE),
+                queueHeader(topicMessage, PingHeaders.LARGEST_QUEUE_SIZE),
+                queueHeader(topicMessage, PingHeaders.MAXIMUM_QUEUE_SIZE));
+    }
+
+    /**
+     * The work of a decoded echo: record its latency and sample the
+     * PingClientSendPublisher queue data it carries.
+     *
+     * @param sent the ping's send time, see {@link #matchEcho}
+     * @param arrived when the echo arrived
+     * @param currentHeader current queue size header, or null
+     * @param largestHeader largest queue size header, or null
+     * @param maximumHeader maximum queue size header, or null
+     */
+    void echo(long sent, long arrived, String currentHeader,
+            String largestHeader, String maximumHeader) {
+        recordLatency(sent, arrived);
+        final int current = PingHeaders.valueOf(currentHeader);
+        if (current != PingHeaders.NO_VALUE) {
+            currentQueueSize = current;
+            experimentCounters.sampleClientQueueSize(currentQueueSize);
+        }
+        final int largest = PingHeaders.valueOf(largestHeader);
+        if (largest != PingHeaders.NO_VALUE) {
+            largestQueueSize = largest;
+            experimentCounters.sampleClientQueueSizeHighWatermark(
+                    largestQueueSize);
+        }
+        final int maximum = PingHeaders.valueOf(maximumHeader);
+        if (maximum != PingHeaders.NO_VALUE) {
+            maximumQueueSize = maximum;
+        }
+    }
+
+    /**
+     * @param topicMessage an echo
+     * @param index header index
+     * @return the header, or null if missing
+     */
+    private static String queueHeader(TopicMessage topicMessage, int index) {
+        try {
+            return topicMessage.getHeader(index);
+        } catch (Exception e) {
+            return null;
         }
     }
 
     @Override
     public void afterServerConnect(ServerConnection serverConnection) {
 
-            try {
-                TopicMessage m = connection.createDeltaMessage(pingTopic, size);
-				m.put(bytes);
-		        ping(m);
-			} catch (MessageException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+            if (isOpenLoop()) {
+                startOpenLoopPings();
+                return;
+            }
+            for (int i = 0; i < pingsInFlight; i++) {
+                ping();
+            }
     }
 
     /**
-     * send a ping to server.
-     * @param topicMessage 
+     * send a ping to server, after ping.delay if we have a scheduler.
      */
-    @SuppressWarnings("deprecation")
-    void ping(final TopicMessage topicMessage) {
-        	
-    	
+    void ping() {
     	if(sched != null){
-        	sched.schedule(new Runnable() {
-        	       public void run() { 
-        	    	   sentTimeNanos = System.nanoTime();
-                       try {
-						connection.send(topicMessage);
-					} catch (APIException e) {
-						e.printStackTrace();
-					}
-        	       }
-        	     }, this.delay, TimeUnit.MILLISECONDS);
+        	sched.schedule(delayedPing, this.delay, TimeUnit.MILLISECONDS);
         	
     	} else {
-	    	sentTimeNanos = System.nanoTime();
-            try {
-				connection.send(topicMessage);
-			} catch (APIException e) {
-				e.printStackTrace();
-			}
+	    	sendPing(System.nanoTime());
     	}
-        	
-          
     }
+
+    /**
+     * Stamp a ping with the next sequence number and send it.
+     *
+     * @param sentNanos the send time to measure the ping's latency from
+     */
+    @SuppressWarnings("deprecation")
+    private void sendPing(long sentNanos) {
+        final ServerConnection c = connection;
+        if (c == null) {
+            return;
+        }
+        try {
+            final TopicMessage m = c.createDeltaMessage(pingTopic,
+                    payload.length);
+            synchronized (payload) {
+                payloadBuffer.putLong(SEQUENCE_OFFSET,
+                        inFlightPings.send(sentNanos));
+                payloadBuffer.putLong(TIMESTAMP_OFFSET, sentNanos);
+                m.put(payload);
+            }
+            c.send(m);
+        } catch (APIException e) {
+            LOG.debug("Failed to send ping", e);
+        }
+    }
+
+    /**
+     * @return true if pings are sent on a fixed schedule
+     */
+    private boolean isOpenLoop() {
+        return openLoopIntervalNanos > 0L;
+    }
+
+    /**
+     * Schedule pings at the open loop rate for the current connection,
+     * replacing the schedule of any previous connection.
+     */
+    private void startOpenLoopPings() {
+        stopOpenLoopPings();
+        openLoopPings = sched.scheduleAtFixedRate(new OpenLoopPingTask(),
+                0L, openLoopIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancel the open loop schedule, if any.
+     */
+    private void stopOpenLoopPings() {
+        final ScheduledFuture<?> pings = openLoopPings;
+        if (pings != null) {
+            pings.cancel(false);
+            openLoopPings = null;
+        }
+    }
+
+    /**
+     * Sends one ping per execution, stamped with the time the schedule
+     * intended it to be sent rather than the time it actually got sent.
+     */
+    private final class OpenLoopPingTask implements Runnable {
+        /** schedule start. */
+        private final long startNanos = System.nanoTime();
+        /** pings sent so far on this schedule. */
+        private long pingsSent;
+
+        @Override
+        public void run() {
+            final ServerConnection c = connection;
+            if (c == null || !c.isConnected()) {
+                stopOpenLoopPings();
+                return;
+            }
+            final long intendedNanos =
+                    startNanos + pingsSent * openLoopIntervalNanos;
+            pingsSent++;
+            sendPing(intendedNanos);
+        }
+    }
+
+    /**
+     * Match the echo to its ping by sequence number. Echoes of pings which
+     * are no longer tracked are still measured from the send time they
+     * carry.
+     */
     @Override
     protected long getSentTimestamp(TopicMessage topicMessage) {
-        return sentTimeNanos;
+        try {
+            topicMessage.nextBytes(echoHeader);
+        } catch (MessageException e) {
+            throw new RuntimeException(e);
+        }
+        return matchEcho(echoHeaderBuffer.getLong(SEQUENCE_OFFSET),
+                echoHeaderBuffer.getLong(TIMESTAMP_OFFSET));
+    }
+
+    /**
+     * @param sequence the echo's sequence number
+     * @param carriedSent the send time the echo carries
+     * @return the send time of the matching ping, or the carried one if it
+     *         is no longer tracked
+     */
+    long matchEcho(long sequence, long carriedSent) {
+        final long sent = inFlightPings.echo(sequence);
+        if (sent == InFlightPings.NOT_IN_FLIGHT) {
+            return carriedSent;
+        }
+        return sent;
+    }
+
+    /**
+     * @return the pings in flight, for benchmarks to send pings without a
+     *         connection
+     */
+    InFlightPings getInFlightPings() {
+        return inFlightPings;
+    }
+
+    /**
+     * Open loop pings are measured from their intended send time so need no
+     * further correction. Delayed closed loop pings expect a sample every
+     * ping.delay millis and get the histogram's coordinated omission
+     * correction.
+     */
+    @Override
+    protected long getExpectedIntervalNanos() {
+        if (isOpenLoop() || sched == null) {
+            return 0L;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(delay);
     }
 
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import com.pushtechnology.benchmarks.publishers.PingClientSendPublisher;
+
+/**
+ * Reads the "name:value" queue size headers the
+ * {@link PingClientSendPublisher} attaches to every echo. Parsing is done a
+ * character at a time so the receive path does not allocate.
+ */
+public final class PingHeaders {
+    /** header index of the client's current queue size. */
+    public static final int CURRENT_QUEUE_SIZE = 0;
+    /** header index of the client's largest queue size. */
+    public static final int LARGEST_QUEUE_SIZE = 1;
+    /** header index of the client's maximum queue size. */
+    public static final int MAXIMUM_QUEUE_SIZE = 2;
+    /** returned for headers without a valid value. */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+    /** radix. */
+    private static final int DECIMAL = 10;
+
+    /**
+     * no instances wanted...
+     */
+    private PingHeaders() {
+    }
+
+    /**
+     * @param header a "name:value" header
+     * @return the int value following the first ':', or NO_VALUE if there is
+     *         none or it is not a decimal int
+     */
+    public static int valueOf(String header) {
+        if (header == null) {
+            return NO_VALUE;
+        }
+        final int length = header.length();
+        int i = header.indexOf(':') + 1;
+        if (i == 0 || i == length) {
+            return NO_VALUE;
+        }
+        final boolean negative = header.charAt(i) == '-';
+        if (negative && ++i == length) {
+            return NO_VALUE;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            final int digit = header.charAt(i) - '0';
+            if (digit < 0 || digit >= DECIMAL) {
+                return NO_VALUE;
+            }
+            value = value * DECIMAL + digit;
+            if (value > Integer.MAX_VALUE) {
+                return NO_VALUE;
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * Times a client from connect to serverConnected, and from each subscribe
+ * request to the first message delivered on the topic. The initial topics
+ * are subscribed to by the connection handshake, so their clock starts at
+ * serverConnected. A descendant selector such as "ROOT//" gets its first
+ * message from any topic below it.
+ * <P>
+ * Topics waiting for their first message are looked up by name, so a
+ * message costs a hash lookup however many topics wait. The few selectors
+ * waiting are kept apart and only matched while there are any. The message
+ * path does not allocate.
+ */
+final class SubscriptionTimer {
+    /** suffix of a selector for a topic and all its descendants. */
+    private static final String DESCENDANTS = "//";
+    /** marks no connect in progress. */
+    private static final long NOT_CONNECTING = 0L;
+    /** initial capacity of the selector arrays. */
+    private static final int INITIAL_SELECTORS = 2;
+    private final ExperimentCounters experimentCounters;
+    /** when the current connect started, NOT_CONNECTING if none. */
+    private volatile long connectStart = NOT_CONNECTING;
+    /** subscribe request times of plain topics by topic name. */
+    private final ConcurrentMap<String, Long> topicTimes =
+            new ConcurrentHashMap<String, Long>();
+    // CHECKSTYLE:OFF waiting selectors, guarded by this
+    private String[] selectors = new String[INITIAL_SELECTORS];
+    private long[] selectorTimes = new long[INITIAL_SELECTORS];
+    // CHECKSTYLE:ON
+    /** number of selectors waiting, read without the lock. */
+    private volatile int selectorCount;
+
+    /**
+     * @param experimentCountersP records the timings
+     */
+    SubscriptionTimer(ExperimentCounters experimentCountersP) {
+        experimentCounters = experimentCountersP;
+    }
+
+    /**
+     * A connect is about to start.
+     */
+    void connecting() {
+        connectStart = System.nanoTime();
+    }
+
+    /**
+     * @param initialTopics topics subscribed to by the connection handshake
+     */
+    void connected(String[] initialTopics) {
+        final long now = System.nanoTime();
+        final long start = connectStart;
+        if (start != NOT_CONNECTING) {
+            connectStart = NOT_CONNECTING;
+            experimentCounters.getConnectLatency().record(now - start);
+        }
+        subscribing(now, initialTopics);
+    }
+
+    /**
+     * @param topics topics about to be subscribed to
+     */
+    void subscribing(String... topics) {
+        subscribing(System.nanoTime(), topics);
+    }
+
+    /**
+     * Stop waiting for the first message of topics unsubscribed from, so a
+     * later subscribe is timed from its own request.
+     *
+     * @param topics topics or selectors about to be unsubscribed from
+     */
+    void unsubscribing(String... topics) {
+        if (topics == null) {
+            return;
+        }
+        for (String topic : topics) {
+            if (!topic.endsWith(DESCENDANTS)) {
+                topicTimes.remove(topic);
+            } else {
+                removeSelector(topic);
+            }
+        }
+    }
+
+    /**
+     * @param topicMessage a delivered message
+     */
+    void message(TopicMessage topicMessage) {
+        if (topicTimes.isEmpty() && selectorCount == 0) {
+            return;
+        }
+        message(topicMessage.getTopicName());
+    }
+
+    /**
+     * @param topic the topic of a delivered message
+     */
+    void message(String topic) {
+        final boolean topicsWaiting = !topicTimes.isEmpty();
+        if (!topicsWaiting && selectorCount == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (topicsWaiting) {
+            final Long subscribeTime = topicTimes.remove(topic);
+            if (subscribeTime != null) {
+                experimentCounters.getFirstMessageLatency().record(
+                        now - subscribeTime);
+            }
+        }
+        if (selectorCount != 0) {
+            matchSelectors(topic, now);
+        }
+    }
+
+    private synchronized void matchSelectors(String topic, long now) {
+        int i = 0;
+        while (i < selectorCount) {
+            if (matches(selectors[i], topic)) {
+                experimentCounters.getFirstMessageLatency().record(
+                        now - selectorTimes[i]);
+                removeSelector(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private synchronized void removeSelector(String selector) {
+        for (int i = 0; i < selectorCount; i++) {
+            if (selectors[i].equals(selector)) {
+                removeSelector(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move the last selector into the place of the one removed.
+     *
+     * @param i index of the selector, the caller holds the lock
+     */
+    private void removeSelector(int i) {
+        final int last = selectorCount - 1;
+        selectors[i] = selectors[last];
+        selectorTimes[i] = selectorTimes[last];
+        selectors[last] = null;
+        selectorCount = last;
+    }
+
+    /**
+     * @param selector a topic name, or a topic name followed by "//" for the
+     *        topic and its descendants
+     * @param topic name of a topic
+     * @return true if the selector selects the topic
+     */
+    static boolean matches(String selector, String topic) {
+        if (!selector.endsWith(DESCENDANTS)) {
+            return selector.equals(topic);
+        }
+        final int parentLength = selector.length() - DESCENDANTS.length();
+        if (topic.length() < parentLength
+                || !topic.regionMatches(0, selector, 0, parentLength)) {
+            return false;
+        }
+        return topic.length() == parentLength
+                || topic.charAt(parentLength) == '/';
+    }
+
+    /**
+     * Forget the subscriptions still waiting, they end with the connection.
+     */
+    void disconnected() {
+        topicTimes.clear();
+        synchronized (this) {
+            Arrays.fill(selectors, 0, selectorCount, null);
+            selectorCount = 0;
+        }
+    }
+
+    private void subscribing(long now, String[] topics) {
+        if (topics == null || topics.length == 0) {
+            return;
+        }
+        final Long subscribeTime = now;
+        for (String topic : topics) {
+            // a repeated subscribe keeps the first request time
+            if (!topic.endsWith(DESCENDANTS)) {
+                topicTimes.putIfAbsent(topic, subscribeTime);
+            } else {
+                addSelector(topic, now);
+            }
+        }
+    }
+
+    private synchronized void addSelector(String selector, long now) {
+        for (int i = 0; i < selectorCount; i++) {
+            if (selectors[i].equals(selector)) {
+                return;
+            }
+        }
+        if (selectorCount == selectors.length) {
+            selectors = Arrays.copyOf(selectors, selectorCount * 2);
+            selectorTimes = Arrays.copyOf(selectorTimes, selectorCount * 2);
+        }
+        selectors[selectorCount] = selector;
+        selectorTimes[selectorCount] = now;
+        selectorCount++;
+    }
+}
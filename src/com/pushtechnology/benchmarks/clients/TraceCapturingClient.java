@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.clients;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.util.TraceWriter;
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * A client which writes every update it receives to a trace, capturing the
+ * shape of a feed for replay by the broadcast publisher. Reconnects so the
+ * trace carries on through disconnections.
+ */
+public class TraceCapturingClient extends MessageCountingClient {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(TraceCapturingClient.class);
+    /** the trace, closed by the owner. */
+    private final TraceWriter trace;
+    /** stop capturing after a failure to write. */
+    private volatile boolean isCapturing = true;
+
+    /**
+     * @param experimentCountersP shared experiment counters
+     * @param clientSettings ...
+     * @param traceP the trace to write to
+     * @param initialTopicsP ...
+     */
+    public TraceCapturingClient(ExperimentCounters experimentCountersP,
+            CommonExperimentSettings clientSettings, TraceWriter traceP,
+            String... initialTopicsP) {
+        super(experimentCountersP, true, clientSettings, initialTopicsP);
+        this.trace = traceP;
+    }
+
+    @Override
+    protected final void onMessage(ServerConnection serverConnection,
+            TopicMessage topicMessage) {
+        if (!isCapturing) {
+            return;
+        }
+        try {
+            trace.append(topicMessage.getTopicName(), System.nanoTime(),
+                    topicMessage.size());
+        } catch (IOException e) {
+            isCapturing = false;
+            LOG.error("Failed to write trace " + trace.getFile()
+                    + ", capture stopped", e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.io.PrintStream;
+
+/**
+ * A load strategy setting the number of clients directly rather than when to
+ * add more. The experiment loop connects or closes clients to meet the
+ * target, and shouldIncrementLoad is not used.
+ */
+public interface ClientTargetLoadStrategy extends ExperimentLoadStrategy {
+    /**
+     * Called by the experiment loop once a second.
+     *
+     * @return the number of clients to have connected
+     */
+    int getTargetClients();
+
+    /**
+     * Report the outcome at the end of the experiment.
+     *
+     * @param output the experiment output
+     */
+    void report(PrintStream output);
+}
@@ -31,6 +31,16 @@ import org.slf4j.LoggerFactory;
  * 
  */
 public class CommonExperimentSettings {
+    /**
+     * @param clients clients for the whole experiment
+     * @return this node's share of the clients, the first nodes taking one
+     *         more when they do not divide evenly
+     */
+    public final int share(int clients) {
+        return clients / distributedNodes
+                + (distributedNode < clients % distributedNodes ? 1 : 0);
+    }
+
     // CHECKSTYLE:OFF adding docs will add nothing...
     private static final String DEFAULT_HOST = "localhost";
     private static final String DEFAULT_URL = "ws://localhost:8080";
@@ -45,9 +55,24 @@ public class CommonExperimentSettings {
     private static final double DEFAULT_MAX_TEST_TIME_MINUTES = 5.0;
     private static final Logger LOG = LoggerFactory.getLogger(CommonExperimentSettings.class);
     private static final long DEFAULT_WARMUP_MESSAGES = 20000;
+    private static final long DEFAULT_MONITOR_SAMPLE_INTERVAL_MS = 1000;
+    private static final long DEFAULT_MONITOR_JMX_POLL_INTERVAL_MS = 1000;
+    private static final String DEFAULT_SUBSCRIPTION_TOPIC_PREFIX = "ROOT/";
+    private static final String DEFAULT_LOAD_STRATEGY = "default";
+    private static final String DEFAULT_COORDINATOR = "localhost:9555";
+    private static final String DEFAULT_CLIENT_ENGINE = "diffusion";
+    private static final int DEFAULT_NIO_SELECTORS = 2;
+    private static final int DEFAULT_CLIENT_CONNECT_CONCURRENCY = 10;
+    private static final int DEFAULT_NIO_BUFFER_SIZE = 64 * 1024;
+    private static final double DEFAULT_SATURATION_P99_LATENCY_MS = 10.0;
+    private static final double DEFAULT_SATURATION_CONNECTION_LOSS = 0.01;
     private final String[] diffusionUrls;
     private final int maxClients;
     private final long clientCreatePauseNanos;
+    private final double clientConnectRate;
+    private final int clientConnectBurst;
+    private final int clientConnectConcurrency;
+    private final int clientConnectQueue;
     private final int inboundThreadPoolSize;
     private final String[] localInterfaces;
     private final int initialClients;
@@ -61,6 +86,31 @@ public class CommonExperimentSettings {
     private final String outputFileName;
     private final String diffusionHost;
 	private final long warmupMessages;
+    private final int pingOpenLoopRate;
+    private final int pingsInFlight;
+    private final long monitorSampleIntervalMs;
+    private final long monitorJmxPollIntervalMs;
+    private final String monitorJmxServerAttributes;
+    private final String traceCaptureFile;
+    private final int subscriptionTopics;
+    private final int subscriptionTopicCount;
+    private final double subscriptionSkew;
+    private final String subscriptionTopicPrefix;
+    private final String loadStrategy;
+    private final String loadProfile;
+    private final int distributedNodes;
+    private final int distributedNode;
+    private final String coordinator;
+    private final double saturationP99LatencyMs;
+    private final double saturationConnectionLoss;
+    private final int saturationResolutionClients;
+    private final int saturationRateInitial;
+    private final int saturationRateMax;
+    private final int saturationRateResolution;
+    private final String clientEngine;
+    private final int nioSelectors;
+    private final int nioBufferSize;
+    private final boolean nioUnverified;
     // CHECKSTYLE:ON
     /**
      * Load the experiment settings from properties. Will modify the settings
@@ -72,17 +122,42 @@ public class CommonExperimentSettings {
         diffusionUrls =
                 getProperty(settings, "diffusion.url", DEFAULT_URL).split(",");
         diffusionHost = getProperty(settings, "diffusion.host", DEFAULT_HOST);
-        maxClients = getProperty(settings, "max.clients", 
-                DEFAULT_MAX_CLIENTS);
-        initialClients = getProperty(settings, "initial.clients",
-                DEFAULT_INITIAL_CLIENTS);
-        clientIncrement = getProperty(settings, "clients.increment",
-                DEFAULT_CLIENT_INCREMENT);
+        distributedNodes = Math.max(1, getProperty(settings,
+                "distributed.nodes", 1));
+        distributedNode = getProperty(settings, "distributed.node", 0);
+        if (distributedNode < 0 || distributedNode >= distributedNodes) {
+            throw new IllegalArgumentException("distributed.node "
+                    + distributedNode + " of " + distributedNodes);
+        }
+        coordinator = getProperty(settings, "distributed.coordinator",
+                DEFAULT_COORDINATOR).trim();
+        // clients are shared between the nodes of a distributed experiment
+        maxClients = share(getProperty(settings, "max.clients",
+                DEFAULT_MAX_CLIENTS));
+        initialClients = share(getProperty(settings, "initial.clients",
+                DEFAULT_INITIAL_CLIENTS));
+        clientIncrement = share(getProperty(settings, "clients.increment",
+                DEFAULT_CLIENT_INCREMENT));
         clientCreatePauseNanos =
                 (long) (TimeUnit.SECONDS.toNanos(1)
                 * getProperty(settings,
                         "client.create.pause.seconds",
                         DEFAULT_CLIENT_CREATE_PAUSE_SECS));
+        clientConnectConcurrency = Math.max(1, getProperty(settings,
+                "client.connect.concurrency",
+                DEFAULT_CLIENT_CONNECT_CONCURRENCY));
+        // unless set, the rate a connect pool pausing after each connect
+        // would reach, shared between the nodes
+        clientConnectRate = getProperty(settings, "client.connect.rate",
+                clientCreatePauseNanos > 0L ? clientConnectConcurrency
+                        * TimeUnit.SECONDS.toNanos(1)
+                        / (double) clientCreatePauseNanos : 0.0)
+                / distributedNodes;
+        clientConnectBurst = Math.max(1, getProperty(settings,
+                "client.connect.burst", 1));
+        clientConnectQueue = Math.max(1, getProperty(settings,
+                "client.connect.queue",
+                initialClients + 2 * clientIncrement));
         clientIncrementPauseSeconds =
                 getProperty(settings, "client.increment.pause.seconds",
                         DEFAULT_CLIENT_INCREMENT_PAUSE_SECS);
@@ -111,6 +186,59 @@ public class CommonExperimentSettings {
         outputFileName = getProperty(settings, "experiment.output", "");
 
         warmupMessages = getProperty(settings, "warmup.messages", DEFAULT_WARMUP_MESSAGES);
+        pingOpenLoopRate = getProperty(settings, "ping.open.loop.rate", 0);
+        pingsInFlight = getProperty(settings, "ping.in.flight", 1);
+        monitorSampleIntervalMs = Math.max(1L, getProperty(settings,
+                "monitor.sample.interval.ms",
+                DEFAULT_MONITOR_SAMPLE_INTERVAL_MS));
+        monitorJmxPollIntervalMs = Math.max(1L, getProperty(settings,
+                "monitor.jmx.poll.interval.ms",
+                DEFAULT_MONITOR_JMX_POLL_INTERVAL_MS));
+        monitorJmxServerAttributes = getProperty(settings,
+                "monitor.jmx.server.attributes", "");
+        traceCaptureFile = getProperty(settings, "trace.capture.file", "");
+        subscriptionTopics = getProperty(settings, "subscription.topics", 0);
+        subscriptionTopicCount = getProperty(settings,
+                "subscription.topic.count", 0);
+        subscriptionSkew = getProperty(settings, "subscription.skew", 0.0);
+        subscriptionTopicPrefix = getProperty(settings,
+                "subscription.topic.prefix",
+                DEFAULT_SUBSCRIPTION_TOPIC_PREFIX);
+        loadStrategy = getProperty(settings, "load.strategy",
+                DEFAULT_LOAD_STRATEGY).trim();
+        loadProfile = getProperty(settings, "load.profile", "").trim();
+        saturationP99LatencyMs = getProperty(settings,
+                "saturation.slo.p99.latency.ms",
+                DEFAULT_SATURATION_P99_LATENCY_MS);
+        saturationConnectionLoss = getProperty(settings,
+                "saturation.slo.connection.loss",
+                DEFAULT_SATURATION_CONNECTION_LOSS);
+        saturationResolutionClients = Math.max(1, getProperty(settings,
+                "saturation.resolution.clients", clientIncrement / 4));
+        saturationRateInitial = getProperty(settings,
+                "saturation.rate.initial", 0);
+        saturationRateMax = getProperty(settings, "saturation.rate.max",
+                saturationRateInitial);
+        saturationRateResolution = Math.max(1, getProperty(settings,
+                "saturation.rate.resolution", 1));
+        if (saturationRateInitial < 0
+                || saturationRateMax < saturationRateInitial) {
+            throw new IllegalArgumentException("saturation.rate.initial must "
+                    + "not be negative or above saturation.rate.max");
+        }
+        clientEngine = getProperty(settings, "client.engine",
+                DEFAULT_CLIENT_ENGINE).trim();
+        nioSelectors = Math.max(1, getProperty(settings,
+                "client.nio.selectors", DEFAULT_NIO_SELECTORS));
+        nioBufferSize = getProperty(settings, "client.nio.buffer.size",
+                DEFAULT_NIO_BUFFER_SIZE);
+        nioUnverified = getProperty(settings, "client.nio.unverified",
+                false);
+        if (isNioClientEngine() && !nioUnverified) {
+            throw new IllegalArgumentException("client.engine=nio speaks a "
+                    + "DPT framing not yet verified against a live server, "
+                    + "set client.nio.unverified=true to use it anyway");
+        }
         
         logSettings();
     }
@@ -128,6 +256,25 @@ public class CommonExperimentSettings {
         return clientCreatePauseNanos;
     }
 
+    /**
+     * @return connects per second, 0 for as fast as the concurrency allows
+     */
+    public double getClientConnectRate() {
+        return clientConnectRate;
+    }
+
+    public int getClientConnectBurst() {
+        return clientConnectBurst;
+    }
+
+    public int getClientConnectConcurrency() {
+        return clientConnectConcurrency;
+    }
+
+    public int getClientConnectQueue() {
+        return clientConnectQueue;
+    }
+
     public int getInboundThreadPoolSize() {
         return inboundThreadPoolSize;
     }
@@ -186,6 +333,18 @@ public class CommonExperimentSettings {
         builder.append("Client create pause nanos:      ");
         builder.append(this.getClientCreatePauseNanos());
         builder.append('\n');
+        builder.append("Client connect rate:            ");
+        builder.append(this.getClientConnectRate());
+        builder.append('\n');
+        builder.append("Client connect burst:           ");
+        builder.append(this.getClientConnectBurst());
+        builder.append('\n');
+        builder.append("Client connect concurrency:     ");
+        builder.append(this.getClientConnectConcurrency());
+        builder.append('\n');
+        builder.append("Client connect queue:           ");
+        builder.append(this.getClientConnectQueue());
+        builder.append('\n');
         builder.append("Inbound thread pool size:       ");
         builder.append(this.getInboundThreadPoolSize());
         builder.append('\n');
@@ -225,6 +384,85 @@ public class CommonExperimentSettings {
         builder.append("Warmup Messages:                 ");
         builder.append(this.getWarmupMessages());
         builder.append('\n');
+        builder.append("Ping open loop rate:            ");
+        builder.append(this.getPingOpenLoopRate());
+        builder.append('\n');
+        builder.append("Pings in flight:                ");
+        builder.append(this.getPingsInFlight());
+        builder.append('\n');
+        builder.append("Monitor sample interval millis: ");
+        builder.append(this.getMonitorSampleIntervalMs());
+        builder.append('\n');
+        builder.append("Monitor JMX poll interval ms:   ");
+        builder.append(this.getMonitorJmxPollIntervalMs());
+        builder.append('\n');
+        builder.append("Monitor JMX server attributes:  ");
+        builder.append(this.getMonitorJmxServerAttributes());
+        builder.append('\n');
+        builder.append("Trace capture file:             ");
+        builder.append(this.getTraceCaptureFile());
+        builder.append('\n');
+        builder.append("Subscription topics:            ");
+        builder.append(this.getSubscriptionTopics());
+        builder.append('\n');
+        builder.append("Subscription topic count:       ");
+        builder.append(this.getSubscriptionTopicCount());
+        builder.append('\n');
+        builder.append("Subscription skew:              ");
+        builder.append(this.getSubscriptionSkew());
+        builder.append('\n');
+        builder.append("Subscription topic prefix:      ");
+        builder.append(this.getSubscriptionTopicPrefix());
+        builder.append('\n');
+        builder.append("Load strategy:                  ");
+        builder.append(this.getLoadStrategy());
+        builder.append('\n');
+        builder.append("Load profile:                   ");
+        builder.append(this.getLoadProfile());
+        builder.append('\n');
+        if (this.isDistributed()) {
+            builder.append("Distributed node:               ");
+            builder.append(this.getDistributedNode());
+            builder.append(" of ");
+            builder.append(this.getDistributedNodes());
+            builder.append('\n');
+            builder.append("Distributed coordinator:        ");
+            builder.append(this.getCoordinator());
+            builder.append('\n');
+        }
+        builder.append("Client engine:                  ");
+        builder.append(this.getClientEngine());
+        builder.append('\n');
+        if (this.isNioClientEngine()) {
+            builder.append("NIO selectors:                  ");
+            builder.append(this.getNioSelectors());
+            builder.append('\n');
+            builder.append("NIO buffer size:                ");
+            builder.append(this.getNioBufferSize());
+            builder.append('\n');
+        }
+        if (this.isSaturationSearch()) {
+            builder.append("Saturation p99 latency ms SLO:  ");
+            builder.append(this.getSaturationP99LatencyMs());
+            builder.append('\n');
+            builder.append("Saturation connection loss SLO: ");
+            builder.append(this.getSaturationConnectionLoss());
+            builder.append('\n');
+            builder.append("Saturation resolution clients:  ");
+            builder.append(this.getSaturationResolutionClients());
+            builder.append('\n');
+            if (this.isSaturationRateSearch()) {
+                builder.append("Saturation rate initial:        ");
+                builder.append(this.getSaturationRateInitial());
+                builder.append('\n');
+                builder.append("Saturation rate max:            ");
+                builder.append(this.getSaturationRateMax());
+                builder.append('\n');
+                builder.append("Saturation rate resolution:     ");
+                builder.append(this.getSaturationRateResolution());
+                builder.append('\n');
+            }
+        }
         
         return builder.toString();
     }
@@ -239,6 +477,227 @@ public class CommonExperimentSettings {
 		return this.warmupMessages;
 	}
 
+	/**
+	 * Pings per second each ping client sends on a fixed schedule regardless
+	 * of outstanding pings. 0 means the client waits for each echo before
+	 * sending the next ping.
+	 * 
+	 * @return the open loop ping rate per client
+	 */
+	public int getPingOpenLoopRate() {
+		return this.pingOpenLoopRate;
+	}
+
+	public boolean isPingOpenLoop() {
+		return this.pingOpenLoopRate > 0;
+	}
+
+	/**
+	 * @return pings each closed loop ping client keeps outstanding
+	 */
+	public int getPingsInFlight() {
+		return this.pingsInFlight;
+	}
+
+	/**
+	 * @return millis between experiment monitor samples
+	 */
+	public long getMonitorSampleIntervalMs() {
+		return this.monitorSampleIntervalMs;
+	}
+
+	/**
+	 * @return millis between polls of the server's JMX beans
+	 */
+	public long getMonitorJmxPollIntervalMs() {
+		return this.monitorJmxPollIntervalMs;
+	}
+
+	/**
+	 * @return ';' separated objectName@attribute server MBean attributes to
+	 *         add to the monitor samples
+	 */
+	public String getMonitorJmxServerAttributes() {
+		return this.monitorJmxServerAttributes;
+	}
+
+	/**
+	 * @return file to capture a trace of the updates received to, or empty
+	 *         for no capture
+	 */
+	public String getTraceCaptureFile() {
+		return this.traceCaptureFile;
+	}
+
+	/**
+	 * @return topics each message counting client subscribes to, 0 to
+	 *         subscribe to the root topic selector instead
+	 */
+	public int getSubscriptionTopics() {
+		return this.subscriptionTopics;
+	}
+
+	/**
+	 * @return number of topics the subscriptions are drawn from, 0 for the
+	 *         number of topics counted so far
+	 */
+	public int getSubscriptionTopicCount() {
+		return this.subscriptionTopicCount;
+	}
+
+	/**
+	 * @return Zipf exponent of topic popularity across the subscriptions, 0
+	 *         for every topic equally likely
+	 */
+	public double getSubscriptionSkew() {
+		return this.subscriptionSkew;
+	}
+
+	/**
+	 * @return prefix of the subscribed topic names, followed by the topic
+	 *         index
+	 */
+	public String getSubscriptionTopicPrefix() {
+		return this.subscriptionTopicPrefix;
+	}
+
+	/**
+	 * @return "default" to ramp the clients over time, or "saturation" to
+	 *         search for the most clients served within the SLOs
+	 */
+	public String getLoadStrategy() {
+		return this.loadStrategy;
+	}
+
+	public boolean isSaturationSearch() {
+		return "saturation".equalsIgnoreCase(this.loadStrategy);
+	}
+
+	/**
+	 * @return ';' separated load profile phases, see LoadProfile, or empty
+	 *         to ramp the clients instead
+	 */
+	public String getLoadProfile() {
+		return this.loadProfile;
+	}
+
+	/**
+	 * @return highest p99 latency in millis a load is served within
+	 */
+	public double getSaturationP99LatencyMs() {
+		return this.saturationP99LatencyMs;
+	}
+
+	/**
+	 * @return highest fraction of the clients lost or refused while holding
+	 *         a load that it is served within
+	 */
+	public double getSaturationConnectionLoss() {
+		return this.saturationConnectionLoss;
+	}
+
+	/**
+	 * @return the saturation search stops once the knee is known to within
+	 *         this many clients
+	 */
+	public int getSaturationResolutionClients() {
+		return this.saturationResolutionClients;
+	}
+
+	/**
+	 * @return messages per topic per interval the publisher is set to for
+	 *         the client search and the rate search starts from, 0 to leave
+	 *         the publish rate out of the search
+	 */
+	public int getSaturationRateInitial() {
+		return this.saturationRateInitial;
+	}
+
+	/**
+	 * @return highest messages per topic per interval the rate search tries
+	 */
+	public int getSaturationRateMax() {
+		return this.saturationRateMax;
+	}
+
+	/**
+	 * @return the rate search stops once the knee is known to within this
+	 *         many messages per topic per interval
+	 */
+	public int getSaturationRateResolution() {
+		return this.saturationRateResolution;
+	}
+
+	/**
+	 * @return true if the saturation search goes on to search the publish
+	 *         rate at the client knee
+	 */
+	public boolean isSaturationRateSearch() {
+		return this.saturationRateInitial > 0;
+	}
+
+	/**
+	 * @return "diffusion" for a Diffusion client connection per client, or
+	 *         "nio" to multiplex the clients over a few selector threads. The
+	 *         nio engine is experimental, its DPT framing has not been
+	 *         verified against a live server, and needs client.nio.unverified
+	 */
+	public String getClientEngine() {
+		return this.clientEngine;
+	}
+
+	public boolean isNioClientEngine() {
+		return "nio".equalsIgnoreCase(this.clientEngine);
+	}
+
+	/**
+	 * @return selector threads shared by the nio engine's clients
+	 */
+	public int getNioSelectors() {
+		return this.nioSelectors;
+	}
+
+	/**
+	 * @return size of each nio selector's direct read buffer
+	 */
+	public int getNioBufferSize() {
+		return this.nioBufferSize;
+	}
+
+	/**
+	 * @return number of runner JVMs sharing the experiment, 1 when it is
+	 *         not distributed
+	 */
+	public int getDistributedNodes() {
+		return this.distributedNodes;
+	}
+
+	/**
+	 * @return this runner's node, node 0 coordinates
+	 */
+	public int getDistributedNode() {
+		return this.distributedNode;
+	}
+
+	/**
+	 * @return host:port the coordinator listens on for the other nodes
+	 */
+	public String getCoordinator() {
+		return this.coordinator;
+	}
+
+	public boolean isDistributed() {
+		return this.distributedNodes > 1;
+	}
+
+	public boolean isCoordinator() {
+		return isDistributed() && this.distributedNode == 0;
+	}
+
+	public boolean isAgent() {
+		return isDistributed() && this.distributedNode > 0;
+	}
+
 	public boolean isPingTopicSend() {
 		// TODO Auto-generated method stub
 		return false;
@@ -19,20 +19,28 @@ import static com.pushtechnology.benchmarks.util.PropertiesUtil.getProperty;
 
 import java.util.Properties;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.pushtechnology.benchmarks.clients.ExperimentClient;
 import com.pushtechnology.benchmarks.clients.MessageCountingClient;
+import com.pushtechnology.benchmarks.util.Distribution;
 import com.pushtechnology.benchmarks.util.Factory;
 import com.pushtechnology.diffusion.api.APIException;
 import com.pushtechnology.diffusion.api.ServerConnection;
 
 /**
- * A latency measuring experiment benchmarking the RTT latency of messages.
+ * Clients connecting, subscribing, unsubscribing and disconnecting at
+ * random, to benchmark the cost of session events.
+ * <P>
+ * By default every client checks whether to disconnect and whether to
+ * subscribe or unsubscribe at fixed intervals. Session lifetimes and the
+ * times between subscribes and between unsubscribes can instead be drawn
+ * from a {@link Distribution}. Every client draws from random streams of
+ * its own seeded from churn.seed, so runs with the same seed churn the same
+ * way.
  *
  * @author nitsanw
  *
@@ -44,8 +52,26 @@ public final class ConnectAndSubscribeChurnExperiment implements Runnable {
      * unsubscribe.
      */
     private static final double SUBSCRIBE_PROBABILITY = 0.5;
+    /** distributions are in seconds. */
+    private static final double MS_PER_SECOND = 1000.0;
+    // CHECKSTYLE:OFF random streams of a client
+    private static final int LIFETIME_STREAM = 0;
+    private static final int SUBSCRIBE_STREAM = 1;
+    private static final int UNSUBSCRIBE_STREAM = 2;
+    private static final int STREAMS = 3;
+    /** spreads the stream seeds, as in SplitMix64. */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    // CHECKSTYLE:ON
     /** the experiment loop. */
     private final ExperimentControlLoop loop;
+    /** runs the clients' disconnect and subscription tasks. */
+    private final WheelTimer timer;
+    /** Experiment settings. */
+    private final Settings settings;
+    /** topics clients subscribe to and unsubscribe from. */
+    private final String[] topics;
+    /** clients created by this node, numbering their random streams. */
+    private final AtomicLong clientsCreated = new AtomicLong();
 
     /** Experiment specialized settings. */
     public static class Settings extends CommonExperimentSettings {
@@ -56,6 +82,12 @@ public final class ConnectAndSubscribeChurnExperiment implements Runnable {
         private final int topicCount;
         private final double subscribeEventProbability;
         private final double subscribeCheckInterval;
+        private final int timerThreads;
+        private final int timerTickMs;
+        private final Distribution sessionLifetime;
+        private final Distribution subscribeInterarrival;
+        private final Distribution unsubscribeInterarrival;
+        private final long churnSeed;
 
         public Settings(Properties settings) {
             super(settings);
@@ -65,100 +97,58 @@ public final class ConnectAndSubscribeChurnExperiment implements Runnable {
             topicCount = getProperty(settings, "topic.count", 100);
             subscribeEventProbability = getProperty(settings, "subscribeEventProbability", 0.2);
             subscribeCheckInterval = getProperty(settings, "subscribeCheckInterval", 0.1);
+            timerThreads = getProperty(settings, "timer.threads",
+                    Runtime.getRuntime().availableProcessors());
+            timerTickMs = getProperty(settings, "timer.tick.ms", 10);
+            sessionLifetime = distribution(settings, "session.lifetime");
+            subscribeInterarrival =
+                    distribution(settings, "subscribe.interarrival");
+            unsubscribeInterarrival =
+                    distribution(settings, "unsubscribe.interarrival");
+            churnSeed = getProperty(settings, "churn.seed", 0L);
         }
-        // CHECKSTYLE:ON
-    }
 
-    /**
-     * Thread local random number generator. Uses the thread ID as the seed so
-     * generators provide difference sequences for each thread. 
-     */
-    private final ThreadLocal<Random> tlr = new ThreadLocal<Random>() {
-        @Override
-        protected Random initialValue() {
-            return new Random(Thread.currentThread().getId());
+        private static Distribution distribution(Properties settings,
+                String name) {
+            final String spec = getProperty(settings, name, "");
+            if (spec.trim().isEmpty()) {
+                return null;
+            }
+            return Distribution.parse(spec);
         }
-    };
+        // CHECKSTYLE:ON
+    }
 
     /**
-     * @param settings ...
+     * @param settingsP ...
      *
      */
-    public ConnectAndSubscribeChurnExperiment(final Settings settings) {
-        final Timer timer = new Timer();
-        final int disconnectCheckIntervalMs =
-                (int) (settings.disconnectCheckInterval * 1000);
-        final int subscribeCheckIntervalMs =
-                (int) (settings.subscribeCheckInterval * 1000);
-        final String[] topics = new String[settings.topicCount];
+    public ConnectAndSubscribeChurnExperiment(final Settings settingsP) {
+        settings = settingsP;
+        topics = new String[settings.topicCount];
         for (int i = 0; i < settings.topicCount; i++) {
             topics[i] = settings.subscriptionsRoot + "/" + i;
         }
         loop = new ExperimentControlLoop(settings) {
             @Override
             protected void wrapupAndReport() {
-                timer.cancel();
+                timer.stop();
+                getExperimentCounters().reportSchedulingLag(getOutput());
+                getOutput().format("#[Subscription events = %d]\n",
+                        getExperimentCounters()
+                                .getSubscriptionEventCounter());
             }
         };
+        timer = new WheelTimer(settings.timerThreads,
+                settings.timerTickMs,
+                loop.getExperimentCounters().getSchedulingLag());
         loop.setClientFactory(new Factory<ExperimentClient>() {
             @Override
             public ExperimentClient create() {
-                MessageCountingClient client = new MessageCountingClient(
-                        loop.getExperimentCounters(),
-                        false,
-                        loop.getClientSettings(),
-                        settings.getRootTopic()) {
-                    @Override
-                    public void afterServerConnect(
-                            final ServerConnection serverConnection) {
-                        final TimerTask subscribeTask = new TimerTask() {
-                            @Override
-                            public void run() {
-                                if (nextDouble() < settings
-                                        .subscribeEventProbability) {
-                                    try {
-                                        if (nextDouble()
-                                                < SUBSCRIBE_PROBABILITY) {
-                                            serverConnection.subscribe(
-                                                topics[nextInt(
-                                                        settings.topicCount)]);
-                                        } else {
-                                            serverConnection.unsubscribe(
-                                                topics[nextInt(
-                                                        settings.topicCount)]);
-                                        }
-                                    } catch (final APIException e) {
-                                        LOG.trace(
-                                            "Exception performing"
-                                            + "subscription event",
-                                            e);
-                                    }
-                                }
-                            }
-                        };
-                        TimerTask disconnectTask = new TimerTask() {
-                            @Override
-                            public void run() {
-                                if (nextDouble()
-                                        < settings.disconnectProbability
-                                        || !serverConnection.isConnected()) {
-                                    serverConnection.close();
-                                    this.cancel();
-                                    subscribeTask.cancel();
-                                }
-                            }
-                        };
-                        timer.schedule(
-                            disconnectTask,
-                            nextInt(disconnectCheckIntervalMs),
-                            disconnectCheckIntervalMs);
-                        timer.schedule(
-                            subscribeTask,
-                            nextInt(subscribeCheckIntervalMs),
-                            subscribeCheckIntervalMs);
-                    }
-                };
-                return client;
+                // numbered across the nodes so every client has its own
+                return new ChurnClient(clientsCreated.getAndIncrement()
+                        * settings.getDistributedNodes()
+                        + settings.getDistributedNode());
             }
 
             @Override
@@ -177,23 +167,181 @@ public final class ConnectAndSubscribeChurnExperiment implements Runnable {
     }
 
     /**
-     * Get a double from the random number generator.
-     *
-     * @return Randomly generated double.
+     * @param seed the experiment's seed
+     * @param stream the number of a random stream
+     * @return a well mixed seed for the stream, the SplitMix64 finalizer
      */
-    private double nextDouble() {
-        return tlr.get().nextDouble();
+    static long streamSeed(long seed, long stream) {
+        long z = seed + (stream + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 
     /**
-     * Get an integer from the random number generator.
-     * <P>
-     * The number returned will range between 0 and the parameter (exclusive).
-     *
-     * @param i The upper bound (exclusive)
-     * @return Randomly generated integer.
+     * @param distribution durations in seconds
+     * @param random the stream to draw from
+     * @return a duration drawn from the distribution, in millis
+     */
+    private static long drawMs(Distribution distribution, Random random) {
+        return Math.round(distribution.sample(random) * MS_PER_SECOND);
+    }
+
+    /**
+     * A client churning by the settings, with a random stream per kind of
+     * event so each is reproducible whichever timer thread runs it.
      */
-    private int nextInt(int i) {
-        return tlr.get().nextInt(i);
+    private final class ChurnClient extends MessageCountingClient {
+        private final Random lifetimeRandom;
+        private final Random subscribeRandom;
+        private final Random unsubscribeRandom;
+
+        /**
+         * @param clientIndex numbers the client's random streams
+         */
+        ChurnClient(long clientIndex) {
+            super(loop.getExperimentCounters(), false,
+                    loop.getClientSettings(), settings.getRootTopic());
+            final long stream = clientIndex * STREAMS;
+            lifetimeRandom = new Random(streamSeed(settings.churnSeed,
+                    stream + LIFETIME_STREAM));
+            subscribeRandom = new Random(streamSeed(settings.churnSeed,
+                    stream + SUBSCRIBE_STREAM));
+            unsubscribeRandom = new Random(streamSeed(settings.churnSeed,
+                    stream + UNSUBSCRIBE_STREAM));
+        }
+
+        @Override
+        public void afterServerConnect(
+                final ServerConnection serverConnection) {
+            final WheelTimer.Task[] subscriptionTasks;
+            if (settings.subscribeInterarrival != null
+                    || settings.unsubscribeInterarrival != null) {
+                subscriptionTasks = new WheelTimer.Task[] {
+                    scheduleArrivals(serverConnection, true,
+                            settings.subscribeInterarrival, subscribeRandom),
+                    scheduleArrivals(serverConnection, false,
+                            settings.unsubscribeInterarrival,
+                            unsubscribeRandom)
+                };
+            } else {
+                subscriptionTasks = new WheelTimer.Task[] {
+                    scheduleSubscriptionChecks(serverConnection)
+                };
+            }
+            if (settings.sessionLifetime != null) {
+                timer.schedule(new WheelTimer.Task() {
+                    @Override
+                    public void run() {
+                        endSession(serverConnection, subscriptionTasks);
+                    }
+                }, drawMs(settings.sessionLifetime, lifetimeRandom));
+            } else {
+                scheduleDisconnectChecks(serverConnection, subscriptionTasks);
+            }
+        }
+
+        /**
+         * @param serverConnection ...
+         * @param subscriptionTasks stopped when the session ends
+         */
+        private void scheduleDisconnectChecks(
+                final ServerConnection serverConnection,
+                final WheelTimer.Task[] subscriptionTasks) {
+            final int disconnectCheckIntervalMs =
+                    (int) (settings.disconnectCheckInterval * MS_PER_SECOND);
+            timer.schedule(new WheelTimer.Task() {
+                @Override
+                public void run() {
+                    if (lifetimeRandom.nextDouble()
+                            < settings.disconnectProbability
+                            || !serverConnection.isConnected()) {
+                        cancel();
+                        endSession(serverConnection, subscriptionTasks);
+                    }
+                }
+            }, lifetimeRandom.nextInt(disconnectCheckIntervalMs),
+                disconnectCheckIntervalMs);
+        }
+
+        /**
+         * @param serverConnection ...
+         * @return the periodic check for a subscription event
+         */
+        private WheelTimer.Task scheduleSubscriptionChecks(
+                final ServerConnection serverConnection) {
+            final int subscribeCheckIntervalMs =
+                    (int) (settings.subscribeCheckInterval * MS_PER_SECOND);
+            final WheelTimer.Task subscriptionChecks = new WheelTimer.Task() {
+                @Override
+                public void run() {
+                    if (subscribeRandom.nextDouble()
+                            < settings.subscribeEventProbability) {
+                        subscriptionEvent(serverConnection,
+                                subscribeRandom.nextDouble()
+                                        < SUBSCRIBE_PROBABILITY,
+                                subscribeRandom);
+                    }
+                }
+            };
+            timer.schedule(subscriptionChecks,
+                    subscribeRandom.nextInt(subscribeCheckIntervalMs),
+                    subscribeCheckIntervalMs);
+            return subscriptionChecks;
+        }
+
+        /**
+         * @param serverConnection ...
+         * @param subscribe subscribe, or unsubscribe
+         * @param interarrival time between events in seconds, or null for
+         *        none
+         * @param random the stream for the events
+         * @return the task rescheduling itself after every event, or null
+         */
+        private WheelTimer.Task scheduleArrivals(
+                final ServerConnection serverConnection,
+                final boolean subscribe, final Distribution interarrival,
+                final Random random) {
+            if (interarrival == null) {
+                return null;
+            }
+            final WheelTimer.Task arrivals = new WheelTimer.Task() {
+                @Override
+                public void run() {
+                    if (!serverConnection.isConnected()) {
+                        return;
+                    }
+                    subscriptionEvent(serverConnection, subscribe, random);
+                    timer.schedule(this, drawMs(interarrival, random));
+                }
+            };
+            timer.schedule(arrivals, drawMs(interarrival, random));
+            return arrivals;
+        }
+
+        private void subscriptionEvent(ServerConnection serverConnection,
+                boolean subscribe, Random random) {
+            final String topic = topics[random.nextInt(settings.topicCount)];
+            try {
+                if (subscribe) {
+                    subscribe(serverConnection, topic);
+                } else {
+                    unsubscribe(serverConnection, topic);
+                }
+                experimentCounters.incSubscriptionEventCounter();
+            } catch (final APIException e) {
+                LOG.trace("Exception performing subscription event", e);
+            }
+        }
+
+        private void endSession(ServerConnection serverConnection,
+                WheelTimer.Task[] subscriptionTasks) {
+            serverConnection.close();
+            for (WheelTimer.Task task : subscriptionTasks) {
+                if (task != null) {
+                    task.cancel();
+                }
+            }
+        }
     }
 }
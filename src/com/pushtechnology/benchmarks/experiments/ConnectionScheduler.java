@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+
+/**
+ * Opens connections at the client.connect.rate paced by a token bucket, with
+ * at most client.connect.concurrency connects in progress. Requests queue up
+ * to client.connect.queue, and requests beyond that are shed and counted
+ * rather than silently lost.
+ */
+final class ConnectionScheduler {
+    private final ExperimentCounters experimentCounters;
+    private final TokenBucket bucket;
+    private final Semaphore concurrency;
+    private final BlockingQueue<Runnable> requests;
+    /** requests queued or connecting. */
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService connectors;
+    private final Thread dispatcher;
+
+    /**
+     * @param settings ...
+     * @param experimentCountersP ...
+     */
+    ConnectionScheduler(CommonExperimentSettings settings,
+            ExperimentCounters experimentCountersP) {
+        this.experimentCounters = experimentCountersP;
+        bucket = new TokenBucket(settings.getClientConnectRate(),
+                settings.getClientConnectBurst());
+        concurrency = new Semaphore(settings.getClientConnectConcurrency());
+        requests = new ArrayBlockingQueue<Runnable>(
+                settings.getClientConnectQueue());
+        connectors = Executors.newFixedThreadPool(
+                settings.getClientConnectConcurrency(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r);
+                        thread.setName("connect-" + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        });
+        dispatcher.setName("connection-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * @param connect run once a token and a connect slot are free
+     * @return false if the request was shed as the queue is full
+     */
+    boolean request(Runnable connect) {
+        pending.incrementAndGet();
+        if (!requests.offer(connect)) {
+            pending.decrementAndGet();
+            experimentCounters.incConnectShedCounter();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return connects queued or in progress
+     */
+    int pending() {
+        return pending.get();
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Runnable connect = requests.take();
+                final long now = System.nanoTime();
+                final long due = now + bucket.reserve(now);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0L) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                }
+                concurrency.acquire();
+                connectors.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            connect.run();
+                        } finally {
+                            pending.decrementAndGet();
+                            concurrency.release();
+                        }
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop connecting, dropping the requests not yet started.
+     */
+    void shutdown() {
+        dispatcher.interrupt();
+        connectors.shutdownNow();
+    }
+}
@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.HdrHistogram.Histogram;
@@ -71,6 +72,9 @@ public final class ControlClientPingLatencyExperiment implements Runnable {
      * @param settings ..
      */
     public ControlClientPingLatencyExperiment(final Settings settings) {
+        // open loop clients send on a schedule rather than on echo
+        final ScheduledThreadPoolExecutor sched = settings.isPingOpenLoop()
+                ? new ScheduledThreadPoolExecutor(2) : null;
         final ControlClient controlClient = new ControlClient(settings);
         loop = new ExperimentControlLoop(settings) {
             @Override
@@ -103,7 +107,7 @@ public final class ControlClientPingLatencyExperiment implements Runnable {
                         new PingClient(loop.getExperimentCounters(),
                                 loop.getClientSettings().getMessageSize(),
                         		loop.getClientSettings(),
-                                PING_TOPIC,null);
+                                PING_TOPIC, sched);
                 clients.add(pingClient);
                 return pingClient;
             }
@@ -113,6 +117,9 @@ public final class ControlClientPingLatencyExperiment implements Runnable {
                 for (PingClient connection : clients) {
                     connection.disconnect();
                 }
+                if (sched != null) {
+                    sched.shutdownNow();
+                }
             }
         });
         final ExperimentLoadStrategy defaultLoadStrategy =
@@ -15,14 +15,34 @@
  */
 package com.pushtechnology.benchmarks.experiments;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.pushtechnology.benchmarks.clients.ExperimentClient;
 import com.pushtechnology.benchmarks.clients.MessageCountingClient;
 import com.pushtechnology.benchmarks.clients.TopicCountingClient;
+import com.pushtechnology.benchmarks.clients.TraceCapturingClient;
 import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
 import com.pushtechnology.benchmarks.util.Factory;
+import com.pushtechnology.benchmarks.util.TraceWriter;
+import com.pushtechnology.benchmarks.util.Zipf;
 
 
 /**
+ * Creates a topic counting client first, then message counting clients. When
+ * trace.capture.file is set the second client also captures a trace of the
+ * updates it receives.
+ * <P>
+ * When subscription.topics is set the message counting clients subscribe to
+ * that many distinct topics each rather than the root topic selector, drawn
+ * with a Zipf skew so a few hot topics have most of the subscribers. The
+ * capturing client always subscribes to the root topic selector.
+ * 
  * @author nitsanw
  * 
  */
@@ -32,6 +52,15 @@ public class DefaultClientFactory implements
     private final CommonExperimentSettings clientSettings;
     /** counters. */
     private final ExperimentCounters experimentCounters;
+    /** trace capture, or null if not capturing. */
+    private final TraceWriter trace;
+    /** only one client captures, every client receives the same updates. */
+    private final AtomicBoolean isCaptureClientCreated = new AtomicBoolean();
+    /** seeded, so runs subscribe the same subsets. */
+    private final Random subscriptionRandom = new Random(0);
+    /** logger. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(DefaultClientFactory.class);
 
     /**
      * @param clientSettingsP ...
@@ -42,6 +71,20 @@ public class DefaultClientFactory implements
         super();
         this.clientSettings = clientSettingsP;
         this.experimentCounters = experimentCountersP;
+        this.trace = openTrace(clientSettingsP.getTraceCaptureFile());
+    }
+
+    private static TraceWriter openTrace(String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            return null;
+        }
+        try {
+            return new TraceWriter(new File(fileName));
+        } catch (IOException e) {
+            LOG.warn("failed to create trace file: " + fileName
+                    + " will not capture a trace.", e);
+            return null;
+        }
     }
 
     @Override
@@ -49,15 +92,54 @@ public class DefaultClientFactory implements
         if (experimentCounters.getConnectionAttemptsCounter() == 0) {
             return new TopicCountingClient(experimentCounters, clientSettings,
                     clientSettings.getRootTopic());
+        } else if (trace != null
+                && isCaptureClientCreated.compareAndSet(false, true)) {
+            return new TraceCapturingClient(experimentCounters,
+                    clientSettings, trace, clientSettings.getRootTopic());
         } else {
             return new MessageCountingClient(experimentCounters,
                     false,
                     clientSettings,
-                    clientSettings.getRootTopic());
+                    subscriptionTopics());
+        }
+    }
+
+    /**
+     * @return the topics a message counting client subscribes to
+     */
+    private String[] subscriptionTopics() {
+        final int topics = clientSettings.getSubscriptionTopics();
+        int topicCount = clientSettings.getSubscriptionTopicCount();
+        if (topicCount == 0) {
+            topicCount = (int) experimentCounters.getTopicsCounter();
+        }
+        if (topics <= 0 || topicCount <= 0) {
+            return new String[] {clientSettings.getRootTopic()};
         }
+        final int[] indexes;
+        synchronized (subscriptionRandom) {
+            indexes = Zipf.sample(topicCount, topics,
+                    clientSettings.getSubscriptionSkew(), subscriptionRandom);
+        }
+        final String prefix = clientSettings.getSubscriptionTopicPrefix();
+        final String[] names = new String[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            names[i] = prefix + indexes[i];
+        }
+        return names;
     }
 
     @Override
     public void close() {
+        if (trace == null) {
+            return;
+        }
+        try {
+            trace.close();
+            LOG.info("captured " + trace.getRecordCount() + " updates to "
+                    + trace.getFile());
+        } catch (IOException e) {
+            LOG.error("failed to close trace file: " + trace.getFile(), e);
+        }
     }
 }
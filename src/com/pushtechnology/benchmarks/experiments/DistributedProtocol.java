@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+
+/**
+ * The messages between the coordinator and the agents of a distributed
+ * experiment. An agent connects and sends a hello with its node, and once
+ * every agent has joined the coordinator sends each of them the common start
+ * time. Agents then send a snapshot of their counters and the latency,
+ * connect latency and first message latency intervals ended since the last
+ * snapshot every monitor sample interval, and a final snapshot followed by
+ * done when they finish.
+ */
+final class DistributedProtocol {
+    /** hello magic, "DBPD". */
+    static final int MAGIC = 0x44425044;
+    /** protocol version. */
+    static final int VERSION = 4;
+    /** counters and latency snapshot. */
+    static final byte SNAPSHOT = 1;
+    /** the agent is done. */
+    static final byte DONE = 2;
+    /** the start is this far ahead, so every agent has it in time. */
+    static final long START_DELAY_MS = 1000L;
+    /** joining, and waiting for agents, give up after this long. */
+    static final int TIMEOUT_MS = (int) TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * no instances wanted...
+     */
+    private DistributedProtocol() {
+    }
+
+    /**
+     * @param hostPort host:port
+     * @return the address
+     * @throws IllegalArgumentException if the port is missing or malformed
+     */
+    static InetSocketAddress address(String hostPort) {
+        final int colon = hostPort.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("expected host:port but got "
+                    + hostPort);
+        }
+        return new InetSocketAddress(hostPort.substring(0, colon),
+                Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    static void writeHello(DataOutputStream out, int node)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(node);
+        out.flush();
+    }
+
+    /**
+     * @return the node of the agent
+     * @throws IOException if this is not a hello of this version
+     */
+    static int readHello(DataInputStream in) throws IOException {
+        final int magic = in.readInt();
+        final int version = in.readInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("not a benchmark agent of version "
+                    + VERSION);
+        }
+        return in.readInt();
+    }
+
+    static void writeSnapshot(DataOutputStream out, long[] counters,
+            Histogram latency, Histogram connectLatency,
+            Histogram firstMessageLatency) throws IOException {
+        out.writeByte(SNAPSHOT);
+        for (long counter : counters) {
+            out.writeLong(counter);
+        }
+        writeHistogram(out, latency);
+        writeHistogram(out, connectLatency);
+        writeHistogram(out, firstMessageLatency);
+        out.flush();
+    }
+
+    private static void writeHistogram(DataOutputStream out,
+            Histogram histogram) throws IOException {
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        final int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        out.writeInt(length);
+        out.write(buffer.array(), 0, length);
+    }
+
+    /**
+     * Read the counters of a snapshot, which must be followed by reading
+     * its latency, connect latency and first message latency histograms.
+     */
+    static long[] readCounters(DataInputStream in) throws IOException {
+        final long[] counters = new long[ExperimentCounters.SNAPSHOT_SIZE];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = in.readLong();
+        }
+        return counters;
+    }
+
+    static Histogram readHistogram(DataInputStream in) throws IOException {
+        final byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(
+                    ByteBuffer.wrap(encoded), 0L);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt histogram", e);
+        }
+    }
+
+    /**
+     * @param timeMillis wall clock time to wait for
+     */
+    static void sleepUntil(long timeMillis) {
+        long remaining;
+        while ((remaining = timeMillis - System.currentTimeMillis()) > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(remaining));
+        }
+    }
+}
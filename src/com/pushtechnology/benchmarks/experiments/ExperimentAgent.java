@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.monitoring.LatencyMonitor.LatencyWindow;
+import com.pushtechnology.benchmarks.monitoring.TimingRecorder;
+
+/**
+ * A node other than 0 of a distributed experiment. Joins the coordinator,
+ * waits for the common start and then streams its counters and latency
+ * intervals to the coordinator every monitor sample interval.
+ */
+final class ExperimentAgent implements Runnable {
+    /** pause between attempts to reach a coordinator not yet listening. */
+    private static final long RETRY_MS = 500L;
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ExperimentAgent.class);
+    private final CommonExperimentSettings settings;
+    private final ExperimentCounters experimentCounters;
+    private final LatencyWindow latency;
+    private final TimingRecorder.Window connectLatency;
+    private final TimingRecorder.Window firstMessageLatency;
+    private Socket socket;
+    private DataOutputStream out;
+    private Thread sender;
+    private volatile boolean isRunning = true;
+
+    /**
+     * @param settingsP ...
+     * @param experimentCountersP ...
+     */
+    ExperimentAgent(CommonExperimentSettings settingsP,
+            ExperimentCounters experimentCountersP) {
+        this.settings = settingsP;
+        this.experimentCounters = experimentCountersP;
+        this.latency = experimentCountersP.openLatencyWindow();
+        this.connectLatency =
+                experimentCountersP.getConnectLatency().openWindow();
+        this.firstMessageLatency =
+                experimentCountersP.getFirstMessageLatency().openWindow();
+    }
+
+    /**
+     * Join the coordinator, retrying until it listens, and return at the
+     * common start time.
+     *
+     * @throws IOException if the coordinator can not be reached in time
+     */
+    void awaitStart() throws IOException {
+        final InetSocketAddress coordinator =
+                DistributedProtocol.address(settings.getCoordinator());
+        final long giveUp =
+                System.currentTimeMillis() + DistributedProtocol.TIMEOUT_MS;
+        while (true) {
+            socket = new Socket();
+            try {
+                socket.connect(coordinator, DistributedProtocol.TIMEOUT_MS);
+                break;
+            } catch (IOException e) {
+                socket.close();
+                if (System.currentTimeMillis() > giveUp) {
+                    throw e;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MS));
+            }
+        }
+        socket.setSoTimeout(DistributedProtocol.TIMEOUT_MS);
+        out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        DistributedProtocol.writeHello(out, settings.getDistributedNode());
+        final long startTime = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream())).readLong();
+        LOG.info("node " + settings.getDistributedNode() + " joined "
+                + coordinator + ", starting in "
+                + (startTime - System.currentTimeMillis()) + "ms");
+        sender = new Thread(this);
+        sender.setName("agent-sender");
+        sender.setDaemon(true);
+        sender.start();
+        DistributedProtocol.sleepUntil(startTime);
+    }
+
+    @Override
+    public void run() {
+        final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                settings.getMonitorSampleIntervalMs());
+        while (isRunning) {
+            LockSupport.parkNanos(intervalNanos);
+            if (!isRunning) {
+                return;
+            }
+            try {
+                send();
+            } catch (IOException e) {
+                LOG.error("lost the coordinator, no longer reporting to it",
+                        e);
+                return;
+            }
+        }
+    }
+
+    private synchronized void send() throws IOException {
+        DistributedProtocol.writeSnapshot(out, experimentCounters.snapshot(),
+                latency.take(), connectLatency.take(),
+                firstMessageLatency.take());
+    }
+
+    /**
+     * Send the final snapshot and disconnect. Call once the monitor has
+     * stopped so the final snapshot includes the last latency interval.
+     */
+    void close() {
+        if (sender == null) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(sender);
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            send();
+            out.writeByte(DistributedProtocol.DONE);
+            out.flush();
+        } catch (IOException e) {
+            LOG.warn("failed to send the final snapshot", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("failed to close coordinator connection", e);
+            }
+        }
+    }
+}
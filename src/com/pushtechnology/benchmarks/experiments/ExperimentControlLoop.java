@@ -16,10 +16,9 @@
 package com.pushtechnology.benchmarks.experiments;
 
 import java.io.PrintStream;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
@@ -28,11 +27,13 @@ import org.slf4j.LoggerFactory;
 
 import com.pushtechnology.benchmarks.clients.ClientConnectionFactory;
 import com.pushtechnology.benchmarks.clients.ExperimentClient;
+import com.pushtechnology.benchmarks.clients.NioConnectionFactory;
 import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
 import com.pushtechnology.benchmarks.monitoring.ExperimentMonitor;
+import com.pushtechnology.benchmarks.monitoring.RemoteJmxPoller;
 import com.pushtechnology.benchmarks.util.Factory;
 import com.pushtechnology.diffusion.api.APIException;
-import com.pushtechnology.diffusion.api.client.ExternalClientConnection;
+import com.pushtechnology.diffusion.api.ServerConnection;
 import com.pushtechnology.diffusion.api.config.ConfigManager;
 import com.pushtechnology.diffusion.api.config.ThreadPoolConfig;
 import com.pushtechnology.diffusion.api.config.ThreadsConfig;
@@ -54,11 +55,14 @@ public class ExperimentControlLoop implements Runnable {
             if (!shouldAttemptMoreConnections()) {
                 return;
             }
-            connector.create();
-            final long clientCreatePauseNanos = getClientSettings()
-                    .getClientCreatePauseNanos();
-            if (clientCreatePauseNanos > 0L) {
-                LockSupport.parkNanos(clientCreatePauseNanos);
+            // the client times its connect, see MessageCountingClient
+            final ServerConnection connection = connector.create();
+            if (connection == null) {
+                return;
+            }
+            if (loadStrategy instanceof ClientTargetLoadStrategy) {
+                // kept to close the newest when the target drops
+                connections.add(connection);
             }
         }
     };
@@ -70,9 +74,20 @@ public class ExperimentControlLoop implements Runnable {
     private final CommonExperimentSettings clientSettings;
 
     /** connection factory, will be initiated with a client factory. */
-    private Factory<ExternalClientConnection> connector;
+    private Factory<ServerConnection> connector;
     /** load strategy to be drive load. */
-    private ExperimentLoadStrategy loadStrategy;
+    private volatile ExperimentLoadStrategy loadStrategy;
+    /** paces the connects, created when the experiment starts. */
+    private ConnectionScheduler connectionScheduler;
+    /** connections made, only kept for a client target strategy. */
+    private final BlockingDeque<ServerConnection> connections =
+            new LinkedBlockingDeque<ServerConnection>();
+    /** merges the agents' results on node 0 of a distributed experiment. */
+    private ExperimentCoordinator coordinator;
+    /** reports to the coordinator on the other nodes. */
+    private ExperimentAgent agent;
+    /** sets the publish rate, only made for strategies that change it. */
+    private PublisherControl publisherControl;
 
     /**
      * @param settings ...
@@ -94,12 +109,40 @@ public class ExperimentControlLoop implements Runnable {
      */
     public final void setClientFactory(
             final Factory<ExperimentClient> clientFactory) {
+        if (getClientSettings().isNioClientEngine()) {
+            connector = new NioConnectionFactory(getExperimentCounters(),
+                    getClientSettings(), clientFactory);
+            return;
+        }
         connector = new ClientConnectionFactory(
                 getExperimentCounters(),
                 getClientSettings(),
                 clientFactory);
     }
 
+    /**
+     * @return the load strategy chosen by the load.strategy and load.profile
+     *         settings
+     */
+    public final ExperimentLoadStrategy createLoadStrategy() {
+        if (getClientSettings().isSaturationSearch()) {
+            if (getClientSettings().isSaturationRateSearch()) {
+                publisherControl = new PublisherControl(getClientSettings(),
+                        getExperimentCounters());
+            }
+            return new SaturationSearchLoadStrategy(getClientSettings(),
+                    getExperimentCounters(), publisherControl);
+        }
+        if (!getClientSettings().getLoadProfile().isEmpty()) {
+            publisherControl = new PublisherControl(getClientSettings(),
+                    getExperimentCounters());
+            return new LoadProfileStrategy(getClientSettings(),
+                    getExperimentCounters(), publisherControl);
+        }
+        return new DefaultLoadStrategy(getClientSettings(),
+                getExperimentCounters());
+    }
+
     /**
      * @param strategy ...
      */
@@ -109,30 +152,19 @@ public class ExperimentControlLoop implements Runnable {
 
     @Override
     public final void run() {
+        if (!joinNodes()) {
+            connector.close();
+            return;
+        }
         try {
             // GO!
             final long testStartTime = System.currentTimeMillis();
             LOG.info("Starting experiment");
-            final int connectQCapacity =
-                    getClientSettings().getInitialClients()
-                            + 2 * getClientSettings().getClientIncrement();
-            final BlockingQueue<Runnable> connectQ =
-                    new ArrayBlockingQueue<Runnable>(connectQCapacity);
-            final ThreadPoolExecutor connectThread =
-                    new ThreadPoolExecutor(10, 100, 10, TimeUnit.SECONDS,
-                            connectQ);
+            connectionScheduler = new ConnectionScheduler(getClientSettings(),
+                    experimentCounters);
             // generate initial load
-            connectThread
-                    .setRejectedExecutionHandler(
-                            new RejectedExecutionHandler() {
-                                @Override
-                                public void rejectedExecution(Runnable r,
-                                        ThreadPoolExecutor executor) {
-                                    // DO NOTHING
-                                }
-                            });
             for (int i = 0; i < getClientSettings().getInitialClients(); i++) {
-                connectThread.execute(createClientTask);
+                connectClient();
             }
             LOG.info("Initial load created");
             postInitialLoadCreated();
@@ -140,8 +172,12 @@ public class ExperimentControlLoop implements Runnable {
             experimentMonitor.startSampling();
             long lastIncrementTime = System.currentTimeMillis();
             while (loadStrategy.testNotOver(testStartTime)) {
-                // periodically increase load if required
-                if (loadStrategy.shouldIncrementLoad(lastIncrementTime)) {
+                if (loadStrategy instanceof ClientTargetLoadStrategy) {
+                    adjustLoad(((ClientTargetLoadStrategy) loadStrategy)
+                            .getTargetClients());
+                } else if (loadStrategy
+                        .shouldIncrementLoad(lastIncrementTime)) {
+                    // periodically increase load if required
                     lastIncrementTime = System.currentTimeMillis();
                     final long currConns =
                             experimentCounters.getCurrentlyConnected();
@@ -154,22 +190,104 @@ public class ExperimentControlLoop implements Runnable {
                     	experimentCounters.warmupComplete();
                     }
                     for (int i = 0; i < incBy; i++) {
-                        connectThread.execute(createClientTask);
+                        connectClient();
                     }
                 }
                 LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
             }
-            connectThread.shutdownNow();
         } catch (final Exception e) {
             LOG.error("Error during experiment loop", e);
         }
+        if (connectionScheduler != null) {
+            connectionScheduler.shutdown();
+        }
         LOG.info("time is up, wrapping up");
+        if (coordinator != null) {
+            coordinator.awaitAgentsDone();
+        }
         experimentMonitor.stop();
+        if (agent != null) {
+            agent.close();
+        }
+        if (loadStrategy instanceof ClientTargetLoadStrategy) {
+            ((ClientTargetLoadStrategy) loadStrategy).report(getOutput());
+        }
+        experimentCounters.reportConnects(getOutput());
         connector.close();
+        if (publisherControl != null) {
+            publisherControl.close();
+        }
         wrapupAndReport();
         LOG.info("experiment finished");
     }
 
+    /**
+     * Hold a distributed experiment until every node has joined, so they all
+     * start together.
+     *
+     * @return false if the nodes failed to join
+     */
+    private boolean joinNodes() {
+        try {
+            if (getClientSettings().isCoordinator()) {
+                coordinator = new ExperimentCoordinator(getClientSettings(),
+                        experimentCounters);
+                coordinator.awaitAgents();
+            } else if (getClientSettings().isAgent()) {
+                agent = new ExperimentAgent(getClientSettings(),
+                        experimentCounters);
+                agent.awaitStart();
+            }
+            return true;
+        } catch (final Exception e) {
+            LOG.error("Distributed experiment failed to start", e);
+            return false;
+        }
+    }
+
+    /**
+     * Request a connect from the connection scheduler, which sheds it if
+     * too many are queued.
+     */
+    private void connectClient() {
+        connectionScheduler.request(createClientTask);
+    }
+
+    /**
+     * Connect or close clients towards the target. Connects are only limited
+     * by the connection scheduler, so a jump in the target reconnects
+     * clients as a herd would, and clients still connecting count towards
+     * the target. Clients are counted from the connections kept rather than
+     * the connect and disconnect counters, which lag behind the clients just
+     * closed.
+     *
+     * @param target clients wanted
+     */
+    private void adjustLoad(int target) {
+        for (Iterator<ServerConnection> i = connections.iterator();
+                i.hasNext();) {
+            if (!i.next().isConnected()) {
+                i.remove();
+            }
+        }
+        final long clients =
+                connections.size() + connectionScheduler.pending();
+        if (clients < target) {
+            for (long i = clients; i < target; i++) {
+                connectClient();
+            }
+        } else if (clients > target) {
+            // close the newest, keeping the first (topic counting) client
+            for (long i = target; i < clients && connections.size() > 1;
+                    i++) {
+                final ServerConnection connection =
+                        connections.pollLast();
+                experimentCounters.incClientCloseCounter();
+                connection.close();
+            }
+        }
+    }
+
     /**
      * A method hook for any logic to happen post initial load creation.
      */
@@ -247,6 +365,14 @@ public class ExperimentControlLoop implements Runnable {
         return experimentMonitor.getOutput();
     }
 
+    /**
+     * @return the latest server sample, or null if there is none recent
+     *         enough to report
+     */
+    protected final RemoteJmxPoller.Snapshot getServerSnapshot() {
+        return experimentMonitor.getServerSnapshot();
+    }
+
     /**
      * Decides if more connections should be made to the server.
      *
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+
+/**
+ * Node 0 of a distributed experiment. Holds the start barrier for the agents
+ * and merges the counters and latency they stream back into this node's
+ * counters, so the monitor of this node reports the whole experiment.
+ */
+final class ExperimentCoordinator {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ExperimentCoordinator.class);
+    private final CommonExperimentSettings settings;
+    private final ExperimentCounters experimentCounters;
+    private final List<Socket> agents = new ArrayList<Socket>();
+    /** counted down as each agent finishes or is lost. */
+    private final CountDownLatch agentsDone;
+
+    /**
+     * @param settingsP ...
+     * @param experimentCountersP ...
+     */
+    ExperimentCoordinator(CommonExperimentSettings settingsP,
+            ExperimentCounters experimentCountersP) {
+        this.settings = settingsP;
+        this.experimentCounters = experimentCountersP;
+        this.agentsDone =
+                new CountDownLatch(settingsP.getDistributedNodes() - 1);
+    }
+
+    /**
+     * Wait for every agent to join, then start them all at once and return
+     * at the start time.
+     *
+     * @throws IOException if the agents do not all join in time
+     */
+    void awaitAgents() throws IOException {
+        final int nodes = settings.getDistributedNodes();
+        final boolean[] joined = new boolean[nodes];
+        final List<DataInputStream> inputs = new ArrayList<DataInputStream>();
+        final List<Integer> agentNodes = new ArrayList<Integer>();
+        final ServerSocket server = new ServerSocket();
+        try {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(DistributedProtocol.address(
+                    settings.getCoordinator()).getPort()));
+            server.setSoTimeout(DistributedProtocol.TIMEOUT_MS);
+            LOG.info("waiting for " + (nodes - 1) + " agents on "
+                    + server.getLocalSocketAddress());
+            while (agents.size() < nodes - 1) {
+                final Socket socket = server.accept();
+                socket.setSoTimeout(DistributedProtocol.TIMEOUT_MS);
+                final DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                final int node;
+                try {
+                    node = DistributedProtocol.readHello(in);
+                } catch (IOException e) {
+                    LOG.warn("rejected " + socket.getRemoteSocketAddress(),
+                            e);
+                    socket.close();
+                    continue;
+                }
+                if (node <= 0 || node >= nodes || joined[node]) {
+                    LOG.warn("rejected node " + node + " from "
+                            + socket.getRemoteSocketAddress());
+                    socket.close();
+                    continue;
+                }
+                joined[node] = true;
+                agents.add(socket);
+                inputs.add(in);
+                agentNodes.add(node);
+                LOG.info("node " + node + " joined from "
+                        + socket.getRemoteSocketAddress());
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        } finally {
+            server.close();
+        }
+        final long startTime =
+                System.currentTimeMillis() + DistributedProtocol.START_DELAY_MS;
+        for (int i = 0; i < agents.size(); i++) {
+            final DataOutputStream out =
+                    new DataOutputStream(agents.get(i).getOutputStream());
+            out.writeLong(startTime);
+            out.flush();
+            startReader(agentNodes.get(i), inputs.get(i));
+        }
+        DistributedProtocol.sleepUntil(startTime);
+    }
+
+    private void startReader(final int node, final DataInputStream in) {
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read(node, in);
+                } catch (IOException e) {
+                    LOG.warn("lost node " + node
+                            + ", its last snapshot stays in the totals", e);
+                } finally {
+                    agentsDone.countDown();
+                }
+            }
+        });
+        reader.setName("coordinator-node-" + node);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read(int node, DataInputStream in) throws IOException {
+        while (true) {
+            final byte type = in.readByte();
+            if (type == DistributedProtocol.DONE) {
+                LOG.info("node " + node + " done");
+                return;
+            }
+            if (type != DistributedProtocol.SNAPSHOT) {
+                throw new IOException("unexpected message " + type);
+            }
+            final long[] counters = DistributedProtocol.readCounters(in);
+            experimentCounters.addRemoteLatency(
+                    DistributedProtocol.readHistogram(in));
+            experimentCounters.getConnectLatency().addRemoteValues(
+                    DistributedProtocol.readHistogram(in));
+            experimentCounters.getFirstMessageLatency().addRemoteValues(
+                    DistributedProtocol.readHistogram(in));
+            experimentCounters.setRemoteSnapshot(node, counters);
+        }
+    }
+
+    /**
+     * Wait for the agents to send their final snapshots, so the report
+     * includes them, and disconnect.
+     */
+    void awaitAgentsDone() {
+        try {
+            if (!agentsDone.await(DistributedProtocol.TIMEOUT_MS,
+                    TimeUnit.MILLISECONDS)) {
+                LOG.warn("gave up waiting for the agents to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    private void close() {
+        for (Socket socket : agents) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("failed to close agent connection", e);
+            }
+        }
+    }
+}
@@ -86,7 +86,7 @@ public final class GradualFeedbackLoadStrategy implements
 
     @Override
     public boolean testNotOver(long testStartTime) {
-        return testStartTime + clientSettings.getMaxTestTimeMillis()
-        < System.currentTimeMillis();
+        return System.currentTimeMillis() - testStartTime
+                < clientSettings.getMaxTestTimeMillis();
     }
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A schedule of load phases, each setting the number of clients over its
+ * duration. Declared as ';' separated phases of the form
+ * <pre>
+ * name:type:clients:seconds
+ * </pre>
+ * where type is one of:
+ * <ul>
+ * <li>ramp - linearly from the clients at the end of the previous phase to
+ * clients.</li>
+ * <li>hold - clients, e.g. for a soak.</li>
+ * <li>spike - clients at once, back to the previous clients after.</li>
+ * <li>drop - no clients, clients is ignored. A phase after a drop
+ * reconnects its clients at once.</li>
+ * <li>sine - between low and high clients given as low-high, starting at
+ * low. An optional fifth field sets the period in seconds, by default the
+ * phase duration.</li>
+ * </ul>
+ * Any phase may end with a rate=N field, setting the publisher to N messages
+ * per topic per interval from the start of the phase. The rate is the
+ * publisher's and is not shared between the nodes of a distributed
+ * experiment. A phase without one leaves the rate as it was.
+ * e.g. "warmup:ramp:500:60;soak:hold:500:3600:rate=10;outage:drop:0:10;
+ * herd:hold:500:60:rate=1".
+ */
+public final class LoadProfile {
+    /** phase types. */
+    public enum PhaseType {
+        RAMP, HOLD, SPIKE, DROP, SINE
+    }
+    /** rate of a phase that leaves the publish rate as it was. */
+    public static final int NO_RATE = -1;
+    /** prefix of the optional rate field. */
+    private static final String RATE_FIELD = "rate=";
+
+    /** a phase of the profile. */
+    private static final class Phase {
+        private final String name;
+        private final PhaseType type;
+        private final int clients;
+        private final int highClients;
+        private final long durationMs;
+        private final long periodMs;
+        private final int rate;
+
+        Phase(String name, PhaseType type, int clients, int highClients,
+                long durationMs, long periodMs, int rate) {
+            this.name = name;
+            this.type = type;
+            this.clients = clients;
+            this.highClients = highClients;
+            this.durationMs = durationMs;
+            this.periodMs = periodMs;
+            this.rate = rate;
+        }
+
+        /**
+         * @return the phase for a node's share of the clients
+         */
+        Phase share(CommonExperimentSettings settings) {
+            return new Phase(name, type, settings.share(clients),
+                    settings.share(highClients), durationMs, periodMs, rate);
+        }
+
+        /**
+         * @param previous clients at the end of the previous phase
+         * @param elapsedMs time into the phase
+         * @return clients wanted
+         */
+        int targetClients(int previous, long elapsedMs) {
+            switch (type) {
+            case RAMP:
+                return previous + (int) ((long) (clients - previous)
+                        * elapsedMs / durationMs);
+            case DROP:
+                return 0;
+            case SINE:
+                final double cycle = 2 * Math.PI * elapsedMs / periodMs;
+                return clients + (int) Math.round((highClients - clients)
+                        * (1 - Math.cos(cycle)) / 2);
+            default:
+                return clients;
+            }
+        }
+
+        /**
+         * @param previous clients at the end of the previous phase
+         * @return clients at the end of this phase
+         */
+        int endClients(int previous) {
+            if (type == PhaseType.SPIKE) {
+                return previous;
+            }
+            return targetClients(previous, durationMs);
+        }
+    }
+
+    /** millis per second. */
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private final Phase[] phases;
+    /** clients at the start of each phase. */
+    private final int[] startClients;
+    /** start of each phase, and the end of the profile. */
+    private final long[] startMs;
+
+    private LoadProfile(Phase[] phasesP, int initialClients) {
+        this.phases = phasesP;
+        this.startClients = new int[phasesP.length];
+        this.startMs = new long[phasesP.length + 1];
+        int clients = initialClients;
+        for (int i = 0; i < phasesP.length; i++) {
+            startClients[i] = clients;
+            startMs[i + 1] = startMs[i] + phasesP[i].durationMs;
+            clients = phasesP[i].endClients(clients);
+        }
+    }
+
+    /**
+     * @param specs ';' separated phases, empty for no profile
+     * @param initialClients clients before the first phase
+     * @return the profile, with no phases if specs is empty
+     * @throws IllegalArgumentException if a phase is malformed
+     */
+    public static LoadProfile parse(String specs, int initialClients) {
+        final List<Phase> phases = new ArrayList<Phase>();
+        if (specs != null) {
+            for (String spec : specs.split(";")) {
+                if (!spec.trim().isEmpty()) {
+                    phases.add(parsePhase(spec.trim()));
+                }
+            }
+        }
+        return new LoadProfile(phases.toArray(new Phase[phases.size()]),
+                initialClients);
+    }
+
+    /**
+     * @param specs ';' separated phases, empty for no profile
+     * @param settings the node's settings, a node of a distributed
+     *        experiment takes its share of the clients of every phase
+     * @return the profile, with no phases if specs is empty
+     * @throws IllegalArgumentException if a phase is malformed
+     */
+    public static LoadProfile parse(String specs,
+            CommonExperimentSettings settings) {
+        final Phase[] phases = parse(specs, 0).phases;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = phases[i].share(settings);
+        }
+        return new LoadProfile(phases, settings.getInitialClients());
+    }
+
+    private static Phase parsePhase(String spec) {
+        String[] fields = spec.split(":");
+        int rate = NO_RATE;
+        try {
+            final String last = fields[fields.length - 1].trim();
+            if (fields.length > 4 && last.startsWith(RATE_FIELD)) {
+                rate = Integer.parseInt(
+                        last.substring(RATE_FIELD.length()).trim());
+                if (rate < 0) {
+                    throw new IllegalArgumentException("rate must not be "
+                            + "negative in " + spec);
+                }
+                final String[] withoutRate = new String[fields.length - 1];
+                System.arraycopy(fields, 0, withoutRate, 0,
+                        withoutRate.length);
+                fields = withoutRate;
+            }
+            if (fields.length < 4 || fields.length > 5) {
+                throw new IllegalArgumentException("expected "
+                        + "name:type:clients:seconds[:period][:rate=N] "
+                        + "but got " + spec);
+            }
+            final PhaseType type =
+                    PhaseType.valueOf(fields[1].trim().toUpperCase());
+            final long durationMs = (long) (MILLIS_PER_SECOND
+                    * Double.parseDouble(fields[3].trim()));
+            if (durationMs <= 0) {
+                throw new IllegalArgumentException("phase duration must be "
+                        + "positive in " + spec);
+            }
+            final String clients = fields[2].trim();
+            int low = 0;
+            int high = 0;
+            if (type == PhaseType.SINE) {
+                final int dash = clients.indexOf('-');
+                if (dash < 0) {
+                    throw new IllegalArgumentException("expected "
+                            + "low-high clients in " + spec);
+                }
+                low = Integer.parseInt(clients.substring(0, dash).trim());
+                high = Integer.parseInt(clients.substring(dash + 1).trim());
+            } else if (type != PhaseType.DROP || !clients.isEmpty()) {
+                low = Integer.parseInt(clients);
+                high = low;
+            }
+            final long periodMs = fields.length == 5 ? (long) (
+                    MILLIS_PER_SECOND * Double.parseDouble(fields[4].trim()))
+                    : durationMs;
+            if (low < 0 || high < low || periodMs <= 0) {
+                throw new IllegalArgumentException("bad clients or period in "
+                        + spec);
+            }
+            return new Phase(fields[0].trim(), type, low, high, durationMs,
+                    periodMs, rate);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad number in " + spec, e);
+        }
+    }
+
+    /**
+     * @return number of phases
+     */
+    public int size() {
+        return phases.length;
+    }
+
+    /**
+     * @return the phase names by index
+     */
+    public String[] getPhaseNames() {
+        final String[] names = new String[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            names[i] = phases[i].name;
+        }
+        return names;
+    }
+
+    /**
+     * @return the length of the profile
+     */
+    public long getDurationMs() {
+        return startMs[phases.length];
+    }
+
+    /**
+     * @param elapsedMs time since the profile started
+     * @return index of the phase, or -1 once the profile is over
+     */
+    public int phaseAt(long elapsedMs) {
+        for (int i = 0; i < phases.length; i++) {
+            if (elapsedMs < startMs[i + 1]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param phase index of the phase
+     * @return messages per topic per interval for the phase, or
+     *         {@link #NO_RATE} to leave the publish rate as it was
+     */
+    public int rateOf(int phase) {
+        return phases[phase].rate;
+    }
+
+    /**
+     * @param elapsedMs time since the profile started
+     * @return clients wanted, or 0 once the profile is over
+     */
+    public int targetClients(long elapsedMs) {
+        final int phase = phaseAt(elapsedMs);
+        if (phase < 0) {
+            return 0;
+        }
+        return phases[phase].targetClients(startClients[phase],
+                elapsedMs - startMs[phase]);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.io.PrintStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+
+/**
+ * Drives the number of clients through the phases of the load.profile
+ * setting, see {@link LoadProfile}, and tags the monitor samples with the
+ * current phase. Phases with a rate set the publish rate through the
+ * {@link PublisherControl}. The experiment ends with the profile.
+ */
+public final class LoadProfileStrategy implements ClientTargetLoadStrategy {
+    /** millis per second. */
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final Logger LOG =
+            LoggerFactory.getLogger(LoadProfileStrategy.class);
+    // CHECKSTYLE:OFF
+    private final ExperimentCounters experimentCounters;
+    private final LoadProfile profile;
+    private final String[] phaseNames;
+    private final PublisherControl publisherControl;
+    private long startTime;
+    private int phase = -1;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param clientSettingsP ...
+     * @param experimentCountersP ...
+     * @param publisherControlP sets the publish rate of phases with one
+     */
+    LoadProfileStrategy(CommonExperimentSettings clientSettingsP,
+            ExperimentCounters experimentCountersP,
+            PublisherControl publisherControlP) {
+        this.experimentCounters = experimentCountersP;
+        this.publisherControl = publisherControlP;
+        this.profile = LoadProfile.parse(clientSettingsP.getLoadProfile(),
+                clientSettingsP);
+        this.phaseNames = profile.getPhaseNames();
+    }
+
+    @Override
+    public boolean shouldIncrementLoad(long lastIncrementTime) {
+        return false;
+    }
+
+    // CHECKSTYLE:OFF
+    @Override
+    public boolean testNotOver(long testStartTime) {
+        // CHECKSTYLE:ON
+        return startTime == 0L
+                || System.currentTimeMillis() - startTime
+                    < profile.getDurationMs();
+    }
+
+    @Override
+    public int getTargetClients() {
+        final long now = System.currentTimeMillis();
+        if (startTime == 0L) {
+            startTime = now;
+        }
+        final long elapsed = now - startTime;
+        final int current = profile.phaseAt(elapsed);
+        if (current != phase) {
+            phase = current;
+            if (phase >= 0) {
+                LOG.info("load phase " + phaseNames[phase] + " started");
+                experimentCounters.setLoadPhase(phase);
+                final int rate = profile.rateOf(phase);
+                if (rate != LoadProfile.NO_RATE) {
+                    publisherControl.setMessagesPerIntervalPerTopic(rate);
+                }
+            }
+        }
+        return profile.targetClients(elapsed);
+    }
+
+    @Override
+    public void report(PrintStream output) {
+        output.println("#[Load profile = " + profile.size() + " phases, "
+                + profile.getDurationMs() / MILLIS_PER_SECOND + "s]");
+    }
+}
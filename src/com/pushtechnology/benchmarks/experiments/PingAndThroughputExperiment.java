@@ -78,10 +78,9 @@ public class PingAndThroughputExperiment implements Runnable {
                 sched.shutdownNow();
             }
         });
-        ExperimentLoadStrategy defaultLoadStrategy =
-                new DefaultLoadStrategy(loop.getClientSettings(),
-                        loop.getExperimentCounters());
-        loop.setLoadStartegy(defaultLoadStrategy);
+        ExperimentLoadStrategy loadStrategy =
+                loop.createLoadStrategy();
+        loop.setLoadStartegy(loadStrategy);
     }
 
     @Override
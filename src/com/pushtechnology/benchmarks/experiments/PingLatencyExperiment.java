@@ -18,6 +18,7 @@ package com.pushtechnology.benchmarks.experiments;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.HdrHistogram.Histogram;
@@ -49,6 +50,9 @@ public final class PingLatencyExperiment implements Runnable {
      * 
      */
     public PingLatencyExperiment(CommonExperimentSettings settings) {
+        // open loop clients send on a schedule rather than on echo
+        final ScheduledThreadPoolExecutor sched = settings.isPingOpenLoop()
+                ? new ScheduledThreadPoolExecutor(2) : null;
         loop = new ExperimentControlLoop(settings) {
             @Override
             protected void wrapupAndReport() {
@@ -71,7 +75,7 @@ public final class PingLatencyExperiment implements Runnable {
                         new PingClient(loop.getExperimentCounters(),
                                 loop.getClientSettings().getMessageSize(),
                                 loop.getClientSettings(),
-                                topicName,null);
+                                topicName, sched);
                 clients.add(pingClient);
                 return pingClient;
             }
@@ -81,12 +85,14 @@ public final class PingLatencyExperiment implements Runnable {
                 for (PingClient connection : clients) {
                     connection.disconnect();
                 }
+                if (sched != null) {
+                    sched.shutdownNow();
+                }
             }
         });
-        ExperimentLoadStrategy defaultLoadStrategy =
-                new DefaultLoadStrategy(loop.getClientSettings(),
-                        loop.getExperimentCounters());
-        loop.setLoadStartegy(defaultLoadStrategy);
+        ExperimentLoadStrategy loadStrategy =
+                loop.createLoadStrategy();
+        loop.setLoadStartegy(loadStrategy);
     }
 
     @Override
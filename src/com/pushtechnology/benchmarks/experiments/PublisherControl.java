@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.clients.ClientConnectionFactory;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.publishers.BroadcastPublisher;
+import com.pushtechnology.diffusion.api.APIException;
+import com.pushtechnology.diffusion.api.Credentials;
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.ServerConnectionListener;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+import com.pushtechnology.diffusion.api.topic.TopicStatus;
+
+/**
+ * Sets the {@link BroadcastPublisher}'s message rate by sending it a rate
+ * control message over a connection of its own, made on first use and
+ * counted as one connection attempt. Only node 0 of a distributed
+ * experiment sends, the rate is the publisher's and not shared out.
+ * Publishers other than the BroadcastPublisher ignore the message.
+ */
+final class PublisherControl {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(PublisherControl.class);
+    /** ignores everything the server sends. */
+    private static final ServerConnectionListener IGNORING =
+            new ServerConnectionListener() {
+                @Override
+                public void serverConnected(ServerConnection c) {
+                }
+
+                @Override
+                public void messageFromServer(ServerConnection c,
+                        TopicMessage m) {
+                }
+
+                @Override
+                public void serverTopicStatusChanged(ServerConnection c,
+                        String topic, TopicStatus status) {
+                }
+
+                @Override
+                public void serverRejectedCredentials(ServerConnection c,
+                        Credentials credentials) {
+                }
+
+                @Override
+                public void serverDisconnected(ServerConnection c) {
+                }
+            };
+    // CHECKSTYLE:OFF
+    private final CommonExperimentSettings settings;
+    private final ExperimentCounters experimentCounters;
+    private ServerConnection connection;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param settingsP ...
+     * @param experimentCountersP ...
+     */
+    PublisherControl(CommonExperimentSettings settingsP,
+            ExperimentCounters experimentCountersP) {
+        this.settings = settingsP;
+        this.experimentCounters = experimentCountersP;
+    }
+
+    /**
+     * @param messagesPerInterval messages per topic per publisher interval
+     * @return false if the message could not be sent
+     */
+    boolean setMessagesPerIntervalPerTopic(int messagesPerInterval) {
+        if (settings.getDistributedNode() != 0) {
+            return true;
+        }
+        if (connection == null || !connection.isConnected()) {
+            connection = new ClientConnectionFactory(experimentCounters,
+                    settings, null).createConnection(IGNORING,
+                            (String[]) null);
+            if (connection == null) {
+                LOG.warn("Failed to connect to set the publish rate");
+                return false;
+            }
+        }
+        try {
+            final TopicMessage message = connection.createDeltaMessage(
+                    BroadcastPublisher.INJECTOR_ROOT, 0);
+            message.setHeaders(BroadcastPublisher.RATE_HEADER
+                    + messagesPerInterval);
+            connection.send(message);
+            LOG.info("publish rate set to " + messagesPerInterval
+                    + " messages per topic per interval");
+            return true;
+        } catch (APIException e) {
+            LOG.warn("Failed to set the publish rate", e);
+            return false;
+        }
+    }
+
+    /**
+     * close the control connection, if any.
+     */
+    void close() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import static com.pushtechnology.benchmarks.util.PropertiesUtil.getProperty;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.clients.ExperimentClient;
+import com.pushtechnology.benchmarks.clients.MessageCountingClient;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.monitoring.RemoteJmxPoller;
+import com.pushtechnology.benchmarks.monitoring.TimingRecorder;
+import com.pushtechnology.benchmarks.util.Factory;
+import com.pushtechnology.benchmarks.util.Memory;
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+/**
+ * Builds up to max.clients connected clients, drops a storm.fraction of them
+ * at once and measures how the server recovers as they all reconnect, as
+ * after a network blip.
+ * <P>
+ * Dropped clients reconnect as fast as they can, or after a jittered
+ * exponential backoff if storm.backoff.initial.ms is set. The report gives
+ * the time from the drop until each of storm.recovery.percents of the
+ * dropped clients were reconnected and receiving messages again, the peak
+ * reconnect rate, the connections refused and the server's peak cpu and
+ * heap during the storm.
+ */
+public final class ReconnectStormExperiment implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReconnectStormExperiment.class);
+    /** marks a client not reconnected or receiving yet. */
+    static final long NOT_YET = -1L;
+    /** window the reconnect rate is measured over. */
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** percentile of the backoff timer lag reported. */
+    private static final double LAG_PERCENTILE = 99.0;
+    /** beyond this the backoff doubling would overflow. */
+    private static final int MAX_BACKOFF_DOUBLINGS = 30;
+    /** the experiment loop. */
+    private final ExperimentControlLoop loop;
+    /** Experiment settings. */
+    private final Settings settings;
+    /** all the clients created, to choose those dropped. */
+    private final Queue<StormClient> clients =
+            new ConcurrentLinkedQueue<StormClient>();
+    /** waits out the reconnect backoffs. */
+    private final WheelTimer backoffTimer;
+    /** how late the backoffs end, kept apart from the scheduling lag. */
+    private final TimingRecorder backoffLag = new TimingRecorder();
+    /** numbers the clients' jitter streams. */
+    private final AtomicInteger clientsCreated = new AtomicInteger();
+    /** makes the reconnects, as many at once as there are threads. */
+    private final ExecutorService reconnectors;
+    /** chooses the clients dropped. */
+    private final Random random;
+    /** the storm's start, in nanos. */
+    private volatile long stormStart;
+    /** the clients dropped, null before the storm. */
+    private volatile StormClient[] dropped;
+    // CHECKSTYLE:OFF server peaks in the storm, read after the loop ends
+    private volatile double peakServerCpu = Double.NaN;
+    private volatile long peakServerHeap = NOT_YET;
+    // CHECKSTYLE:ON
+
+    /** Experiment specialized settings. */
+    public static class Settings extends CommonExperimentSettings {
+        // CHECKSTYLE:OFF
+        private final double fraction;
+        private final double settleSeconds;
+        private final long backoffInitialMs;
+        private final long backoffMaxMs;
+        private final int reconnectThreads;
+        private final double recoveryTimeoutSeconds;
+        private final double[] recoveryPercents;
+        private final long seed;
+
+        public Settings(Properties settings) {
+            super(settings);
+            fraction = getProperty(settings, "storm.fraction", 1.0);
+            settleSeconds = getProperty(settings, "storm.settle.seconds", 10.0);
+            backoffInitialMs = getProperty(settings, "storm.backoff.initial.ms", 0L);
+            backoffMaxMs = getProperty(settings, "storm.backoff.max.ms", 30000L);
+            reconnectThreads = getProperty(settings, "storm.reconnect.threads", 64);
+            recoveryTimeoutSeconds = getProperty(settings, "storm.recovery.timeout.seconds", 120.0);
+            recoveryPercents = percents(getProperty(settings,
+                    "storm.recovery.percents", "50,90,99,100"));
+            seed = getProperty(settings, "storm.seed", 0L);
+            if (fraction <= 0.0 || fraction > 1.0) {
+                throw new IllegalArgumentException("storm.fraction must be "
+                        + "in (0,1], not " + fraction);
+            }
+            if (reconnectThreads < 1) {
+                throw new IllegalArgumentException("storm.reconnect.threads "
+                        + "must be positive, not " + reconnectThreads);
+            }
+        }
+
+        private static double[] percents(String list) {
+            final String[] values = list.split(",");
+            final double[] percents = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    percents[i] = Double.parseDouble(values[i].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad percent '"
+                            + values[i] + "' in storm.recovery.percents");
+                }
+                if (percents[i] <= 0.0 || percents[i] > 100.0) {
+                    throw new IllegalArgumentException("percents must be in "
+                            + "(0,100], not " + values[i]);
+                }
+            }
+            return percents;
+        }
+        // CHECKSTYLE:ON
+    }
+
+    /**
+     * @param settingsP ...
+     */
+    public ReconnectStormExperiment(final Settings settingsP) {
+        settings = settingsP;
+        random = new Random(settings.seed);
+        loop = new ExperimentControlLoop(settings) {
+            @Override
+            protected void wrapupAndReport() {
+                backoffTimer.stop();
+                reconnectors.shutdownNow();
+                report(getOutput());
+            }
+        };
+        backoffTimer = new WheelTimer(1, 1, backoffLag);
+        reconnectors = Executors.newFixedThreadPool(settings.reconnectThreads,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r);
+                        thread.setName("reconnect-" + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        loop.setClientFactory(new Factory<ExperimentClient>() {
+            @Override
+            public ExperimentClient create() {
+                // numbered across the nodes so every client has its own
+                final StormClient client = new StormClient(
+                        clientsCreated.getAndIncrement()
+                        * settings.getDistributedNodes()
+                        + settings.getDistributedNode());
+                clients.add(client);
+                return client;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        loop.setLoadStartegy(new StormStrategy());
+    }
+
+    @Override
+    public void run() {
+        loop.run();
+    }
+
+    /**
+     * Drop a fraction of the connected clients, chosen at random.
+     *
+     * @return the number of clients dropped
+     */
+    private int startStorm() {
+        final List<StormClient> connected = new ArrayList<StormClient>();
+        for (StormClient client : clients) {
+            if (client.isConnected()) {
+                connected.add(client);
+            }
+        }
+        Collections.shuffle(connected, random);
+        final int count =
+                (int) Math.round(connected.size() * settings.fraction);
+        final StormClient[] storm =
+                connected.subList(0, count).toArray(new StormClient[count]);
+        stormStart = System.nanoTime();
+        dropped = storm;
+        LOG.info("reconnect storm, dropping " + count + " of "
+                + connected.size() + " clients");
+        for (StormClient client : storm) {
+            client.drop();
+        }
+        return count;
+    }
+
+    /**
+     * @return true once every client dropped is receiving again
+     */
+    private boolean isRecovered() {
+        for (StormClient client : dropped) {
+            if (client.receivingAfter == NOT_YET) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Report the recovery from the storm.
+     *
+     * @param out experiment output
+     */
+    private void report(PrintStream out) {
+        final StormClient[] storm = dropped;
+        out.println("Reconnect storm:");
+        if (storm == null) {
+            out.println("#[Never started, max.clients were not all "
+                    + "connected]");
+            return;
+        }
+        final long[] reconnected = new long[storm.length];
+        final long[] receiving = new long[storm.length];
+        for (int i = 0; i < storm.length; i++) {
+            reconnected[i] = storm[i].reconnectedAfter;
+            receiving[i] = storm[i].receivingAfter;
+        }
+        final long[] reconnectTimes = finished(reconnected);
+        final long[] receiveTimes = finished(receiving);
+        out.format("#[Clients dropped = %d, reconnected = %d, "
+                + "receiving = %d]\n", storm.length, reconnectTimes.length,
+                receiveTimes.length);
+        for (double percent : settings.recoveryPercents) {
+            out.format(Locale.US, "#[%5.1f%% reconnected after %s ms, "
+                    + "receiving after %s ms]\n", percent,
+                    millis(timeToPercent(reconnectTimes, storm.length,
+                            percent)),
+                    millis(timeToPercent(receiveTimes, storm.length,
+                            percent)));
+        }
+        out.format("#[Peak reconnect rate = %d/s]\n",
+                peakCount(reconnectTimes, RATE_WINDOW_NANOS));
+        out.format("#[Connections refused = %d]\n", refusals(storm));
+        backoffLag.endInterval();
+        out.format("#[Backoff timer lag p99 = %s ms]\n",
+                millis(backoffLag.getAccumulatedHistogram()
+                        .getValueAtPercentile(LAG_PERCENTILE)));
+        out.format(Locale.US, "#[Server peak cpu = %s, peak heap used = "
+                + "%s]\n", Double.isNaN(peakServerCpu) ? "N/A"
+                        : String.format(Locale.US, "%.1f", peakServerCpu),
+                peakServerHeap == NOT_YET ? "N/A"
+                        : Memory.formatMemory(peakServerHeap));
+    }
+
+    private static long refusals(StormClient[] storm) {
+        long refused = 0;
+        for (StormClient client : storm) {
+            refused += client.refused;
+        }
+        return refused;
+    }
+
+    private static String millis(long nanos) {
+        if (nanos == NOT_YET) {
+            return "N/A";
+        }
+        return Long.toString(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * @param times times, NOT_YET for the clients not there yet
+     * @return the times of the clients there, ascending
+     */
+    static long[] finished(long[] times) {
+        int count = 0;
+        final long[] finished = new long[times.length];
+        for (long time : times) {
+            if (time != NOT_YET) {
+                finished[count++] = time;
+            }
+        }
+        final long[] sorted = Arrays.copyOf(finished, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @param sortedTimes times the clients got there, ascending
+     * @param total clients dropped
+     * @param percent percent of the clients dropped
+     * @return the time by which percent of the clients got there, or
+     *         NOT_YET if they did not
+     */
+    static long timeToPercent(long[] sortedTimes, int total, double percent) {
+        final int needed = (int) Math.ceil(total * percent / 100.0);
+        if (needed == 0) {
+            return 0L;
+        }
+        if (needed > sortedTimes.length) {
+            return NOT_YET;
+        }
+        return sortedTimes[needed - 1];
+    }
+
+    /**
+     * @param sortedTimes event times, ascending
+     * @param window window length
+     * @return the most events in any window
+     */
+    static int peakCount(long[] sortedTimes, long window) {
+        int peak = 0;
+        int first = 0;
+        for (int last = 0; last < sortedTimes.length; last++) {
+            while (sortedTimes[last] - sortedTimes[first] >= window) {
+                first++;
+            }
+            peak = Math.max(peak, last - first + 1);
+        }
+        return peak;
+    }
+
+    /**
+     * Full jitter exponential backoff, a random delay up to the initial
+     * delay doubled for every attempt so far, capped at the maximum.
+     *
+     * @param attempt reconnect attempts made so far
+     * @param initialMs backoff of the first attempt, 0 for none
+     * @param maxMs cap on the backoff
+     * @param random source of the jitter
+     * @return delay before the next attempt in millis
+     */
+    static long backoffMs(int attempt, long initialMs, long maxMs,
+            Random random) {
+        if (initialMs <= 0L) {
+            return 0L;
+        }
+        final long cap = Math.min(maxMs,
+                initialMs << Math.min(attempt, MAX_BACKOFF_DOUBLINGS));
+        return (long) (random.nextDouble() * cap);
+    }
+
+    private void sampleServer() {
+        final RemoteJmxPoller.Snapshot server = loop.getServerSnapshot();
+        if (server == null) {
+            return;
+        }
+        if (!Double.isNaN(server.getCpuUsage())
+                && !(server.getCpuUsage() <= peakServerCpu)) {
+            peakServerCpu = server.getCpuUsage();
+        }
+        peakServerHeap = Math.max(peakServerHeap, server.heapUsed());
+    }
+
+    /**
+     * Ramps up as the default strategy does, then holds the load for
+     * storm.settle.seconds, starts the storm and ends the experiment once
+     * the clients recover or storm.recovery.timeout.seconds pass. The
+     * control loop checks the strategy every second.
+     */
+    private final class StormStrategy implements ExperimentLoadStrategy {
+        // CHECKSTYLE:OFF
+        private static final int BUILDING = 0;
+        private static final int SETTLING = 1;
+        private static final int STORM = 2;
+        private static final int DONE = 3;
+        // CHECKSTYLE:ON
+        private final DefaultLoadStrategy ramp = new DefaultLoadStrategy(
+                settings, loop.getExperimentCounters());
+        private int state = BUILDING;
+        private long settleStart;
+
+        @Override
+        public boolean shouldIncrementLoad(long lastIncrementTime) {
+            return state == BUILDING
+                    && ramp.shouldIncrementLoad(lastIncrementTime);
+        }
+
+        @Override
+        public boolean testNotOver(long testStartTime) {
+            if (!ramp.testNotOver(testStartTime)) {
+                return false;
+            }
+            final long now = System.nanoTime();
+            final ExperimentCounters counters = loop.getExperimentCounters();
+            switch (state) {
+            case BUILDING:
+                if (counters.getCurrentlyConnected()
+                        >= settings.getMaxClients()) {
+                    settleStart = now;
+                    state = SETTLING;
+                }
+                break;
+            case SETTLING:
+                if (now - settleStart >= seconds(settings.settleSeconds)) {
+                    state = startStorm() == 0 ? DONE : STORM;
+                }
+                break;
+            case STORM:
+                sampleServer();
+                if (isRecovered()) {
+                    LOG.info("reconnect storm recovered");
+                    state = DONE;
+                } else if (now - stormStart
+                        >= seconds(settings.recoveryTimeoutSeconds)) {
+                    LOG.info("reconnect storm did not recover in time");
+                    state = DONE;
+                }
+                break;
+            default:
+                break;
+            }
+            return state != DONE;
+        }
+
+        private long seconds(double seconds) {
+            return (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * A client which reconnects with backoff after the storm drops it,
+     * noting when it reconnected and received its first message again. Each
+     * client jitters its backoffs from its own random stream, so the delays
+     * a client draws do not depend on the order other clients were refused.
+     */
+    private final class StormClient extends MessageCountingClient {
+        // CHECKSTYLE:OFF
+        private volatile ServerConnection connection;
+        private volatile boolean isDropped;
+        /** nanos from the storm's start. */
+        volatile long reconnectedAfter = NOT_YET;
+        /** nanos from the storm's start. */
+        volatile long receivingAfter = NOT_YET;
+        /** only touched by one reconnect at a time. */
+        private int attempts;
+        /** only touched by one reconnect at a time. */
+        private final Random jitter;
+        volatile long refused;
+        // CHECKSTYLE:ON
+        private final Runnable reconnect = new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        };
+
+        /**
+         * @param clientIndex numbers the client's jitter stream
+         */
+        StormClient(long clientIndex) {
+            super(loop.getExperimentCounters(), false,
+                    loop.getClientSettings(),
+                    loop.getClientSettings().getRootTopic());
+            jitter = new Random(ConnectAndSubscribeChurnExperiment.streamSeed(
+                    settings.seed, clientIndex));
+        }
+
+        @Override
+        protected void onServerConnect(ServerConnection serverConnection) {
+            connection = serverConnection;
+            if (isDropped && reconnectedAfter == NOT_YET) {
+                reconnectedAfter = System.nanoTime() - stormStart;
+            }
+        }
+
+        @Override
+        protected void onMessage(ServerConnection serverConnection,
+                TopicMessage topicMessage) {
+            if (reconnectedAfter != NOT_YET && receivingAfter == NOT_YET) {
+                receivingAfter = System.nanoTime() - stormStart;
+            }
+        }
+
+        @Override
+        protected void onServerDisconnect(ServerConnection serverConnection) {
+            // only the storm's drop is reconnected
+            if (isDropped && reconnectedAfter == NOT_YET) {
+                scheduleReconnect();
+            }
+        }
+
+        boolean isConnected() {
+            final ServerConnection serverConnection = connection;
+            return serverConnection != null
+                    && serverConnection.isConnected();
+        }
+
+        void drop() {
+            isDropped = true;
+            connection.close();
+        }
+
+        private void scheduleReconnect() {
+            final long delayMs = backoffMs(attempts,
+                    settings.backoffInitialMs, settings.backoffMaxMs, jitter);
+            if (delayMs == 0L) {
+                reconnectors.execute(reconnect);
+                return;
+            }
+            backoffTimer.schedule(new WheelTimer.Task() {
+                @Override
+                public void run() {
+                    reconnectors.execute(reconnect);
+                }
+            }, delayMs);
+        }
+
+        private void reconnect() {
+            attempts++;
+            experimentCounters.incConnectionAttemptsCounter();
+            try {
+                reconnect(connection);
+            } catch (Exception e) {
+                LOG.trace("Error on reconnect attempt", e);
+                refused++;
+                experimentCounters.incConnectionRefusedCounter();
+                scheduleReconnect();
+            }
+        }
+    }
+}
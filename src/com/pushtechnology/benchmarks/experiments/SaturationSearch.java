@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+/**
+ * Searches for the highest number of clients served within the SLOs. The
+ * load doubles its step while every load is served, which brackets the knee
+ * between the last load served and the first one not served, and the bracket
+ * is then halved until it is no wider than the resolution.
+ */
+final class SaturationSearch {
+    /** no load has been found yet. */
+    static final int NONE = -1;
+    private final int maxClients;
+    private final int resolution;
+    private int step;
+    private int target;
+    /** highest load served. */
+    private int served = NONE;
+    /** lowest load not served. */
+    private int notServed = NONE;
+    private boolean done;
+
+    /**
+     * @param initialClients first load tried
+     * @param initialStep first increase of load
+     * @param maxClients highest load tried
+     * @param resolution stop once the knee is known to within this many
+     *        clients
+     */
+    SaturationSearch(int initialClients, int initialStep, int maxClients,
+            int resolution) {
+        this.maxClients = maxClients;
+        this.resolution = Math.max(1, resolution);
+        this.step = Math.max(1, initialStep);
+        this.target = Math.max(1, Math.min(initialClients, maxClients));
+    }
+
+    /**
+     * @return the load to try next
+     */
+    int getTarget() {
+        return target;
+    }
+
+    /**
+     * Record whether the current target was served within the SLOs and
+     * choose the next.
+     *
+     * @param isServed true if the load met the SLOs
+     */
+    void record(boolean isServed) {
+        if (done) {
+            return;
+        }
+        if (isServed) {
+            served = target;
+            if (notServed == NONE) {
+                if (target >= maxClients) {
+                    done = true;
+                } else {
+                    target = Math.min(maxClients, target + step);
+                    step *= 2;
+                }
+                return;
+            }
+        } else {
+            notServed = target;
+        }
+        final int lowest = Math.max(served, 0);
+        if (notServed - lowest <= resolution) {
+            done = true;
+        } else {
+            target = lowest + (notServed - lowest) / 2;
+        }
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return the highest load served, or NONE
+     */
+    int getKnee() {
+        return served;
+    }
+
+    /**
+     * @return true if a load was found that is not served, false if the
+     *         search stopped at the maximum clients
+     */
+    boolean isSaturated() {
+        return notServed != NONE;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.benchmarks.monitoring.LatencyMonitor.LatencyWindow;
+
+/**
+ * Finds the highest number of clients for which the p99 latency and the
+ * fraction of connections lost stay within the configured SLOs, see
+ * {@link SaturationSearch}. Each load is held for the client increment
+ * pause once the clients connected reach it, the first half letting the load
+ * settle and the second half being judged. A load the clients do not reach
+ * within one pause is not served. The knee found is the experiment's headline
+ * result.
+ * <P>
+ * With a saturation rate set the clients are searched at the initial publish
+ * rate, then the publish rate is searched the same way holding the clients
+ * at their knee, setting the rate through the {@link PublisherControl}.
+ * <P>
+ * Latency is only judged when clients record it, throughput experiments are
+ * judged on connection loss alone.
+ */
+public final class SaturationSearchLoadStrategy implements
+        ClientTargetLoadStrategy {
+    /** millis per second. */
+    private static final int MILLIS_PER_SECOND = 1000;
+    /** nanos per milli. */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+    /** percentile judged. */
+    private static final double PERCENTILE = 99.0;
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SaturationSearchLoadStrategy.class);
+    // CHECKSTYLE:OFF
+    private final CommonExperimentSettings clientSettings;
+    private final ExperimentCounters experimentCounters;
+    /** the time, message and connection limits still apply. */
+    private final DefaultLoadStrategy limits;
+    private final SaturationSearch clientSearch;
+    /** null unless the publish rate is searched. */
+    private final SaturationSearch rateSearch;
+    private final PublisherControl publisherControl;
+    /** the client search, then the rate search. */
+    private SaturationSearch search;
+    private final LatencyWindow latencyWindow;
+    private final long holdMillis;
+    private long stepStartTime;
+    private long reachedTime;
+    private boolean isWindowOpen;
+    private long windowStartTime;
+    private long windowStartMessages;
+    private long windowStartLost;
+    private double kneeMessagesPerSecond;
+    private double kneeP99LatencyMs;
+    private int kneeRate;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param clientSettingsP ...
+     * @param experimentCountersP ...
+     * @param publisherControlP sets the publish rate, null unless the rate
+     *        is searched
+     */
+    SaturationSearchLoadStrategy(
+            CommonExperimentSettings clientSettingsP,
+            ExperimentCounters experimentCountersP,
+            PublisherControl publisherControlP) {
+        this.clientSettings = clientSettingsP;
+        this.experimentCounters = experimentCountersP;
+        this.limits = new DefaultLoadStrategy(clientSettingsP,
+                experimentCountersP);
+        this.clientSearch = new SaturationSearch(
+                clientSettingsP.getInitialClients(),
+                clientSettingsP.getClientIncrement(),
+                clientSettingsP.getMaxClients(),
+                clientSettingsP.getSaturationResolutionClients());
+        this.search = clientSearch;
+        this.publisherControl = publisherControlP;
+        if (clientSettingsP.isSaturationRateSearch()) {
+            final int initialRate = clientSettingsP.getSaturationRateInitial();
+            this.rateSearch = new SaturationSearch(initialRate, initialRate,
+                    clientSettingsP.getSaturationRateMax(),
+                    clientSettingsP.getSaturationRateResolution());
+            this.kneeRate = initialRate;
+            publisherControlP.setMessagesPerIntervalPerTopic(initialRate);
+        } else {
+            this.rateSearch = null;
+        }
+        this.latencyWindow = experimentCountersP.openLatencyWindow();
+        this.holdMillis = Math.max(2L, (long) MILLIS_PER_SECOND
+                * clientSettingsP.getClientIncrementPauseSeconds());
+    }
+
+    @Override
+    public boolean shouldIncrementLoad(long lastIncrementTime) {
+        return false;
+    }
+
+    // CHECKSTYLE:OFF
+    @Override
+    public boolean testNotOver(long testStartTime) {
+        // CHECKSTYLE:ON
+        return !search.isDone() && limits.testNotOver(testStartTime);
+    }
+
+    @Override
+    public int getTargetClients() {
+        final long now = System.currentTimeMillis();
+        if (stepStartTime == 0L) {
+            stepStartTime = now;
+        }
+        if (reachedTime == 0L) {
+            if (isReached()) {
+                reachedTime = now;
+            } else if (now - stepStartTime >= holdMillis) {
+                notReached();
+                nextStep(now);
+            }
+        } else {
+            final long held = now - reachedTime;
+            if (!isWindowOpen && held >= holdMillis / 2) {
+                openWindow(now);
+            } else if (isWindowOpen && held >= holdMillis) {
+                judgeWindow(now);
+                nextStep(now);
+            }
+        }
+        return clientTarget();
+    }
+
+    /**
+     * @return clients wanted, the client knee while the rate is searched
+     */
+    private int clientTarget() {
+        if (search == rateSearch) {
+            return clientSearch.getKnee();
+        }
+        return clientSearch.getTarget();
+    }
+
+    /**
+     * @return true if the clients connected are the target, give or take the
+     *         connections the SLO allows to be lost
+     */
+    private boolean isReached() {
+        final int target = clientTarget();
+        final long slack = (long) (target
+                * clientSettings.getSaturationConnectionLoss());
+        return Math.abs(experimentCounters.getCurrentlyConnected() - target)
+                <= slack;
+    }
+
+    private void nextStep(long now) {
+        stepStartTime = now;
+        reachedTime = 0L;
+        if (search == clientSearch && clientSearch.isDone()
+                && rateSearch != null
+                && clientSearch.getKnee() != SaturationSearch.NONE) {
+            LOG.info("saturation search: searching the publish rate at "
+                    + clientSearch.getKnee() + " clients");
+            search = rateSearch;
+        } else if (search != rateSearch || rateSearch.isDone()) {
+            return;
+        }
+        publisherControl.setMessagesPerIntervalPerTopic(
+                rateSearch.getTarget());
+    }
+
+    private void notReached() {
+        LOG.info(String.format(Locale.US, "saturation search: %s not served, "
+                + "%d connected after %dms", describeTarget(),
+                experimentCounters.getCurrentlyConnected(), holdMillis));
+        search.record(false);
+    }
+
+    /**
+     * @return the load being tried
+     */
+    private String describeTarget() {
+        if (search == rateSearch) {
+            return clientTarget() + " clients at rate "
+                    + rateSearch.getTarget();
+        }
+        return clientTarget() + " clients";
+    }
+
+    private void openWindow(long now) {
+        isWindowOpen = true;
+        windowStartTime = now;
+        windowStartMessages = experimentCounters.getMessageCounter();
+        windowStartLost = lostConnections();
+        // discard the latencies of the settling half
+        latencyWindow.take();
+    }
+
+    private void judgeWindow(long now) {
+        isWindowOpen = false;
+        final int target = clientTarget();
+        final Histogram latency = latencyWindow.take();
+        final double p99LatencyMs = latency.getTotalCount() == 0 ? 0.0
+                : latency.getValueAtPercentile(PERCENTILE) / NANOS_PER_MILLI;
+        final double lost = (double) (lostConnections() - windowStartLost)
+                / target;
+        final double messagesPerSecond = (double) MILLIS_PER_SECOND
+                * (experimentCounters.getMessageCounter()
+                        - windowStartMessages)
+                / Math.max(1L, now - windowStartTime);
+        final boolean isServed =
+                p99LatencyMs <= clientSettings.getSaturationP99LatencyMs()
+                && lost <= clientSettings.getSaturationConnectionLoss();
+        LOG.info(String.format(Locale.US, "saturation search: %s "
+                + "%s, p99 latency %.3fms, connections lost %.4f, %.0f msg/s",
+                describeTarget(), isServed ? "served" : "not served",
+                p99LatencyMs, lost, messagesPerSecond));
+        if (isServed) {
+            kneeMessagesPerSecond = messagesPerSecond;
+            kneeP99LatencyMs = p99LatencyMs;
+            if (search == rateSearch) {
+                kneeRate = rateSearch.getTarget();
+            }
+        }
+        search.record(isServed);
+    }
+
+    /**
+     * @return connections lost or refused, not counting the clients closed
+     *         to lower the load
+     */
+    private long lostConnections() {
+        return experimentCounters.getClientDisconnectCounter()
+                - experimentCounters.getClientCloseCounter()
+                + experimentCounters.getConnectionRefusedCounter();
+    }
+
+    @Override
+    public void report(PrintStream output) {
+        final String outcome;
+        if (clientSearch.getKnee() == SaturationSearch.NONE) {
+            outcome = "no load served";
+        } else if (!search.isDone()) {
+            outcome = "search incomplete";
+        } else if (search.isSaturated()) {
+            outcome = "saturated";
+        } else if (search == rateSearch) {
+            outcome = "served up to max rate";
+        } else {
+            outcome = "served up to max clients";
+        }
+        final String rate = rateSearch == null ? ""
+                : String.format(Locale.US, " at rate %d", kneeRate);
+        final String knee = String.format(Locale.US,
+                "#[Saturation knee = %d clients%s, %.0f msg/s, p99 latency = "
+                + "%.3fms, %s]", Math.max(0, clientSearch.getKnee()), rate,
+                kneeMessagesPerSecond, kneeP99LatencyMs, outcome);
+        LOG.info(knee);
+        output.println(knee);
+    }
+}
@@ -38,10 +38,9 @@ public final class ThroughputExperiment implements Runnable {
                 new DefaultClientFactory(loop.getClientSettings(),
                         loop.getExperimentCounters());
         loop.setClientFactory(clientFactory);
-        ExperimentLoadStrategy defaultLoadStrategy =
-                new DefaultLoadStrategy(loop.getClientSettings(),
-                        loop.getExperimentCounters());
-        loop.setLoadStartegy(defaultLoadStrategy);
+        ExperimentLoadStrategy loadStrategy =
+                loop.createLoadStrategy();
+        loop.setLoadStartegy(loadStrategy);
     }
 
     @Override
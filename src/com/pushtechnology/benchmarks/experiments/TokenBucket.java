@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces events to an exact rate, allowing up to burst events at once after
+ * an idle period. Tokens are not counted but reserved against the time the
+ * next token is due, so pacing costs no background thread.
+ */
+final class TokenBucket {
+    /** nanos between tokens, 0 if unlimited. */
+    private final long intervalNanos;
+    /** how far behind the time the next token is due may fall. */
+    private final long burstNanos;
+    /** when the next token is due. */
+    private long nextTokenNanos = Long.MIN_VALUE;
+
+    /**
+     * @param ratePerSecond tokens per second, 0 or less for unlimited
+     * @param burst tokens available at once, at least 1
+     */
+    TokenBucket(double ratePerSecond, int burst) {
+        intervalNanos = ratePerSecond <= 0.0 ? 0L
+                : Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1)
+                        / ratePerSecond));
+        burstNanos = (Math.max(1, burst) - 1) * intervalNanos;
+    }
+
+    /**
+     * Reserve the next token.
+     *
+     * @param nowNanos the current nano time
+     * @return nanos to wait before using the token, 0 if it is available now
+     */
+    synchronized long reserve(long nowNanos) {
+        if (intervalNanos == 0L) {
+            return 0L;
+        }
+        final long earliest = nowNanos - burstNanos;
+        if (nextTokenNanos == Long.MIN_VALUE
+                || nextTokenNanos - earliest < 0) {
+            nextTokenNanos = earliest;
+        }
+        final long wait = Math.max(0L, nextTokenNanos - nowNanos);
+        nextTokenNanos += intervalNanos;
+        return wait;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.experiments;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.monitoring.TimingRecorder;
+
+/**
+ * A hashed wheel timer sharded over several threads, for experiments running
+ * periodic tasks for every client. Tasks are spread round robin over the
+ * shards. Each shard owns a wheel of buckets, one per tick, and a task waits
+ * in the bucket of its deadline for as many turns of the wheel as it is
+ * away. Scheduling and cancelling are O(1) and a tick only visits one
+ * bucket, so the cost does not grow with the number of tasks waiting.
+ * <P>
+ * Tasks run on their shard's thread, a slow task only delays its own shard.
+ * How late each task runs is recorded, which includes up to a tick of
+ * rounding.
+ */
+final class WheelTimer {
+    private static final Logger LOG = LoggerFactory.getLogger(WheelTimer.class);
+    /** buckets per wheel, a power of 2. */
+    private static final int WHEEL_SIZE = 1024;
+    /** the period of a task run once. */
+    private static final long ONCE = 0L;
+    private final long tickNanos;
+    private final long startTime = System.nanoTime();
+    private final TimingRecorder lag;
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /**
+     * @param threads number of shards, each with its own thread
+     * @param tickMs the resolution of the timer
+     * @param lagP records how late tasks run
+     */
+    WheelTimer(int threads, long tickMs, TimingRecorder lagP) {
+        if (threads < 1 || tickMs < 1) {
+            throw new IllegalArgumentException("a timer needs at least one "
+                    + "thread and a tick of at least 1ms");
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        lag = lagP;
+        shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard();
+            final Thread thread = new Thread(shards[i]);
+            thread.setName("wheel-timer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Run a task periodically. Runs missed while the shard was behind are
+     * skipped, not caught up on.
+     *
+     * @param task the task, scheduled only once
+     * @param delayMs delay before the first run
+     * @param periodMs period between runs
+     */
+    void schedule(Task task, long delayMs, long periodMs) {
+        if (periodMs < 1) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        add(task, delayMs, TimeUnit.MILLISECONDS.toNanos(periodMs));
+    }
+
+    /**
+     * Run a task once. A task may schedule itself again when it runs, e.g.
+     * after a random delay.
+     *
+     * @param task the task, not currently scheduled
+     * @param delayMs delay before it runs
+     */
+    void schedule(Task task, long delayMs) {
+        add(task, delayMs, ONCE);
+    }
+
+    private void add(Task task, long delayMs, long periodNanos) {
+        task.deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        task.period = periodNanos;
+        final int shard = (nextShard.getAndIncrement() & Integer.MAX_VALUE)
+                % shards.length;
+        shards[shard].added.offer(task);
+    }
+
+    /**
+     * Stop all the shards, tasks are not run again.
+     */
+    void stop() {
+        for (Shard shard : shards) {
+            shard.stopped = true;
+        }
+    }
+
+    /**
+     * A periodic or one off task, cancel it to stop it.
+     */
+    abstract static class Task implements Runnable {
+        private volatile boolean cancelled;
+        // CHECKSTYLE:OFF only touched by the shard after scheduling
+        private long deadline;
+        private long period;
+        private long rounds;
+        private Task next;
+        // CHECKSTYLE:ON
+
+        /**
+         * Stop running the task, it is dropped from its bucket when the
+         * wheel next comes round to it.
+         */
+        public final void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * A wheel and the thread turning it. Only the added queue is shared.
+     */
+    private final class Shard implements Runnable {
+        private final Queue<Task> added = new ConcurrentLinkedQueue<Task>();
+        /** heads of the bucket lists. */
+        private final Task[] wheel = new Task[WHEEL_SIZE];
+        private volatile boolean stopped;
+        private long tick;
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                long wait;
+                while ((wait = startTime + tick * tickNanos
+                        - System.nanoTime()) > 0L) {
+                    LockSupport.parkNanos(wait);
+                }
+                Task task;
+                while ((task = added.poll()) != null) {
+                    place(task, tick);
+                }
+                expire();
+                tick++;
+            }
+        }
+
+        /**
+         * Run the tasks in the current tick's bucket which are on their
+         * last turn, and put the rest back.
+         */
+        private void expire() {
+            final int bucket = (int) (tick & (WHEEL_SIZE - 1));
+            Task task = wheel[bucket];
+            wheel[bucket] = null;
+            while (task != null) {
+                final Task next = task.next;
+                if (task.cancelled) {
+                    task.next = null;
+                } else if (task.rounds > 0L) {
+                    task.rounds--;
+                    push(bucket, task);
+                } else {
+                    final long now = System.nanoTime();
+                    lag.record(now - task.deadline);
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Timer task failed", e);
+                    }
+                    if (!task.cancelled && task.period != ONCE) {
+                        task.deadline += task.period;
+                        if (task.deadline <= now) {
+                            task.deadline += ((now - task.deadline)
+                                    / task.period + 1) * task.period;
+                        }
+                        place(task, tick + 1);
+                    }
+                }
+                task = next;
+            }
+        }
+
+        /**
+         * @param task task to put in the bucket of its deadline
+         * @param firstTick the first tick whose bucket is still to be
+         *        visited
+         */
+        private void place(Task task, long firstTick) {
+            final long due = Math.max(firstTick, (task.deadline - startTime
+                    + tickNanos - 1) / tickNanos);
+            task.rounds = (due - firstTick) / WHEEL_SIZE;
+            push((int) (due & (WHEEL_SIZE - 1)), task);
+        }
+
+        private void push(int bucket, Task task) {
+            task.next = wheel[bucket];
+            wheel[bucket] = task;
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package com.pushtechnology.benchmarks.monitoring;
 
 import java.io.PrintStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.HdrHistogram.AbstractHistogram;
 import org.HdrHistogram.ConcurrentHistogram;
 import org.HdrHistogram.Histogram;
 
+import com.pushtechnology.benchmarks.clients.InFlightPings;
 import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.LatencyMonitor.LatencyWindow;
 import com.pushtechnology.benchmarks.monitoring.LatencyMonitor.PeriodicLatencyHistogram;
 import com.pushtechnology.benchmarks.util.LongAdder;
 
@@ -21,15 +26,28 @@ import com.pushtechnology.benchmarks.util.LongAdder;
  * 
  */
 public class ExperimentCounters {
-    // CHECKSTYLE:OFF
+    // CHECKSTYLE:OFF snapshot indexes
+    public static final int SNAPSHOT_CONNECTS = 0;
+    public static final int SNAPSHOT_DISCONNECTS = 1;
+    public static final int SNAPSHOT_REFUSALS = 2;
+    public static final int SNAPSHOT_ATTEMPTS = 3;
+    public static final int SNAPSHOT_MESSAGES = 4;
+    public static final int SNAPSHOT_BYTES = 5;
+    public static final int SNAPSHOT_SHED = 6;
+    public static final int SNAPSHOT_SUBSCRIPTION_EVENTS = 7;
+    public static final int SNAPSHOT_SIZE = 8;
     private final AtomicLong connectionAttemptsCounter = new AtomicLong(0L);
     private final AtomicLong clientConnectCounter = new AtomicLong(0L);
     private final AtomicLong clientDisconnectCounter = new AtomicLong(0L);
     private final AtomicLong connectionRefusedCounter = new AtomicLong(0L);
+    private final AtomicLong clientCloseCounter = new AtomicLong(0L);
+    private final AtomicLong connectShedCounter = new AtomicLong(0L);
     private final AtomicLong topicsCounter = new AtomicLong(0L);
     private final AtomicLong lastMessagesPerSecond = new AtomicLong(0L);
     private final LongAdder messageCounter = new LongAdder();
     private final LongAdder bytesCounter = new LongAdder();
+    /** subscribes and unsubscribes made by experiments churning them. */
+    private final LongAdder subscriptionEventCounter = new LongAdder();
 
 	private AtomicInteger clientQueueSizeTotal = new AtomicInteger(0);
 	private AtomicInteger clientQueueSizeHighWatermarkTotal = new AtomicInteger(0);
@@ -37,14 +55,33 @@ public class ExperimentCounters {
 	private AtomicInteger clientQueueSizeCounter = new AtomicInteger(0);
 	private AtomicInteger clientQueueSizeHighWatermarkCounter = new AtomicInteger(0);
 	
-    private final Histogram messageThroughputHistogram =
-            new Histogram(20 * 1000 * 1000, 3);
+    // auto resizing, as short sample intervals can see very high rates
+    private final Histogram messageThroughputHistogram = new Histogram(3);
     
     LatencyMonitor latencyMonitor = new LatencyMonitor();
+    /** from the connection attempt to serverConnected. */
+    private final TimingRecorder connectLatency = new TimingRecorder();
+    /** from a subscribe request to the first message on the topic. */
+    private final TimingRecorder firstMessageLatency = new TimingRecorder();
+    /** how late timed client tasks ran, for experiments scheduling them. */
+    private final TimingRecorder schedulingLag = new TimingRecorder();
+    private final Queue<InFlightPings> trackedPings =
+            new ConcurrentLinkedQueue<InFlightPings>();
 	private final CommonExperimentSettings settings;
+	private volatile boolean isWarm = false;
+	/**
+	 * latest snapshots of the other nodes of a distributed experiment by
+	 * node, null until a node reports. Indexed rather than iterated so the
+	 * totals the monitor reads every sample allocate nothing.
+	 */
+	private final AtomicReferenceArray<long[]> remoteSnapshots;
+	/** index of the current load profile phase, NOT_AVAILABLE if none. */
+	private volatile long loadPhase = MonitorSample.NOT_AVAILABLE;
     
     public ExperimentCounters(CommonExperimentSettings settings){
     	this.settings = settings;
+    	this.remoteSnapshots = new AtomicReferenceArray<long[]>(
+    	        Math.max(1, settings.getDistributedNodes()));
     }
     
     // CHECKSTYLE:ON
@@ -58,7 +95,101 @@ public class ExperimentCounters {
         return getClientConnectCounter() - getClientDisconnectCounter();
     }
 
-    // CHECKSTYLE:OFF
+    /**
+     * @return the counters other nodes need to merge this node's progress,
+     *         by the SNAPSHOT indexes
+     */
+    public final long[] snapshot() {
+        final long[] snapshot = new long[SNAPSHOT_SIZE];
+        snapshot[SNAPSHOT_CONNECTS] = getClientConnectCounter();
+        snapshot[SNAPSHOT_DISCONNECTS] = getClientDisconnectCounter();
+        snapshot[SNAPSHOT_REFUSALS] = getConnectionRefusedCounter();
+        snapshot[SNAPSHOT_ATTEMPTS] = getConnectionAttemptsCounter();
+        snapshot[SNAPSHOT_MESSAGES] = getMessageCounter();
+        snapshot[SNAPSHOT_BYTES] = getBytesCounter();
+        snapshot[SNAPSHOT_SHED] = getConnectShedCounter();
+        snapshot[SNAPSHOT_SUBSCRIPTION_EVENTS] =
+                getSubscriptionEventCounter();
+        return snapshot;
+    }
+
+    /**
+     * Replace the counters of another node of a distributed experiment,
+     * included in the totals from now on.
+     *
+     * @param node the node
+     * @param snapshot its latest snapshot
+     */
+    public final void setRemoteSnapshot(int node, long[] snapshot) {
+        remoteSnapshots.set(node, snapshot);
+    }
+
+    /**
+     * Add latency values recorded by another node of a distributed
+     * experiment, reported with the next interval.
+     *
+     * @param values latency values in nanos
+     */
+    public final void addRemoteLatency(Histogram values) {
+        latencyMonitor.addRemoteValues(values);
+    }
+
+    private long remoteSum(int index) {
+        long sum = 0;
+        for (int node = 0; node < remoteSnapshots.length(); node++) {
+            final long[] snapshot = remoteSnapshots.get(node);
+            if (snapshot != null) {
+                sum += snapshot[index];
+            }
+        }
+        return sum;
+    }
+
+    // CHECKSTYLE:OFF totals across the nodes of a distributed experiment
+    public long getTotalCurrentlyConnected() {
+        return getCurrentlyConnected() + remoteSum(SNAPSHOT_CONNECTS)
+                - remoteSum(SNAPSHOT_DISCONNECTS);
+    }
+
+    public long getTotalClientDisconnectCounter() {
+        return getClientDisconnectCounter() + remoteSum(SNAPSHOT_DISCONNECTS);
+    }
+
+    public long getTotalConnectionRefusedCounter() {
+        return getConnectionRefusedCounter() + remoteSum(SNAPSHOT_REFUSALS);
+    }
+
+    public long getTotalConnectionAttemptsCounter() {
+        return getConnectionAttemptsCounter() + remoteSum(SNAPSHOT_ATTEMPTS);
+    }
+
+    public long getTotalMessageCounter() {
+        return getMessageCounter() + remoteSum(SNAPSHOT_MESSAGES);
+    }
+
+    public long getTotalBytesCounter() {
+        return getBytesCounter() + remoteSum(SNAPSHOT_BYTES);
+    }
+
+    public long getTotalConnectShedCounter() {
+        return getConnectShedCounter() + remoteSum(SNAPSHOT_SHED);
+    }
+
+    public long getTotalSubscriptionEventCounter() {
+        return getSubscriptionEventCounter()
+                + remoteSum(SNAPSHOT_SUBSCRIPTION_EVENTS);
+    }
+
+    /**
+     * @return connects, disconnects, subscribes and unsubscribes across the
+     *         nodes
+     */
+    public long getTotalSessionEventCounter() {
+        return getTotalCurrentlyConnected()
+                + 2 * getTotalClientDisconnectCounter()
+                + getTotalSubscriptionEventCounter();
+    }
+
     public long getLastMessagesPerSecond() {
         return lastMessagesPerSecond.get();
     }
@@ -83,6 +214,60 @@ public class ExperimentCounters {
         connectionRefusedCounter.incrementAndGet();
     }
 
+    /**
+     * Clients closed by the experiment also count as disconnected, this
+     * counts them apart from the connections lost.
+     */
+    public long getClientCloseCounter() {
+        return clientCloseCounter.get();
+    }
+
+    public void incClientCloseCounter() {
+        clientCloseCounter.incrementAndGet();
+    }
+
+    /**
+     * Connects requested while the connect queue was full, and so never
+     * attempted.
+     */
+    public long getConnectShedCounter() {
+        return connectShedCounter.get();
+    }
+
+    public void incConnectShedCounter() {
+        connectShedCounter.incrementAndGet();
+    }
+
+    public long getSubscriptionEventCounter() {
+        return subscriptionEventCounter.sum();
+    }
+
+    public void incSubscriptionEventCounter() {
+        subscriptionEventCounter.increment();
+    }
+
+    /**
+     * @return time from the connection attempt to serverConnected
+     */
+    public TimingRecorder getConnectLatency() {
+        return connectLatency;
+    }
+
+    /**
+     * @return time from a subscribe request to the first message delivered
+     *         on the topic
+     */
+    public TimingRecorder getFirstMessageLatency() {
+        return firstMessageLatency;
+    }
+
+    /**
+     * @return how late timed client tasks ran after their deadline
+     */
+    public TimingRecorder getSchedulingLag() {
+        return schedulingLag;
+    }
+
     public long getClientDisconnectCounter() {
         return clientDisconnectCounter.get();
     }
@@ -127,11 +312,22 @@ public class ExperimentCounters {
 	}
 
 	public void recordLatencyValue(long value) {
+		recordLatencyValue(value, 0L);
+	}
+
+	/**
+	 * @param value latency in nanos
+	 * @param expectedInterval expected nanos between samples from the
+	 *        recording client, used to correct for coordinated omission. 0
+	 *        disables the correction.
+	 */
+	public void recordLatencyValue(long value, long expectedInterval) {
 		
-		if(getMessageCounter() > getClientSettings().getWarmupMessages()){
+		// once warm, skip summing the message counter cells on every sample
+		if(!isWarm && getMessageCounter() > getClientSettings().getWarmupMessages()){
 			warmupComplete();
 		}
-        latencyMonitor.recordLatencyValue(value);
+        latencyMonitor.recordLatencyValue(value, expectedInterval);
 	}
 	
 	private CommonExperimentSettings getClientSettings() {
@@ -142,12 +338,105 @@ public class ExperimentCounters {
 		return latencyMonitor.getIntervalHistogram();
 	}
 
+	/**
+	 * @param recycled an interval histogram no longer in use, or null
+	 * @return the latency histogram for the interval just ended
+	 */
+	public PeriodicLatencyHistogram getIntervalHistogram(
+			PeriodicLatencyHistogram recycled) {
+		return latencyMonitor.getIntervalHistogram(recycled);
+	}
+
+	/**
+	 * @return a window collecting the latency intervals as they end
+	 */
+	public LatencyWindow openLatencyWindow() {
+		return latencyMonitor.openWindow();
+	}
+
 	public void reportLatency(PrintStream printStream) {
 		latencyMonitor.report(printStream);
+		reportPings(printStream);
+	}
+
+	/**
+	 * Include a client's ping tracking in the latency report.
+	 * 
+	 * @param pings the client's in flight pings
+	 */
+	public void trackPings(InFlightPings pings) {
+		trackedPings.add(pings);
+	}
+
+	/**
+	 * Report the connect latency and the connects shed, if there were any
+	 * connects, and the time to the first message of a subscription.
+	 * 
+	 * @param printStream ...
+	 */
+	public void reportConnects(PrintStream printStream) {
+		final Histogram connects = connectLatency.getAccumulatedHistogram();
+		if (connects.getTotalCount() == 0L && getConnectShedCounter() == 0L) {
+			return;
+		}
+		printStream.println("Connect latency (us):");
+		latencyMonitor.reportPercentiles(connects, printStream);
+		printStream.format("#[Connects shed = %d]\n",
+				getConnectShedCounter());
+		final Histogram firstMessages =
+				firstMessageLatency.getAccumulatedHistogram();
+		if (firstMessages.getTotalCount() == 0L) {
+			return;
+		}
+		printStream.println("Subscribe to first message latency (us):");
+		latencyMonitor.reportPercentiles(firstMessages, printStream);
+	}
+
+	/**
+	 * Report how late timed client tasks ran, to show whether the harness
+	 * kept up.
+	 * 
+	 * @param printStream ...
+	 */
+	public void reportSchedulingLag(PrintStream printStream) {
+		final Histogram lag = schedulingLag.getAccumulatedHistogram();
+		if (lag.getTotalCount() == 0L) {
+			return;
+		}
+		printStream.println("Scheduling lag (us):");
+		latencyMonitor.reportPercentiles(lag, printStream);
+	}
+
+	private void reportPings(PrintStream printStream) {
+		if (trackedPings.isEmpty()) {
+			return;
+		}
+		long inFlight = 0;
+		long overrun = 0;
+		long reordered = 0;
+		long unmatched = 0;
+		for (InFlightPings pings : trackedPings) {
+			inFlight += pings.inFlight();
+			overrun += pings.overrun();
+			reordered += pings.reordered();
+			unmatched += pings.unmatched();
+		}
+		printStream.format("#[Pings in flight = %d, overrun = %d, "
+				+ "reordered = %d, unmatched = %d]\n",
+				inFlight, overrun, reordered, unmatched);
+	}
+
+	public long getLoadPhase() {
+		return loadPhase;
+	}
+
+	public void setLoadPhase(long phase) {
+		loadPhase = phase;
 	}
 
 	public void warmupComplete() {
 		latencyMonitor.warmupComplete();
+		isWarm = true;
 	}
 	
 	public void sampleClientQueueSize(int qSize) {
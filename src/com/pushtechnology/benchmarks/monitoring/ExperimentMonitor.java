@@ -15,46 +15,63 @@
  */
 package com.pushtechnology.benchmarks.monitoring;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
-import javax.management.MBeanServerConnection;
-import javax.management.remote.JMXConnector;
-
+import org.HdrHistogram.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
-import com.pushtechnology.benchmarks.util.JmxHelper;
-import com.pushtechnology.benchmarks.util.Memory;
+import com.pushtechnology.benchmarks.experiments.LoadProfile;
+import com.pushtechnology.benchmarks.monitoring.LatencyMonitor.PeriodicLatencyHistogram;
  
 /**
  * This is a background thread for monitoring an experiment and output the
- * experiment metrics every second.
+ * experiment metrics every monitor.sample.interval.ms, every second by
+ * default. Rates are always reported per second.
  * 
  * @author nitsanw
  */
 public class ExperimentMonitor implements Runnable {
     // CHECKSTYLE:OFF
-    private static final int MILLIS_IN_SECOND = 1000;
+    private static final long MAX_DELAY_WARNING_MS = 200;
     private final ExperimentCounters experimentCounters;
     private final CpuMonitor cpuMonitor = System.getProperty("java.vendor")
             .startsWith("Oracle") ? new LocalCpuMonitor() : null;
     private MemoryMonitor memoryMonitor;
-    private CpuMonitor rCpuMonitor;
-    private MemoryMonitor rMemoryMonitor;
+    private final RemoteJmxPoller remoteMonitor;
     private PrintStream out;
+    private String latencyLogFile;
+    private LatencyLogWriter latencyLog;
+    private PeriodicLatencyHistogram latencyInterval;
+    private File sampleFile;
+    private MappedSampleRecorder sampleRecorder;
+    private final String[] serverAttributeNames;
+    /** load profile phase names, empty without a profile. */
+    private final String[] phaseNames;
+    private final ByteBuffer sample;
+    // the snapshot the GC deltas of the last sample were taken against
+    private RemoteJmxPoller.Snapshot lastRemote;
 
     private volatile boolean isRunning = true;
     private volatile boolean isSampling = false;
     private Thread monitorThread;
     private volatile long deadline;
+    private long startTimeMillis;
     
-    private final String RMI_TIMEOUT_MS = "80";
+    // server samples older than this many poll intervals are reported N/A
+    private static final int MAX_REMOTE_SAMPLE_AGE_POLLS = 3;
+    // micros of cpu time a second per percent of a logical cpu
+    private static final double CPU_US_PER_PERCENT = 10000.0;
 	private final CommonExperimentSettings settings;
+    private final long sampleIntervalMs;
+    private final long delayWarningMs;
 
     private static final Logger LOG = LoggerFactory.getLogger(ExperimentMonitor.class);
 
@@ -69,7 +86,22 @@ public class ExperimentMonitor implements Runnable {
     		final CommonExperimentSettings settings){
         this.experimentCounters = experimentCountersP;
         this.settings = settings;
+        this.sampleIntervalMs = settings.getMonitorSampleIntervalMs();
+        this.delayWarningMs = Math.min(MAX_DELAY_WARNING_MS, sampleIntervalMs);
         
+        final RemoteRuntimeMonitor.ServerAttribute[] serverAttributes =
+                RemoteRuntimeMonitor.ServerAttribute.parse(
+                        settings.getMonitorJmxServerAttributes());
+        serverAttributeNames = new String[serverAttributes.length];
+        for (int i = 0; i < serverAttributes.length; i++) {
+            serverAttributeNames[i] = serverAttributes[i].getColumnName();
+        }
+        phaseNames = LoadProfile.parse(settings.getLoadProfile(),
+                settings.getInitialClients()).getPhaseNames();
+        sample = ByteBuffer.allocate(
+                MonitorSample.recordSize(serverAttributes.length));
+        remoteMonitor = new RemoteJmxPoller(settings.getDiffusionHost(),
+                settings.getMonitorJmxPollIntervalMs(), serverAttributes);
         setupJmx();
         setupPrintstream();
     }
@@ -79,6 +111,10 @@ public class ExperimentMonitor implements Runnable {
         if (settings.getOutputFile() == null || settings.getOutputFile().isEmpty()) {
             out = System.out;
         } else {
+            latencyLogFile = settings.getOutputFile()
+                    .replaceFirst("(\\.csv)?$", ".hlog");
+            sampleFile = new File(settings.getOutputFile()
+                    .replaceFirst("(\\.csv)?$", ".samples"));
             PrintStream o;
             try {
                 o = new PrintStream(settings.getOutputFile());
@@ -92,24 +128,6 @@ public class ExperimentMonitor implements Runnable {
 	}
 
 	private void setupJmx() {
-        try {
-        	// set the jmx timeout so the monitor loop doesn't get blocked
-        	// http://docs.oracle.com/javase/7/docs/technotes/guides/rmi/sunrmiproperties.html
-        	System.setProperty("sun.rmi.transport.tcp.responseTimeout", RMI_TIMEOUT_MS);
-        	
-            final JMXConnector connect =
-                    JmxHelper.getJmxConnector(settings.getDiffusionHost(), "jmxrmi", "guest",
-                            "Guest");
-            final MBeanServerConnection mBeanServerConnection =
-                    connect.getMBeanServerConnection();
-
-            rMemoryMonitor = new RemoteMemoryMonitor(mBeanServerConnection);
-            rCpuMonitor = new RemoteCpuMonitor(mBeanServerConnection);
-            
-        } catch (Exception e) {
-            LOG.warn("Unable to create JMX connection to server - no further JMX monitoring possible", e);
-        }
-        
         try{
         	memoryMonitor = new LocalMemoryMonitor();
         } catch (Exception e) {
@@ -123,6 +141,9 @@ public class ExperimentMonitor implements Runnable {
 
         printHeader();
         monitorLoop();
+        logLatencyInterval();
+        closeLatencyLog();
+        closeSampleRecorder();
         printFooter();
     }
 
@@ -136,8 +157,10 @@ public class ExperimentMonitor implements Runnable {
      */
     private void monitorLoop() {
     	
-        long messagesBefore = experimentCounters.getMessageCounter();
-        long bytesBefore = experimentCounters.getBytesCounter();
+        long messagesBefore = experimentCounters.getTotalMessageCounter();
+        long bytesBefore = experimentCounters.getTotalBytesCounter();
+        long sessionEventsBefore =
+                experimentCounters.getTotalSessionEventCounter();
         long timeBefore = System.nanoTime();
         deadline = System.currentTimeMillis();
         long timeStart = System.nanoTime();
@@ -145,10 +168,15 @@ public class ExperimentMonitor implements Runnable {
         while (isRunning) {
             final long timeAfter = System.nanoTime();
             
-            final long messagesAfter = experimentCounters.getMessageCounter();
-            final long bytesAfter = experimentCounters.getBytesCounter();
+            final long messagesAfter = experimentCounters.getTotalMessageCounter();
+            final long bytesAfter = experimentCounters.getTotalBytesCounter();
             final long intervalMessages = messagesAfter - messagesBefore;
             final long intervalBytes = bytesAfter - bytesBefore;
+            final long sessionEventsAfter =
+                    experimentCounters.getTotalSessionEventCounter();
+            final long intervalSessionEvents =
+                    sessionEventsAfter - sessionEventsBefore;
+            sessionEventsBefore = sessionEventsAfter;
             final long intervalNanos = timeAfter - timeBefore;
             messagesBefore = messagesAfter;
             bytesBefore = bytesAfter;
@@ -158,51 +186,51 @@ public class ExperimentMonitor implements Runnable {
                     * TimeUnit.SECONDS.toNanos(1) / intervalNanos;
             final long bytesPerSecond = (long) intervalBytes
                     * TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+            final long sessionEventsPerSecond = intervalSessionEvents
+                    * TimeUnit.SECONDS.toNanos(1) / intervalNanos;
 
             // capture local counters first
             long timestamp = (timeAfter - timeStart)/1000000;
-            long currentlyConnected = experimentCounters.getCurrentlyConnected();
+            long currentlyConnected = experimentCounters.getTotalCurrentlyConnected();
             long topicsCounter = experimentCounters.getTopicsCounter();
-            long disconnects = experimentCounters.getClientDisconnectCounter();
-            long refuseds = experimentCounters.getConnectionRefusedCounter();
-            long connectAttempts = experimentCounters.getConnectionAttemptsCounter();
+            long disconnects = experimentCounters.getTotalClientDisconnectCounter();
+            long refuseds = experimentCounters.getTotalConnectionRefusedCounter();
+            long connectAttempts = experimentCounters.getTotalConnectionAttemptsCounter();
             
-            String cpu = getCpu();
             memoryMonitor.sample();
             
-            getOutput().format("%s, %d, %d, %d, %b, %s, %d, %d, %d, %d, %s, "
-                    + "%s, %s, %s, %s, %s",
-                    timestamp,
-                    messagesPerSecond,
-                    currentlyConnected,
-                    topicsCounter,
-                    isSampling,
-                    cpu,
-                    disconnects,
-                    refuseds,
-                    connectAttempts,
-                    bytesPerSecond,
-                    Memory.formatMemory(memoryMonitor.heapUsed()),
-                    Memory.formatMemory(memoryMonitor.heapCommitted()),
-                    Memory.formatMemory(memoryMonitor.heapMax()),
-                    Memory.formatMemory(memoryMonitor.offHeapUsed()),
-                    Memory.formatMemory(memoryMonitor.offHeapCommitted()),
-                    Memory.formatMemory(memoryMonitor.offHeapMax()));
-
-            // JMX counters - remote so could delay/slow
-            if (rMemoryMonitor != null) {
-                rMemoryMonitor.sample();
-            }
-            getOutput().format(", %s, %s, %s, %s, %s, %s, %s , %d, %d\n",
-                    getServerCpu(),
-                    getServerHeapUsed(),
-                    getServerHeapCommitted(),
-                    getServerHeapMax(),
-                    getServerOffHeapUsed(),
-                    getServerOffHeapCommitted(),
-                    getServerOffHeapMax(),
-                    experimentCounters.getAverageClientQueueSize(),
+            putLong(MonitorSample.ELAPSED_MS, timestamp);
+            putLong(MonitorSample.MESSAGES_PER_SECOND, messagesPerSecond);
+            putLong(MonitorSample.CLIENTS_CONNECTED, currentlyConnected);
+            putLong(MonitorSample.TOPICS, topicsCounter);
+            putLong(MonitorSample.IN_SAMPLE, isSampling ? 1L : 0L);
+            putDouble(MonitorSample.CPU, getCpu(cpuMonitor));
+            putLong(MonitorSample.CLIENT_DISCONNECTS, disconnects);
+            putLong(MonitorSample.CONNECTION_REFUSALS, refuseds);
+            putLong(MonitorSample.CONNECTION_ATTEMPTS, connectAttempts);
+            putLong(MonitorSample.BYTES_PER_SECOND, bytesPerSecond);
+            putMemory(MonitorSample.HEAP_USED, memoryMonitor);
+
+            // JMX counters - polled remotely on another thread
+            putRemote(getServerSnapshot());
+            putLong(MonitorSample.AVG_CLIENT_QUEUE_SIZE,
+                    experimentCounters.getAverageClientQueueSize());
+            putLong(MonitorSample.AVG_CLIENT_QUEUE_HWM,
                     experimentCounters.getAverageClientQueueSizeHighWatermark());
+            putLong(MonitorSample.PHASE, experimentCounters.getLoadPhase());
+            putLong(MonitorSample.CONNECTS_SHED,
+                    experimentCounters.getTotalConnectShedCounter());
+            putLong(MonitorSample.CONNECT_P99_US,
+                    experimentCounters.getConnectLatency().endInterval());
+            putLong(MonitorSample.FIRST_MESSAGE_P99_US,
+                    experimentCounters.getFirstMessageLatency().endInterval());
+            putLong(MonitorSample.SCHEDULING_LAG_P99_US,
+                    experimentCounters.getSchedulingLag().endInterval());
+            putLong(MonitorSample.SESSION_EVENTS_PER_SECOND,
+                    sessionEventsPerSecond);
+            putLong(MonitorSample.SERVER_CPU_US_PER_SESSION_EVENT,
+                    serverCpuPerEvent(sessionEventsPerSecond));
+            recordSample();
             
             if (isSampling) {
             	experimentCounters.getMessageThroughputHistogram().recordValue(messagesPerSecond);
@@ -211,21 +239,22 @@ public class ExperimentMonitor implements Runnable {
             }
             // Single writer to this counter, so lazy set is fine
             experimentCounters.setLastMessagesPerSecond(messagesPerSecond);
+            logLatencyInterval();
             
             // warning for reporting delays
             long now = System.currentTimeMillis();
             long difference = deadline - now;
-            if(difference < -200){
-            	LOG.error("Monitoring Event loop is delayed by over 200ms. Data may be lost or inaccurate.");
+            if(difference < -delayWarningMs){
+            	LOG.error("Monitoring Event loop is delayed by over {}ms. Data may be lost or inaccurate.", delayWarningMs);
             }
-            if(difference < -1000){
+            if(difference < -sampleIntervalMs){
                 // we have missed one or more intervals, 
                 // so update to the next interval deadline in the future 
                 // else we get several intervals with very short duration
             	LOG.error("Monitoring Event loop - skipping interval(s).");
-            	deadline += ((difference -  difference% MILLIS_IN_SECOND)/MILLIS_IN_SECOND+1)*MILLIS_IN_SECOND;
+            	deadline += (-difference / sampleIntervalMs + 1) * sampleIntervalMs;
             } else {
-                deadline += MILLIS_IN_SECOND;
+                deadline += sampleIntervalMs;
             }
             
             LockSupport.parkUntil(deadline);
@@ -233,21 +262,57 @@ public class ExperimentMonitor implements Runnable {
 		
 	}
 
+    /**
+     * Queue the latency histogram for the interval just ended to be written
+     * to the latency log. The log is created next to the output file on the
+     * first interval with any latency values in it, so experiments which do
+     * not measure latency do not get one. It is encoded and written on the
+     * log writer's thread, so the monitor loop does not allocate for it.
+     */
+    private void logLatencyInterval() {
+        latencyInterval =
+                experimentCounters.getIntervalHistogram(latencyInterval);
+        final Histogram interval = latencyInterval.getHistogram();
+        if (latencyLog == null) {
+            if (latencyLogFile == null || interval.getTotalCount() == 0) {
+                return;
+            }
+            latencyLog = new LatencyLogWriter(latencyLogFile,
+                    startTimeMillis);
+            latencyLog.start();
+        }
+        latencyLog.add(interval);
+    }
+
+    private void closeLatencyLog() {
+        if (latencyLog != null) {
+            try {
+                latencyLog.close();
+            } catch (InterruptedException e) {
+                LOG.error("Interrupted while closing the latency log", e);
+            }
+            latencyLog = null;
+        }
+    }
+
 	private void printHeader() {
-        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
-       long currentTimeMillis = System.currentTimeMillis();
-       long timeStartNanos = System.nanoTime();
-       
-        getOutput().println("# Start timestamps : "+format.format(currentTimeMillis)+" currentTimeMillis: "+currentTimeMillis+" nanoTime: "+timeStartNanos);
-        getOutput().println("ElapsedTimeMS, MessagesPerSecond, ClientsConnected, Topics,"
-                + " InSample, Cpu, ClientDisconnects, ConnectionRefusals, "
-                + "ConnectionAttempts, BytesPerSecond, UsedHeapMB, "
-                + "CommitedHeapMB, MaxHeapMB, UsedOffHeapMB, CommittedOffHeapMB"
-                + ", MaxOffHeapMB, ServerCPU, ServerHeapUsedMB, "
-                + "ServerHeapCommittedMB, ServerMaxHeapMB, ServerOffHeapUsedMB,"
-                + " ServerOffHeapCommittedMB, ServerOffHeapMaxMB,"
-                + " AvgClientQueueSz, AvgClientQueueHwm");
-		
+        final long currentTimeMillis = System.currentTimeMillis();
+        final long timeStartNanos = System.nanoTime();
+        startTimeMillis = currentTimeMillis;
+        if (sampleFile != null) {
+            try {
+                sampleRecorder = new MappedSampleRecorder(sampleFile,
+                        currentTimeMillis, timeStartNanos,
+                        serverAttributeNames, phaseNames);
+                // the header and rows are printed on conversion
+                return;
+            } catch (IOException e) {
+                LOG.warn("failed to create sample file: " + sampleFile
+                        + " will print samples to output instead.", e);
+            }
+        }
+        MonitorSample.printHeader(getOutput(), currentTimeMillis,
+                timeStartNanos, serverAttributeNames);
 	}
 
 	private void printFooter() {
@@ -269,85 +334,170 @@ public class ExperimentMonitor implements Runnable {
 		
 	}
 
-	/**
-     * @return server max heap formatted, or N/A if no monitor exists
+    /**
+     * The server's cpu time per session event, attributing all of the
+     * server's cpu use to the events.
+     *
+     * @param sessionEventsPerSecond session events in the sample
+     * @return micros of server cpu time per event, NOT_AVAILABLE if there
+     *         were no events or the server cpu is not known
      */
-    private String getServerHeapMax() {
-        if (rMemoryMonitor == null) {
-            return "N/A";
+    private long serverCpuPerEvent(long sessionEventsPerSecond) {
+        final double serverCpu =
+                MonitorSample.getDouble(sample, MonitorSample.SERVER_CPU);
+        if (sessionEventsPerSecond == 0L || Double.isNaN(serverCpu)) {
+            return MonitorSample.NOT_AVAILABLE;
         }
-        return Memory.formatMemory(rMemoryMonitor.heapMax());
+        return (long) (serverCpu * CPU_US_PER_PERCENT
+                / sessionEventsPerSecond);
     }
 
-    /**
-     * @return server used heap formatted, or N/A if no monitor exists
-     */
-    private String getServerHeapUsed() {
-        if (rMemoryMonitor == null) {
-            return "N/A";
-        }
-        return Memory.formatMemory(rMemoryMonitor.heapUsed());
+    private void putLong(int field, long value) {
+        MonitorSample.putLong(sample, field, value);
+    }
+
+    private void putDouble(int field, double value) {
+        MonitorSample.putDouble(sample, field, value);
     }
 
     /**
-     * @return server committed heap formatted, or N/A if no monitor exists
+     * Put the 6 memory fields starting at heapUsedField.
+     *
+     * @param heapUsedField the heap used field of the monitor
+     * @param monitor memory monitor, or null if none exists
      */
-    private String getServerHeapCommitted() {
-        if (rMemoryMonitor == null) {
-            return "N/A";
+    private void putMemory(int heapUsedField, MemoryMonitor monitor) {
+        final int offset = heapUsedField - MonitorSample.HEAP_USED;
+        if (monitor == null) {
+            for (int i = MonitorSample.HEAP_USED;
+                    i <= MonitorSample.OFF_HEAP_MAX; i++) {
+                putLong(offset + i, MonitorSample.NOT_AVAILABLE);
+            }
+            return;
         }
-        return Memory.formatMemory(rMemoryMonitor.heapCommitted());
+        putLong(offset + MonitorSample.HEAP_USED, monitor.heapUsed());
+        putLong(offset + MonitorSample.HEAP_COMMITTED, monitor.heapCommitted());
+        putLong(offset + MonitorSample.HEAP_MAX, monitor.heapMax());
+        putLong(offset + MonitorSample.OFF_HEAP_USED, monitor.offHeapUsed());
+        putLong(offset + MonitorSample.OFF_HEAP_COMMITTED,
+                monitor.offHeapCommitted());
+        putLong(offset + MonitorSample.OFF_HEAP_MAX, monitor.offHeapMax());
     }
 
     /**
-     * @return server max off heap formatted, or N/A if no monitor exists
+     * Put the server cpu, memory and runtime fields. GC counts and times are
+     * the change since the previous sample, and are 0 when the poller has
+     * not taken a new snapshot since.
+     *
+     * @param remote latest server sample, or null if there is none
      */
-    private String getServerOffHeapMax() {
-        if (rMemoryMonitor == null) {
-            return "N/A";
+    private void putRemote(RemoteJmxPoller.Snapshot remote) {
+        if (remote == null) {
+            putDouble(MonitorSample.SERVER_CPU, Double.NaN);
+            putMemory(MonitorSample.SERVER_HEAP_USED, null);
+            for (int i = MonitorSample.SERVER_THREADS;
+                    i <= MonitorSample.SERVER_SAFEPOINT_TIME_MS; i++) {
+                putLong(i, MonitorSample.NOT_AVAILABLE);
+            }
+            for (int i = 0; i < serverAttributeNames.length; i++) {
+                putLong(MonitorSample.FIELD_COUNT + i,
+                        MonitorSample.NOT_AVAILABLE);
+            }
+            lastRemote = null;
+            return;
+        }
+        putDouble(MonitorSample.SERVER_CPU, remote.getCpuUsage());
+        putLong(MonitorSample.SERVER_HEAP_USED, remote.heapUsed());
+        putLong(MonitorSample.SERVER_HEAP_COMMITTED, remote.heapCommitted());
+        putLong(MonitorSample.SERVER_HEAP_MAX, remote.heapMax());
+        putLong(MonitorSample.SERVER_OFF_HEAP_USED, remote.offHeapUsed());
+        putLong(MonitorSample.SERVER_OFF_HEAP_COMMITTED,
+                remote.offHeapCommitted());
+        putLong(MonitorSample.SERVER_OFF_HEAP_MAX, remote.offHeapMax());
+        putLong(MonitorSample.SERVER_THREADS, remote.threads());
+        // against itself when the poller has not taken a new snapshot
+        final RemoteJmxPoller.Snapshot last =
+                lastRemote == null ? remote : lastRemote;
+        final boolean isFirst = lastRemote == null;
+        lastRemote = remote;
+        putLong(MonitorSample.SERVER_YOUNG_GC_COUNT, delta(isFirst,
+                remote.youngGcCount(), last.youngGcCount()));
+        putLong(MonitorSample.SERVER_YOUNG_GC_TIME_MS, delta(isFirst,
+                remote.youngGcTimeMs(), last.youngGcTimeMs()));
+        putLong(MonitorSample.SERVER_OLD_GC_COUNT, delta(isFirst,
+                remote.oldGcCount(), last.oldGcCount()));
+        putLong(MonitorSample.SERVER_OLD_GC_TIME_MS, delta(isFirst,
+                remote.oldGcTimeMs(), last.oldGcTimeMs()));
+        putLong(MonitorSample.SERVER_GC_MAX_PAUSE_MS,
+                isFirst || last != remote ? remote.maxGcPauseMs() : 0L);
+        putLong(MonitorSample.SERVER_SAFEPOINT_TIME_MS, delta(isFirst,
+                remote.safepointTimeMs(), last.safepointTimeMs()));
+        for (int i = 0; i < serverAttributeNames.length; i++) {
+            putLong(MonitorSample.FIELD_COUNT + i, remote.serverAttribute(i));
         }
-        return Memory.formatMemory(rMemoryMonitor.offHeapMax());
     }
 
     /**
-     * @return server used off heap formatted, or N/A if no monitor exists
+     * @param isFirst true if there is no previous value
+     * @param current cumulative value of the current snapshot
+     * @param previous cumulative value of the previous snapshot
+     * @return the change, or NOT_AVAILABLE if there is no previous value,
+     *         either value is not available or the server restarted
      */
-    private String getServerOffHeapUsed() {
-        if (rMemoryMonitor == null) {
-            return "N/A";
+    private static long delta(boolean isFirst, long current, long previous) {
+        if (isFirst || current == MonitorSample.NOT_AVAILABLE
+                || previous == MonitorSample.NOT_AVAILABLE
+                || current < previous) {
+            return MonitorSample.NOT_AVAILABLE;
         }
-        return Memory.formatMemory(rMemoryMonitor.offHeapUsed());
+        return current - previous;
     }
 
     /**
-     * @return server committed off heap formatted, or N/A if no monitor exists
+     * @param monitor cpu monitor, or null if none exists
+     * @return cpu usage, or NaN if no monitor exists
      */
-    private String getServerOffHeapCommitted() {
-        if (rMemoryMonitor == null) {
-            return "N/A";
+    private static double getCpu(CpuMonitor monitor) {
+        if (monitor == null) {
+            return Double.NaN;
         }
-        return Memory.formatMemory(rMemoryMonitor.offHeapCommitted());
+        return monitor.getCpuUsage();
     }
 
     /**
-     * @return server cpu usage formatted, or N/A if no monitor exists
+     * Append the sample to the sample file, or print it straight away if
+     * there is none.
      */
-    private String getServerCpu() {
-        if (rCpuMonitor == null) {
-            return "N/A";
-        } else {
-            return String.format("%.1f", rCpuMonitor.getCpuUsage());
+    private void recordSample() {
+        if (sampleRecorder != null) {
+            try {
+                sampleRecorder.append(sample);
+                return;
+            } catch (IOException e) {
+                LOG.error("Failed to record sample, printing samples from "
+                        + "now on", e);
+                closeSampleRecorder();
+            }
         }
+        MonitorSample.printRow(getOutput(), sample,
+                serverAttributeNames.length, phaseNames);
     }
 
     /**
-     * @return cpu usage formatted, or N/A if no monitor exists
+     * Convert the recorded samples into CSV rows on the output.
      */
-    private String getCpu() {
-        if (cpuMonitor == null) {
-            return "N/A";
-        } else {
-            return String.format("%.1f", cpuMonitor.getCpuUsage());
+    private void closeSampleRecorder() {
+        if (sampleRecorder == null) {
+            return;
+        }
+        final MappedSampleRecorder recorder = sampleRecorder;
+        sampleRecorder = null;
+        try {
+            recorder.close();
+            SampleCsvConverter.convert(recorder.getFile(), getOutput());
+        } catch (IOException e) {
+            LOG.error("Failed to convert samples in " + recorder.getFile(),
+                    e);
         }
     }
 
@@ -379,6 +529,7 @@ public class ExperimentMonitor implements Runnable {
         if (monitorThread != null) {
             throw new IllegalStateException();
         }
+        remoteMonitor.start();
         monitorThread = new Thread(this);
         monitorThread.setName("experiment-monitor-thread");
         monitorThread.setDaemon(true);
@@ -393,6 +544,7 @@ public class ExperimentMonitor implements Runnable {
             throw new IllegalStateException();
         }
         isRunning = false;
+        remoteMonitor.stop();
         try {
             LockSupport.unpark(monitorThread);
             monitorThread.join();
@@ -409,6 +561,16 @@ public class ExperimentMonitor implements Runnable {
     public final PrintStream getOutput() {
         return out;
     }
+
+    /**
+     * @return the latest server sample, or null if there is none recent
+     *         enough to report
+     */
+    public final RemoteJmxPoller.Snapshot getServerSnapshot() {
+        return remoteMonitor.getSnapshot(System.currentTimeMillis(),
+                MAX_REMOTE_SAMPLE_AGE_POLLS
+                        * remoteMonitor.getPollIntervalMs());
+    }
     
     /**
      * Depending on experiment config, warmup could be defined in different ways.
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes latency interval histograms to an HdrHistogram log on a thread of
+ * its own. Encoding an interval compresses and Base64 encodes it into new
+ * buffers, so it is kept off the experiment monitor loop, which only adds
+ * the interval to a pending histogram. Intervals added while the writer is
+ * busy are written as one.
+ */
+final class LatencyLogWriter implements Runnable {
+    // CHECKSTYLE:OFF
+    private static final Logger LOG =
+            LoggerFactory.getLogger(LatencyLogWriter.class);
+    private final String file;
+    private final long startTimeMillis;
+    /** guarded by this. */
+    private Histogram pending;
+    /** guarded by this. */
+    private boolean isPending;
+    /** guarded by this. */
+    private boolean isRunning = true;
+    /** swapped with pending, only written by the writer thread. */
+    private Histogram writing;
+    private PrintStream out;
+    private HistogramLogWriter log;
+    private boolean isFailed;
+    private Thread writerThread;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param fileP the log file, created on the first interval written
+     * @param startTimeMillisP the experiment's start, the log's base time
+     */
+    LatencyLogWriter(String fileP, long startTimeMillisP) {
+        this.file = fileP;
+        this.startTimeMillis = startTimeMillisP;
+    }
+
+    /**
+     * Queue an interval to be written. Does not allocate once the first
+     * interval is added.
+     *
+     * @param interval the interval histogram, with its start and end time
+     *        stamps, not kept
+     */
+    synchronized void add(Histogram interval) {
+        if (pending == null) {
+            pending = new Histogram(interval.getHighestTrackableValue(),
+                    interval.getNumberOfSignificantValueDigits());
+            writing = new Histogram(interval.getHighestTrackableValue(),
+                    interval.getNumberOfSignificantValueDigits());
+        }
+        if (!isPending) {
+            pending.setStartTimeStamp(interval.getStartTimeStamp());
+            isPending = true;
+        }
+        pending.add(interval);
+        pending.setEndTimeStamp(interval.getEndTimeStamp());
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                while (isRunning && !isPending) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!isPending) {
+                    break;
+                }
+                final Histogram swap = writing;
+                writing = pending;
+                pending = swap;
+                isPending = false;
+            }
+            write(writing);
+            writing.reset();
+        }
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private void write(Histogram interval) {
+        if (isFailed) {
+            return;
+        }
+        if (log == null) {
+            try {
+                out = new PrintStream(file);
+            } catch (FileNotFoundException e) {
+                LOG.warn("failed to create latency log file: " + file
+                        + " no latency log will be written.");
+                isFailed = true;
+                return;
+            }
+            log = new HistogramLogWriter(out);
+            log.outputLogFormatVersion();
+            log.outputStartTime(startTimeMillis);
+            log.setBaseTime(startTimeMillis);
+            log.outputLegend();
+        }
+        log.outputIntervalHistogram(interval);
+    }
+
+    /**
+     * start writing.
+     */
+    synchronized void start() {
+        if (writerThread != null) {
+            throw new IllegalStateException();
+        }
+        writerThread = new Thread(this);
+        writerThread.setName("latency-log-writer-thread");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * stop once the intervals added are written.
+     */
+    synchronized void stop() {
+        isRunning = false;
+        notifyAll();
+    }
+
+    /**
+     * Stop and wait for the intervals added to be written and the log
+     * closed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void close() throws InterruptedException {
+        stop();
+        final Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+}
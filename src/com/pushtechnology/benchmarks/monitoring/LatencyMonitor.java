@@ -1,13 +1,12 @@
 package com.pushtechnology.benchmarks.monitoring;
 
 import java.io.PrintStream;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
-import org.HdrHistogram.AbstractHistogram;
-import org.HdrHistogram.ConcurrentHistogram;
 import org.HdrHistogram.Histogram;
-import org.HdrHistogram.WriterReaderPhaser;
 
 /**
  * This is where all the latency heavy lifting is done.
@@ -17,12 +16,36 @@ import org.HdrHistogram.WriterReaderPhaser;
  */
 public class LatencyMonitor {
 
-	private final WriterReaderPhaser recordingPhaser = new WriterReaderPhaser();
+	/**
+	 * Every recording thread gets its own recorder, the reader visits them
+	 * all when the interval flips.
+	 */
+	private final ThreadLocal<ThreadRecorder> threadRecorder =
+			new ThreadLocal<ThreadRecorder>() {
+				@Override
+				protected ThreadRecorder initialValue() {
+					final ThreadRecorder recorder = new ThreadRecorder();
+					recorders.add(recorder);
+					return recorder;
+				}
+			};
+	private final List<ThreadRecorder> recorders =
+			new CopyOnWriteArrayList<ThreadRecorder>();
 
-	private PeriodicLatencyHistogram inactiveHistogram;
-	private volatile PeriodicLatencyHistogram activeHistogram;
+	/** start of the current interval, only touched under the monitor lock. */
+	private long intervalStartTime = System.currentTimeMillis();
+	/** was the current interval started during warmup. */
+	private boolean isIntervalWarmup = true;
 
-	private boolean isWarmup=true;
+	private volatile boolean isWarmup=true;
+
+	/** all intervals so far, for the end of experiment report. */
+	private final Histogram accumulatedHistogram = newHistogram();
+	/** windows collecting the intervals. */
+	private final List<LatencyWindow> windows =
+			new CopyOnWriteArrayList<LatencyWindow>();
+	/** values recorded by other nodes, added to the next interval. */
+	private final Histogram remoteHistogram = newHistogram();
 
     /**
      * Histogram significant digits
@@ -35,62 +58,198 @@ public class LatencyMonitor {
      */
     private static final double HISTOGRAM_SCALING_RATIO = 1000.0;
 	
-	public LatencyMonitor() {
-		inactiveHistogram = new PeriodicLatencyHistogram(true);
-		activeHistogram = new PeriodicLatencyHistogram(true);
+	public void recordLatencyValue(long elapsed) {
+		recordLatencyValue(elapsed, 0L);
 	}
 
-	public void recordLatencyValue(long elapsed) {
-        
+	/**
+	 * Record a latency value, correcting for coordinated omission when the
+	 * recording client expects to take a sample every
+	 * expectedIntervalBetweenValueSamples. A value larger than the expected
+	 * interval means samples were missed while the client was stalled, and
+	 * the histogram back-fills them.
+	 * 
+	 * @param elapsed the latency in nanos
+	 * @param expectedIntervalBetweenValueSamples in nanos, 0 for no correction
+	 */
+	public void recordLatencyValue(long elapsed,
+			long expectedIntervalBetweenValueSamples) {
+
 		if(isWarmup)
 			return;
 		
-		long criticalValueAtEnter = recordingPhaser
-				.writerCriticalSectionEnter();
-		try {
-			activeHistogram.recordValue(elapsed);
-		} finally {
-			recordingPhaser.writerCriticalSectionExit(criticalValueAtEnter);
+		threadRecorder.get().record(elapsed,
+				expectedIntervalBetweenValueSamples);
+	}
+
+	/**
+	 * Collects the values recorded by all threads since the last call.
+	 * 
+	 * @return the latency histogram for the interval just ended
+	 */
+	public PeriodicLatencyHistogram getIntervalHistogram() {
+		return getIntervalHistogram(null);
+	}
+
+	/**
+	 * Collects the values recorded by all threads since the last call into
+	 * a recycled interval histogram, so that frequent sampling does not
+	 * allocate a histogram per interval.
+	 * 
+	 * @param recycled an interval histogram no longer in use, or null
+	 * @return the latency histogram for the interval just ended
+	 */
+	public synchronized PeriodicLatencyHistogram getIntervalHistogram(
+			PeriodicLatencyHistogram recycled) {
+		final PeriodicLatencyHistogram interval;
+		if (recycled == null) {
+			interval = new PeriodicLatencyHistogram(isIntervalWarmup);
+		} else {
+			interval = recycled;
+			interval.reset(isIntervalWarmup);
+		}
+		for (ThreadRecorder recorder : recorders) {
+			final Histogram recorded = recorder.flip();
+			interval.getHistogram().add(recorded);
+			recorded.reset();
 		}
+		interval.getHistogram().add(remoteHistogram);
+		remoteHistogram.reset();
+		// Mark end time of previous interval and start time of new one:
+		final long now = System.currentTimeMillis();
+		interval.setStartTimeStamp(intervalStartTime);
+		interval.setEndTimeStamp(now);
+		intervalStartTime = now;
+		isIntervalWarmup = isWarmup;
+		accumulatedHistogram.add(interval.getHistogram());
+		for (LatencyWindow window : windows) {
+			window.add(interval.getHistogram());
+		}
+		return interval;
 	}
 
-	public synchronized PeriodicLatencyHistogram getIntervalHistogram() {
-		
-		PeriodicLatencyHistogram empty = new PeriodicLatencyHistogram(this.isWarmup);
-		try {
-			recordingPhaser.readerLock();
-			inactiveHistogram = empty;
-			performIntervalSample();
-			return inactiveHistogram;
-		} finally {
-			recordingPhaser.readerUnlock();
+	/**
+	 * Open a window collecting the intervals as they end, so a load
+	 * strategy or a distributed agent can follow latency without taking
+	 * intervals from the monitor.
+	 * 
+	 * @return a new window
+	 */
+	public LatencyWindow openWindow() {
+		final LatencyWindow window = new LatencyWindow();
+		windows.add(window);
+		return window;
+	}
+
+	/**
+	 * Add values recorded by another node of a distributed experiment, they
+	 * are reported with the next interval.
+	 * 
+	 * @param values latency values in nanos
+	 */
+	public synchronized void addRemoteValues(Histogram values) {
+		remoteHistogram.add(values);
+	}
+
+	/**
+	 * Collects the intervals ended since it was last taken.
+	 */
+	public static final class LatencyWindow {
+		private final Histogram histogram = newHistogram();
+
+		private LatencyWindow() {
+		}
+
+		private synchronized void add(Histogram interval) {
+			histogram.add(interval);
 		}
+
+		/**
+		 * @return a copy of the values of the intervals ended since the
+		 *         last call
+		 */
+		public synchronized Histogram take() {
+			final Histogram window = histogram.copy();
+			histogram.reset();
+			return window;
+		}
+	}
+
+	/**
+	 * Ends the current interval and returns everything recorded so far.
+	 * 
+	 * @return a copy of the histogram of all values recorded so far
+	 */
+	public synchronized Histogram getAccumulatedHistogram() {
+		getIntervalHistogram();
+		return accumulatedHistogram.copy();
 	}
 
-	private void performIntervalSample() {
-		// inactiveHistogram.reset();
-		try {
-			recordingPhaser.readerLock();
+	/**
+	 * A pair of plain histograms owned by a single recording thread. The
+	 * owner records into the active histogram and the reader swaps in the
+	 * spare one, so values are recorded without atomic operations and
+	 * threads never write to each others cache lines.
+	 * <P>
+	 * The owner makes the epoch odd while it is recording. After swapping
+	 * the histograms the reader waits for an odd epoch to move on, at which
+	 * point the owner is done with the old histogram. Both sides use
+	 * volatile accesses so the owner either sees the swap or the reader sees
+	 * the odd epoch.
+	 */
+	private static final class ThreadRecorder {
+		private volatile Histogram active = newHistogram();
+		/** only touched by the reader. */
+		private Histogram spare = newHistogram();
+		/** only written by the owner. */
+		private volatile long epoch;
 
-			// Swap active and inactive histograms:
-			final PeriodicLatencyHistogram tempHistogram = inactiveHistogram;
-			inactiveHistogram = activeHistogram;
-			activeHistogram = tempHistogram;
+		void record(long value, long expectedIntervalBetweenValueSamples) {
+			final long recordingEpoch = epoch + 1;
+			epoch = recordingEpoch;
+			try {
+				recordValueWithExpectedInterval(active, value,
+						expectedIntervalBetweenValueSamples);
+			} finally {
+				epoch = recordingEpoch + 1;
+			}
+		}
 
-			// Mark end time of previous interval and start time of new one:
-			long now = System.currentTimeMillis();
-			activeHistogram.setStartTimeStamp(now);
-			inactiveHistogram.setEndTimeStamp(now);
+		/**
+		 * @return the histogram recorded into since the last flip, which
+		 *         must be reset before the next flip
+		 */
+		Histogram flip() {
+			final Histogram recorded = active;
+			active = spare;
+			final long recordingEpoch = epoch;
+			if ((recordingEpoch & 1L) != 0L) {
+				while (epoch == recordingEpoch) {
+					Thread.yield();
+				}
+			}
+			spare = recorded;
+			return recorded;
+		}
+	}
 
-			// Make sure we are not in the middle of recording a value on the
-			// previously active histogram:
+	private static Histogram newHistogram() {
+		return new Histogram(PeriodicLatencyHistogram.MAX_LATENCY_VALUE * 10,
+				SIG_DIGITS);
+	}
 
-			// Flip phase to make sure no recordings that were in flight
-			// pre-flip are still active:
-			recordingPhaser
-					.flipPhase(500000L /* yield in 0.5 msec units if needed */);
-		} finally {
-			recordingPhaser.readerUnlock();
+	private static void recordValueWithExpectedInterval(Histogram histogram,
+			long value, long expectedIntervalBetweenValueSamples) {
+		// avoid java.lang.ArrayIndexOutOfBoundsException: value outside of histogram covered range.
+		// clearly if we observe MAX_LATENCY_VALUE then it is already a bad situation
+		if(value >= PeriodicLatencyHistogram.MAX_LATENCY_VALUE){
+			value = PeriodicLatencyHistogram.MAX_LATENCY_VALUE;
+		}
+		if (expectedIntervalBetweenValueSamples <= 0) {
+			histogram.recordValue(value);
+		} else {
+			histogram.recordValueWithExpectedInterval(value,
+					expectedIntervalBetweenValueSamples);
 		}
 	}
 
@@ -112,30 +271,37 @@ public class LatencyMonitor {
 		private long startTime;
 		private long endTime;
 		
-		private final boolean isWarmup;
+		private boolean isWarmup;
 
 		public PeriodicLatencyHistogram(boolean isWarmup) {
 
 			this.isWarmup = isWarmup;
-			histogram = new ConcurrentHistogram(MAX_LATENCY_VALUE*10, 3);
+			histogram = newHistogram();
 		}
 
 		public void setEndTimeStamp(long now) {
 			this.endTime = now;
+			histogram.setEndTimeStamp(now);
 		}
 
 		public void setStartTimeStamp(long now) {
 			this.startTime = now;
+			histogram.setStartTimeStamp(now);
 		}
 
 		public void recordValue(long value) {
-			// avoid java.lang.ArrayIndexOutOfBoundsException: value outside of histogram covered range.
-	        // clearly if we observe MAX_LATENCY_VALUE then it is already a bad situation
-	        if(value >= MAX_LATENCY_VALUE){
-	        	value = MAX_LATENCY_VALUE;
-	        }
-	        
-			getHistogram().recordValue(value);
+			recordValueWithExpectedInterval(value, 0L);
+		}
+
+		public void recordValueWithExpectedInterval(long value,
+				long expectedIntervalBetweenValueSamples) {
+			LatencyMonitor.recordValueWithExpectedInterval(getHistogram(),
+					value, expectedIntervalBetweenValueSamples);
+		}
+
+		void reset(boolean isWarmupP) {
+			histogram.reset();
+			this.isWarmup = isWarmupP;
 		}
 
 		public Histogram getHistogram() {
@@ -150,7 +316,7 @@ public class LatencyMonitor {
 	public void reportPercentiles(Histogram histogram, PrintStream output){
 
 		if(histogram == null){
-			histogram = getIntervalHistogram().getHistogram();
+			histogram = getAccumulatedHistogram();
 		}
 		
     	double[] percentiles = {
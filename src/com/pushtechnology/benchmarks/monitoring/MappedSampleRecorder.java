@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Appends {@link MonitorSample} records to a memory mapped file. The file is
+ * mapped a chunk of records at a time so appending a sample is a copy into
+ * memory, with no formatting, allocation or system call in the monitor loop.
+ * <P>
+ * The file starts with a header holding the experiment start timestamps,
+ * the number of records written so far and the names of the extra fields
+ * and load profile phases, followed by the records. Use
+ * {@link SampleCsvConverter} to turn it into the experiment CSV.
+ */
+public final class MappedSampleRecorder {
+    /** identifies a sample file, "DBPSAMPL". */
+    static final long MAGIC = 0x44425053414D504CL;
+    /** file layout version. */
+    static final int VERSION = 7;
+    /** header offset of the magic number. */
+    static final int MAGIC_OFFSET = 0;
+    /** header offset of the layout version. */
+    static final int VERSION_OFFSET = 8;
+    /** header offset of the record size. */
+    static final int RECORD_SIZE_OFFSET = 12;
+    /** header offset of the start wall clock time. */
+    static final int START_MILLIS_OFFSET = 16;
+    /** header offset of the start nano time. */
+    static final int START_NANOS_OFFSET = 24;
+    /** header offset of the number of records written. */
+    static final int RECORD_COUNT_OFFSET = 32;
+    /** header offset of the number of extra fields per record. */
+    static final int EXTRA_FIELD_COUNT_OFFSET = 40;
+    /** header offset of the header size, records start after it. */
+    static final int HEADER_SIZE_OFFSET = 44;
+    /**
+     * header offset of the extra field names, followed by the phase count
+     * and names.
+     */
+    static final int EXTRA_FIELD_NAMES_OFFSET = 48;
+    /** header sizes are a multiple of this. */
+    static final int HEADER_ALIGNMENT = 64;
+    /** records mapped at a time. */
+    private static final int RECORDS_PER_CHUNK = 4096;
+
+    /** the sample file. */
+    private final File file;
+    /** the sample file. */
+    private final RandomAccessFile raf;
+    /** mapped header. */
+    private final MappedByteBuffer header;
+    /** mapped chunk currently being appended to. */
+    private MappedByteBuffer chunk;
+    /** fields per record. */
+    private final int fieldCount;
+    /** bytes per record. */
+    private final int recordSize;
+    /** records start after the header. */
+    private final int headerSize;
+    /** records written. */
+    private long recordCount;
+
+    /**
+     * Create (or truncate) a sample file.
+     *
+     * @param fileP the sample file
+     * @param startMillis experiment start wall clock time
+     * @param startNanos experiment start nano time
+     * @param extraFieldNames names of the extra fields in every record
+     * @param phaseNames load profile phase names by index
+     * @throws IOException if the file can not be created and mapped
+     */
+    public MappedSampleRecorder(File fileP, long startMillis, long startNanos,
+            String[] extraFieldNames, String[] phaseNames)
+            throws IOException {
+        this.file = fileP;
+        this.fieldCount = MonitorSample.FIELD_COUNT + extraFieldNames.length;
+        this.recordSize = MonitorSample.recordSize(extraFieldNames.length);
+        final byte[][] names = encode(extraFieldNames);
+        final byte[][] phases = encode(phaseNames);
+        final int namesSize = 4 + encodedSize(names) + encodedSize(phases);
+        this.headerSize = (EXTRA_FIELD_NAMES_OFFSET + namesSize
+                + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT * HEADER_ALIGNMENT;
+        raf = new RandomAccessFile(fileP, "rw");
+        try {
+            raf.setLength(0L);
+            final FileChannel channel = raf.getChannel();
+            header = channel.map(MapMode.READ_WRITE, 0L, headerSize);
+            header.putLong(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(RECORD_SIZE_OFFSET, recordSize);
+            header.putLong(START_MILLIS_OFFSET, startMillis);
+            header.putLong(START_NANOS_OFFSET, startNanos);
+            header.putLong(RECORD_COUNT_OFFSET, 0L);
+            header.putInt(EXTRA_FIELD_COUNT_OFFSET, names.length);
+            header.putInt(HEADER_SIZE_OFFSET, headerSize);
+            header.position(EXTRA_FIELD_NAMES_OFFSET);
+            put(header, names);
+            header.putInt(phases.length);
+            put(header, phases);
+            mapNextChunk();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private static byte[][] encode(String[] strings) throws IOException {
+        final byte[][] encoded = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i].getBytes("UTF-8");
+        }
+        return encoded;
+    }
+
+    private static int encodedSize(byte[][] encoded) {
+        int size = 0;
+        for (byte[] bytes : encoded) {
+            size += 4 + bytes.length;
+        }
+        return size;
+    }
+
+    private static void put(ByteBuffer buffer, byte[][] encoded) {
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Append a record, copying it from position 0 of the buffer.
+     *
+     * @param record a sample record
+     * @throws IOException if the file could not be extended
+     */
+    public void append(ByteBuffer record) throws IOException {
+        if (!chunk.hasRemaining()) {
+            mapNextChunk();
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            chunk.putLong(MonitorSample.getLong(record, i));
+        }
+        header.putLong(RECORD_COUNT_OFFSET, ++recordCount);
+    }
+
+    /**
+     * @return the sample file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return records written
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Flush the mapped records to the file and close it.
+     *
+     * @throws IOException on failure to close
+     */
+    public void close() throws IOException {
+        header.force();
+        chunk.force();
+        raf.close();
+    }
+
+    /**
+     * map the chunk following the records written so far.
+     */
+    private void mapNextChunk() throws IOException {
+        if (chunk != null) {
+            chunk.force();
+        }
+        chunk = raf.getChannel().map(MapMode.READ_WRITE,
+                headerSize + recordCount * recordSize,
+                (long) RECORDS_PER_CHUNK * recordSize);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+
+import com.pushtechnology.benchmarks.util.Memory;
+
+/**
+ * The fixed width binary layout of a single {@link ExperimentMonitor} sample,
+ * and its formatting as a row of the experiment CSV. Every field is 8 bytes,
+ * either a long or the bits of a double, at index * 8 in the record. Values
+ * which could not be sampled are stored as NOT_AVAILABLE (or NaN for
+ * doubles) and printed as N/A.
+ * <P>
+ * Records may carry extra long fields after the FIELD_COUNT fixed ones, e.g.
+ * for the configured server MBean attributes, printed as extra columns.
+ * <P>
+ * The PHASE field holds the index of the load profile phase the sample was
+ * taken in, printed as the phase name.
+ */
+public final class MonitorSample {
+    // CHECKSTYLE:OFF field indexes, in CSV column order
+    public static final int ELAPSED_MS = 0;
+    public static final int MESSAGES_PER_SECOND = 1;
+    public static final int CLIENTS_CONNECTED = 2;
+    public static final int TOPICS = 3;
+    public static final int IN_SAMPLE = 4;
+    public static final int CPU = 5;
+    public static final int CLIENT_DISCONNECTS = 6;
+    public static final int CONNECTION_REFUSALS = 7;
+    public static final int CONNECTION_ATTEMPTS = 8;
+    public static final int BYTES_PER_SECOND = 9;
+    public static final int HEAP_USED = 10;
+    public static final int HEAP_COMMITTED = 11;
+    public static final int HEAP_MAX = 12;
+    public static final int OFF_HEAP_USED = 13;
+    public static final int OFF_HEAP_COMMITTED = 14;
+    public static final int OFF_HEAP_MAX = 15;
+    public static final int SERVER_CPU = 16;
+    public static final int SERVER_HEAP_USED = 17;
+    public static final int SERVER_HEAP_COMMITTED = 18;
+    public static final int SERVER_HEAP_MAX = 19;
+    public static final int SERVER_OFF_HEAP_USED = 20;
+    public static final int SERVER_OFF_HEAP_COMMITTED = 21;
+    public static final int SERVER_OFF_HEAP_MAX = 22;
+    public static final int AVG_CLIENT_QUEUE_SIZE = 23;
+    public static final int AVG_CLIENT_QUEUE_HWM = 24;
+    public static final int SERVER_THREADS = 25;
+    public static final int SERVER_YOUNG_GC_COUNT = 26;
+    public static final int SERVER_YOUNG_GC_TIME_MS = 27;
+    public static final int SERVER_OLD_GC_COUNT = 28;
+    public static final int SERVER_OLD_GC_TIME_MS = 29;
+    public static final int SERVER_GC_MAX_PAUSE_MS = 30;
+    public static final int SERVER_SAFEPOINT_TIME_MS = 31;
+    public static final int PHASE = 32;
+    public static final int CONNECTS_SHED = 33;
+    public static final int CONNECT_P99_US = 34;
+    public static final int FIRST_MESSAGE_P99_US = 35;
+    public static final int SCHEDULING_LAG_P99_US = 36;
+    public static final int SESSION_EVENTS_PER_SECOND = 37;
+    public static final int SERVER_CPU_US_PER_SESSION_EVENT = 38;
+    public static final int FIELD_COUNT = 39;
+    // CHECKSTYLE:ON
+    /** bytes per field. */
+    public static final int FIELD_SIZE = 8;
+    /** marks a long field which could not be sampled. */
+    public static final long NOT_AVAILABLE = Long.MIN_VALUE;
+    /** N/A. */
+    private static final String NA = "N/A";
+
+    /**
+     * no instances wanted...
+     */
+    private MonitorSample() {
+    }
+
+    /**
+     * @param extraFieldCount number of extra fields
+     * @return bytes per record
+     */
+    public static int recordSize(int extraFieldCount) {
+        return (FIELD_COUNT + extraFieldCount) * FIELD_SIZE;
+    }
+
+    /**
+     * @param record a record
+     * @param field field index
+     * @param value long value
+     */
+    public static void putLong(ByteBuffer record, int field, long value) {
+        record.putLong(field * FIELD_SIZE, value);
+    }
+
+    /**
+     * @param record a record
+     * @param field field index
+     * @param value double value
+     */
+    public static void putDouble(ByteBuffer record, int field, double value) {
+        record.putDouble(field * FIELD_SIZE, value);
+    }
+
+    /**
+     * @param record a record
+     * @param field field index
+     * @return long value
+     */
+    public static long getLong(ByteBuffer record, int field) {
+        return record.getLong(field * FIELD_SIZE);
+    }
+
+    /**
+     * @param record a record
+     * @param field field index
+     * @return double value
+     */
+    public static double getDouble(ByteBuffer record, int field) {
+        return record.getDouble(field * FIELD_SIZE);
+    }
+
+    /**
+     * Print the CSV preamble and column headers.
+     *
+     * @param out CSV output
+     * @param startMillis experiment start wall clock time
+     * @param startNanos experiment start nano time
+     * @param extraFieldNames column names of the extra fields
+     */
+    public static void printHeader(PrintStream out, long startMillis,
+            long startNanos, String[] extraFieldNames) {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        out.println("# Start timestamps : " + format.format(startMillis)
+                + " currentTimeMillis: " + startMillis + " nanoTime: "
+                + startNanos);
+        out.print("ElapsedTimeMS, MessagesPerSecond, ClientsConnected, Topics,"
+                + " InSample, Cpu, ClientDisconnects, ConnectionRefusals, "
+                + "ConnectionAttempts, BytesPerSecond, UsedHeapMB, "
+                + "CommitedHeapMB, MaxHeapMB, UsedOffHeapMB, CommittedOffHeapMB"
+                + ", MaxOffHeapMB, ServerCPU, ServerHeapUsedMB, "
+                + "ServerHeapCommittedMB, ServerMaxHeapMB, ServerOffHeapUsedMB,"
+                + " ServerOffHeapCommittedMB, ServerOffHeapMaxMB,"
+                + " AvgClientQueueSz, AvgClientQueueHwm, ServerThreads,"
+                + " ServerYoungGcCount, ServerYoungGcTimeMS, ServerOldGcCount,"
+                + " ServerOldGcTimeMS, ServerGcMaxPauseMS,"
+                + " ServerSafepointTimeMS, Phase, ConnectsShed, ConnectP99US,"
+                + " FirstMessageP99US, SchedulingLagP99US,"
+                + " SessionEventsPerSecond, ServerCpuUSPerSessionEvent");
+        for (String name : extraFieldNames) {
+            out.print(", ");
+            out.print(name);
+        }
+        out.println();
+    }
+
+    /**
+     * Print a record as a CSV row.
+     *
+     * @param out CSV output
+     * @param record the record, at position 0
+     * @param extraFieldCount number of extra fields in the record
+     * @param phaseNames load profile phase names by index
+     */
+    public static void printRow(PrintStream out, ByteBuffer record,
+            int extraFieldCount, String[] phaseNames) {
+        out.format("%s, %d, %d, %d, %b, %s, %d, %d, %d, %d, %s, "
+                + "%s, %s, %s, %s, %s",
+                getLong(record, ELAPSED_MS),
+                getLong(record, MESSAGES_PER_SECOND),
+                getLong(record, CLIENTS_CONNECTED),
+                getLong(record, TOPICS),
+                getLong(record, IN_SAMPLE) != 0L,
+                cpu(record, CPU),
+                getLong(record, CLIENT_DISCONNECTS),
+                getLong(record, CONNECTION_REFUSALS),
+                getLong(record, CONNECTION_ATTEMPTS),
+                getLong(record, BYTES_PER_SECOND),
+                memory(record, HEAP_USED),
+                memory(record, HEAP_COMMITTED),
+                memory(record, HEAP_MAX),
+                memory(record, OFF_HEAP_USED),
+                memory(record, OFF_HEAP_COMMITTED),
+                memory(record, OFF_HEAP_MAX));
+        out.format(", %s, %s, %s, %s, %s, %s, %s , %d, %d",
+                cpu(record, SERVER_CPU),
+                memory(record, SERVER_HEAP_USED),
+                memory(record, SERVER_HEAP_COMMITTED),
+                memory(record, SERVER_HEAP_MAX),
+                memory(record, SERVER_OFF_HEAP_USED),
+                memory(record, SERVER_OFF_HEAP_COMMITTED),
+                memory(record, SERVER_OFF_HEAP_MAX),
+                getLong(record, AVG_CLIENT_QUEUE_SIZE),
+                getLong(record, AVG_CLIENT_QUEUE_HWM));
+        for (int field = SERVER_THREADS;
+                field < FIELD_COUNT + extraFieldCount; field++) {
+            out.print(", ");
+            if (field == PHASE) {
+                out.print(phase(record, phaseNames));
+            } else {
+                out.print(value(record, field));
+            }
+        }
+        out.print('\n');
+    }
+
+    /**
+     * @return long value, or N/A
+     */
+    private static String value(ByteBuffer record, int field) {
+        final long value = getLong(record, field);
+        if (value == NOT_AVAILABLE) {
+            return NA;
+        }
+        return Long.toString(value);
+    }
+
+    /**
+     * @return the phase name, or N/A
+     */
+    private static String phase(ByteBuffer record, String[] phaseNames) {
+        final long phase = getLong(record, PHASE);
+        if (phase < 0 || phase >= phaseNames.length) {
+            return NA;
+        }
+        return phaseNames[(int) phase];
+    }
+
+    /**
+     * @return cpu usage formatted, or N/A
+     */
+    private static String cpu(ByteBuffer record, int field) {
+        final double cpu = getDouble(record, field);
+        if (Double.isNaN(cpu)) {
+            return NA;
+        }
+        return String.format("%.1f", cpu);
+    }
+
+    /**
+     * @return memory formatted in MB, or N/A
+     */
+    private static String memory(ByteBuffer record, int field) {
+        final long bytes = getLong(record, field);
+        if (bytes == NOT_AVAILABLE) {
+            return NA;
+        }
+        return Memory.formatMemory(bytes);
+    }
+}
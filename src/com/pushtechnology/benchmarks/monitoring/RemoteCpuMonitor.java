@@ -22,7 +22,8 @@ import javax.management.ObjectName;
 /**
  * A remote process cpu monitor using a JMX connection. Relies on the
  * availability of the java.lang:type=OperatingSystem bean and it's 
- * ProcessCpuTime attribute.
+ * ProcessCpuTime attribute. Makes blocking remote calls, see
+ * {@link RemoteJmxPoller}.
  * 
  * @author nitsanw
  *
@@ -31,7 +32,6 @@ public class RemoteCpuMonitor extends CpuMonitor {
     // CHECKSTYLE:OFF
     private final MBeanServerConnection connection;
     private final ObjectName osBeanName;
-	private boolean circuitBroken=false;
     /**
      * @param connection to remote process
      * @throws MalformedObjectNameException if bean is not found
@@ -44,34 +44,17 @@ public class RemoteCpuMonitor extends CpuMonitor {
     }
 
     /**
-     * If the jmx sampling takes too long, or if there is
-     * an error, then disable/ break the circuit on this
-     * remote call.
+     * @throws IllegalStateException if the remote call fails, so the caller
+     *         can tell a failure from an idle server
      */
     @Override
     protected final long getProcessCpuTime() {
-
-    	if(!circuitBroken){
-    		long start = System.currentTimeMillis();
-    		long end=-1;
         try {
             return (Long) connection.getAttribute(osBeanName, "ProcessCpuTime");
         } catch (Exception e) {
-        	//circuitBroken=true;
-            return 0;
-        } finally {
-    		end = System.currentTimeMillis();
-        if(end-start > 900){
-            breakCircuit();
-        }
+            throw new IllegalStateException(
+                    "Failed to read remote process cpu time", e);
         }
-    	} else {
-    		return 0;
-    	}
-    }
-
-    public void breakCircuit(){
-    	circuitBroken=true;
     }
 
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.pushtechnology.benchmarks.util.JmxHelper;
+
+/**
+ * Polls the server's cpu, memory and runtime over JMX on a thread of its own and
+ * publishes the latest {@link Snapshot} for the experiment monitor to read,
+ * so the monitor loop never blocks on the network.
+ * <P>
+ * A failed poll backs off, doubling the pause up to MAX_BACKOFF_MS, and a
+ * failed connection is re-established on the next poll, so remote monitoring
+ * recovers from a slow or restarted server.
+ */
+public final class RemoteJmxPoller implements Runnable {
+    // CHECKSTYLE:OFF
+    private static final long MAX_BACKOFF_MS = 30000;
+    private static final String RMI_TIMEOUT_MS = "5000";
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RemoteJmxPoller.class);
+    private final String host;
+    private final long pollIntervalMs;
+    private volatile Snapshot latest;
+    private volatile boolean isRunning = true;
+    private Thread pollerThread;
+    private JMXConnector connector;
+    private RemoteCpuMonitor cpuMonitor;
+    private RemoteMemoryMonitor memoryMonitor;
+    private RemoteRuntimeMonitor runtimeMonitor;
+    private final RemoteRuntimeMonitor.ServerAttribute[] serverAttributes;
+    private boolean isCpuPrimed;
+    private int failures;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param hostP server host
+     * @param pollIntervalMsP millis between polls
+     * @param serverAttributesP server MBean attributes to poll
+     */
+    public RemoteJmxPoller(String hostP, long pollIntervalMsP,
+            RemoteRuntimeMonitor.ServerAttribute[] serverAttributesP) {
+        this.host = hostP;
+        this.pollIntervalMs = pollIntervalMsP;
+        this.serverAttributes = serverAttributesP;
+        // a hung server should fail a poll rather than stall the poller
+        // http://docs.oracle.com/javase/7/docs/technotes/guides/rmi/sunrmiproperties.html
+        System.setProperty("sun.rmi.transport.tcp.responseTimeout",
+                RMI_TIMEOUT_MS);
+    }
+
+    /**
+     * The latest snapshot, unless it is older than maxAgeMs. Never blocks.
+     *
+     * @param nowMillis current time millis
+     * @param maxAgeMs oldest acceptable snapshot age
+     * @return the latest snapshot, or null if none is recent enough
+     */
+    public Snapshot getSnapshot(long nowMillis, long maxAgeMs) {
+        final Snapshot snapshot = latest;
+        if (snapshot == null
+                || nowMillis - snapshot.getSampleTimeMillis() > maxAgeMs) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return millis between polls
+     */
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.currentTimeMillis();
+        while (isRunning) {
+            if (poll()) {
+                failures = 0;
+                deadline += pollIntervalMs;
+            } else {
+                failures++;
+                deadline = System.currentTimeMillis() + Math.min(
+                        MAX_BACKOFF_MS, pollIntervalMs << Math.min(failures, 16));
+            }
+            if (deadline < System.currentTimeMillis()) {
+                // slow poll, carry on from now rather than catching up
+                deadline = System.currentTimeMillis();
+            }
+            LockSupport.parkUntil(deadline);
+        }
+        disconnect();
+    }
+
+    /**
+     * @return true if the poll succeeded
+     */
+    private boolean poll() {
+        try {
+            if (connector == null) {
+                connect();
+            }
+            // sample cpu first, memory use changes slower
+            double cpu = cpuMonitor.getCpuUsage();
+            if (!isCpuPrimed) {
+                // cpu usage is measured between polls, none to measure yet
+                cpu = Double.NaN;
+                isCpuPrimed = true;
+            }
+            memoryMonitor.sample();
+            runtimeMonitor.sample();
+            latest = new Snapshot(System.currentTimeMillis(), cpu,
+                    memoryMonitor, runtimeMonitor);
+            return true;
+        } catch (Exception e) {
+            if (failures == 0) {
+                LOG.warn("Remote JMX monitoring failed, will keep retrying", e);
+            }
+            disconnect();
+            return false;
+        }
+    }
+
+    private void connect() throws IOException {
+        connector = JmxHelper.getJmxConnector(host, "jmxrmi", "guest",
+                "Guest");
+        try {
+            final MBeanServerConnection connection =
+                    connector.getMBeanServerConnection();
+            cpuMonitor = new RemoteCpuMonitor(connection);
+            memoryMonitor = new RemoteMemoryMonitor(connection);
+            runtimeMonitor = new RemoteRuntimeMonitor(connection,
+                    serverAttributes);
+            if (failures > 0) {
+                LOG.info("Remote JMX monitoring reconnected");
+            }
+        } catch (Exception e) {
+            disconnect();
+            throw new IOException("Failed to connect to server MBeans", e);
+        }
+    }
+
+    private void disconnect() {
+        if (connector != null) {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close JMX connection", e);
+            }
+        }
+        connector = null;
+        cpuMonitor = null;
+        memoryMonitor = null;
+        runtimeMonitor = null;
+        isCpuPrimed = false;
+    }
+
+    /**
+     * start polling.
+     */
+    public synchronized void start() {
+        if (pollerThread != null) {
+            throw new IllegalStateException();
+        }
+        pollerThread = new Thread(this);
+        pollerThread.setName("remote-jmx-poller-thread");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+    }
+
+    /**
+     * stop polling, without waiting on a poll in progress.
+     */
+    public synchronized void stop() {
+        if (pollerThread == null) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(pollerThread);
+        pollerThread = null;
+    }
+
+    /**
+     * An immutable sample of the server's cpu, memory and runtime. GC and
+     * safepoint counts and times are cumulative since the server started.
+     */
+    public static final class Snapshot {
+        // CHECKSTYLE:OFF
+        private final long sampleTimeMillis;
+        private final double cpuUsage;
+        private final long heapUsed;
+        private final long heapCommitted;
+        private final long heapMax;
+        private final long offHeapUsed;
+        private final long offHeapCommitted;
+        private final long offHeapMax;
+        private final long threads;
+        private final long youngGcCount;
+        private final long youngGcTimeMs;
+        private final long oldGcCount;
+        private final long oldGcTimeMs;
+        private final long maxGcPauseMs;
+        private final long safepointTimeMs;
+        private final long[] serverAttributes;
+        // CHECKSTYLE:ON
+
+        /**
+         * @param sampleTimeMillisP when the sample was taken
+         * @param cpuUsageP cpu usage in percent of logical cpu
+         * @param memory a sampled memory monitor
+         * @param runtime a sampled runtime monitor, its longest GC since the
+         *        last snapshot is taken
+         */
+        Snapshot(long sampleTimeMillisP, double cpuUsageP,
+                MemoryMonitor memory, RemoteRuntimeMonitor runtime) {
+            sampleTimeMillis = sampleTimeMillisP;
+            cpuUsage = cpuUsageP;
+            heapUsed = memory.heapUsed();
+            heapCommitted = memory.heapCommitted();
+            heapMax = memory.heapMax();
+            offHeapUsed = memory.offHeapUsed();
+            offHeapCommitted = memory.offHeapCommitted();
+            offHeapMax = memory.offHeapMax();
+            threads = runtime.threads();
+            youngGcCount = runtime.youngGcCount();
+            youngGcTimeMs = runtime.youngGcTimeMs();
+            oldGcCount = runtime.oldGcCount();
+            oldGcTimeMs = runtime.oldGcTimeMs();
+            maxGcPauseMs = runtime.takeMaxGcDurationMs();
+            safepointTimeMs = runtime.safepointTimeMs();
+            serverAttributes = new long[runtime.serverAttributeCount()];
+            for (int i = 0; i < serverAttributes.length; i++) {
+                serverAttributes[i] = runtime.serverAttribute(i);
+            }
+        }
+
+        // CHECKSTYLE:OFF
+        public long getSampleTimeMillis() {
+            return sampleTimeMillis;
+        }
+
+        public double getCpuUsage() {
+            return cpuUsage;
+        }
+
+        public long heapUsed() {
+            return heapUsed;
+        }
+
+        public long heapCommitted() {
+            return heapCommitted;
+        }
+
+        public long heapMax() {
+            return heapMax;
+        }
+
+        public long offHeapUsed() {
+            return offHeapUsed;
+        }
+
+        public long offHeapCommitted() {
+            return offHeapCommitted;
+        }
+
+        public long offHeapMax() {
+            return offHeapMax;
+        }
+
+        public long threads() {
+            return threads;
+        }
+
+        public long youngGcCount() {
+            return youngGcCount;
+        }
+
+        public long youngGcTimeMs() {
+            return youngGcTimeMs;
+        }
+
+        public long oldGcCount() {
+            return oldGcCount;
+        }
+
+        public long oldGcTimeMs() {
+            return oldGcTimeMs;
+        }
+
+        /** longest GC notified since the previous snapshot. */
+        public long maxGcPauseMs() {
+            return maxGcPauseMs;
+        }
+
+        public long safepointTimeMs() {
+            return safepointTimeMs;
+        }
+
+        public long serverAttribute(int index) {
+            return serverAttributes[index];
+        }
+        // CHECKSTYLE:ON
+    }
+}
@@ -21,7 +21,8 @@ import javax.management.ObjectName;
 import javax.management.openmbean.CompositeDataSupport;
 
 /**
- * Remote memory monitoring utility.
+ * Remote memory monitoring utility. Makes blocking remote calls, see
+ * {@link RemoteJmxPoller}.
  * 
  * @author nitsanw
  * 
@@ -33,8 +34,6 @@ public final class RemoteMemoryMonitor implements MemoryMonitor {
     private CompositeDataSupport currentMemoryUsage;
     private CompositeDataSupport currentOffHeapMemoryUsage;
 
-    private boolean circuitBroken = false;
-    
     /**
      * Constructor for remote memory monitor.
      * 
@@ -119,16 +118,10 @@ public final class RemoteMemoryMonitor implements MemoryMonitor {
     }
 
     /**
-     * If the jmx sampling takes too long, or if there is
-     * an error, then disable/ break the circuit on this
-     * remote call.
+     * @throws IllegalStateException if the remote call fails
      */
     @Override
     public void sample() {
-    	
-    	if(!circuitBroken){
-    		long start = System.currentTimeMillis();
-    		long end=-1;
         try {
             currentMemoryUsage =
                     (CompositeDataSupport) connection.getAttribute(osBeanName,
@@ -139,18 +132,8 @@ public final class RemoteMemoryMonitor implements MemoryMonitor {
         } catch (Exception e) {
             currentMemoryUsage = null;
             currentOffHeapMemoryUsage = null;
-        } finally {
-    		end = System.currentTimeMillis();
+            throw new IllegalStateException(
+                    "Failed to read remote memory usage", e);
         }
-        if(end-start > 400){
-            currentMemoryUsage = null;
-            currentOffHeapMemoryUsage = null;
-            breakCircuit();
-        }
-    	}
-    }
-    
-    public void breakCircuit(){
-    	circuitBroken=true;
     }
 }
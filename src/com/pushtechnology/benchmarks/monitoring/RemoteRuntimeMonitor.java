@@ -0,0 +1,303 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remote JVM runtime monitoring: thread count, GC counts and times split
+ * into young and old collectors, the longest GC reported by GC notifications,
+ * safepoint time and any configured server MBean attributes, e.g. Diffusion
+ * client counts and queue depths. Makes blocking remote calls, see
+ * {@link RemoteJmxPoller}.
+ * <P>
+ * GC notifications are only sent by JVMs from 7u4 on, and the safepoint time
+ * is only there if the server has registered the HotspotRuntime bean, values
+ * which are not available are NOT_AVAILABLE.
+ */
+public final class RemoteRuntimeMonitor {
+    // CHECKSTYLE:OFF
+    public static final long NOT_AVAILABLE = MonitorSample.NOT_AVAILABLE;
+    private static final String GC_NOTIFICATION =
+            "com.sun.management.gc.notification";
+    /** collector names containing these are counted as old generation. */
+    private static final String[] OLD_COLLECTORS = {
+        "Old", "MarkSweep", "Tenured", "MarkCompact", "Cycles"
+    };
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RemoteRuntimeMonitor.class);
+    private final MBeanServerConnection connection;
+    private final ObjectName threadingName;
+    private final ObjectName hotspotRuntimeName;
+    private final List<ObjectName> youngCollectors = new ArrayList<ObjectName>();
+    private final List<ObjectName> oldCollectors = new ArrayList<ObjectName>();
+    private final ServerAttribute[] serverAttributes;
+    private final AtomicLong maxGcDurationMs = new AtomicLong();
+    private final NotificationListener gcListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification,
+                Object handback) {
+            onGcNotification(notification);
+        }
+    };
+
+    private boolean hasGcNotifications;
+    private long threads;
+    private long youngGcCount;
+    private long youngGcTimeMs;
+    private long oldGcCount;
+    private long oldGcTimeMs;
+    private long safepointTimeMs;
+    private final long[] serverAttributeValues;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param connectionP to remote process
+     * @param serverAttributesP server MBean attributes to sample
+     * @throws IOException on connection failure
+     * @throws JMException if the platform beans can not be queried
+     */
+    public RemoteRuntimeMonitor(MBeanServerConnection connectionP,
+            ServerAttribute[] serverAttributesP)
+            throws IOException, JMException {
+        this.connection = connectionP;
+        this.serverAttributes = serverAttributesP;
+        this.serverAttributeValues = new long[serverAttributesP.length];
+        threadingName = new ObjectName("java.lang:type=Threading");
+        hotspotRuntimeName = new ObjectName("sun.management:type=HotspotRuntime");
+        for (ObjectName collector : connection.queryNames(
+                new ObjectName("java.lang:type=GarbageCollector,*"), null)) {
+            if (isOldCollector(collector.getKeyProperty("name"))) {
+                oldCollectors.add(collector);
+            } else {
+                youngCollectors.add(collector);
+            }
+            try {
+                connection.addNotificationListener(collector, gcListener,
+                        null, null);
+                hasGcNotifications = true;
+            } catch (Exception e) {
+                LOG.debug("No GC notifications from " + collector, e);
+            }
+        }
+    }
+
+    private static boolean isOldCollector(String name) {
+        if (name == null) {
+            return false;
+        }
+        for (String old : OLD_COLLECTORS) {
+            if (name.contains(old)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onGcNotification(Notification notification) {
+        if (!GC_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        try {
+            final CompositeData info =
+                    (CompositeData) notification.getUserData();
+            final CompositeData gcInfo = (CompositeData) info.get("gcInfo");
+            final long duration = ((Number) gcInfo.get("duration")).longValue();
+            long max;
+            do {
+                max = maxGcDurationMs.get();
+            } while (duration > max
+                    && !maxGcDurationMs.compareAndSet(max, duration));
+        } catch (RuntimeException e) {
+            LOG.debug("Unexpected GC notification", e);
+        }
+    }
+
+    /**
+     * Take a current sample.
+     *
+     * @throws IOException on connection failure
+     */
+    public void sample() throws IOException {
+        threads = getLong(threadingName, "ThreadCount");
+        youngGcCount = sum(youngCollectors, "CollectionCount");
+        youngGcTimeMs = sum(youngCollectors, "CollectionTime");
+        oldGcCount = sum(oldCollectors, "CollectionCount");
+        oldGcTimeMs = sum(oldCollectors, "CollectionTime");
+        safepointTimeMs = getLong(hotspotRuntimeName, "TotalSafepointTime");
+        for (int i = 0; i < serverAttributes.length; i++) {
+            serverAttributeValues[i] = getLong(
+                    serverAttributes[i].getObjectName(),
+                    serverAttributes[i].getAttribute());
+        }
+    }
+
+    private long sum(List<ObjectName> collectors, String attribute)
+            throws IOException {
+        long sum = 0;
+        for (ObjectName collector : collectors) {
+            final long value = getLong(collector, attribute);
+            if (value == NOT_AVAILABLE) {
+                return NOT_AVAILABLE;
+            }
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the attribute value, or NOT_AVAILABLE if there is no such
+     *         numeric attribute
+     */
+    private long getLong(ObjectName name, String attribute)
+            throws IOException {
+        try {
+            final Object value = connection.getAttribute(name, attribute);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            if (value instanceof Boolean) {
+                return ((Boolean) value) ? 1L : 0L;
+            }
+            return NOT_AVAILABLE;
+        } catch (JMException e) {
+            return NOT_AVAILABLE;
+        }
+    }
+
+    /**
+     * @return the longest GC notified since the last call, NOT_AVAILABLE if
+     *         the server does not send GC notifications
+     */
+    public long takeMaxGcDurationMs() {
+        if (!hasGcNotifications) {
+            return NOT_AVAILABLE;
+        }
+        return maxGcDurationMs.getAndSet(0L);
+    }
+
+    // CHECKSTYLE:OFF
+    public long threads() {
+        return threads;
+    }
+
+    public long youngGcCount() {
+        return youngGcCount;
+    }
+
+    public long youngGcTimeMs() {
+        return youngGcTimeMs;
+    }
+
+    public long oldGcCount() {
+        return oldGcCount;
+    }
+
+    public long oldGcTimeMs() {
+        return oldGcTimeMs;
+    }
+
+    public long safepointTimeMs() {
+        return safepointTimeMs;
+    }
+
+    public int serverAttributeCount() {
+        return serverAttributeValues.length;
+    }
+
+    public long serverAttribute(int index) {
+        return serverAttributeValues[index];
+    }
+    // CHECKSTYLE:ON
+
+    /**
+     * A server MBean attribute to sample, configured as objectName@attribute.
+     */
+    public static final class ServerAttribute {
+        // CHECKSTYLE:OFF
+        private final ObjectName objectName;
+        private final String attribute;
+        private final String columnName;
+        // CHECKSTYLE:ON
+
+        /**
+         * @param spec objectName@attribute
+         * @throws IllegalArgumentException if the spec is malformed
+         */
+        public ServerAttribute(String spec) {
+            final int at = spec.lastIndexOf('@');
+            if (at <= 0 || at == spec.length() - 1) {
+                throw new IllegalArgumentException("expected objectName@"
+                        + "attribute but was: " + spec);
+            }
+            try {
+                objectName = new ObjectName(spec.substring(0, at).trim());
+            } catch (MalformedObjectNameException e) {
+                throw new IllegalArgumentException(e);
+            }
+            attribute = spec.substring(at + 1).trim();
+            String bean = objectName.getKeyProperty("name");
+            if (bean == null) {
+                bean = objectName.getKeyProperty("type");
+            }
+            columnName = "Server" + (bean == null ? "" : bean + ".")
+                    + attribute;
+        }
+
+        /**
+         * @param specs ';' separated objectName@attribute specs
+         * @return the attributes, empty if specs is empty
+         */
+        public static ServerAttribute[] parse(String specs) {
+            final List<ServerAttribute> attributes =
+                    new ArrayList<ServerAttribute>();
+            for (String spec : specs.split(";")) {
+                if (!spec.trim().isEmpty()) {
+                    attributes.add(new ServerAttribute(spec.trim()));
+                }
+            }
+            return attributes.toArray(new ServerAttribute[attributes.size()]);
+        }
+
+        // CHECKSTYLE:OFF
+        public ObjectName getObjectName() {
+            return objectName;
+        }
+
+        public String getAttribute() {
+            return attribute;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+        // CHECKSTYLE:ON
+    }
+}
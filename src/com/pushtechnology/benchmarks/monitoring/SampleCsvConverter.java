@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Converts a {@link MappedSampleRecorder} file into the experiment CSV
+ * layout. Run as:
+ * <pre>
+ * java SampleCsvConverter samples-file [csv-file]
+ * </pre>
+ * The CSV is written to standard out if no CSV file is given.
+ */
+public final class SampleCsvConverter {
+
+    /**
+     * no instances wanted...
+     */
+    private SampleCsvConverter() {
+    }
+
+    /**
+     * Print the CSV header followed by a row per recorded sample.
+     *
+     * @param samples a sample file
+     * @param out CSV output
+     * @throws IOException if the file is not a readable sample file
+     */
+    public static void convert(File samples, PrintStream out)
+            throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(samples, "r");
+        try {
+            if (raf.length() < MappedSampleRecorder.HEADER_ALIGNMENT) {
+                throw new IOException(samples + " is not a sample file");
+            }
+            final MappedByteBuffer file =
+                    raf.getChannel().map(MapMode.READ_ONLY, 0L, raf.length());
+            if (file.getLong(MappedSampleRecorder.MAGIC_OFFSET)
+                    != MappedSampleRecorder.MAGIC) {
+                throw new IOException(samples + " is not a sample file");
+            }
+            final int version =
+                    file.getInt(MappedSampleRecorder.VERSION_OFFSET);
+            final int recordSize =
+                    file.getInt(MappedSampleRecorder.RECORD_SIZE_OFFSET);
+            final int extraFieldCount =
+                    file.getInt(MappedSampleRecorder.EXTRA_FIELD_COUNT_OFFSET);
+            final int headerSize =
+                    file.getInt(MappedSampleRecorder.HEADER_SIZE_OFFSET);
+            if (version != MappedSampleRecorder.VERSION
+                    || recordSize != MonitorSample.recordSize(extraFieldCount)) {
+                throw new IOException("unsupported sample file version "
+                        + version + " with record size " + recordSize);
+            }
+            file.position(MappedSampleRecorder.EXTRA_FIELD_NAMES_OFFSET);
+            final String[] extraFieldNames = getStrings(file,
+                    extraFieldCount);
+            final String[] phaseNames = getStrings(file, file.getInt());
+            // a file which was not closed may be shorter than its count
+            final long recordCount = Math.min(
+                    file.getLong(MappedSampleRecorder.RECORD_COUNT_OFFSET),
+                    (raf.length() - headerSize) / recordSize);
+
+            MonitorSample.printHeader(out,
+                    file.getLong(MappedSampleRecorder.START_MILLIS_OFFSET),
+                    file.getLong(MappedSampleRecorder.START_NANOS_OFFSET),
+                    extraFieldNames);
+            for (long i = 0; i < recordCount; i++) {
+                file.position((int) (headerSize + i * recordSize));
+                final ByteBuffer record = file.slice();
+                MonitorSample.printRow(out, record, extraFieldCount,
+                        phaseNames);
+            }
+            out.flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String[] getStrings(ByteBuffer buffer, int count)
+            throws IOException {
+        final String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, "UTF-8");
+        }
+        return strings;
+    }
+
+    /**
+     * @param args samples-file [csv-file]
+     * @throws IOException on failure to read or write
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println(
+                    "Usage: SampleCsvConverter samples-file [csv-file]");
+            System.exit(1);
+        }
+        final PrintStream out;
+        if (args.length == 2) {
+            out = new PrintStream(args[1]);
+        } else {
+            out = System.out;
+        }
+        try {
+            convert(new File(args[0]), out);
+        } finally {
+            if (out != System.out) {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.monitoring;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records how long some client event took, e.g. connecting, for the monitor
+ * to sample per interval and for the end of experiment report. Recording is
+ * wait free, so any client thread may record. As with the LatencyMonitor,
+ * windows follow the intervals for a distributed agent, and the values of
+ * other nodes are added to the next interval.
+ */
+public final class TimingRecorder {
+    /** longer durations are recorded as this, in nanos. */
+    public static final long MAX_VALUE = TimeUnit.MINUTES.toNanos(1);
+    /** percentile sampled per interval. */
+    private static final double SAMPLED_PERCENTILE = 99.0;
+    private static final int SIG_DIGITS = 3;
+    private final Recorder recorder = new Recorder(MAX_VALUE, SIG_DIGITS);
+    /** all intervals so far. */
+    private final Histogram accumulated = new Histogram(MAX_VALUE, SIG_DIGITS);
+    /** recycled between intervals. */
+    private Histogram interval;
+    /** values recorded by other nodes, added to the next interval. */
+    private final Histogram remote = new Histogram(MAX_VALUE, SIG_DIGITS);
+    /** windows collecting the intervals. */
+    private final List<Window> windows = new CopyOnWriteArrayList<Window>();
+
+    /**
+     * @param nanos duration of an event
+     */
+    public void record(long nanos) {
+        recorder.recordValue(Math.max(0L, Math.min(nanos, MAX_VALUE)));
+    }
+
+    /**
+     * End the current interval.
+     *
+     * @return p99 of the interval in micros, or NOT_AVAILABLE if nothing was
+     *         recorded in it
+     */
+    public synchronized long endInterval() {
+        interval = recorder.getIntervalHistogram(interval);
+        interval.add(remote);
+        remote.reset();
+        accumulated.add(interval);
+        for (Window window : windows) {
+            window.add(interval);
+        }
+        if (interval.getTotalCount() == 0L) {
+            return MonitorSample.NOT_AVAILABLE;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(
+                interval.getValueAtPercentile(SAMPLED_PERCENTILE));
+    }
+
+    /**
+     * Open a window collecting the intervals as they end, so a distributed
+     * agent can follow the values without taking intervals from the
+     * monitor.
+     *
+     * @return a new window
+     */
+    public Window openWindow() {
+        final Window window = new Window();
+        windows.add(window);
+        return window;
+    }
+
+    /**
+     * Add values recorded by another node of a distributed experiment, they
+     * are reported with the next interval.
+     *
+     * @param values durations in nanos
+     */
+    public synchronized void addRemoteValues(Histogram values) {
+        remote.add(values);
+    }
+
+    /**
+     * Ends the current interval and returns everything recorded so far.
+     *
+     * @return a copy of the durations recorded so far, in nanos
+     */
+    public synchronized Histogram getAccumulatedHistogram() {
+        endInterval();
+        return accumulated.copy();
+    }
+
+    /**
+     * Collects the intervals ended since it was last taken.
+     */
+    public static final class Window {
+        private final Histogram histogram =
+                new Histogram(MAX_VALUE, SIG_DIGITS);
+
+        private Window() {
+        }
+
+        private synchronized void add(Histogram values) {
+            histogram.add(values);
+        }
+
+        /**
+         * @return a copy of the values of the intervals ended since the
+         *         last call
+         */
+        public synchronized Histogram take() {
+            final Histogram window = histogram.copy();
+            histogram.reset();
+            return window;
+        }
+    }
+}
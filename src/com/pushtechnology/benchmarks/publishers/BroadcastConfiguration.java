@@ -27,10 +27,44 @@ public class BroadcastConfiguration {
     private final long topicIncrementIntervalInPauses;
     private final int topicIncrementPerInterval;
 
+    private final PublishPacing pacing;
+    private final long publishTickNanos;
+    private final int runnerThreads;
+    private final PayloadConfiguration payload;
+    private final String replayTraceFile;
+    private final double replaySpeed;
+    private final double topicSkew;
+
     public BroadcastConfiguration(int messageSize, long intervalPauseNanos,
             int initialMessages, long messageIncrementInterval,
             int messageIncrementPerInterval, int initialTopicNum,
             long topicIncrementInterval, int topicIncrementPerInterval) {
+        this(messageSize, intervalPauseNanos, initialMessages,
+                messageIncrementInterval, messageIncrementPerInterval,
+                initialTopicNum, topicIncrementInterval,
+                topicIncrementPerInterval, PublishPacing.BURST, 0L, 1,
+                PayloadConfiguration.ZEROS, null, 1.0, 0.0);
+    }
+
+    /**
+     * @param pacing how publications are spread across the interval
+     * @param publishTickNanos timing wheel resolution for paced publishing
+     * @param runnerThreads number of threads publishing, each to its own
+     *        partition of the topics
+     * @param payload how the messages published are generated
+     * @param replayTraceFile a trace to replay instead of ramping, or null
+     * @param replaySpeed replay speed relative to the trace, 0 for as fast
+     *        as possible
+     * @param topicSkew Zipf exponent skewing the message rate across topics,
+     *        0 for the same rate on every topic
+     */
+    public BroadcastConfiguration(int messageSize, long intervalPauseNanos,
+            int initialMessages, long messageIncrementInterval,
+            int messageIncrementPerInterval, int initialTopicNum,
+            long topicIncrementInterval, int topicIncrementPerInterval,
+            PublishPacing pacing, long publishTickNanos, int runnerThreads,
+            PayloadConfiguration payload, String replayTraceFile,
+            double replaySpeed, double topicSkew) {
         super();
         this.messageSize = messageSize;
         this.intervalPauseNanos = intervalPauseNanos;
@@ -42,6 +76,14 @@ public class BroadcastConfiguration {
         this.initialTopics = initialTopicNum;
         this.topicIncrementIntervalInPauses = topicIncrementInterval;
         this.topicIncrementPerInterval = topicIncrementPerInterval;
+
+        this.pacing = pacing;
+        this.publishTickNanos = publishTickNanos;
+        this.runnerThreads = Math.max(1, runnerThreads);
+        this.payload = payload;
+        this.replayTraceFile = replayTraceFile;
+        this.replaySpeed = replaySpeed;
+        this.topicSkew = topicSkew;
     }
 
     public long getIntervalPauseNanos() {
@@ -76,4 +118,32 @@ public class BroadcastConfiguration {
         return messageIncrement;
     }
 
+    public PublishPacing getPacing() {
+        return pacing;
+    }
+
+    public long getPublishTickNanos() {
+        return publishTickNanos;
+    }
+
+    public int getRunnerThreads() {
+        return runnerThreads;
+    }
+
+    public PayloadConfiguration getPayload() {
+        return payload;
+    }
+
+    public String getReplayTraceFile() {
+        return replayTraceFile;
+    }
+
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
+
+    public double getTopicSkew() {
+        return topicSkew;
+    }
+
 }
@@ -15,8 +15,10 @@
  */
 package com.pushtechnology.benchmarks.publishers;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.pushtechnology.diffusion.api.APIException;
 import com.pushtechnology.diffusion.api.config.ConfigManager;
@@ -35,9 +37,16 @@ import com.pushtechnology.diffusion.api.topic.Topic;
 public final class BroadcastPublisher extends Publisher implements
         MessagePublisher {
     public static final String INJECTOR_ROOT = "ROOT";
+    private static final Logger LOG =
+            LoggerFactory.getLogger(BroadcastPublisher.class);
+    /**
+     * Header of a rate control message, sent by a client to the root topic
+     * and followed by the messages per topic per interval to publish.
+     */
+    public static final String RATE_HEADER = "messagesPerIntervalPerTopic:";
 
     private Topic rootTopic;
-    private Queue<Topic> childTopics = new ConcurrentLinkedQueue<Topic>();
+    private final TopicArray childTopics = new TopicArray();
     private PublisherAssembly publisherAssembly;
     private boolean conflation = false;
 
@@ -80,14 +89,63 @@ public final class BroadcastPublisher extends Publisher implements
         long topicIncrementIntervalInPauses = getProperty(
                 "topicIncrementIntervalInPauses", 10);
         int topicIncrement = getProperty("topicIncrement", 10);
+
+        // pacing, publish in bursts by default
+        PublishPacing pacing;
+        try {
+            pacing = PublishPacing.valueOf(
+                    getProperty("publishPacing", "BURST").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            pacing = PublishPacing.BURST;
+        }
+        long publishTickNanos = 1000L * getProperty("publishTickMicros",
+                1000L);
+        // publishing threads, each owning a partition of the topics
+        int runnerThreads = getProperty("runnerThreads", 1);
+        PayloadConfiguration payload = getPayloadConfiguration();
+        // replay a captured trace instead, at 1x by default, 0 for max speed
+        String replayTrace = getProperty("replayTrace", "").trim();
+        double replaySpeed = getProperty("replaySpeed", 1.0);
+        // Zipf skew of the rate across topics, topic 0 hottest, 0 for none
+        double topicSkew = getProperty("topicSkew", 0.0);
         BroadcastConfiguration config = new BroadcastConfiguration(messageSize,
                 intervalPauseNanos, initialMessages,
                 messageIncrementIntervalInPauses, messageIncrement,
                 initialTopicNum, topicIncrementIntervalInPauses,
-                topicIncrement);
+                topicIncrement, pacing, publishTickNanos, runnerThreads,
+                payload, replayTrace.isEmpty() ? null : replayTrace,
+                replaySpeed, topicSkew);
         publisherAssembly = new PublisherAssembly(this, config);
     }
 
+    /**
+     * Payloads are zero filled by default, see {@link PayloadMode}.
+     */
+    private PayloadConfiguration getPayloadConfiguration()
+            throws APIException {
+        PayloadMode mode;
+        try {
+            mode = PayloadMode.valueOf(
+                    getProperty("payloadMode", "ZEROS").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            mode = PayloadMode.ZEROS;
+        }
+        int poolSize = getProperty("payloadPoolSize", 1024);
+        if (mode == PayloadMode.HISTOGRAM) {
+            String histogramFile = getProperty("payloadSizeHistogram", "");
+            try {
+                return PayloadConfiguration.fromHistogramFile(poolSize,
+                        histogramFile);
+            } catch (IOException e) {
+                throw new APIException("Failed to load payload size "
+                        + "histogram " + histogramFile + ": " + e.getMessage());
+            }
+        }
+        return new PayloadConfiguration(mode, poolSize,
+                getProperty("payloadSizeSigma", 0.5), null, null,
+                getProperty("payloadChurn", 0.2));
+    }
+
     protected static void setupMergePolicy() throws APIException {
         ConflationPolicyConfig policy = ((ServerConfig)ConfigManager.getConfig())
                 .getConflation().addPolicy("XXX", Mode.REPLACE,
@@ -180,6 +238,42 @@ public final class BroadcastPublisher extends Publisher implements
         super.subscription(client, topic, loaded);
     }
 
+    /**
+     * Rate control messages set the runners' rate, see {@link #RATE_HEADER}.
+     */
+    @Override
+    protected void messageFromClient(TopicMessage message, Client client) {
+        if (!INJECTOR_ROOT.equals(message.getTopicName())) {
+            return;
+        }
+        final int rate;
+        try {
+            rate = parseRate(message.getHeader(0));
+        } catch (Exception e) {
+            LOG.warn("Bad rate control message from client", e);
+            return;
+        }
+        if (rate >= 0) {
+            publisherAssembly.setMessagesPerIntervalPerTopic(rate);
+        }
+    }
+
+    /**
+     * @param header a message header
+     * @return the rate of a rate control header, or -1 if it is not one
+     */
+    static int parseRate(String header) {
+        if (header == null || !header.startsWith(RATE_HEADER)) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(
+                    header.substring(RATE_HEADER.length()).trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     @Override
     public void publish(final Topic topic, final byte[] message) {
         try {
@@ -207,7 +301,7 @@ public final class BroadcastPublisher extends Publisher implements
     }
 
     @Override
-    public final Queue<Topic> getChildTopics() {
+    public final TopicArray getChildTopics() {
         return childTopics;
     }
 
@@ -15,17 +15,47 @@
  */
 package com.pushtechnology.benchmarks.publishers;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 
+import org.HdrHistogram.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.pushtechnology.benchmarks.util.TraceReader;
+import com.pushtechnology.benchmarks.util.Zipf;
 import com.pushtechnology.diffusion.api.topic.Topic;
 
+/**
+ * Publishes to the topics of its partition, i.e. the child topics at
+ * indexes congruent to partition modulo partitions. The runner of partition
+ * 0 leads, it adds the topics and ramps the number of topics for all
+ * partitions. Every runner ramps its own message rate and counts its
+ * publications in its own counter.
+ * <P>
+ * With a topic skew the per topic rate follows a Zipf distribution over the
+ * child topic index, topic 0 being the hottest, and the mean rate is the
+ * configured one.
+ * <P>
+ * The experiment may set the message rate, see
+ * {@link #setMessagesPerIntervalPerTopic}, after which the runner stops
+ * ramping it. Replay ignores it.
+ */
 public class BroadcastRunner implements Runnable {
     public static final long PARK_NANOS_OVERHEAD = 55000;
     public static final long PARK_NANOS_THRESHOLD = 100000;
+    /** paced publishing reports achieved rate and slip this often. */
+    public static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int WHEEL_SLOTS = 1024;
+    /** no rate requested. */
+    private static final int NO_RATE = -1;
     private static final Logger LOG = LoggerFactory.getLogger(BroadcastRunner.class);
 
     private volatile boolean running = true;
@@ -33,72 +63,427 @@ public class BroadcastRunner implements Runnable {
     private final AtomicLong messageCounter;
     private final AtomicLong topicsCounter;
     private final BroadcastConfiguration config;
+    private final int partition;
+    private final int partitions;
+    private final TopicArray childTopics;
+    private final PayloadPool payloads;
+    private int topicCounter;
+    private int messagesPerIntervalPerTopic;
+    /** the rate set by the experiment and not yet applied, or NO_RATE. */
+    private final AtomicInteger requestedRate = new AtomicInteger(NO_RATE);
+    /** the experiment sets the rate, so it no longer ramps. */
+    private boolean isRateControlled;
+    /** rate factor of every child topic, for a skewed rate. */
+    private double[] rateFactors = new double[0];
+    /** fractional messages owed to each topic of the partition. */
+    private double[] carry = new double[0];
 
     public BroadcastRunner(final MessagePublisher messagePublisher,
             final AtomicLong messageCounter, final AtomicLong topicsCounter,
             final BroadcastConfiguration config) {
+        this(messagePublisher, messageCounter, topicsCounter, config, 0, 1);
+    }
+
+    /**
+     * @param messageCounter counts this runner's publications only
+     * @param partition this runner's partition, 0 leads
+     * @param partitions number of runners
+     */
+    public BroadcastRunner(final MessagePublisher messagePublisher,
+            final AtomicLong messageCounter, final AtomicLong topicsCounter,
+            final BroadcastConfiguration config, final int partition,
+            final int partitions) {
+        if (partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("partition " + partition
+                    + " of " + partitions);
+        }
         this.messagePublisher = messagePublisher;
         this.messageCounter = messageCounter;
         this.topicsCounter = topicsCounter;
         this.config = config;
+        this.partition = partition;
+        this.partitions = partitions;
+        this.childTopics = messagePublisher.getChildTopics();
+        // seeded by partition, so runs publish the same payloads
+        this.payloads = new PayloadPool(config.getPayload(),
+                config.getMessageSize(), new Random(partition));
+    }
+
+    private boolean isLead() {
+        return partition == 0;
     }
 
     public void run() {
         running = true;
         
-        final byte[] data = new byte[config.getMessageSize()];
-        int pauseCounter = 0;
-        for (int i = 0; i < config.getInitialTopicNum(); i++) {
-            messagePublisher.addChildTopic(String.valueOf(i), data);
-            topicsCounter.incrementAndGet();
+        if (config.getReplayTraceFile() != null) {
+            runReplay();
+            return;
         }
-        int topicCounter = config.getInitialTopicNum();
+        if (isLead()) {
+            for (int i = 0; i < config.getInitialTopicNum(); i++) {
+                messagePublisher.addChildTopic(String.valueOf(i),
+                        payloads.next());
+                topicsCounter.incrementAndGet();
+            }
+        }
+        topicCounter = config.getInitialTopicNum();
 
-        int messagesPerIntervalPerTopic = config
+        messagesPerIntervalPerTopic = config
                 .getMessagesPerIntervalPerTopic();
+        if (config.getPacing() == PublishPacing.BURST) {
+            runBursts();
+        } else {
+            runPaced();
+        }
+    }
+
+    /**
+     * Publish all of an interval's messages at its start.
+     */
+    private void runBursts() {
+        int pauseCounter = 0;
         while (running) {
             final long timestampNanos = System.nanoTime();
+            applyRequestedRate();
             if (messagePublisher.hasClients()) {
-                for (int i = 0; i < messagesPerIntervalPerTopic; i++) {
-                    for (Topic topic : messagePublisher.getChildTopics()) {
-                        
-                        try {
-                            topic.lock();
-                            messagePublisher.publish(topic, data);
-
-                            messageCounter.lazySet(messageCounter.get() + 1);
-                        } catch (Exception e) {
-                            LOG.error("Runtime exception while publishing:",
-                                    e);
-                        } finally {
-                            topic.unlock();
-                        }
-                    }
-                }
+                publishInterval(messagesPerIntervalPerTopic);
             }
 
             boolean isCoping = applyInterval(timestampNanos);
             pauseCounter++;
 
             if (isCoping && messagePublisher.hasClients()) {
-                // increase number of topics
-                if (config.getTopicIncrementIntervalInPauses() != 0 &&
-                        pauseCounter % config.getTopicIncrementIntervalInPauses() == 0) {
-                    for (int i = 0; i < config.getTopicIncrement(); i++) {
-                        messagePublisher.addChildTopic(
-                                String.valueOf(topicCounter++), data);
-                        topicsCounter.incrementAndGet();
+                ramp(pauseCounter);
+            }
+        }
+    }
+
+    /**
+     * Spread each topic's messages across the interval, scheduled on a
+     * timing wheel. The runner is coping while no topic falls an interval
+     * behind its schedule.
+     */
+    private void runPaced() {
+        final long intervalNanos = config.getIntervalPauseNanos();
+        final PublishTimingWheel wheel = new PublishTimingWheel(
+                config.getPublishTickNanos(), WHEEL_SLOTS, intervalNanos,
+                config.getPacing(), new Random());
+        final PublishTimingWheel.Publication publication =
+                new PublishTimingWheel.Publication() {
+                    @Override
+                    public void publish(int topicIndex) {
+                        BroadcastRunner.this.publish(childTopics.get(
+                                partition + topicIndex * partitions),
+                                payloads.next());
                     }
+                };
+        wheel.setRate(messagesPerIntervalPerTopic, intervalNanos);
+        long intervalStart = System.nanoTime();
+        addPacedTopics(wheel, intervalStart);
+        long reportStart = intervalStart;
+        long reportPublished = 0;
+        long reportDropped = 0;
+        long intervalDropped = 0;
+        int pauseCounter = 0;
+        while (running) {
+            final long now = System.nanoTime();
+            final boolean hasClients = messagePublisher.hasClients();
+            wheel.advance(now, hasClients, publication);
+
+            if (now - intervalStart >= intervalNanos) {
+                final boolean isCoping = wheel.dropped() == intervalDropped;
+                intervalDropped = wheel.dropped();
+                pauseCounter++;
+                if (applyRequestedRate()) {
+                    wheel.setRate(messagesPerIntervalPerTopic, intervalNanos);
+                }
+                if (isCoping && hasClients) {
+                    ramp(pauseCounter);
+                    wheel.setRate(messagesPerIntervalPerTopic, intervalNanos);
+                }
+                // the lead may have added topics to this partition
+                addPacedTopics(wheel, now);
+                intervalStart += intervalNanos;
+                if (now - intervalStart >= intervalNanos) {
+                    // fell behind, start the next interval from now
+                    intervalStart = now;
+                }
+            }
+            if (now - reportStart >= REPORT_INTERVAL_NANOS) {
+                reportPaced(wheel, now - reportStart,
+                        wheel.published() - reportPublished,
+                        wheel.dropped() - reportDropped);
+                reportStart = now;
+                reportPublished = wheel.published();
+                reportDropped = wheel.dropped();
+            }
+            waitUntil(Math.min(wheel.nextTickNanos(),
+                    intervalStart + intervalNanos));
+        }
+        reportPaced(wheel, System.nanoTime() - reportStart,
+                wheel.published() - reportPublished,
+                wheel.dropped() - reportDropped);
+    }
+
+    /**
+     * Replay this partition's updates from a captured trace, each topic id of
+     * the trace being the child topic of that index. The lead adds a topic
+     * per trace topic and the replay starts once there are clients.
+     */
+    private void runReplay() {
+        final File file = new File(config.getReplayTraceFile());
+        TraceReader trace = null;
+        try {
+            trace = new TraceReader(file);
+            final int topics = trace.getTopicCount();
+            if (isLead()) {
+                for (int i = 0; i < topics; i++) {
+                    messagePublisher.addChildTopic(String.valueOf(i),
+                            payloads.next());
+                    topicsCounter.incrementAndGet();
+                }
+            }
+            final ReplayPayloads replayPayloads = new ReplayPayloads(trace);
+            while (running && (childTopics.size() < topics
+                    || !messagePublisher.hasClients())) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            if (running) {
+                replay(trace, replayPayloads);
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to replay trace " + file, e);
+        } finally {
+            if (trace != null) {
+                try {
+                    trace.close();
+                } catch (IOException e) {
+                    LOG.debug("Failed to close trace " + file, e);
                 }
-                // increase number of messages
-                if (config.getMessageIncrementIntervalInPauses() != 0 &&
-                        pauseCounter % config.getMessageIncrementIntervalInPauses() == 0) {
-                    messagesPerIntervalPerTopic += config.getMessageIncrement();
+            }
+        }
+    }
+
+    private void replay(TraceReader trace, ReplayPayloads replayPayloads)
+            throws IOException {
+        final double speed = config.getReplaySpeed();
+        long published = 0;
+        long maxSlipNanos = 0;
+        long lastTimeNanos = 0;
+        final long startNanos = System.nanoTime();
+        while (running && trace.next()) {
+            final int topicId = trace.topicId();
+            if (topicId % partitions != partition) {
+                continue;
+            }
+            lastTimeNanos = trace.timeNanos();
+            if (speed > 0.0) {
+                final long due = startNanos + (long) (lastTimeNanos / speed);
+                waitUntil(due);
+                maxSlipNanos = Math.max(maxSlipNanos, System.nanoTime() - due);
+            }
+            publish(childTopics.get(topicId),
+                    replayPayloads.get(trace.size()));
+            published++;
+        }
+        final double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOG.info(String.format("Replay partition %d: %d updates in %.1fs, "
+                + "trace time %.1fs, speed %s, max slip %.1fms", partition,
+                published, seconds, lastTimeNanos / 1e9,
+                speed > 0.0 ? speed + "x" : "max", maxSlipNanos / 1e6));
+    }
+
+    /**
+     * A random payload of each size in a trace, so replay does not allocate.
+     */
+    private final class ReplayPayloads {
+        private final int[] sizes;
+        private final byte[][] payloadsBySize;
+
+        ReplayPayloads(TraceReader trace) throws IOException {
+            final TreeSet<Integer> distinct = new TreeSet<Integer>();
+            while (trace.next()) {
+                if (trace.topicId() % partitions == partition) {
+                    distinct.add(trace.size());
                 }
             }
+            trace.rewind();
+            final Random random = new Random(partition);
+            sizes = new int[distinct.size()];
+            payloadsBySize = new byte[sizes.length][];
+            int i = 0;
+            for (int size : distinct) {
+                sizes[i] = size;
+                payloadsBySize[i] = new byte[Math.max(0, size)];
+                random.nextBytes(payloadsBySize[i]);
+                i++;
+            }
+        }
+
+        byte[] get(int size) {
+            return payloadsBySize[Arrays.binarySearch(sizes, size)];
+        }
+    }
+
+    /**
+     * Publish each topic's share of the interval's messages, carrying the
+     * fractional part over to the next interval so cold topics still get
+     * their long run rate.
+     */
+    private void publishSkewedInterval(final int messagesPerIntervalPerTopic) {
+        final int size = childTopics.size();
+        final Topic[] topics = childTopics.array();
+        updateRateFactors(size);
+        for (int t = partition, k = 0; t < size; t += partitions, k++) {
+            carry[k] += messagesPerIntervalPerTopic * rateFactors[t];
+            final int count = (int) carry[k];
+            carry[k] -= count;
+            for (int i = 0; i < count; i++) {
+                publish(topics[t], payloads.next());
+            }
+        }
+    }
+
+    /**
+     * Recompute the rate factors when the number of topics changes.
+     *
+     * @param size number of child topics
+     * @return true if the factors changed
+     */
+    private boolean updateRateFactors(int size) {
+        if (rateFactors.length == size) {
+            return false;
+        }
+        rateFactors = Zipf.rateFactors(size, config.getTopicSkew());
+        final int ownTopics = Math.max(0,
+                (size - partition + partitions - 1) / partitions);
+        carry = Arrays.copyOf(carry, ownTopics);
+        return true;
+    }
+
+    /**
+     * Schedule this partition's topics added since the last call. The wheel
+     * index of a topic is its index in the partition.
+     */
+    private void addPacedTopics(PublishTimingWheel wheel, long nowNanos) {
+        final int size = childTopics.size();
+        while (partition + wheel.size() * partitions < size) {
+            wheel.add(nowNanos);
+        }
+        if (config.getTopicSkew() != 0.0 && updateRateFactors(size)) {
+            for (int k = 0; k < wheel.size(); k++) {
+                wheel.setRateFactor(k, rateFactors[partition + k * partitions]);
+            }
+        }
+    }
+
+    /**
+     * Log the achieved against the target rate, and the slip of
+     * publications behind schedule, since the last report.
+     */
+    private void reportPaced(PublishTimingWheel wheel, long elapsedNanos,
+            long published, long dropped) {
+        final Histogram slip = wheel.slipHistogram();
+        if (elapsedNanos <= 0 || (published == 0 && dropped == 0)) {
+            slip.reset();
+            return;
+        }
+        final double seconds = elapsedNanos / 1000000000.0;
+        final double targetRate = wheel.rateFactorSum()
+                * messagesPerIntervalPerTopic
+                * TimeUnit.SECONDS.toNanos(1) / config.getIntervalPauseNanos();
+        LOG.info(String.format("%s publishing partition %d: target %.0f msg/s, achieved "
+                + "%.0f msg/s, dropped %d, slip us mean %.1f 99%% %.1f "
+                + "max %.1f", config.getPacing(), partition, targetRate,
+                published / seconds, dropped, slip.getMean() / 1000.0,
+                slip.getValueAtPercentile(99.0) / 1000.0,
+                slip.getMaxValue() / 1000.0));
+        slip.reset();
+    }
+
+    /**
+     * Increase the number of topics and messages as configured.
+     *
+     * @param pauseCounter intervals so far
+     */
+    private void ramp(int pauseCounter) {
+        // increase number of topics
+        if (isLead() && config.getTopicIncrementIntervalInPauses() != 0 &&
+                pauseCounter % config.getTopicIncrementIntervalInPauses() == 0) {
+            for (int i = 0; i < config.getTopicIncrement(); i++) {
+                messagePublisher.addChildTopic(
+                        String.valueOf(topicCounter++), payloads.next());
+                topicsCounter.incrementAndGet();
+            }
+        }
+        // increase number of messages, unless the experiment sets the rate
+        if (!isRateControlled
+                && config.getMessageIncrementIntervalInPauses() != 0 &&
+                pauseCounter % config.getMessageIncrementIntervalInPauses() == 0) {
+            messagesPerIntervalPerTopic += config.getMessageIncrement();
         }
     }
 
+    /**
+     * Publish one interval's worth of messages to every topic of this
+     * partition.
+     *
+     * @param messagesPerIntervalPerTopic messages to publish to each topic
+     */
+    void publishInterval(final int messagesPerIntervalPerTopic) {
+        if (config.getTopicSkew() != 0.0) {
+            publishSkewedInterval(messagesPerIntervalPerTopic);
+            return;
+        }
+        for (int i = 0; i < messagesPerIntervalPerTopic; i++) {
+            final int size = childTopics.size();
+            final Topic[] topics = childTopics.array();
+            for (int t = partition; t < size; t += partitions) {
+                publish(topics[t], payloads.next());
+            }
+        }
+    }
+
+    private void publish(final Topic topic, final byte[] data) {
+        try {
+            topic.lock();
+            messagePublisher.publish(topic, data);
+
+            messageCounter.lazySet(messageCounter.get() + 1);
+        } catch (Exception e) {
+            LOG.error("Runtime exception while publishing:",
+                    e);
+        } finally {
+            topic.unlock();
+        }
+    }
+
+    /**
+     * Set the message rate from the next interval on, and stop ramping it.
+     *
+     * @param messagesPerInterval messages per topic per interval
+     */
+    public void setMessagesPerIntervalPerTopic(int messagesPerInterval) {
+        if (messagesPerInterval < 0) {
+            throw new IllegalArgumentException("negative rate "
+                    + messagesPerInterval);
+        }
+        requestedRate.set(messagesPerInterval);
+    }
+
+    /**
+     * @return true if a requested rate was applied
+     */
+    private boolean applyRequestedRate() {
+        if (requestedRate.get() == NO_RATE) {
+            return false;
+        }
+        messagesPerIntervalPerTopic = requestedRate.getAndSet(NO_RATE);
+        isRateControlled = true;
+        return true;
+    }
+
     public void halt() {
         running = false;
     }
@@ -111,15 +496,25 @@ public class BroadcastRunner implements Runnable {
             return false;
         }
 
-        if (remainingInterval < PARK_NANOS_THRESHOLD) {
-            final long deadlineNanos = startTimeNanos
-                    + config.getIntervalPauseNanos();
-            while (System.nanoTime() < deadlineNanos) {
-                // busy spin
-            }
-        } else {
-            LockSupport.parkNanos(remainingInterval - PARK_NANOS_OVERHEAD);
-        }
+        waitUntil(startTimeNanos + config.getIntervalPauseNanos());
         return true;
     }
+
+    /**
+     * Park until close to the deadline, spinning for the last stretch. A
+     * park may wake early, so the deadline is checked again after each one
+     * and the wait never returns before it.
+     *
+     * @param deadlineNanos in System.nanoTime() terms
+     */
+    static void waitUntil(final long deadlineNanos) {
+        long remaining = deadlineNanos - System.nanoTime();
+        while (remaining >= PARK_NANOS_THRESHOLD) {
+            LockSupport.parkNanos(remaining - PARK_NANOS_OVERHEAD);
+            remaining = deadlineNanos - System.nanoTime();
+        }
+        while (System.nanoTime() - deadlineNanos < 0) {
+            // busy spin
+        }
+    }
 }
@@ -15,8 +15,6 @@
  */
 package com.pushtechnology.benchmarks.publishers;
 
-import java.util.Queue;
-
 import com.pushtechnology.diffusion.api.topic.Topic;
 
 public interface MessagePublisher {
@@ -24,7 +22,7 @@ public interface MessagePublisher {
 
     void publish(Topic topic, byte[] data);
 
-    Queue<Topic> getChildTopics();
+    TopicArray getChildTopics();
 
     boolean hasClients();
 }
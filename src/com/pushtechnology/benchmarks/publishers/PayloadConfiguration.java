@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the payloads published are generated, see {@link PayloadPool}.
+ */
+public final class PayloadConfiguration {
+    /** zero filled payloads as the publisher has always sent. */
+    public static final PayloadConfiguration ZEROS =
+            new PayloadConfiguration(PayloadMode.ZEROS, 1, 0.0, null, null,
+                    0.0);
+
+    private final PayloadMode mode;
+    private final int poolSize;
+    private final double sizeSigma;
+    private final int[] histogramSizes;
+    private final long[] histogramCumulativeCounts;
+    private final double churn;
+
+    /**
+     * @param mode what to publish
+     * @param poolSize number of payloads pregenerated
+     * @param sizeSigma LOGNORMAL standard deviation of the log of the size
+     * @param histogramSizes HISTOGRAM sizes, ascending
+     * @param histogramCumulativeCounts HISTOGRAM counts of messages up to
+     *        and including each size
+     * @param churn RECORD fraction of fields changed per record
+     */
+    public PayloadConfiguration(PayloadMode mode, int poolSize,
+            double sizeSigma, int[] histogramSizes,
+            long[] histogramCumulativeCounts, double churn) {
+        if (mode == PayloadMode.HISTOGRAM && (histogramSizes == null
+                || histogramSizes.length == 0)) {
+            throw new IllegalArgumentException("HISTOGRAM needs sizes");
+        }
+        this.mode = mode;
+        this.poolSize = Math.max(1, poolSize);
+        this.sizeSigma = sizeSigma;
+        this.histogramSizes = histogramSizes;
+        this.histogramCumulativeCounts = histogramCumulativeCounts;
+        this.churn = churn;
+    }
+
+    /**
+     * Load a size histogram, a "size count" line per size. Sizes and counts
+     * may also be comma separated, lines starting with # are ignored.
+     *
+     * @param poolSize number of payloads pregenerated
+     * @param fileName the histogram
+     * @return the configuration
+     * @throws IOException if the file can not be read or parsed
+     */
+    public static PayloadConfiguration fromHistogramFile(int poolSize,
+            String fileName) throws IOException {
+        final List<long[]> rows = new ArrayList<long[]>();
+        final BufferedReader reader =
+                new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] columns = line.split("[\\s,]+");
+                try {
+                    rows.add(new long[] {Integer.parseInt(columns[0]),
+                            columns.length > 1 ? Long.parseLong(columns[1])
+                                    : 1L});
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad size histogram line: "
+                            + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        final int[] sizes = new int[rows.size()];
+        final long[] cumulative = new long[rows.size()];
+        long total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            final long[] row = rows.get(i);
+            if (row[0] <= 0 || row[1] < 0 || (i > 0 && row[0] <= sizes[i - 1])) {
+                throw new IOException("Size histogram sizes must be positive "
+                        + "and ascending, counts not negative: " + fileName);
+            }
+            sizes[i] = (int) row[0];
+            total += row[1];
+            cumulative[i] = total;
+        }
+        if (total == 0) {
+            throw new IOException("Empty size histogram: " + fileName);
+        }
+        return new PayloadConfiguration(PayloadMode.HISTOGRAM, poolSize, 0.0,
+                sizes,
+                cumulative, 0.0);
+    }
+
+    public PayloadMode getMode() {
+        return mode;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public double getSizeSigma() {
+        return sizeSigma;
+    }
+
+    int[] getHistogramSizes() {
+        return histogramSizes;
+    }
+
+    long[] getHistogramCumulativeCounts() {
+        return histogramCumulativeCounts;
+    }
+
+    public double getChurn() {
+        return churn;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+/**
+ * What the {@link BroadcastRunner} publishes.
+ */
+public enum PayloadMode {
+    /** zero filled messages of the message size. */
+    ZEROS,
+    /** random bytes, messages of the message size. */
+    RANDOM,
+    /** random bytes, sizes lognormally distributed around the message size. */
+    LOGNORMAL,
+    /** random bytes, sizes drawn from a size histogram file. */
+    HISTOGRAM,
+    /**
+     * JSON like records of about the message size, each differing from the
+     * previous in a fraction of its fields.
+     */
+    RECORD
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Payloads generated up front as configured, and handed out in turn so that
+ * nothing is generated on the publish path. Payloads are shared and must not
+ * be modified. Not thread safe, each runner has its own pool.
+ */
+public final class PayloadPool {
+    /** LOGNORMAL sizes are capped at this many times the message size. */
+    private static final int MAX_SIZE_FACTOR = 16;
+    /** RECORD field value width. */
+    private static final int VALUE_WIDTH = 8;
+    /** RECORD bytes per field, i.e. "fNNN":"vvvvvvvv", */
+    private static final int FIELD_WIDTH = VALUE_WIDTH + 10;
+    private static final char[] ALPHANUMERIC =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+                    .toCharArray();
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final byte[][] payloads;
+    private int next;
+
+    /**
+     * @param config how to generate payloads
+     * @param messageSize the message size, or median size for LOGNORMAL
+     * @param random source of random payloads
+     */
+    public PayloadPool(PayloadConfiguration config, int messageSize,
+            Random random) {
+        if (config.getMode() == PayloadMode.ZEROS) {
+            payloads = new byte[][] {new byte[messageSize]};
+            return;
+        }
+        payloads = new byte[config.getPoolSize()][];
+        if (config.getMode() == PayloadMode.RECORD) {
+            generateRecords(config.getChurn(), messageSize, random);
+            return;
+        }
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = new byte[size(config, messageSize, random)];
+            random.nextBytes(payloads[i]);
+        }
+    }
+
+    private static int size(PayloadConfiguration config, int messageSize,
+            Random random) {
+        switch (config.getMode()) {
+        case LOGNORMAL:
+            final double size = messageSize
+                    * Math.exp(config.getSizeSigma() * random.nextGaussian());
+            return (int) Math.max(1L, Math.min(
+                    (long) MAX_SIZE_FACTOR * messageSize, Math.round(size)));
+        case HISTOGRAM:
+            final long[] cumulative = config.getHistogramCumulativeCounts();
+            final long count = (long) (random.nextDouble()
+                    * cumulative[cumulative.length - 1]);
+            // the first size with more messages up to it than count
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (cumulative[mid] > count) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return config.getHistogramSizes()[low];
+        default:
+            return messageSize;
+        }
+    }
+
+    /**
+     * A sequence of records, each a copy of the previous with churn of its
+     * fields given new values, so consecutive messages share most of their
+     * content as consecutive updates of a real feed do.
+     */
+    private void generateRecords(double churn, int messageSize,
+            Random random) {
+        final int fields = Math.max(1, (messageSize - 2) / FIELD_WIDTH);
+        final char[][] values = new char[fields][VALUE_WIDTH];
+        for (char[] value : values) {
+            randomise(value, random);
+        }
+        final StringBuilder record = new StringBuilder(messageSize);
+        for (int i = 0; i < payloads.length; i++) {
+            if (i > 0) {
+                for (char[] value : values) {
+                    if (random.nextDouble() < churn) {
+                        randomise(value, random);
+                    }
+                }
+            }
+            record.setLength(0);
+            record.append('{');
+            for (int f = 0; f < fields; f++) {
+                if (f > 0) {
+                    record.append(',');
+                }
+                record.append("\"f").append(f).append("\":\"")
+                        .append(values[f]).append('"');
+            }
+            record.append('}');
+            payloads[i] = record.toString().getBytes(ASCII);
+        }
+    }
+
+    private static void randomise(char[] value, Random random) {
+        for (int i = 0; i < value.length; i++) {
+            value[i] = ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)];
+        }
+    }
+
+    /**
+     * @return the next payload
+     */
+    public byte[] next() {
+        final byte[] payload = payloads[next];
+        if (++next == payloads.length) {
+            next = 0;
+        }
+        return payload;
+    }
+
+    /**
+     * @return number of payloads in the pool
+     */
+    public int size() {
+        return payloads.length;
+    }
+}
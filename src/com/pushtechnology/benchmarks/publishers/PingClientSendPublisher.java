@@ -43,7 +43,6 @@ public final class PingClientSendPublisher extends Publisher {
     Topic rootTopic;
 
 	private int size;
-	private byte[] bytes=null;
 
 	private long lastDumpTimestamp;
     
@@ -63,9 +62,9 @@ public final class PingClientSendPublisher extends Publisher {
     protected void messageFromClient(TopicMessage message, Client client) {
         try {
 
-        	// let the client set the message size
-        	if(bytes == null)
-        		bytes =new byte[message.size()];
+            // echo the client's payload, open loop ping clients carry their
+            // send timestamps in it
+            final byte[] bytes = message.asBytes();
             
             TopicMessage m=null;
                 m = rootTopic.createDeltaMessage();
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+/**
+ * How the {@link BroadcastRunner} spreads each interval's publications.
+ */
+public enum PublishPacing {
+    /** every topic gets all of the interval's messages at its start. */
+    BURST,
+    /** each topic's messages are evenly spaced across the interval. */
+    UNIFORM,
+    /**
+     * each topic's messages arrive as a Poisson process, with the same mean
+     * rate as UNIFORM.
+     */
+    POISSON
+}
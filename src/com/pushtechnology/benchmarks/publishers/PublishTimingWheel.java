@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * A hashed timing wheel scheduling a publication deadline per topic, for
+ * publishing at a paced rate rather than in bursts. Each topic has one
+ * preallocated entry, so scheduling does not allocate. Not thread safe, the
+ * wheel belongs to the publishing thread.
+ * <P>
+ * Publications are made late rather than dropped, and the slip of each one
+ * behind its deadline is recorded. A topic up to maxSlipNanos behind catches
+ * up by publishing its backlog back to back, so a stall is followed by a
+ * burst of at most maxSlipNanos worth of publications per topic. A topic
+ * falling further behind drops its whole backlog and carries on from now.
+ * <P>
+ * Ticks are counted from the first time the wheel is given, as nanoTime may
+ * be negative.
+ */
+final class PublishTimingWheel {
+    /**
+     * Publishes to a topic.
+     */
+    interface Publication {
+        /**
+         * @param topicIndex index the topic was added with
+         */
+        void publish(int topicIndex);
+    }
+
+    // CHECKSTYLE:OFF
+    private final Entry[] slots;
+    private final int mask;
+    private final long tickNanos;
+    private final long maxSlipNanos;
+    private final PublishPacing pacing;
+    private final Random random;
+    private final Histogram slipHistogram = new Histogram(3);
+    private Entry[] entries = new Entry[64];
+    private int size;
+    private double rateFactorSum;
+    private double meanGapNanos;
+    private boolean started;
+    private long originNanos;
+    private long currentTick;
+    private long published;
+    private long dropped;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param tickNanos wheel resolution
+     * @param slotCount number of slots, must be a power of 2
+     * @param maxSlipNanos the slip at which a topic drops its backlog
+     * @param pacing UNIFORM or POISSON
+     * @param random source of Poisson gaps
+     */
+    PublishTimingWheel(long tickNanos, int slotCount, long maxSlipNanos,
+            PublishPacing pacing, Random random) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("only works for power of 2 "
+                    + "size");
+        }
+        if (pacing == PublishPacing.BURST) {
+            throw new IllegalArgumentException("BURST is not paced");
+        }
+        this.slots = new Entry[slotCount];
+        this.mask = slotCount - 1;
+        this.tickNanos = Math.max(1L, tickNanos);
+        this.maxSlipNanos = maxSlipNanos;
+        this.pacing = pacing;
+        this.random = random;
+    }
+
+    /**
+     * @param messagesPerInterval messages per topic per interval, 0 to pause
+     * @param intervalNanos the interval
+     */
+    void setRate(int messagesPerInterval, long intervalNanos) {
+        meanGapNanos = messagesPerInterval <= 0 ? 0.0
+                : (double) intervalNanos / messagesPerInterval;
+    }
+
+    /**
+     * Add the next topic, its first publication is spread into its first
+     * gap so topics do not start in step.
+     *
+     * @param nowNanos current time
+     * @return the index of the topic
+     */
+    int add(long nowNanos) {
+        start(nowNanos);
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        final Entry entry = new Entry(size);
+        entries[size] = entry;
+        rateFactorSum += entry.rateFactor;
+        entry.deadline = nowNanos
+                + (long) (random.nextDouble() * gap(entry));
+        schedule(entry);
+        return size++;
+    }
+
+    /**
+     * Scale a topic's rate, e.g. to skew rates across topics. Takes effect
+     * from the topic's next publication.
+     *
+     * @param index the topic
+     * @param rateFactor multiplies the topic's rate, must be positive
+     */
+    void setRateFactor(int index, double rateFactor) {
+        final Entry entry = entries[index];
+        rateFactorSum += rateFactor - entry.rateFactor;
+        entry.rateFactor = rateFactor;
+    }
+
+    /**
+     * @return the sum of the topics' rate factors, the number of topics
+     *         unless rates are scaled
+     */
+    double rateFactorSum() {
+        return rateFactorSum;
+    }
+
+    /**
+     * Publish everything due by nowNanos.
+     *
+     * @param nowNanos current time
+     * @param publish false to move past due deadlines without publishing
+     * @param publication publishes to due topics
+     */
+    void advance(long nowNanos, boolean publish, Publication publication) {
+        start(nowNanos);
+        final long nowTick = tick(nowNanos);
+        // every slot is visited at most once per advance
+        final long lastTick = Math.min(nowTick, currentTick + mask);
+        Entry due = null;
+        for (long tick = currentTick; tick <= lastTick; tick++) {
+            final int slot = (int) tick & mask;
+            Entry previous = null;
+            Entry entry = slots[slot];
+            while (entry != null) {
+                final Entry next = entry.next;
+                if (tick(entry.deadline) <= nowTick) {
+                    if (previous == null) {
+                        slots[slot] = next;
+                    } else {
+                        previous.next = next;
+                    }
+                    entry.next = due;
+                    due = entry;
+                } else {
+                    previous = entry;
+                }
+                entry = next;
+            }
+        }
+        currentTick = nowTick + 1;
+        while (due != null) {
+            final Entry entry = due;
+            due = entry.next;
+            fire(entry, nowNanos, publish, publication);
+            schedule(entry);
+        }
+    }
+
+    private void start(long nowNanos) {
+        if (!started) {
+            started = true;
+            originNanos = nowNanos;
+            currentTick = 0L;
+        }
+    }
+
+    /**
+     * @param nanos a time no earlier than the origin
+     * @return the tick of the time
+     */
+    private long tick(long nanos) {
+        return (nanos - originNanos) / tickNanos;
+    }
+
+    private void fire(Entry entry, long nowNanos, boolean publish,
+            Publication publication) {
+        if (meanGapNanos == 0.0) {
+            // paused, check again next tick
+            entry.deadline = nowNanos + tickNanos;
+            return;
+        }
+        while (entry.deadline <= nowNanos) {
+            final long slip = nowNanos - entry.deadline;
+            if (slip > maxSlipNanos) {
+                dropped += (long) (slip * entry.rateFactor / meanGapNanos);
+                entry.deadline = nowNanos;
+                continue;
+            }
+            if (publish) {
+                publication.publish(entry.index);
+                slipHistogram.recordValue(slip);
+                published++;
+            }
+            entry.deadline += gap(entry);
+        }
+    }
+
+    private long gap(Entry entry) {
+        if (meanGapNanos == 0.0) {
+            return tickNanos;
+        }
+        final double meanGap = meanGapNanos / entry.rateFactor;
+        if (pacing == PublishPacing.POISSON) {
+            // exponentially distributed gaps, never 0 to guarantee progress
+            return Math.max(1L, (long) (-Math.log(1.0 - random.nextDouble())
+                    * meanGap));
+        }
+        return Math.max(1L, (long) meanGap);
+    }
+
+    private void schedule(Entry entry) {
+        final long tick = Math.max(tick(entry.deadline), currentTick);
+        final int slot = (int) tick & mask;
+        entry.next = slots[slot];
+        slots[slot] = entry;
+    }
+
+    /**
+     * @return the time of the next tick, when advance should next be called
+     */
+    long nextTickNanos() {
+        return originNanos + currentTick * tickNanos;
+    }
+
+    /**
+     * @return number of topics
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return publications made
+     */
+    long published() {
+        return published;
+    }
+
+    /**
+     * @return publications dropped by topics falling behind
+     */
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * @return slip of publications behind their deadlines in nanos, reset
+     *         by the caller
+     */
+    Histogram slipHistogram() {
+        return slipHistogram;
+    }
+
+    /**
+     * A topic's place in the wheel.
+     */
+    private static final class Entry {
+        // CHECKSTYLE:OFF
+        private final int index;
+        private long deadline;
+        private double rateFactor = 1.0;
+        private Entry next;
+        // CHECKSTYLE:ON
+
+        Entry(int indexP) {
+            index = indexP;
+        }
+    }
+}
@@ -15,17 +15,25 @@
  */
 package com.pushtechnology.benchmarks.publishers;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public final class PublisherAssembly {
-    private final AtomicLong messageCounter = new AtomicLong();
+    private static final Logger LOG =
+            LoggerFactory.getLogger(PublisherAssembly.class);
     private final AtomicLong topicsCounter = new AtomicLong();
     private final MessagePublisher messagePublisher;
     private final BroadcastConfiguration config;
 
-    private Thread injectionRunnerThread;
-    private BroadcastRunner injectionRunner;
+    /** a counter per runner, each written by its runner only. */
+    private AtomicLong[] messageCounters;
+    private Thread[] injectionRunnerThreads;
+    private BroadcastRunner[] injectionRunners;
     private Thread monitorThread;
+    private volatile boolean monitoring;
 
     public PublisherAssembly(final MessagePublisher messagePublisher,
             final BroadcastConfiguration config) {
@@ -39,25 +47,118 @@ public final class PublisherAssembly {
                     "Init should be called only once, found monitorThread");
         }
 
-        injectionRunner = new BroadcastRunner(messagePublisher, messageCounter,
-                topicsCounter, config);
-        injectionRunnerThread = new Thread(injectionRunner);
-        injectionRunnerThread.setName("injector-runner-thread");
-        injectionRunnerThread.setDaemon(true);
-        injectionRunnerThread.start();
+        final int runners = config.getRunnerThreads();
+        messageCounters = new AtomicLong[runners];
+        injectionRunners = new BroadcastRunner[runners];
+        injectionRunnerThreads = new Thread[runners];
+        for (int i = 0; i < runners; i++) {
+            messageCounters[i] = new PaddedCounter();
+            injectionRunners[i] = new BroadcastRunner(messagePublisher,
+                    messageCounters[i], topicsCounter, config, i, runners);
+            injectionRunnerThreads[i] = new Thread(injectionRunners[i]);
+            injectionRunnerThreads[i].setName(runners == 1
+                    ? "injector-runner-thread" : "injector-runner-thread-" + i);
+            injectionRunnerThreads[i].setDaemon(true);
+            injectionRunnerThreads[i].start();
+        }
+
+        monitoring = true;
+        monitorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                monitor();
+            }
+        });
+        monitorThread.setName("injector-monitor-thread");
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+    }
+
+    /**
+     * @return messages published by all runners so far
+     */
+    public long getMessageCount() {
+        long count = 0;
+        for (AtomicLong counter : messageCounters) {
+            count += counter.get();
+        }
+        return count;
+    }
+
+    /**
+     * Log the total publish rate of all runners, the publisher side broadcast
+     * ceiling once the runners stop coping.
+     */
+    private void monitor() {
+        final long reportMillis =
+                TimeUnit.NANOSECONDS.toMillis(BroadcastRunner.REPORT_INTERVAL_NANOS);
+        long lastCount = getMessageCount();
+        long lastNanos = System.nanoTime();
+        while (monitoring) {
+            try {
+                Thread.sleep(reportMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            final long count = getMessageCount();
+            final long nanos = System.nanoTime();
+            LOG.info(String.format("%d runners published %.0f msg/s to %d "
+                    + "topics", messageCounters.length, (count - lastCount)
+                    * 1000000000.0 / (nanos - lastNanos),
+                    topicsCounter.get()));
+            lastCount = count;
+            lastNanos = nanos;
+        }
+    }
+
+    /**
+     * Set every runner's message rate from its next interval on, see
+     * {@link BroadcastRunner#setMessagesPerIntervalPerTopic}.
+     *
+     * @param messagesPerInterval messages per topic per interval
+     */
+    public synchronized void setMessagesPerIntervalPerTopic(
+            int messagesPerInterval) {
+        if (injectionRunners == null) {
+            return;
+        }
+        for (BroadcastRunner injectionRunner : injectionRunners) {
+            injectionRunner.setMessagesPerIntervalPerTopic(
+                    messagesPerInterval);
+        }
+        LOG.info("publish rate set to " + messagesPerInterval
+                + " messages per topic per interval");
     }
 
     public synchronized void destroy() {
         if (monitorThread == null) {
             return;
         }
-        injectionRunner.halt();
-        injectionRunnerThread.interrupt();
-        try {
-            injectionRunnerThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        monitoring = false;
+        monitorThread.interrupt();
+        for (BroadcastRunner injectionRunner : injectionRunners) {
+            injectionRunner.halt();
+        }
+        for (Thread injectionRunnerThread : injectionRunnerThreads) {
+            injectionRunnerThread.interrupt();
+            try {
+                injectionRunnerThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
         }
-        injectionRunnerThread = null;
+        injectionRunnerThreads = null;
+        monitorThread = null;
+    }
+
+    /**
+     * A counter padded to a cache line of its own, so that runners counting
+     * side by side do not false share.
+     */
+    @SuppressWarnings("serial")
+    private static final class PaddedCounter extends AtomicLong {
+        // CHECKSTYLE:OFF
+        volatile long p0, p1, p2, p3, p4, p5, p6;
+        // CHECKSTYLE:ON
     }
 }
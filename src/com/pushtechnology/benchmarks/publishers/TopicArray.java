@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.publishers;
+
+import java.util.Arrays;
+
+import com.pushtechnology.diffusion.api.topic.Topic;
+
+/**
+ * An append only array of topics, grown by copying, which publishing threads
+ * index directly rather than iterating a queue.
+ * <P>
+ * Topics are added under the array's lock and published by a volatile write
+ * of the size, after the topic and any grown array are written. Readers read
+ * the size before the array, so every topic below the size they read is in
+ * the array they read.
+ */
+public final class TopicArray {
+    private static final int INITIAL_CAPACITY = 64;
+    private volatile Topic[] topics = new Topic[INITIAL_CAPACITY];
+    private volatile int size;
+
+    /**
+     * @param topic to append
+     */
+    public synchronized void add(Topic topic) {
+        Topic[] array = topics;
+        final int index = size;
+        if (index == array.length) {
+            array = Arrays.copyOf(array, index * 2);
+            topics = array;
+        }
+        array[index] = topic;
+        size = index + 1;
+    }
+
+    /**
+     * Read before {@link #array()}.
+     *
+     * @return number of topics
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the current array, holding at least the topics below any size
+     *         read before. Must not be modified.
+     */
+    public Topic[] array() {
+        return topics;
+    }
+
+    /**
+     * @param index below a size read before
+     * @return the topic
+     */
+    public Topic get(int index) {
+        return topics[index];
+    }
+
+    /**
+     * Remove all topics.
+     */
+    public synchronized void clear() {
+        topics = new Topic[INITIAL_CAPACITY];
+        size = 0;
+    }
+}
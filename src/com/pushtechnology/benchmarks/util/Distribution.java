@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A distribution of positive durations, parsed from a setting such as
+ * "exponential:30" (mean), "pareto:1.5,10" (shape, minimum) or
+ * "empirical:5,20,20,60,600" (observed values, interpolated between).
+ */
+public abstract class Distribution {
+    private static final String EXPONENTIAL = "exponential";
+    private static final String PARETO = "pareto";
+    private static final String EMPIRICAL = "empirical";
+
+    /**
+     * @param random source of randomness
+     * @return a value drawn from the distribution
+     */
+    public abstract double sample(Random random);
+
+    /**
+     * @param spec the distribution name, a ':' and its comma separated
+     *        parameters
+     * @return the distribution
+     * @throws IllegalArgumentException if the spec is not understood
+     */
+    public static Distribution parse(String spec) {
+        final int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("expected name:parameters, "
+                    + "not " + spec);
+        }
+        final String name = spec.substring(0, colon).trim();
+        final double[] params = parameters(spec, colon + 1);
+        if (EXPONENTIAL.equalsIgnoreCase(name) && params.length == 1) {
+            return new Exponential(params[0]);
+        } else if (PARETO.equalsIgnoreCase(name) && params.length == 2) {
+            return new Pareto(params[0], params[1]);
+        } else if (EMPIRICAL.equalsIgnoreCase(name) && params.length > 0) {
+            return new Empirical(params);
+        }
+        throw new IllegalArgumentException("expected exponential:mean, "
+                + "pareto:shape,minimum or empirical:values, not " + spec);
+    }
+
+    private static double[] parameters(String spec, int from) {
+        final String[] values = spec.substring(from).split(",");
+        final double[] params = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                params[i] = Double.parseDouble(values[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad parameter '"
+                        + values[i] + "' in " + spec);
+            }
+            if (!(params[i] > 0.0) || Double.isInfinite(params[i])) {
+                throw new IllegalArgumentException("parameters must be "
+                        + "positive, not " + values[i] + " in " + spec);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Memoryless, e.g. sessions ending at a steady rate.
+     */
+    private static final class Exponential extends Distribution {
+        private final double mean;
+
+        Exponential(double meanP) {
+            mean = meanP;
+        }
+
+        @Override
+        public double sample(Random random) {
+            return -mean * Math.log(1.0 - random.nextDouble());
+        }
+    }
+
+    /**
+     * Heavy tailed, most values near the minimum and a few very long.
+     */
+    private static final class Pareto extends Distribution {
+        private final double shape;
+        private final double minimum;
+
+        Pareto(double shapeP, double minimumP) {
+            shape = shapeP;
+            minimum = minimumP;
+        }
+
+        @Override
+        public double sample(Random random) {
+            return minimum / Math.pow(1.0 - random.nextDouble(), 1.0 / shape);
+        }
+    }
+
+    /**
+     * Follows observed values, interpolating between them.
+     */
+    private static final class Empirical extends Distribution {
+        private final double[] values;
+
+        Empirical(double[] valuesP) {
+            values = valuesP.clone();
+            Arrays.sort(values);
+        }
+
+        @Override
+        public double sample(Random random) {
+            final double x = random.nextDouble() * (values.length - 1);
+            final int i = (int) x;
+            if (i + 1 >= values.length) {
+                return values[i];
+            }
+            return values[i] + (x - i) * (values[i + 1] - values[i]);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads a trace written by {@link TraceWriter}, memory mapping it a window
+ * at a time so traces may be larger than a mapped buffer. Not thread safe,
+ * each reader has its own position.
+ */
+public final class TraceReader implements Closeable {
+    // CHECKSTYLE:OFF
+    /** records mapped at a time, 64MB. */
+    private static final long WINDOW_RECORDS = 4L * 1024 * 1024;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long recordCount;
+    private final int topicCount;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long windowEnd;
+    private long index = -1L;
+    private int offset;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param file a trace
+     * @throws IOException if the file can not be read or is not a trace
+     */
+    public TraceReader(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        try {
+            channel = raf.getChannel();
+            final ByteBuffer header =
+                    ByteBuffer.allocate(TraceWriter.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated trace header: " + file);
+                }
+            }
+            if (header.getLong(0) != TraceWriter.MAGIC) {
+                throw new IOException("Not a trace: " + file);
+            }
+            if (header.getInt(TraceWriter.VERSION_OFFSET)
+                    != TraceWriter.VERSION
+                    || header.getInt(TraceWriter.RECORD_SIZE_OFFSET)
+                    != TraceWriter.RECORD_SIZE) {
+                throw new IOException("Unsupported trace version: " + file);
+            }
+            final long count =
+                    header.getLong(TraceWriter.RECORD_COUNT_OFFSET);
+            if (count == 0L) {
+                // not closed, read every complete record
+                recordCount = (channel.size() - TraceWriter.HEADER_SIZE)
+                        / TraceWriter.RECORD_SIZE;
+                topicCount = scanTopicCount();
+            } else {
+                recordCount = count;
+                topicCount = header.getInt(TraceWriter.TOPIC_COUNT_OFFSET);
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private int scanTopicCount() throws IOException {
+        int maxId = -1;
+        while (next()) {
+            maxId = Math.max(maxId, topicId());
+        }
+        rewind();
+        return maxId + 1;
+    }
+
+    /**
+     * Move to the next update.
+     *
+     * @return false at the end of the trace
+     * @throws IOException on failure to map the trace
+     */
+    public boolean next() throws IOException {
+        if (index + 1 >= recordCount) {
+            index = recordCount;
+            return false;
+        }
+        index++;
+        if (index >= windowEnd) {
+            windowStart = index;
+            windowEnd = Math.min(recordCount, index + WINDOW_RECORDS);
+            window = channel.map(MapMode.READ_ONLY, TraceWriter.HEADER_SIZE
+                    + windowStart * TraceWriter.RECORD_SIZE,
+                    (windowEnd - windowStart) * TraceWriter.RECORD_SIZE);
+        }
+        offset = (int) (index - windowStart) * TraceWriter.RECORD_SIZE;
+        return true;
+    }
+
+    /**
+     * Move back to before the first update.
+     */
+    public void rewind() {
+        index = -1L;
+        if (windowStart != 0L) {
+            window = null;
+            windowStart = 0L;
+            windowEnd = 0L;
+        }
+    }
+
+    /**
+     * @return topic id of the current update
+     */
+    public int topicId() {
+        return window.getInt(offset);
+    }
+
+    /**
+     * @return size of the current update
+     */
+    public int size() {
+        return window.getInt(offset + 4);
+    }
+
+    /**
+     * @return time of the current update relative to the first
+     */
+    public long timeNanos() {
+        return window.getLong(offset + 8);
+    }
+
+    /**
+     * @return number of updates in the trace
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return number of topics in the trace, ids are below this
+     */
+    public int getTopicCount() {
+        return topicCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        raf.close();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a trace of topic updates, for replay by the broadcast publisher.
+ * <P>
+ * A trace is a 32 byte header followed by fixed size records, all big
+ * endian:
+ * 
+ * <pre>
+ * header: magic(8) version(4) recordSize(4) recordCount(8) topicCount(4) pad(4)
+ * record: topicId(4) size(4) timeNanos(8)
+ * </pre>
+ * 
+ * Topic ids are numbered from 0 in the order topics are first seen, their
+ * names are written a line per id to a .topics file next to the trace. Times
+ * are relative to the first update. The counts are written on close, a
+ * trace that was not closed has a 0 record count and is read to its end.
+ */
+public final class TraceWriter implements Closeable {
+    // CHECKSTYLE:OFF
+    public static final long MAGIC = 0x4442545241434531L;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 16;
+    static final int VERSION_OFFSET = 8;
+    static final int RECORD_SIZE_OFFSET = 12;
+    static final int RECORD_COUNT_OFFSET = 16;
+    static final int TOPIC_COUNT_OFFSET = 24;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<String, Integer> topicIds =
+            new LinkedHashMap<String, Integer>();
+    private long startNanos;
+    private long records;
+    private boolean isClosed;
+    // CHECKSTYLE:ON
+
+    /**
+     * @param fileP the trace file, replaced if it exists
+     * @throws IOException if the file can not be created
+     */
+    public TraceWriter(File fileP) throws IOException {
+        this.file = fileP;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0L);
+        channel = raf.getChannel();
+        buffer.putLong(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(RECORD_SIZE);
+        buffer.putLong(0L);
+        buffer.putInt(0);
+        buffer.putInt(0);
+    }
+
+    /**
+     * @param trace a trace file
+     * @return the file naming its topics
+     */
+    public static File topicsFile(File trace) {
+        return new File(trace.getPath() + ".topics");
+    }
+
+    /**
+     * @param topic the updated topic
+     * @param timeNanos System.nanoTime() of the update
+     * @param size update size in bytes
+     * @throws IOException on failure to write
+     */
+    public synchronized void append(String topic, long timeNanos, int size)
+            throws IOException {
+        if (isClosed) {
+            return;
+        }
+        Integer id = topicIds.get(topic);
+        if (id == null) {
+            id = topicIds.size();
+            topicIds.put(topic, id);
+        }
+        if (records == 0) {
+            startNanos = timeNanos;
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putInt(id);
+        buffer.putInt(size);
+        buffer.putLong(timeNanos - startNanos);
+        records++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return updates written so far
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return the trace file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            flush();
+            final ByteBuffer counts = ByteBuffer.allocate(12);
+            counts.putLong(records);
+            counts.putInt(topicIds.size());
+            counts.flip();
+            channel.write(counts, RECORD_COUNT_OFFSET);
+        } finally {
+            raf.close();
+        }
+        final PrintStream names = new PrintStream(topicsFile(file), "UTF-8");
+        try {
+            for (String topic : topicIds.keySet()) {
+                names.println(topic);
+            }
+        } finally {
+            names.close();
+        }
+    }
+}
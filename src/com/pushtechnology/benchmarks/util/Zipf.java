@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Push Technology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.pushtechnology.benchmarks.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Zipf distributed popularity over n ranked items, item i having weight
+ * 1/(i+1)^exponent. An exponent of 0 makes all items equally popular, around
+ * 1 a few items take most of the weight.
+ */
+public final class Zipf {
+
+    /**
+     * no instances wanted...
+     */
+    private Zipf() {
+    }
+
+    /**
+     * @param n number of items
+     * @param exponent skew
+     * @return each item's share of the total weight times n, so an unskewed
+     *         item has a factor of 1
+     */
+    public static double[] rateFactors(int n, double exponent) {
+        final double[] factors = new double[n];
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            factors[i] = weight(i, exponent);
+            sum += factors[i];
+        }
+        for (int i = 0; i < n; i++) {
+            factors[i] = factors[i] * n / sum;
+        }
+        return factors;
+    }
+
+    private static double weight(int i, double exponent) {
+        return exponent == 0.0 ? 1.0 : Math.pow(i + 1, -exponent);
+    }
+
+    /**
+     * Weighted sampling without replacement, each item drawn with a random
+     * key of weight scaled exponential and the items with the smallest keys
+     * taken (Efraimidis and Spirakis).
+     *
+     * @param n number of items
+     * @param k number of distinct items wanted, at most n
+     * @param exponent skew
+     * @param random source of randomness
+     * @return min(k, n) distinct items, ascending
+     */
+    public static int[] sample(int n, int k, double exponent, Random random) {
+        final int count = Math.min(k, n);
+        final double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = -Math.log(1.0 - random.nextDouble())
+                    / weight(i, exponent);
+        }
+        final double[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        final int[] items = new int[count];
+        if (count == 0) {
+            return items;
+        }
+        final double threshold = sorted[count - 1];
+        int taken = 0;
+        for (int i = 0; i < n && taken < count; i++) {
+            if (keys[i] <= threshold) {
+                items[taken++] = i;
+            }
+        }
+        return items;
+    }
+}
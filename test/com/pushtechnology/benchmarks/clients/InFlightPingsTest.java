@@ -0,0 +1,61 @@
+package com.pushtechnology.benchmarks.clients;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InFlightPingsTest {
+
+    @Test
+    public void test() {
+        InFlightPings pings = new InFlightPings(4);
+        assertEquals(0, pings.send(100));
+        assertEquals(1, pings.send(200));
+        assertEquals(2, pings.inFlight());
+        assertEquals(100, pings.echo(0));
+        assertEquals(200, pings.echo(1));
+        assertEquals(0, pings.inFlight());
+        assertEquals(0, pings.overrun());
+        assertEquals(0, pings.reordered());
+        assertEquals(0, pings.unmatched());
+    }
+
+    @Test
+    public void testReordered() {
+        InFlightPings pings = new InFlightPings(4);
+        pings.send(100);
+        pings.send(200);
+        assertEquals(200, pings.echo(1));
+        assertEquals(100, pings.echo(0));
+        assertEquals(1, pings.reordered());
+    }
+
+    @Test
+    public void testOverrunAndLateEcho() {
+        InFlightPings pings = new InFlightPings(2);
+        pings.send(100);
+        pings.send(200);
+        // reuses the slot of sequence 0 which was never echoed
+        assertEquals(2, pings.send(300));
+        assertEquals(1, pings.overrun());
+        assertEquals(2, pings.inFlight());
+        assertEquals(InFlightPings.NOT_IN_FLIGHT, pings.echo(0));
+        assertEquals(1, pings.unmatched());
+        assertEquals(300, pings.echo(2));
+    }
+
+    @Test
+    public void testDuplicateEcho() {
+        InFlightPings pings = new InFlightPings(2);
+        pings.send(100);
+        assertEquals(100, pings.echo(0));
+        assertEquals(InFlightPings.NOT_IN_FLIGHT, pings.echo(0));
+        assertEquals(1, pings.unmatched());
+        assertEquals(0, pings.inFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePowerOf2() {
+        new InFlightPings(3);
+    }
+}
@@ -0,0 +1,261 @@
+package com.pushtechnology.benchmarks.clients;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.APIException;
+import com.pushtechnology.diffusion.api.Credentials;
+import com.pushtechnology.diffusion.api.ServerConnection;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+import com.pushtechnology.diffusion.api.topic.TopicStatus;
+
+public class NioClientEngineTest {
+    private final ExperimentCounters counters =
+            new ExperimentCounters(new CommonExperimentSettings(
+                    new Properties()));
+
+    @Test(timeout = 30000)
+    public void testConnectReceiveAndSend() throws Exception {
+        FakeServer server = new FakeServer(DptProtocol.CONNECTED);
+        // a read buffer smaller than a message, so messages are split
+        NioClientEngine engine = new NioClientEngine(counters, 1, 16);
+        try {
+            RecordingClient client = new RecordingClient();
+            ServerConnection connection =
+                    engine.newConnection(client, server.address(), null);
+            connection.connect("A", "B");
+            assertTrue(connection.isConnected());
+            assertTrue(client.isConnected);
+            assertEquals("client-1", connection.getClientID());
+            Socket socket = server.socket();
+            assertEquals("A,B", server.topics);
+
+            OutputStream out = socket.getOutputStream();
+            // echoed before the delta is delivered
+            out.write(toBytes(DptProtocol.message(DptProtocol.PING_CLIENT,
+                    4, "", null, new byte[0], 0)));
+            out.write(toBytes(DptProtocol.message(DptProtocol.DELTA, 4,
+                    "ROOT/P", new String[] {"h1", "h2"},
+                    "payload".getBytes("UTF-8"), 7)));
+            out.flush();
+            assertTrue(client.message.await(10, TimeUnit.SECONDS));
+            assertEquals("ROOT/P", client.topic);
+            assertTrue(client.isDelta);
+            assertEquals(7, client.size);
+            assertEquals("h2", client.header);
+            assertEquals("payload", client.data);
+
+            TopicMessage ping = connection.createDeltaMessage("ROOT/P", 2);
+            ping.setHeaders("x");
+            ping.put(new byte[] {1, 2, 3, 4});
+            connection.send(ping);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(DptProtocol.PING_CLIENT, readMessage(in)[0]);
+            byte[] expected = toBytes(DptProtocol.message(DptProtocol.DELTA,
+                    4, "ROOT/P", new String[] {"x"}, new byte[] {1, 2, 3, 4},
+                    4));
+            assertEquals(Arrays.toString(
+                    Arrays.copyOfRange(expected, 4, expected.length)),
+                    Arrays.toString(readMessage(in)));
+
+            socket.close();
+            assertTrue(client.disconnected.await(10, TimeUnit.SECONDS));
+            assertFalse(connection.isConnected());
+        } finally {
+            engine.close();
+            server.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCountsDecodedMessages() throws Exception {
+        FakeServer server = new FakeServer(DptProtocol.CONNECTED);
+        NioClientEngine engine = new NioClientEngine(counters, 1, 1024);
+        try {
+            MessageCountingClient client = new MessageCountingClient(
+                    counters, false, new CommonExperimentSettings(
+                            new Properties()), "ROOT");
+            ServerConnection connection =
+                    engine.newConnection(client, server.address(), null);
+            connection.connect("ROOT");
+            OutputStream out = server.socket().getOutputStream();
+            // larger than the boxed Integer cache
+            byte[] data = new byte[200];
+            out.write(toBytes(DptProtocol.message(DptProtocol.DELTA, 4,
+                    "ROOT", null, data, data.length)));
+            out.flush();
+            while (counters.getMessageCounter() == 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, counters.getMessageCounter());
+            assertEquals(200, counters.getBytesCounter());
+            counters.getFirstMessageLatency().endInterval();
+            assertEquals(1, counters.getFirstMessageLatency()
+                    .getAccumulatedHistogram().getTotalCount());
+        } finally {
+            engine.close();
+            server.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRefused() throws Exception {
+        FakeServer server = new FakeServer((byte) 101);
+        NioClientEngine engine = new NioClientEngine(counters, 1, 1024);
+        try {
+            RecordingClient client = new RecordingClient();
+            ServerConnection connection =
+                    engine.newConnection(client, server.address(), null);
+            try {
+                connection.connect();
+                fail();
+            } catch (APIException expected) {
+            }
+            assertFalse(connection.isConnected());
+            assertFalse(client.isConnected);
+        } finally {
+            engine.close();
+            server.close();
+        }
+    }
+
+    private static byte[] readMessage(DataInputStream in) throws IOException {
+        byte[] message = new byte[in.readInt() - 4];
+        in.readFully(message);
+        return message;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Answers a single connection request with the given response code.
+     */
+    private static final class FakeServer extends Thread {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final CountDownLatch accepted = new CountDownLatch(1);
+        private final byte response;
+        private volatile Socket socket;
+        private volatile String topics;
+
+        FakeServer(byte responseP) throws IOException {
+            this.response = responseP;
+            setDaemon(true);
+            start();
+        }
+
+        InetSocketAddress address() {
+            return new InetSocketAddress("localhost",
+                    serverSocket.getLocalPort());
+        }
+
+        Socket socket() throws InterruptedException {
+            accepted.await();
+            return socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket s = serverSocket.accept();
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                byte[] header = new byte[DptProtocol.REQUEST_HEADER_SIZE];
+                in.readFully(header);
+                assertEquals(DptProtocol.MAGIC, header[0]);
+                assertEquals(DptProtocol.VERSION, header[1]);
+                StringBuilder request = new StringBuilder();
+                byte b;
+                while ((b = in.readByte()) != DptProtocol.TERMINATOR) {
+                    request.append((char) b);
+                }
+                topics = request.toString();
+                OutputStream out = s.getOutputStream();
+                out.write(new byte[] {DptProtocol.VERSION, response, 4});
+                out.write("client-1".getBytes("UTF-8"));
+                out.write(DptProtocol.TERMINATOR);
+                out.flush();
+                socket = s;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                accepted.countDown();
+            }
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    private static final class RecordingClient implements ExperimentClient {
+        private final CountDownLatch message = new CountDownLatch(1);
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+        private volatile boolean isConnected;
+        private volatile String topic;
+        private volatile boolean isDelta;
+        private volatile int size;
+        private volatile String header;
+        private volatile String data;
+
+        @Override
+        public void serverConnected(ServerConnection c) {
+            isConnected = true;
+        }
+
+        @Override
+        public void messageFromServer(ServerConnection c, TopicMessage m) {
+            try {
+                topic = m.getTopicName();
+                isDelta = m.isDelta();
+                size = m.size();
+                header = m.getHeader(1);
+                data = new String(m.asBytes(), "UTF-8");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            message.countDown();
+        }
+
+        @Override
+        public void serverTopicStatusChanged(ServerConnection c, String s,
+                TopicStatus st) {
+        }
+
+        @Override
+        public void serverRejectedCredentials(ServerConnection c,
+                Credentials cr) {
+        }
+
+        @Override
+        public void serverDisconnected(ServerConnection c) {
+            disconnected.countDown();
+        }
+
+        @Override
+        public String[] getInitialTopics() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.pushtechnology.benchmarks.clients;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.ServerConnection;
+
+/**
+ * Checks the nio engine's DPT framing against a live Diffusion server, the
+ * handshake constants by connecting and the message framing by counting
+ * messages of a publishing topic. Only runs when -Ddpt.live.url is set, e.g.
+ * dpt://localhost:8080, with -Ddpt.live.topic naming a topic the server
+ * publishes to (default ROOT).
+ */
+public class NioDptLiveServerTest {
+
+    @Test(timeout = 60000)
+    public void testConnectAndCountMessages() throws Exception {
+        String url = System.getProperty("dpt.live.url");
+        if (url == null) {
+            return;
+        }
+        String topic = System.getProperty("dpt.live.topic", "ROOT");
+        URI uri = new URI(url);
+        Properties properties = new Properties();
+        properties.setProperty("warmup.messages", "0");
+        CommonExperimentSettings settings =
+                new CommonExperimentSettings(properties);
+        ExperimentCounters counters = new ExperimentCounters(settings);
+        NioClientEngine engine = new NioClientEngine(counters, 1, 64 * 1024);
+        try {
+            MessageCountingClient client = new MessageCountingClient(
+                    counters, false, settings, topic);
+            ServerConnection connection = engine.newConnection(client,
+                    new InetSocketAddress(uri.getHost(), uri.getPort()),
+                    null);
+            connection.connect(topic);
+            assertTrue(connection.isConnected());
+            assertNotNull(connection.getClientID());
+            long deadline = System.currentTimeMillis() + 30000L;
+            while (counters.getMessageCounter() < 10
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("messages " + counters.getMessageCounter(),
+                    counters.getMessageCounter() >= 10);
+            assertTrue(connection.isConnected());
+            assertEquals(0, counters.getClientDisconnectCounter());
+            // a misread length prefix loses step and the server or the
+            // engine drops the connection, or the data sizes come out 0
+            assertTrue(counters.getBytesCounter() > 0);
+            connection.close();
+        } finally {
+            engine.close();
+        }
+    }
+}
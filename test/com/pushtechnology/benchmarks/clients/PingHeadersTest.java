@@ -0,0 +1,27 @@
+package com.pushtechnology.benchmarks.clients;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PingHeadersTest {
+
+    @Test
+    public void test() {
+        assertEquals(0, PingHeaders.valueOf("currentQueueSize:0"));
+        assertEquals(1234, PingHeaders.valueOf("largestQueueSize:1234"));
+        assertEquals(-1, PingHeaders.valueOf("maximumQueueSize:-1"));
+        assertEquals(Integer.MAX_VALUE,
+                PingHeaders.valueOf("q:" + Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertEquals(PingHeaders.NO_VALUE, PingHeaders.valueOf(null));
+        assertEquals(PingHeaders.NO_VALUE, PingHeaders.valueOf("noValue"));
+        assertEquals(PingHeaders.NO_VALUE, PingHeaders.valueOf("empty:"));
+        assertEquals(PingHeaders.NO_VALUE, PingHeaders.valueOf("minus:-"));
+        assertEquals(PingHeaders.NO_VALUE, PingHeaders.valueOf("q:12a"));
+        assertEquals(PingHeaders.NO_VALUE, PingHeaders.valueOf("q:9999999999"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.pushtechnology.benchmarks.clients;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.pushtechnology.benchmarks.experiments.CommonExperimentSettings;
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+import com.pushtechnology.diffusion.api.message.TopicMessage;
+
+public class SubscriptionTimerTest {
+
+    @Test
+    public void testMatches() {
+        assertTrue(SubscriptionTimer.matches("ROOT/1", "ROOT/1"));
+        assertFalse(SubscriptionTimer.matches("ROOT/1", "ROOT/10"));
+        assertTrue(SubscriptionTimer.matches("ROOT//", "ROOT"));
+        assertTrue(SubscriptionTimer.matches("ROOT//", "ROOT/1/2"));
+        assertFalse(SubscriptionTimer.matches("ROOT//", "ROOTS/1"));
+        assertFalse(SubscriptionTimer.matches("ROOT//", "RO"));
+    }
+
+    @Test
+    public void testConnectAndFirstMessage() {
+        ExperimentCounters counters =
+                new ExperimentCounters(
+                        new CommonExperimentSettings(new Properties()));
+        SubscriptionTimer timer = new SubscriptionTimer(counters);
+        timer.connecting();
+        timer.connected(new String[] {"ROOT//"});
+        timer.subscribing("OTHER/1");
+        timer.message(message("ROOT/1"));
+        // only the first message of a subscription is timed
+        timer.message(message("ROOT/2"));
+        timer.message(message("OTHER/1"));
+        timer.message(message("OTHER/1"));
+        // the connection is gone before the first message
+        timer.subscribing("OTHER/2");
+        timer.disconnected();
+        timer.message(message("OTHER/2"));
+
+        assertEquals(1L, counters.getConnectLatency()
+                .getAccumulatedHistogram().getTotalCount());
+        assertEquals(2L, counters.getFirstMessageLatency()
+                .getAccumulatedHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testUnsubscribeForgetsTopic() throws InterruptedException {
+        ExperimentCounters counters =
+                new ExperimentCounters(
+                        new CommonExperimentSettings(new Properties()));
+        SubscriptionTimer timer = new SubscriptionTimer(counters);
+        timer.subscribing("OTHER/1", "ROOT//");
+        timer.unsubscribing("OTHER/1", "ROOT//");
+        timer.message(message("ROOT/1"));
+        assertEquals(0L, counters.getFirstMessageLatency()
+                .getAccumulatedHistogram().getTotalCount());
+
+        Thread.sleep(50L);
+        // timed from the second subscribe, not the first
+        timer.subscribing("OTHER/1");
+        timer.message(message("OTHER/1"));
+        assertEquals(1L, counters.getFirstMessageLatency()
+                .getAccumulatedHistogram().getTotalCount());
+        assertTrue(counters.getFirstMessageLatency()
+                .getAccumulatedHistogram().getMaxValue() < 50000000L);
+    }
+
+    private static TopicMessage message(String topic) {
+        return NioTopicMessage.outbound(DptProtocol.DELTA, topic, 0).proxy();
+    }
+}
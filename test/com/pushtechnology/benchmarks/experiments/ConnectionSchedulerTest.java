@@ -0,0 +1,72 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+
+public class ConnectionSchedulerTest {
+
+    @Test(timeout = 30000)
+    public void testConnects() throws Exception {
+        CommonExperimentSettings settings = settings("0", "10");
+        ExperimentCounters counters = new ExperimentCounters(settings);
+        ConnectionScheduler scheduler =
+                new ConnectionScheduler(settings, counters);
+        final CountDownLatch connected = new CountDownLatch(5);
+        Runnable connect = new Runnable() {
+            @Override
+            public void run() {
+                connected.countDown();
+            }
+        };
+        for (int i = 0; i < 5; i++) {
+            assertTrue(scheduler.request(connect));
+        }
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        assertEquals(0, counters.getConnectShedCounter());
+    }
+
+    @Test
+    public void testShedWhenQueueIsFull() {
+        // a token every 1000 seconds, so at most one connect starts
+        CommonExperimentSettings settings = settings("0.001", "1");
+        ExperimentCounters counters = new ExperimentCounters(settings);
+        ConnectionScheduler scheduler =
+                new ConnectionScheduler(settings, counters);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable connect = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            scheduler.request(connect);
+        }
+        // one connecting, one waiting for a token and one queued at most
+        assertTrue(counters.getConnectShedCounter() >= 1);
+        assertEquals(4, scheduler.pending() + counters.getConnectShedCounter());
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    private static CommonExperimentSettings settings(String rate,
+            String queue) {
+        Properties properties = new Properties();
+        properties.setProperty("client.connect.rate", rate);
+        properties.setProperty("client.connect.queue", queue);
+        properties.setProperty("client.connect.concurrency", "1");
+        return new CommonExperimentSettings(properties);
+    }
+}
@@ -0,0 +1,118 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.pushtechnology.benchmarks.monitoring.ExperimentCounters;
+
+public class DistributedExperimentTest {
+
+    @Test
+    public void testShare() {
+        int[] shares = new int[3];
+        int total = 0;
+        for (int node = 0; node < 3; node++) {
+            Properties properties = new Properties();
+            properties.setProperty("distributed.nodes", "3");
+            properties.setProperty("distributed.node", String.valueOf(node));
+            properties.setProperty("max.clients", "10");
+            CommonExperimentSettings settings =
+                    new CommonExperimentSettings(properties);
+            shares[node] = settings.getMaxClients();
+            total += shares[node];
+        }
+        assertEquals(4, shares[0]);
+        assertEquals(3, shares[2]);
+        assertEquals(10, total);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeOutOfRange() {
+        Properties properties = new Properties();
+        properties.setProperty("distributed.nodes", "2");
+        properties.setProperty("distributed.node", "2");
+        new CommonExperimentSettings(properties);
+    }
+
+    @Test(timeout = 30000)
+    public void testAgentReportsToCoordinator() throws Exception {
+        String coordinator = "localhost:" + freePort();
+        CommonExperimentSettings coordinatorSettings =
+                settings(0, coordinator);
+        final ExperimentCounters coordinatorCounters =
+                new ExperimentCounters(coordinatorSettings);
+        final ExperimentCoordinator coordinatorNode =
+                new ExperimentCoordinator(coordinatorSettings,
+                        coordinatorCounters);
+        final Exception[] failure = new Exception[1];
+        Thread barrier = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    coordinatorNode.awaitAgents();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        barrier.start();
+
+        CommonExperimentSettings agentSettings = settings(1, coordinator);
+        ExperimentCounters agentCounters =
+                new ExperimentCounters(agentSettings);
+        ExperimentAgent agent =
+                new ExperimentAgent(agentSettings, agentCounters);
+        agent.awaitStart();
+        barrier.join();
+        assertNull(failure[0]);
+
+        agentCounters.incClientConnectCounter();
+        agentCounters.incClientConnectCounter();
+        agentCounters.incClientDisconnectCounter();
+        agentCounters.incMessageCounter();
+        agentCounters.warmupComplete();
+        agentCounters.recordLatencyValue(1000L);
+        agentCounters.getIntervalHistogram();
+        agentCounters.getConnectLatency().record(2000L);
+        agentCounters.getConnectLatency().record(3000L);
+        agentCounters.getConnectLatency().endInterval();
+        agentCounters.getFirstMessageLatency().record(4000L);
+        agentCounters.getFirstMessageLatency().endInterval();
+        agent.close();
+        coordinatorNode.awaitAgentsDone();
+
+        assertEquals(1, coordinatorCounters.getTotalCurrentlyConnected());
+        assertEquals(1, coordinatorCounters.getTotalClientDisconnectCounter());
+        assertEquals(1, coordinatorCounters.getTotalMessageCounter());
+        assertEquals(0, coordinatorCounters.getMessageCounter());
+        assertEquals(1, coordinatorCounters.getIntervalHistogram()
+                .getHistogram().getTotalCount());
+        assertEquals(2, coordinatorCounters.getConnectLatency()
+                .getAccumulatedHistogram().getTotalCount());
+        assertEquals(1, coordinatorCounters.getFirstMessageLatency()
+                .getAccumulatedHistogram().getTotalCount());
+    }
+
+    private static CommonExperimentSettings settings(int node,
+            String coordinator) {
+        Properties properties = new Properties();
+        properties.setProperty("distributed.nodes", "2");
+        properties.setProperty("distributed.node", String.valueOf(node));
+        properties.setProperty("distributed.coordinator", coordinator);
+        return new CommonExperimentSettings(properties);
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LoadProfileTest {
+
+    @Test
+    public void testPhases() {
+        LoadProfile profile = LoadProfile.parse("warmup:ramp:100:10; "
+                + "soak:hold:100:20;storm:spike:300:5;outage:drop::5;"
+                + "wave:sine:100-200:20:10", 0);
+        assertEquals(5, profile.size());
+        assertArrayEquals(new String[] {"warmup", "soak", "storm", "outage",
+                "wave"}, profile.getPhaseNames());
+        assertEquals(60000L, profile.getDurationMs());
+
+        assertEquals(0, profile.phaseAt(0L));
+        assertEquals(0, profile.targetClients(0L));
+        assertEquals(50, profile.targetClients(5000L));
+        assertEquals(1, profile.phaseAt(10000L));
+        assertEquals(100, profile.targetClients(10000L));
+        assertEquals(2, profile.phaseAt(30000L));
+        assertEquals(300, profile.targetClients(34999L));
+        assertEquals(3, profile.phaseAt(35000L));
+        assertEquals(0, profile.targetClients(39999L));
+        assertEquals(4, profile.phaseAt(40000L));
+        assertEquals(100, profile.targetClients(40000L));
+        assertEquals(200, profile.targetClients(45000L));
+        assertEquals(100, profile.targetClients(50000L));
+        assertEquals(-1, profile.phaseAt(60000L));
+    }
+
+    @Test
+    public void testSpikeReturnsToPreviousClients() {
+        LoadProfile profile = LoadProfile.parse(
+                "spike:spike:500:1;back:ramp:100:10", 50);
+        assertEquals(500, profile.targetClients(0L));
+        // ramps from the clients before the spike
+        assertEquals(50, profile.targetClients(1000L));
+        assertEquals(75, profile.targetClients(6000L));
+    }
+
+    @Test
+    public void testRate() {
+        LoadProfile profile = LoadProfile.parse("a:hold:10:10:rate=5;"
+                + "b:sine:10-20:10:5:rate=0;c:ramp:20:10", 0);
+        assertEquals(5, profile.rateOf(0));
+        assertEquals(0, profile.rateOf(1));
+        assertEquals(LoadProfile.NO_RATE, profile.rateOf(2));
+        // the period is still read before the rate
+        assertEquals(20, profile.targetClients(12500L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadRate() {
+        LoadProfile.parse("a:hold:10:10:rate=-1", 0);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, LoadProfile.parse("", 10).size());
+        assertEquals(0, LoadProfile.parse(null, 10).getPhaseNames().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadType() {
+        LoadProfile.parse("a:wobble:10:10", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadSine() {
+        LoadProfile.parse("a:sine:10:10", 0);
+    }
+}
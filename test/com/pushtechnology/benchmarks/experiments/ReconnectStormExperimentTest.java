@@ -0,0 +1,62 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReconnectStormExperimentTest {
+    private static final long NOT_YET = ReconnectStormExperiment.NOT_YET;
+
+    @Test
+    public void testTimeToPercent() {
+        long[] times = ReconnectStormExperiment.finished(
+                new long[] {40, NOT_YET, 10, 30, 20});
+        assertArrayEquals(new long[] {10, 20, 30, 40}, times);
+        assertEquals(20L, ReconnectStormExperiment.timeToPercent(times, 5,
+                40.0));
+        assertEquals(40L, ReconnectStormExperiment.timeToPercent(times, 5,
+                80.0));
+        // one client never came back
+        assertEquals(NOT_YET, ReconnectStormExperiment.timeToPercent(times,
+                5, 100.0));
+    }
+
+    @Test
+    public void testPeakCount() {
+        assertEquals(0, ReconnectStormExperiment.peakCount(new long[0], 10));
+        assertEquals(3, ReconnectStormExperiment.peakCount(
+                new long[] {0, 5, 9, 10, 30}, 10));
+        assertEquals(1, ReconnectStormExperiment.peakCount(
+                new long[] {0, 10, 20}, 10));
+    }
+
+    @Test
+    public void testBackoff() {
+        Random random = new Random(1);
+        assertEquals(0L, ReconnectStormExperiment.backoffMs(5, 0, 1000,
+                random));
+        for (int attempt = 0; attempt < 64; attempt++) {
+            long cap = Math.min(1000L, 10L << Math.min(attempt, 30));
+            long delay = ReconnectStormExperiment.backoffMs(attempt, 10,
+                    1000, random);
+            assertTrue(delay >= 0L && delay < cap);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFractionOutOfRange() {
+        Properties properties = new Properties();
+        properties.setProperty("storm.fraction", "1.5");
+        new ReconnectStormExperiment.Settings(properties);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadRecoveryPercent() {
+        Properties properties = new Properties();
+        properties.setProperty("storm.recovery.percents", "50,x");
+        new ReconnectStormExperiment.Settings(properties);
+    }
+}
@@ -0,0 +1,51 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SaturationSearchTest {
+
+    /**
+     * Run the search against a server serving up to knee clients.
+     */
+    private static SaturationSearch search(int knee, int max,
+            int resolution) {
+        SaturationSearch search = new SaturationSearch(10, 10, max,
+                resolution);
+        int steps = 0;
+        while (!search.isDone()) {
+            search.record(search.getTarget() <= knee);
+            assertTrue(++steps < 100);
+        }
+        return search;
+    }
+
+    @Test
+    public void testFindsKnee() {
+        SaturationSearch search = search(537, 10000, 5);
+        assertTrue(search.isSaturated());
+        assertTrue("knee " + search.getKnee(),
+                search.getKnee() <= 537 && search.getKnee() > 532);
+    }
+
+    @Test
+    public void testServedUpToMax() {
+        SaturationSearch search = search(10000, 300, 5);
+        assertFalse(search.isSaturated());
+        assertEquals(300, search.getKnee());
+    }
+
+    @Test
+    public void testNothingServed() {
+        SaturationSearch search = search(0, 300, 1);
+        assertTrue(search.isSaturated());
+        assertEquals(SaturationSearch.NONE, search.getKnee());
+    }
+
+    @Test
+    public void testBelowInitial() {
+        SaturationSearch search = search(3, 300, 1);
+        assertEquals(3, search.getKnee());
+    }
+}
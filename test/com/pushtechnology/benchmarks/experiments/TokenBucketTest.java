@@ -0,0 +1,40 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testExactRate() {
+        TokenBucket bucket = new TokenBucket(10.0, 1);
+        assertEquals(0L, bucket.reserve(0L));
+        assertEquals(100 * MS, bucket.reserve(0L));
+        assertEquals(200 * MS, bucket.reserve(0L));
+        assertEquals(50 * MS, bucket.reserve(250 * MS));
+        // idle time does not build up beyond the burst
+        assertEquals(0L, bucket.reserve(10000 * MS));
+        assertEquals(100 * MS, bucket.reserve(10000 * MS));
+    }
+
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket(10.0, 3);
+        assertEquals(0L, bucket.reserve(0L));
+        assertEquals(0L, bucket.reserve(0L));
+        assertEquals(0L, bucket.reserve(0L));
+        assertEquals(100 * MS, bucket.reserve(0L));
+    }
+
+    @Test
+    public void testUnlimited() {
+        TokenBucket bucket = new TokenBucket(0.0, 1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0L, bucket.reserve(0L));
+        }
+    }
+}
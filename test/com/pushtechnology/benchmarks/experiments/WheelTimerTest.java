@@ -0,0 +1,89 @@
+package com.pushtechnology.benchmarks.experiments;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pushtechnology.benchmarks.monitoring.TimingRecorder;
+
+public class WheelTimerTest {
+
+    @Test(timeout = 30000)
+    public void testPeriodicTasks() throws Exception {
+        TimingRecorder lag = new TimingRecorder();
+        WheelTimer timer = new WheelTimer(2, 1, lag);
+        final CountDownLatch runs = new CountDownLatch(100);
+        for (int i = 0; i < 10; i++) {
+            timer.schedule(new WheelTimer.Task() {
+                @Override
+                public void run() {
+                    runs.countDown();
+                }
+            }, i, 5);
+        }
+        assertTrue(runs.await(10, TimeUnit.SECONDS));
+        timer.stop();
+        assertTrue(lag.getAccumulatedHistogram().getTotalCount() >= 100L);
+    }
+
+    @Test(timeout = 30000)
+    public void testDelayBeyondOneTurnOfTheWheel() throws Exception {
+        WheelTimer timer = new WheelTimer(1, 1, new TimingRecorder());
+        final CountDownLatch run = new CountDownLatch(1);
+        final long scheduled = System.nanoTime();
+        timer.schedule(new WheelTimer.Task() {
+            @Override
+            public void run() {
+                run.countDown();
+                cancel();
+            }
+        }, 1500, 10000);
+        assertTrue(run.await(10, TimeUnit.SECONDS));
+        timer.stop();
+        assertTrue(System.nanoTime() - scheduled
+                >= TimeUnit.MILLISECONDS.toNanos(1500));
+    }
+
+    @Test(timeout = 30000)
+    public void testCancel() throws Exception {
+        WheelTimer timer = new WheelTimer(1, 1, new TimingRecorder());
+        final AtomicInteger runs = new AtomicInteger();
+        timer.schedule(new WheelTimer.Task() {
+            @Override
+            public void run() {
+                if (runs.incrementAndGet() == 3) {
+                    cancel();
+                }
+            }
+        }, 0, 2);
+        Thread.sleep(200);
+        timer.stop();
+        assertEquals(3, runs.get());
+    }
+
+    @Test(timeout = 30000)
+    public void testOnceReschedulingItself() throws Exception {
+        final WheelTimer timer = new WheelTimer(2, 1, new TimingRecorder());
+        final CountDownLatch runs = new CountDownLatch(5);
+        timer.schedule(new WheelTimer.Task() {
+            @Override
+            public void run() {
+                runs.countDown();
+                if (runs.getCount() > 0) {
+                    timer.schedule(this, 3);
+                }
+            }
+        }, 0);
+        assertTrue(runs.await(10, TimeUnit.SECONDS));
+        timer.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads() {
+        new WheelTimer(0, 1, new TimingRecorder());
+    }
+}
@@ -0,0 +1,46 @@
+package com.pushtechnology.benchmarks.monitoring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.junit.Test;
+
+public class LatencyLogWriterTest {
+
+    @Test
+    public void testWritesIntervalsAddedBeforeClose()
+            throws IOException, InterruptedException {
+        File file = File.createTempFile("monitor", ".hlog");
+        file.deleteOnExit();
+        LatencyLogWriter writer =
+                new LatencyLogWriter(file.getPath(), 1000L);
+        writer.start();
+        Histogram interval = new Histogram(1000000L, 3);
+        long total = 0;
+        for (int i = 0; i < 10; i++) {
+            interval.reset();
+            interval.setStartTimeStamp(1000L + i * 100L);
+            interval.setEndTimeStamp(1100L + i * 100L);
+            interval.recordValue(100L * (i + 1));
+            interval.recordValue(50L);
+            writer.add(interval);
+            total += 2;
+        }
+        writer.close();
+
+        HistogramLogReader reader = new HistogramLogReader(file);
+        long read = 0;
+        long maxValue = 0;
+        Histogram logged;
+        while ((logged = (Histogram) reader.nextIntervalHistogram()) != null) {
+            read += logged.getTotalCount();
+            maxValue = Math.max(maxValue, logged.getMaxValue());
+        }
+        assertEquals(total, read);
+        assertEquals(1000L, maxValue);
+    }
+}
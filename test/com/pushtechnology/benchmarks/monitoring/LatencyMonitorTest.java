@@ -0,0 +1,96 @@
+package com.pushtechnology.benchmarks.monitoring;
+
+import static org.junit.Assert.*;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class LatencyMonitorTest {
+
+    @Test
+    public void test() {
+        LatencyMonitor monitor = new LatencyMonitor();
+        monitor.recordLatencyValue(1000);
+        assertEquals(0, monitor.getIntervalHistogram().getHistogram()
+                .getTotalCount());
+        monitor.warmupComplete();
+        monitor.recordLatencyValue(1000);
+        monitor.recordLatencyValue(2000);
+        LatencyMonitor.PeriodicLatencyHistogram interval =
+                monitor.getIntervalHistogram();
+        assertEquals(2, interval.getHistogram().getTotalCount());
+        // tagged by the warmup state at the start of the interval
+        assertTrue(interval.isWarmup());
+        interval = monitor.getIntervalHistogram();
+        assertEquals(0, interval.getHistogram().getTotalCount());
+        assertFalse(interval.isWarmup());
+        monitor.recordLatencyValue(3000);
+        assertEquals(3, monitor.getAccumulatedHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testWindow() {
+        LatencyMonitor monitor = new LatencyMonitor();
+        LatencyMonitor.LatencyWindow window = monitor.openWindow();
+        LatencyMonitor.LatencyWindow other = monitor.openWindow();
+        monitor.warmupComplete();
+        monitor.recordLatencyValue(1000);
+        // only ended intervals are in the window
+        assertEquals(0, window.take().getTotalCount());
+        assertEquals(1, monitor.getIntervalHistogram().getHistogram()
+                .getTotalCount());
+        monitor.recordLatencyValue(2000);
+        monitor.getIntervalHistogram();
+        assertEquals(2, window.take().getTotalCount());
+        assertEquals(0, window.take().getTotalCount());
+        // windows do not take from each other
+        assertEquals(2, other.take().getTotalCount());
+    }
+
+    @Test
+    public void testRemoteValues() {
+        LatencyMonitor monitor = new LatencyMonitor();
+        Histogram remote = new Histogram(3);
+        remote.recordValue(5000);
+        remote.recordValue(6000);
+        monitor.addRemoteValues(remote);
+        assertEquals(2, monitor.getIntervalHistogram().getHistogram()
+                .getTotalCount());
+        assertEquals(0, monitor.getIntervalHistogram().getHistogram()
+                .getTotalCount());
+        assertEquals(2, monitor.getAccumulatedHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testMergesThreads() throws InterruptedException {
+        final LatencyMonitor monitor = new LatencyMonitor();
+        monitor.warmupComplete();
+        final int threads = 4;
+        final int values = 100000;
+        Thread[] recorders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            recorders[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int v = 1; v <= values; v++) {
+                        monitor.recordLatencyValue(v);
+                    }
+                }
+            };
+            recorders[i].start();
+        }
+        long total = 0;
+        boolean recording = true;
+        while (recording) {
+            recording = false;
+            for (Thread recorder : recorders) {
+                recording |= recorder.isAlive();
+            }
+            total += monitor.getIntervalHistogram().getHistogram()
+                    .getTotalCount();
+        }
+        total += monitor.getIntervalHistogram().getHistogram()
+                .getTotalCount();
+        assertEquals(threads * values, total);
+    }
+}
@@ -0,0 +1,62 @@
+package com.pushtechnology.benchmarks.monitoring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class MappedSampleRecorderTest {
+
+    @Test
+    public void test() throws IOException {
+        File file = File.createTempFile("monitor", ".samples");
+        file.deleteOnExit();
+        MappedSampleRecorder recorder =
+                new MappedSampleRecorder(file, 1000L, 2000L,
+                        new String[] {"ServerClients.Count"},
+                        new String[] {"warmup", "soak"});
+        ByteBuffer sample = ByteBuffer.allocate(MonitorSample.recordSize(1));
+        // enough samples to need more than one mapped chunk
+        int samples = 5000;
+        for (int i = 0; i < samples; i++) {
+            MonitorSample.putLong(sample, MonitorSample.ELAPSED_MS, i);
+            MonitorSample.putDouble(sample, MonitorSample.CPU, Double.NaN);
+            MonitorSample.putLong(sample, MonitorSample.HEAP_USED,
+                    1024L * 1024L);
+            MonitorSample.putLong(sample, MonitorSample.SERVER_HEAP_USED,
+                    MonitorSample.NOT_AVAILABLE);
+            MonitorSample.putLong(sample, MonitorSample.SERVER_OLD_GC_COUNT,
+                    MonitorSample.NOT_AVAILABLE);
+            MonitorSample.putLong(sample, MonitorSample.SERVER_THREADS, 42L);
+            MonitorSample.putLong(sample, MonitorSample.PHASE,
+                    i == 0 ? MonitorSample.NOT_AVAILABLE : 1L);
+            MonitorSample.putLong(sample, MonitorSample.FIELD_COUNT, i * 2L);
+            recorder.append(sample);
+        }
+        recorder.close();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SampleCsvConverter.convert(file, new PrintStream(bytes));
+        String[] lines = bytes.toString().split("\n");
+        assertEquals(samples + 2, lines.length);
+        assertTrue(lines[0].contains("currentTimeMillis: 1000 nanoTime: 2000"));
+        assertTrue(lines[1].startsWith("ElapsedTimeMS,"));
+        assertTrue(lines[1].endsWith(", ServerClients.Count"));
+        assertEquals("N/A", lines[2].split(", ")[MonitorSample.PHASE]);
+        String[] columns = lines[2 + 4999].split(", ");
+        assertEquals("soak", columns[MonitorSample.PHASE]);
+        assertEquals("4999", columns[MonitorSample.ELAPSED_MS]);
+        assertEquals("N/A", columns[MonitorSample.CPU]);
+        assertEquals("1.0000", columns[MonitorSample.HEAP_USED]);
+        assertEquals("N/A", columns[MonitorSample.SERVER_HEAP_USED]);
+        assertEquals("42", columns[MonitorSample.SERVER_THREADS]);
+        assertEquals("N/A", columns[MonitorSample.SERVER_OLD_GC_COUNT]);
+        assertEquals(MonitorSample.FIELD_COUNT + 1, columns.length);
+        assertEquals("9998", columns[MonitorSample.FIELD_COUNT]);
+    }
+}
@@ -0,0 +1,46 @@
+package com.pushtechnology.benchmarks.publishers;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+public class BroadcastRunnerTest {
+
+    @Test
+    public void testWaitUntilOutlastsEarlyWakes() throws InterruptedException {
+        final Thread waiter = Thread.currentThread();
+        final Thread waker = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    LockSupport.unpark(waiter);
+                    try {
+                        Thread.sleep(1L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        waker.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                final long due = System.nanoTime() + 5000000L;
+                BroadcastRunner.waitUntil(due);
+                assertTrue(System.nanoTime() >= due);
+            }
+        } finally {
+            waker.interrupt();
+            waker.join();
+        }
+    }
+
+    @Test
+    public void testWaitUntilPastDeadline() {
+        final long due = System.nanoTime() - 1000000L;
+        BroadcastRunner.waitUntil(due);
+        assertTrue(System.nanoTime() >= due);
+    }
+}
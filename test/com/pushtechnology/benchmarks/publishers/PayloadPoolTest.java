@@ -0,0 +1,101 @@
+package com.pushtechnology.benchmarks.publishers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PayloadPoolTest {
+
+    @Test
+    public void testZeros() {
+        PayloadPool pool = new PayloadPool(PayloadConfiguration.ZEROS, 100,
+                new Random(1));
+        byte[] payload = pool.next();
+        assertEquals(100, payload.length);
+        assertArrayEquals(new byte[100], payload);
+        assertSame(payload, pool.next());
+    }
+
+    @Test
+    public void testRandomCycles() {
+        PayloadPool pool = new PayloadPool(new PayloadConfiguration(
+                PayloadMode.RANDOM, 4, 0.0, null, null, 0.0), 100,
+                new Random(1));
+        byte[] first = pool.next();
+        assertEquals(100, first.length);
+        assertFalse(Arrays.equals(new byte[100], first));
+        for (int i = 1; i < 4; i++) {
+            assertEquals(100, pool.next().length);
+        }
+        assertSame(first, pool.next());
+    }
+
+    @Test
+    public void testLognormalMedian() {
+        PayloadPool pool = new PayloadPool(new PayloadConfiguration(
+                PayloadMode.LOGNORMAL, 1001, 1.0, null, null, 0.0), 100,
+                new Random(1));
+        int[] sizes = new int[pool.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = pool.next().length;
+        }
+        Arrays.sort(sizes);
+        int median = sizes[sizes.length / 2];
+        assertTrue("median " + median, median > 85 && median < 115);
+        assertTrue(sizes[0] >= 1);
+        assertTrue(sizes[sizes.length - 1] <= 1600);
+    }
+
+    @Test
+    public void testHistogram() throws IOException {
+        File file = File.createTempFile("sizes", ".txt");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write("# size count\n10 1\n20 0\n30,3\n");
+        writer.close();
+        PayloadPool pool = new PayloadPool(
+                PayloadConfiguration.fromHistogramFile(1000, file.getPath()),
+                100, new Random(1));
+        int tens = 0;
+        for (int i = 0; i < pool.size(); i++) {
+            int size = pool.next().length;
+            assertTrue("size " + size, size == 10 || size == 30);
+            if (size == 10) {
+                tens++;
+            }
+        }
+        assertTrue("tens " + tens, tens > 200 && tens < 300);
+    }
+
+    @Test
+    public void testRecordChurn() {
+        PayloadPool pool = new PayloadPool(new PayloadConfiguration(
+                PayloadMode.RECORD, 100, 0.0, null, null, 0.25), 200,
+                new Random(1));
+        String previous = new String(pool.next());
+        assertTrue(previous.startsWith("{\"f0\":\""));
+        assertTrue(previous.endsWith("\"}"));
+        int changed = 0;
+        int fields = previous.split(",").length;
+        for (int i = 1; i < pool.size(); i++) {
+            String record = new String(pool.next());
+            assertEquals(previous.length(), record.length());
+            String[] before = previous.split(",");
+            String[] after = record.split(",");
+            for (int f = 0; f < fields; f++) {
+                if (!before[f].equals(after[f])) {
+                    changed++;
+                }
+            }
+            previous = record;
+        }
+        double churn = changed / (double) (fields * (pool.size() - 1));
+        assertTrue("churn " + churn, churn > 0.15 && churn < 0.35);
+    }
+}
@@ -0,0 +1,139 @@
+package com.pushtechnology.benchmarks.publishers;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PublishTimingWheelTest {
+    private static final long TICK = 1000000L;
+    private static final long INTERVAL = 1000000000L;
+
+    private static final class CountingPublication implements
+            PublishTimingWheel.Publication {
+        private final int[] counts;
+
+        CountingPublication(int topics) {
+            counts = new int[topics];
+        }
+
+        @Override
+        public void publish(int topicIndex) {
+            counts[topicIndex]++;
+        }
+    }
+
+    @Test
+    public void testUniform() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.UNIFORM, new Random(1));
+        wheel.setRate(10, INTERVAL);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, wheel.add(0L));
+        }
+        CountingPublication publication = new CountingPublication(10);
+        for (long now = 0; now < 10 * INTERVAL; now += TICK) {
+            wheel.advance(now, true, publication);
+        }
+        for (int count : publication.counts) {
+            assertTrue("count " + count, count >= 99 && count <= 101);
+        }
+        assertEquals(0, wheel.dropped());
+        // advanced every tick, so never more than a tick late
+        assertTrue(wheel.slipHistogram().getMaxValue() < TICK);
+        assertEquals(TICK * (10 * INTERVAL / TICK), wheel.nextTickNanos());
+    }
+
+    @Test
+    public void testNegativeNanoTime() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.UNIFORM, new Random(1));
+        wheel.setRate(10, INTERVAL);
+        final long start = -5 * INTERVAL - TICK / 2;
+        wheel.add(start);
+        CountingPublication publication = new CountingPublication(1);
+        for (long now = start; now < start + 10 * INTERVAL; now += TICK) {
+            wheel.advance(now, true, publication);
+        }
+        int count = publication.counts[0];
+        assertTrue("count " + count, count >= 99 && count <= 101);
+        assertEquals(0, wheel.dropped());
+        assertTrue(wheel.slipHistogram().getMaxValue() < TICK);
+    }
+
+    @Test
+    public void testShortStallCatchesUp() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.UNIFORM, new Random(1));
+        wheel.setRate(10, INTERVAL);
+        wheel.add(0L);
+        CountingPublication publication = new CountingPublication(1);
+        wheel.advance(0L, true, publication);
+        wheel.advance(INTERVAL / 2, true, publication);
+        assertEquals(0, wheel.dropped());
+        assertTrue(publication.counts[0] >= 5);
+    }
+
+    @Test
+    public void testPoisson() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.POISSON, new Random(1));
+        wheel.setRate(100, INTERVAL);
+        wheel.add(0L);
+        CountingPublication publication = new CountingPublication(1);
+        for (long now = 0; now < 100 * INTERVAL; now += TICK) {
+            wheel.advance(now, true, publication);
+        }
+        int count = publication.counts[0];
+        assertTrue("count " + count, count > 9500 && count < 10500);
+        assertEquals(count, wheel.published());
+    }
+
+    @Test
+    public void testStallDropsBacklog() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.UNIFORM, new Random(1));
+        wheel.setRate(10, INTERVAL);
+        wheel.add(0L);
+        CountingPublication publication = new CountingPublication(1);
+        wheel.advance(0L, true, publication);
+        wheel.advance(3 * INTERVAL, true, publication);
+        assertTrue(wheel.dropped() >= 19);
+        assertTrue(publication.counts[0] <= 2);
+    }
+
+    @Test
+    public void testNoPublishWithoutClients() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.UNIFORM, new Random(1));
+        wheel.setRate(10, INTERVAL);
+        wheel.add(0L);
+        CountingPublication publication = new CountingPublication(1);
+        for (long now = 0; now < INTERVAL; now += TICK) {
+            wheel.advance(now, false, publication);
+        }
+        assertEquals(0, publication.counts[0]);
+        assertEquals(0, wheel.dropped());
+    }
+
+    @Test
+    public void testRateFactor() {
+        PublishTimingWheel wheel = new PublishTimingWheel(TICK, 64, INTERVAL,
+                PublishPacing.UNIFORM, new Random(1));
+        wheel.setRate(10, INTERVAL);
+        wheel.add(0L);
+        wheel.add(0L);
+        wheel.setRateFactor(0, 1.5);
+        wheel.setRateFactor(1, 0.5);
+        assertEquals(2.0, wheel.rateFactorSum(), 1e-9);
+        CountingPublication publication = new CountingPublication(2);
+        for (long now = 0; now < 10 * INTERVAL; now += TICK) {
+            wheel.advance(now, true, publication);
+        }
+        assertTrue("hot " + publication.counts[0],
+                publication.counts[0] >= 148 && publication.counts[0] <= 152);
+        assertTrue("cold " + publication.counts[1],
+                publication.counts[1] >= 48 && publication.counts[1] <= 52);
+    }
+}
@@ -0,0 +1,50 @@
+package com.pushtechnology.benchmarks.publishers;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import com.pushtechnology.diffusion.api.topic.Topic;
+
+public class TopicArrayTest {
+
+    private static Topic newTopic() {
+        return (Topic) Proxy.newProxyInstance(Topic.class.getClassLoader(),
+                new Class<?>[] {Topic.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void testGrow() {
+        TopicArray topics = new TopicArray();
+        Topic[] added = new Topic[1000];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = newTopic();
+            topics.add(added[i]);
+        }
+        assertEquals(added.length, topics.size());
+        Topic[] array = topics.array();
+        assertTrue(array.length >= added.length);
+        for (int i = 0; i < added.length; i++) {
+            assertSame(added[i], array[i]);
+            assertSame(added[i], topics.get(i));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        TopicArray topics = new TopicArray();
+        topics.add(newTopic());
+        topics.clear();
+        assertEquals(0, topics.size());
+    }
+}
@@ -0,0 +1,73 @@
+package com.pushtechnology.benchmarks.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DistributionTest {
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void testExponentialMean() {
+        assertEquals(30.0, mean(Distribution.parse("exponential:30")), 1.0);
+    }
+
+    @Test
+    public void testParetoMinimumAndMean() {
+        Distribution pareto = Distribution.parse("pareto:3,10");
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++) {
+            assertTrue(pareto.sample(random) >= 10.0);
+        }
+        // shape * minimum / (shape - 1)
+        assertEquals(15.0, mean(pareto), 0.5);
+    }
+
+    @Test
+    public void testEmpiricalStaysWithinValues() {
+        Distribution empirical = Distribution.parse("empirical:60, 5, 20");
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++) {
+            double value = empirical.sample(random);
+            assertTrue(value >= 5.0 && value <= 60.0);
+        }
+        assertEquals(5.0, Distribution.parse("empirical:5").sample(random),
+                0.0);
+    }
+
+    @Test
+    public void testSameSeedSameSamples() {
+        Distribution exponential = Distribution.parse("exponential:1");
+        Random a = new Random(42);
+        Random b = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(exponential.sample(a), exponential.sample(b), 0.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDistribution() {
+        Distribution.parse("normal:1,2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongParameterCount() {
+        Distribution.parse("pareto:1.5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeParameter() {
+        Distribution.parse("exponential:-1");
+    }
+
+    private static double mean(Distribution distribution) {
+        Random random = new Random(7);
+        double sum = 0.0;
+        for (int i = 0; i < SAMPLES; i++) {
+            sum += distribution.sample(random);
+        }
+        return sum / SAMPLES;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pushtechnology.benchmarks.util;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class TraceWriterTest {
+
+    private static File newTrace() throws IOException {
+        File file = File.createTempFile("updates", ".trace");
+        file.deleteOnExit();
+        TraceWriter.topicsFile(file).deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = newTrace();
+        TraceWriter writer = new TraceWriter(file);
+        // enough updates to flush the write buffer several times
+        int updates = 10000;
+        for (int i = 0; i < updates; i++) {
+            writer.append("ROOT/" + (i % 3), 5000L + i * 10L, 100 + i);
+        }
+        writer.close();
+
+        TraceReader reader = new TraceReader(file);
+        assertEquals(updates, reader.getRecordCount());
+        assertEquals(3, reader.getTopicCount());
+        for (int i = 0; i < updates; i++) {
+            assertTrue(reader.next());
+            assertEquals(i % 3, reader.topicId());
+            assertEquals(i * 10L, reader.timeNanos());
+            assertEquals(100 + i, reader.size());
+        }
+        assertFalse(reader.next());
+        reader.rewind();
+        assertTrue(reader.next());
+        assertEquals(0L, reader.timeNanos());
+        reader.close();
+
+        BufferedReader names =
+                new BufferedReader(new FileReader(TraceWriter.topicsFile(file)));
+        assertEquals("ROOT/0", names.readLine());
+        assertEquals("ROOT/1", names.readLine());
+        assertEquals("ROOT/2", names.readLine());
+        assertNull(names.readLine());
+        names.close();
+    }
+
+    @Test
+    public void testUnclosedTrace() throws IOException {
+        File file = newTrace();
+        TraceWriter writer = new TraceWriter(file);
+        writer.append("a", 0L, 1);
+        writer.append("b", 1L, 2);
+        // too big for the buffer, so the first records are flushed
+        for (int i = 0; i < 5000; i++) {
+            writer.append("c", 2L, 3);
+        }
+        // simulate a crash, keeping what was flushed
+        File copy = newTrace();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        byte[] bytes = new byte[(int) in.length()];
+        in.readFully(bytes);
+        in.close();
+        RandomAccessFile out = new RandomAccessFile(copy, "rw");
+        out.write(bytes);
+        out.close();
+        writer.close();
+
+        TraceReader reader = new TraceReader(copy);
+        assertEquals((bytes.length - TraceWriter.HEADER_SIZE)
+                / TraceWriter.RECORD_SIZE, reader.getRecordCount());
+        assertTrue(reader.getRecordCount() > 2);
+        assertEquals(3, reader.getTopicCount());
+        reader.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotATrace() throws IOException {
+        File file = newTrace();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.write(new byte[TraceWriter.HEADER_SIZE]);
+        out.close();
+        new TraceReader(file);
+    }
+}
@@ -0,0 +1,58 @@
+package com.pushtechnology.benchmarks.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ZipfTest {
+
+    @Test
+    public void testRateFactorsUnskewed() {
+        for (double factor : Zipf.rateFactors(10, 0.0)) {
+            assertEquals(1.0, factor, 1e-9);
+        }
+    }
+
+    @Test
+    public void testRateFactorsSkewed() {
+        double[] factors = Zipf.rateFactors(100, 1.0);
+        double sum = 0.0;
+        for (int i = 0; i < factors.length; i++) {
+            sum += factors[i];
+            if (i > 0) {
+                assertTrue(factors[i] < factors[i - 1]);
+            }
+        }
+        assertEquals(100.0, sum, 1e-9);
+        assertEquals(factors[0] / 2, factors[1], 1e-9);
+    }
+
+    @Test
+    public void testSampleDistinctAndSorted() {
+        Random random = new Random(1);
+        for (int run = 0; run < 100; run++) {
+            int[] items = Zipf.sample(50, 10, 1.0, random);
+            assertEquals(10, items.length);
+            for (int i = 1; i < items.length; i++) {
+                assertTrue(items[i] > items[i - 1]);
+            }
+        }
+        assertEquals(5, Zipf.sample(5, 10, 1.0, random).length);
+        assertEquals(0, Zipf.sample(0, 10, 1.0, random).length);
+    }
+
+    @Test
+    public void testSampleFavoursHotItems() {
+        Random random = new Random(1);
+        int[] counts = new int[100];
+        for (int run = 0; run < 1000; run++) {
+            for (int item : Zipf.sample(100, 5, 1.0, random)) {
+                counts[item]++;
+            }
+        }
+        assertTrue("hot " + counts[0], counts[0] > 500);
+        assertTrue("cold " + counts[99], counts[99] < 100);
+    }
+}